@@ -0,0 +1,152 @@
+package io.canalstreet.orderbook.data;
+
+/**
+ * Scaled integer arithmetic of prices and sizes: a value at scale s is held as value * 10^s in a long.
+ */
+public final class Decimals {
+
+    public static final int MAX_SCALE = 18;
+    // Longest decimal written, sign, the 19 digits of a long and the point
+    public static final int MAX_DECIMAL_BYTES = 21;
+    // Digits of the longest decimal which always fits a long
+    private static final int MAX_DIGITS = 18;
+    private static final long[] POW10 = new long[MAX_SCALE + 1];
+    private static final double[] POW10_DOUBLE = new double[MAX_SCALE + 1];
+    static {
+        POW10[0] = 1;
+        POW10_DOUBLE[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+            POW10_DOUBLE[i] = POW10[i];
+        }
+    }
+
+    private Decimals() {
+    }
+
+    public static long pow10(int scale) {
+        return POW10[scale];
+    }
+
+    public static double pow10Double(int scale) {
+        return POW10_DOUBLE[scale];
+    }
+
+    /**
+     * Parses a plain decimal such as "-12.3450" exactly into a long scaled by 10^scale,
+     * rounding half up digits beyond the scale.
+     * @throws NumberFormatException if it is not a plain decimal
+     * @throws ArithmeticException if the scaled value does not fit a long
+     */
+    public static long parse(CharSequence decimal, int scale) {
+        char[] chars = decimal.toString().toCharArray();
+        return parse(chars, 0, chars.length, scale);
+    }
+
+    /**
+     * Parses the plain decimal held in chars[from, to) like {@link #parse(CharSequence, int)},
+     * without allocating, as decoders read values in place from their frames.
+     */
+    public static long parse(char[] chars, int from, int to, int scale) {
+        int pos = from;
+        boolean negative = pos < to && chars[pos] == '-';
+        if (negative) pos++;
+        long value = 0;
+        // Digits accumulated into the value, up to MAX_DIGITS of them cannot overflow
+        int kept = 0;
+        int digits = 0;
+        char c;
+        while (pos < to && (c = chars[pos]) >= '0' && c <= '9') {
+            value = kept++ < MAX_DIGITS ? value * 10 + (c - '0') : Math.addExact(Math.multiplyExact(value, 10), c - '0');
+            pos++;
+            digits++;
+        }
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (pos < to && chars[pos] == '.') {
+            pos++;
+            while (pos < to && (c = chars[pos]) >= '0' && c <= '9') {
+                if (fractionDigits < scale) {
+                    value = kept++ < MAX_DIGITS ? value * 10 + (c - '0') : Math.addExact(Math.multiplyExact(value, 10), c - '0');
+                } else if (fractionDigits == scale) {
+                    roundUp = c >= '5';
+                }
+                fractionDigits++;
+                pos++;
+                digits++;
+            }
+        }
+        if (pos != to || digits == 0) {
+            throw new NumberFormatException("Not a plain decimal: " + new String(chars, from, to - from));
+        }
+        if (fractionDigits < scale) {
+            int padding = scale - fractionDigits;
+            value = kept + padding <= MAX_DIGITS ? value * POW10[padding] : Math.multiplyExact(value, POW10[padding]);
+        } else if (roundUp) {
+            value = Math.addExact(value, 1);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Writes the scaled value as the ASCII bytes of a plain decimal without trailing fraction zeros,
+     * the inverse of {@link #parse(char[], int, int, int)}, without allocating. Every long is
+     * written exactly, Long.MIN_VALUE included.
+     * @return the position after the last byte written, at most {@link #MAX_DECIMAL_BYTES} on
+     * @throws IllegalArgumentException for a scale outside 0 to {@link #MAX_SCALE}
+     */
+    public static int putDecimal(long scaled, int scale, byte[] out, int position) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Scale " + scale + " not within 0 and " + MAX_SCALE);
+        }
+        if (scaled < 0) out[position++] = '-';
+        // Units and fraction keep the sign of the value, the digits are taken off their remainders
+        long unit = POW10[scale];
+        long units = scaled / unit;
+        long fraction = scaled % unit;
+        int digits = 1;
+        for (long rest = units / 10; rest != 0; rest /= 10) digits++;
+        position = putDigits(units, digits, out, position);
+        if (fraction != 0) {
+            out[position++] = '.';
+            digits = scale;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            position = putDigits(fraction, digits, out, position);
+        }
+        return position;
+    }
+
+    /**
+     * Writes the last digits of the value, zero padded.
+     */
+    private static int putDigits(long value, int digits, byte[] out, int position) {
+        for (int i = digits - 1; i >= 0; i--) {
+            out[position + i] = (byte) ('0' + Math.abs(value % 10));
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    /**
+     * Appends the scaled value as a plain decimal with exactly scale fraction digits.
+     */
+    public static StringBuilder append(StringBuilder out, long scaled, int scale) {
+        if (scaled < 0) {
+            out.append('-');
+            scaled = -scaled;
+        }
+        long unit = POW10[scale];
+        out.append(scaled / unit);
+        if (scale > 0) {
+            long fraction = scaled % unit;
+            out.append('.');
+            for (int i = scale - 1; i >= 0; i--) {
+                out.append((char) ('0' + fraction / POW10[i] % 10));
+            }
+        }
+        return out;
+    }
+}
@@ -1,8 +1,10 @@
 package io.canalstreet.orderbook.data;
 
-import io.canalstreet.orderbook.md.kuc.KucMarketDataService;
+import io.canalstreet.orderbook.md.MarketDataService;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.experimental.SuperBuilder;
 
 import java.util.HashMap;
@@ -12,14 +14,23 @@ import java.util.Map;
 @SuperBuilder(toBuilder = true)
 public class Instrument {
 
-    private long id;
+    /**
+     * Dense id assigned by the {@link InstrumentRegistry}, -1 until registered.
+     */
+    @Builder.Default
+    @EqualsAndHashCode.Exclude
+    private int id = -1;
 
     private String symbol;
 
     private String fullName;
 
-    private KucMarketDataService mdFeed;
+    // Neither the feed nor the underlying are part of the instrument's value
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private MarketDataService mdFeed;
 
+    @EqualsAndHashCode.Exclude
     private Instrument underlying;
 
     @Builder.Default
@@ -41,23 +52,43 @@ public class Instrument {
 
     private float pegIndexPrice;
 
-    public int qtyToInt(double quantity) {
-        return (int)Math.round(quantity * Math.pow(10, quantityScale));
+    /**
+     * Levels per side of the depth snapshot topic feeding a ring book, 5 or 50 on KuCoin.
+     */
+    @Builder.Default
+    private int snapshotDepth = 5;
+
+    /**
+     * Size scaled by 10^quantityScale, rounded to the nearest unit.
+     */
+    public long qtyToInt(double quantity) {
+        return Math.round(quantity * Decimals.pow10Double(quantityScale));
     }
 
-    public int qtyToDouble(long quantity) {
-        return (int)Math.round(quantity / Math.pow(10, quantityScale));
+    public double qtyToDouble(long quantity) {
+        return quantity / Decimals.pow10Double(quantityScale);
+    }
+
+    /**
+     * Exact scaled size of a plain decimal, as sent by venues.
+     */
+    public long parseQty(CharSequence quantity) {
+        return Decimals.parse(quantity, quantityScale);
     }
 
     public long priceToInt(double price) {
-        return Math.round(price * Math.pow(10, priceScale));
+        return Math.round(price * Decimals.pow10Double(priceScale));
+    }
+
+    public double priceToDouble(long price) {
+        return price / Decimals.pow10Double(priceScale);
     }
 
-    public long priceToDouble(long price) {
-        return Math.round(price / Math.pow(10, priceScale));
+    public long parsePrice(CharSequence price) {
+        return Decimals.parse(price, priceScale);
     }
 
     public int tickSizeInt() {
-        return (int)Math.round(tickSize * Math.pow(10, priceScale));
+        return (int) Math.round(tickSize * Decimals.pow10Double(priceScale));
     }
 }
\ No newline at end of file
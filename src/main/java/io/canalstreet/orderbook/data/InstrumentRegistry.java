@@ -0,0 +1,89 @@
+package io.canalstreet.orderbook.data;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense int ids of instruments, assigned once per venue and symbol in registration order and
+ * stored in {@link Instrument#getId()}, so that per instrument state lives in arrays indexed by
+ * id, see {@link InstrumentTable}, instead of maps hashing instruments on the hot path.
+ * The application's registry is injected into the feed and the components indexing its books,
+ * a feed created on its own gets a registry of its own. Instances registered under the same venue
+ * and symbol share its id, an instance holds the id of one registry only.
+ */
+@Component
+public class InstrumentRegistry {
+
+    private final Map<String, Instrument> byKey = new ConcurrentHashMap<>();
+    private volatile Instrument[] instruments = new Instrument[64];
+    private volatile int size;
+
+    /**
+     * Assigns the instrument the id of its venue and symbol, a new one when unknown.
+     * @return the id
+     * @throws IllegalArgumentException if the instance holds an id assigned under another key or by another registry
+     */
+    public synchronized int register(String venue, Instrument instrument) {
+        String key = key(venue, instrument.getSymbol());
+        Instrument known = byKey.get(key);
+        if (instrument.getId() >= 0 && (known == null || known.getId() != instrument.getId())) {
+            throw new IllegalArgumentException(instrument.getSymbol() + " holds the id " + instrument.getId() + " assigned elsewhere");
+        }
+        if (known != null) {
+            instrument.setId(known.getId());
+            return known.getId();
+        }
+        int id = size;
+        if (id == instruments.length) {
+            instruments = Arrays.copyOf(instruments, id * 2);
+        }
+        instrument.setId(id);
+        instruments[id] = instrument;
+        byKey.put(key, instrument);
+        size = id + 1;
+        return id;
+    }
+
+    /**
+     * First instrument registered with the id, or null.
+     */
+    public Instrument get(int id) {
+        // The array is replaced before the size grows
+        int count = size;
+        Instrument[] current = instruments;
+        return id >= 0 && id < count ? current[id] : null;
+    }
+
+    /**
+     * First instrument registered under the venue and symbol, or null.
+     */
+    public Instrument find(String venue, String symbol) {
+        return byKey.get(key(venue, symbol));
+    }
+
+    private static String key(String venue, String symbol) {
+        return venue + ':' + symbol;
+    }
+
+    /**
+     * Number of ids assigned, ids are below it.
+     */
+    public int size() {
+        return size;
+    }
+
+    public List<Instrument> getInstruments() {
+        int count = size;
+        Instrument[] current = instruments;
+        List<Instrument> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(current[i]);
+        }
+        return list;
+    }
+}
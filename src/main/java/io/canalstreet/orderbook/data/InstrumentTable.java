@@ -0,0 +1,92 @@
+package io.canalstreet.orderbook.data;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Values per instrument in an array indexed by the {@link InstrumentRegistry} id of the instrument.
+ * Reads are an array load without hashing or locking. Writes are serialized, each one ends with
+ * a volatile write of the arrays, so a reader seeing a value sees it fully constructed.
+ * Instruments must be registered before values are put for them, tables hold the ids of one registry.
+ */
+public class InstrumentTable<T> {
+    private volatile Instrument[] keys = new Instrument[16];
+    private volatile Object[] values = new Object[16];
+
+    /**
+     * Value of the instrument, null for none.
+     */
+    public T get(Instrument instrument) {
+        return get(instrument.getId());
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        Object[] current = values;
+        return id >= 0 && id < current.length ? (T) current[id] : null;
+    }
+
+    /**
+     * Instrument the value with the id was put for, null for none.
+     */
+    public Instrument getInstrument(int id) {
+        Instrument[] current = keys;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the instrument is not registered
+     */
+    public synchronized void put(Instrument instrument, T value) {
+        int id = instrument.getId();
+        if (id < 0) {
+            throw new IllegalArgumentException(instrument.getSymbol() + " is not registered");
+        }
+        Instrument[] newKeys = keys;
+        Object[] newValues = values;
+        if (id >= newValues.length) {
+            int length = Math.max(id + 1, newValues.length * 2);
+            newKeys = Arrays.copyOf(newKeys, length);
+            newValues = Arrays.copyOf(newValues, length);
+        }
+        newKeys[id] = value == null ? null : instrument;
+        newValues[id] = value;
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * @return the value already there, or null when the value was put
+     */
+    public synchronized T putIfAbsent(Instrument instrument, T value) {
+        T current = get(instrument);
+        if (current == null) put(instrument, value);
+        return current;
+    }
+
+    public synchronized T computeIfAbsent(Instrument instrument, Function<Instrument, T> factory) {
+        T current = get(instrument);
+        if (current == null) {
+            current = factory.apply(instrument);
+            put(instrument, current);
+        }
+        return current;
+    }
+
+    public void remove(Instrument instrument) {
+        if (instrument.getId() >= 0) put(instrument, null);
+    }
+
+    /**
+     * Visits the values in id order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<Instrument, T> action) {
+        Object[] currentValues = values;
+        Instrument[] currentKeys = keys;
+        for (int i = 0; i < Math.min(currentKeys.length, currentValues.length); i++) {
+            if (currentValues[i] != null && currentKeys[i] != null) action.accept(currentKeys[i], (T) currentValues[i]);
+        }
+    }
+}
@@ -10,6 +10,8 @@ import lombok.experimental.SuperBuilder;
 @SuperBuilder(toBuilder = true)
 public class PerpetualFuture extends Instrument {
 
+    // Changes while the instrument is in use
+    @EqualsAndHashCode.Exclude
     private double fundingRate;
 
 }
@@ -0,0 +1,438 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Seqlock publication shared by the book implementations: the version is odd while an
+ * update is in progress, readers retry until they copied the book at one even version,
+ * neither blocking the writer nor allocating.
+ * Top of book analytics are maintained from the top N levels of the updated side within the
+ * write section, so reading them costs a few field loads.
+ */
+public abstract class AbstractL2Book implements L2Book {
+    private static final VarHandle VERSION;
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(AbstractL2Book.class, "version", long.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    protected static final long NO_BID = Integer.MIN_VALUE;
+    protected static final long NO_ASK = Integer.MAX_VALUE;
+
+    protected final Instrument instrument;
+    protected final int l2depth;
+    private long initSequence = 0;
+    private long lastSequenceStart = 0;
+    private long lastSequenceEnd = 0;
+    private long version = 0;
+    // Write sections opened and not closed yet, only the outermost one moves the version
+    private int writeDepth;
+    // Top N levels per side, best first, indexed by side ordinal
+    private final long[][] topPrices;
+    private final long[][] topQuantities;
+    private final int[] topCounts = new int[2];
+    private long bidDepth;
+    private long askDepth;
+
+    protected AbstractL2Book(Instrument instrument, int l2depth) {
+        this.instrument = instrument;
+        this.l2depth = l2depth;
+        this.topPrices = new long[2][l2depth];
+        this.topQuantities = new long[2][l2depth];
+    }
+
+    /**
+     * Applies one level update, called inside the write section.
+     * @param quantity unsigned size, 0 removes the level
+     */
+    protected abstract void applyLevel(QuoteSide side, long price, long quantity);
+
+    /**
+     * Replaces the levels of a side, called inside the write section.
+     * @param quantities unsigned sizes, 0 for no level
+     */
+    protected abstract void replaceLevels(QuoteSide side, long[] prices, long[] quantities, int n);
+
+    /**
+     * Copies up to n best levels of a side, called inside a read section and so
+     * possibly on torn state, which must never fail but may return garbage.
+     */
+    protected abstract int readSide(QuoteSide side, long[] prices, long[] quantities, int n);
+
+    /**
+     * Removes all levels, called inside the write section.
+     */
+    protected abstract void clearLevels();
+
+    @Override
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return this.initSequence > 0;
+    }
+
+    @Override
+    public void add(QuoteSide side, long price, long quantity) {
+        add(side, price, quantity, 0, 0);
+    }
+
+    @Override
+    public void add(QuoteSide side, long price, long quantity, long sequenceStart, long sequenceEnd) {
+        beginWrite();
+        try {
+            updateLevel(side, price, Math.abs(quantity));
+            updateSequence(sequenceStart, sequenceEnd);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Sets one level and patches the analytics, called inside the write section, as by books
+     * whose levels are derived from finer state within their own write sections.
+     * @param quantity unsigned size, 0 removes the level
+     */
+    protected void updateLevel(QuoteSide side, long price, long quantity) {
+        long otherBest = side == BID ? getBestAsk() : getBestBid();
+        applyLevel(side, price, quantity);
+        updateAnalytics(side, price, quantity);
+        // A level crossing the other side's best removed the levels it crossed
+        if ((side == BID ? getBestAsk() : getBestBid()) != otherBest) updateAnalytics(side == BID ? ASK : BID);
+    }
+
+    /**
+     * Records the sequence range of the update, called inside the write section.
+     */
+    protected void updateSequence(long sequenceStart, long sequenceEnd) {
+        if (lastSequenceEnd == 0) initSequence = sequenceStart;
+        this.lastSequenceStart = sequenceStart;
+        this.lastSequenceEnd = sequenceEnd;
+    }
+
+    @Override
+    public void replaceTop(QuoteSide side, long[] prices, long[] quantities, int n, long sequence) {
+        QuoteSide other = side == BID ? ASK : BID;
+        beginWrite();
+        try {
+            long otherBest = other == BID ? getBestBid() : getBestAsk();
+            replaceLevels(side, prices, quantities, n);
+            updateAnalytics(side);
+            // The other side only changed if it lost crossed levels
+            if ((other == BID ? getBestBid() : getBestAsk()) != otherBest) updateAnalytics(other);
+            if (lastSequenceEnd == 0) initSequence = sequence;
+            this.lastSequenceStart = sequence;
+            this.lastSequenceEnd = sequence;
+        } finally {
+            endWrite();
+        }
+    }
+
+    @Override
+    public int reload(QuotesL2Event snapshot, QuotesL2UpdateCache updates) {
+        beginWrite();
+        try {
+            clearLevels();
+            replaceLevels(BID, snapshot.getPrices(BID), snapshot.getQuantities(BID), snapshot.getLevelCount(BID));
+            replaceLevels(ASK, snapshot.getPrices(ASK), snapshot.getQuantities(ASK), snapshot.getLevelCount(ASK));
+            updateAnalytics();
+            long sequence = snapshot.getSequenceEnd();
+            this.initSequence = sequence;
+            this.lastSequenceStart = sequence;
+            this.lastSequenceEnd = sequence;
+            // The replayed updates join this write section
+            return updates.replay(this, sequence);
+        } finally {
+            endWrite();
+        }
+    }
+
+    @Override
+    public void clear() {
+        beginWrite();
+        try {
+            clearLevels();
+            updateAnalytics();
+            this.initSequence = 0;
+            this.lastSequenceStart = 0;
+            this.lastSequenceEnd = 0;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Refreshes the analytics of both sides, called inside the write section.
+     */
+    protected void updateAnalytics() {
+        updateAnalytics(BID);
+        updateAnalytics(ASK);
+    }
+
+    /**
+     * A new size of a level already in the top N is patched in place in O(1) past finding it,
+     * anything else may move levels in or out and re-reads the side.
+     */
+    private void updateAnalytics(QuoteSide side, long price, long quantity) {
+        if (quantity > 0) {
+            int s = side.ordinal();
+            long[] prices = topPrices[s];
+            int count = topCounts[s];
+            // Branch free scan, the updated level is anywhere in the top
+            int found = -1;
+            for (int i = 0; i < count; i++) {
+                found = prices[i] == price ? i : found;
+            }
+            if (found >= 0) {
+                long[] quantities = topQuantities[s];
+                long delta = quantity - quantities[found];
+                quantities[found] = quantity;
+                if (side == BID) bidDepth += delta;
+                else askDepth += delta;
+                return;
+            }
+        }
+        updateAnalytics(side);
+    }
+
+    private void updateAnalytics(QuoteSide side) {
+        int s = side.ordinal();
+        long[] quantities = topQuantities[s];
+        int count = readSide(side, topPrices[s], quantities, l2depth);
+        long depth = 0;
+        for (int i = 0; i < count; i++) {
+            depth += quantities[i];
+        }
+        topCounts[s] = count;
+        if (side == BID) bidDepth = depth;
+        else askDepth = depth;
+    }
+
+    /**
+     * Opens a write section, a section opened within another one joins it.
+     */
+    protected void beginWrite() {
+        if (writeDepth++ == 0) {
+            VERSION.setOpaque(this, version + 1);
+            VarHandle.storeStoreFence();
+        }
+    }
+
+    protected void endWrite() {
+        if (--writeDepth == 0) {
+            VERSION.setRelease(this, version + 1);
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        long current;
+        while (((current = (long) VERSION.getAcquire(this)) & 1) != 0) {
+            Thread.onSpinWait();
+        }
+        return current;
+    }
+
+    @Override
+    public long readSnapshot(QuotesL2Snapshot snapshot) {
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                snapshot.bidCount = readSide(BID, snapshot.prices(BID), snapshot.quantities(BID), snapshot.getDepth());
+                snapshot.askCount = readSide(ASK, snapshot.prices(ASK), snapshot.quantities(ASK), snapshot.getDepth());
+                snapshot.sequence = lastSequenceEnd;
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before) {
+                    snapshot.version = before;
+                    return before;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public int readTop(QuoteSide side, long[] prices, long[] quantities, int n) {
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                int count = readSide(side, prices, quantities, n);
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before) {
+                    return count;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public long getBestBidSize() {
+        return getBestSize(BID);
+    }
+
+    @Override
+    public long getBestAskSize() {
+        return getBestSize(ASK);
+    }
+
+    private long getBestSize(QuoteSide side) {
+        int s = side.ordinal();
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                long quantity = topCounts[s] > 0 ? topQuantities[s][0] * side.sign() : 0;
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before) {
+                    return quantity;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public long readAnalytics(L2BookAnalytics analytics) {
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                boolean twoSided = topCounts[0] > 0 && topCounts[1] > 0;
+                long bid = topPrices[0][0];
+                long ask = topPrices[1][0];
+                long bidSize = topQuantities[0][0];
+                long askSize = topQuantities[1][0];
+                long bids = bidDepth;
+                long asks = askDepth;
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before) {
+                    analytics.version = before;
+                    analytics.bestBid = topCounts[0] > 0 ? bid : NO_BID;
+                    analytics.bestAsk = topCounts[1] > 0 ? ask : NO_ASK;
+                    analytics.bestBidSize = topCounts[0] > 0 ? bidSize : 0;
+                    analytics.bestAskSize = topCounts[1] > 0 ? askSize : 0;
+                    analytics.bidDepth = bids;
+                    analytics.askDepth = asks;
+                    analytics.mid = twoSided ? (bid + ask) / 2.0 : Double.NaN;
+                    analytics.microprice = twoSided ? microprice(bid, ask, bidSize, askSize) : Double.NaN;
+                    analytics.imbalance = imbalance(bids, asks);
+                    return before;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public double getMicroprice() {
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                boolean twoSided = topCounts[0] > 0 && topCounts[1] > 0;
+                long bid = topPrices[0][0];
+                long ask = topPrices[1][0];
+                long bidSize = topQuantities[0][0];
+                long askSize = topQuantities[1][0];
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before) {
+                    return twoSided ? microprice(bid, ask, bidSize, askSize) : Double.NaN;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public double getImbalance() {
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                long bids = bidDepth;
+                long asks = askDepth;
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before) {
+                    return imbalance(bids, asks);
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static double microprice(long bid, long ask, double bidSize, double askSize) {
+        return (bid * askSize + ask * bidSize) / (bidSize + askSize);
+    }
+
+    private static double imbalance(long bids, long asks) {
+        return bids + asks > 0 ? (double) (bids - asks) / (bids + asks) : Double.NaN;
+    }
+
+    @Override
+    public double getSweepPrice(QuoteSide side, long quantity) {
+        int s = side.ordinal();
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                double price = Double.NaN;
+                long remaining = quantity;
+                double notional = 0;
+                for (int i = 0; i < topCounts[s] && i < l2depth; i++) {
+                    long filled = Math.min(remaining, topQuantities[s][i]);
+                    notional += (double) filled * topPrices[s][i];
+                    remaining -= filled;
+                    if (remaining == 0) {
+                        price = notional / quantity;
+                        break;
+                    }
+                }
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before) {
+                    return price;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public List<float[]> getBids() {
+        return toLevels(BID);
+    }
+
+    @Override
+    public List<float[]> getAsks() {
+        return toLevels(ASK);
+    }
+
+    private List<float[]> toLevels(QuoteSide side) {
+        long[] prices = new long[l2depth + 1];
+        long[] quantities = new long[l2depth + 1];
+        int count = readTop(side, prices, quantities, prices.length);
+        List<float[]> levels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            levels.add(new float[]{ (float) instrument.priceToDouble(prices[i]), (float) instrument.qtyToDouble(quantities[i]) });
+        }
+        return levels;
+    }
+
+    @Override
+    public long getLastSequenceStart(){
+        return this.lastSequenceStart;
+    }
+
+    @Override
+    public long getLastSequenceEnd(){
+        return this.lastSequenceEnd;
+    }
+}
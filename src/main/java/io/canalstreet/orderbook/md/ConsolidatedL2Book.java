@@ -0,0 +1,248 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Decimals;
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Merged top N of the books of one underlying across venues. On each venue update only that
+ * venue's top N is diffed against its previous one and the differences are added into the
+ * aggregated levels, so reads cost the same as on a single venue book whatever the venue count.
+ * Venue books are rescaled to the consolidated instrument's price and quantity scales, which
+ * must be at least as fine as theirs. Sides may cross, as venues are not arbitraged.
+ * The merged levels are held in a book only written by merging the venues, read through this view.
+ */
+public class ConsolidatedL2Book implements L2BookView {
+
+    private final Instrument instrument;
+    private final int depth;
+    private final QuotesL2SparseBook levels;
+    private final CopyOnWriteArrayList<Venue> venues = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param depth number of levels of each venue side merged
+     */
+    public ConsolidatedL2Book(Instrument instrument, int depth) {
+        this.instrument = instrument;
+        this.depth = depth;
+        this.levels = new QuotesL2SparseBook(instrument, depth, false);
+    }
+
+    /**
+     * Merges the instrument's book of the venue, updated from the venue's publish thread.
+     */
+    public void addVenue(MarketDataService service, Instrument venueInstrument) {
+        L2BookView book = service.getQuotesL2(venueInstrument);
+        if (book == null) {
+            throw new IllegalArgumentException(venueInstrument.getSymbol() + " is not subscribed on " + service.getVenue());
+        }
+        addVenue(book);
+        service.addListener((event, updated) -> {
+            if (updated == book) onUpdate(book);
+        });
+    }
+
+    public void addVenue(L2BookView book) {
+        Instrument venueInstrument = book.getInstrument();
+        if (venueInstrument.getPriceScale() > instrument.getPriceScale() || venueInstrument.getQuantityScale() > instrument.getQuantityScale()) {
+            throw new IllegalArgumentException(venueInstrument.getSymbol() + " is scaled finer than " + instrument.getSymbol());
+        }
+        venues.add(new Venue(book));
+        onUpdate(book);
+    }
+
+    public int getVenueCount() {
+        return venues.size();
+    }
+
+    /**
+     * Folds the venue book's current top N into the merged levels. Writers are serialized,
+     * readers see each venue update applied as a whole.
+     */
+    public synchronized void onUpdate(L2BookView book) {
+        for (int i = 0; i < venues.size(); i++) {
+            Venue venue = venues.get(i);
+            if (venue.book == book) {
+                levels.beginWrite();
+                try {
+                    venue.merge(BID);
+                    venue.merge(ASK);
+                    levels.updateAnalytics();
+                } finally {
+                    levels.endWrite();
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean isInitialized() {
+        for (int i = 0; i < venues.size(); i++) {
+            if (venues.get(i).book.isInitialized()) return true;
+        }
+        return false;
+    }
+
+    private void addLevel(QuoteSide side, long price, long delta) {
+        levels.applyLevel(side, price, levels.getQtyAt(side, price) + delta);
+    }
+
+    @Override
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    @Override
+    public long getBestBid() {
+        return levels.getBestBid();
+    }
+
+    @Override
+    public long getBestAsk() {
+        return levels.getBestAsk();
+    }
+
+    @Override
+    public long getBestBidSize() {
+        return levels.getBestBidSize();
+    }
+
+    @Override
+    public long getBestAskSize() {
+        return levels.getBestAskSize();
+    }
+
+    @Override
+    public long getQtyAt(long price) {
+        return levels.getQtyAt(price);
+    }
+
+    /**
+     * Unsigned merged size at the price on one side, 0 without a level.
+     */
+    public long getQtyAt(QuoteSide side, long price) {
+        return levels.getQtyAt(side, price);
+    }
+
+    public int getLevelCount(QuoteSide side) {
+        return levels.getLevelCount(side);
+    }
+
+    @Override
+    public long getVersion() {
+        return levels.getVersion();
+    }
+
+    @Override
+    public long readSnapshot(QuotesL2Snapshot snapshot) {
+        return levels.readSnapshot(snapshot);
+    }
+
+    @Override
+    public int readTop(QuoteSide side, long[] prices, long[] quantities, int n) {
+        return levels.readTop(side, prices, quantities, n);
+    }
+
+    @Override
+    public long readAnalytics(L2BookAnalytics analytics) {
+        return levels.readAnalytics(analytics);
+    }
+
+    @Override
+    public double getMicroprice() {
+        return levels.getMicroprice();
+    }
+
+    @Override
+    public double getImbalance() {
+        return levels.getImbalance();
+    }
+
+    @Override
+    public double getSweepPrice(QuoteSide side, long quantity) {
+        return levels.getSweepPrice(side, quantity);
+    }
+
+    @Override
+    public List<float[]> getBids() {
+        return levels.getBids();
+    }
+
+    @Override
+    public List<float[]> getAsks() {
+        return levels.getAsks();
+    }
+
+    /**
+     * Merged books carry no sequence of their own.
+     */
+    @Override
+    public long getLastSequenceStart() {
+        return 0;
+    }
+
+    @Override
+    public long getLastSequenceEnd() {
+        return 0;
+    }
+
+    /**
+     * A venue's book with the top N last merged from it, per side best first.
+     */
+    private class Venue {
+        private final L2BookView book;
+        private final long priceMultiplier;
+        private final long quantityMultiplier;
+        private final long[][] prices = new long[2][depth];
+        private final long[][] quantities = new long[2][depth];
+        private final int[] counts = new int[2];
+        private final long[] nextPrices = new long[depth];
+        private final long[] nextQuantities = new long[depth];
+
+        private Venue(L2BookView book) {
+            this.book = book;
+            this.priceMultiplier = Decimals.pow10(instrument.getPriceScale() - book.getInstrument().getPriceScale());
+            this.quantityMultiplier = Decimals.pow10(instrument.getQuantityScale() - book.getInstrument().getQuantityScale());
+        }
+
+        /**
+         * Walks the previous and the current top N together, both sorted best first.
+         */
+        private void merge(QuoteSide side) {
+            int s = side.ordinal();
+            long[] lastPrices = prices[s];
+            long[] lastQuantities = quantities[s];
+            int lastCount = counts[s];
+            int count = book.readTop(side, nextPrices, nextQuantities, depth);
+            int sign = side.sign();
+            int i = 0;
+            int j = 0;
+            while (i < lastCount || j < count) {
+                long next = j < count ? nextPrices[j] * priceMultiplier : 0;
+                long nextQuantity = j < count ? nextQuantities[j] * quantityMultiplier : 0;
+                if (j >= count || (i < lastCount && (lastPrices[i] - next) * sign > 0)) {
+                    addLevel(side, lastPrices[i], -lastQuantities[i]);
+                    i++;
+                } else if (i >= lastCount || (lastPrices[i] - next) * sign < 0) {
+                    addLevel(side, next, nextQuantity);
+                    j++;
+                } else {
+                    if (nextQuantity != lastQuantities[i]) addLevel(side, next, nextQuantity - lastQuantities[i]);
+                    i++;
+                    j++;
+                }
+            }
+            for (int k = 0; k < count; k++) {
+                lastPrices[k] = nextPrices[k] * priceMultiplier;
+                lastQuantities[k] = nextQuantities[k] * quantityMultiplier;
+            }
+            counts[s] = count;
+        }
+    }
+}
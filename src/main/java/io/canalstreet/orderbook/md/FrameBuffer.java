@@ -0,0 +1,51 @@
+package io.canalstreet.orderbook.md;
+
+import java.util.Arrays;
+
+/**
+ * Growable char buffer reused across frames, used to accumulate partial websocket frames.
+ */
+public class FrameBuffer {
+
+    private char[] chars;
+    private int length;
+
+    public FrameBuffer(int capacity) {
+        this.chars = new char[capacity];
+    }
+
+    public void append(CharSequence data) {
+        int dataLength = data.length();
+        ensureCapacity(length + dataLength);
+        if (data instanceof String string) {
+            string.getChars(0, dataLength, chars, length);
+        } else {
+            for (int i = 0; i < dataLength; i++) chars[length + i] = data.charAt(i);
+        }
+        length += dataLength;
+    }
+
+    public void append(char[] data, int offset, int dataLength) {
+        ensureCapacity(length + dataLength);
+        System.arraycopy(data, offset, chars, length, dataLength);
+        length += dataLength;
+    }
+
+    public void reset() {
+        length = 0;
+    }
+
+    public char[] chars() {
+        return chars;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, capacity));
+        }
+    }
+}
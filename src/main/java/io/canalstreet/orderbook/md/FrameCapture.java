@@ -0,0 +1,10 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Optional first stage of a {@link QuotesL2Pipeline}, sees every raw frame before it is decoded.
+ */
+public interface FrameCapture {
+
+    void capture(char[] frame, int offset, int length, long receivedNanos);
+
+}
@@ -0,0 +1,13 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Venue specific decoder of a complete raw frame into a {@link QuotesL2Event}.
+ */
+public interface FrameDecoder {
+
+    /**
+     * @return true when the frame carried L2 data for a subscribed instrument.
+     */
+    boolean decode(char[] frame, int offset, int length, QuotesL2Event event);
+
+}
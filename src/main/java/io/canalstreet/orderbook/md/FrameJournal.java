@@ -0,0 +1,221 @@
+package io.canalstreet.orderbook.md;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append only journal of raw feed frames over memory mapped segment files, rolled over to a new
+ * segment once the current one is full. A record holds the receive time, a kind, the topic and
+ * the frame, as one byte per char when all chars fit, two otherwise. The length of a record is
+ * written last, so a reader never sees a partly written record.
+ * <pre>
+ * int length | long receivedNanos | byte kind | byte wide | short topicLength | int frameLength | topic | frame
+ * </pre>
+ */
+public class FrameJournal implements AutoCloseable {
+    public static final byte FRAME = 0;
+    public static final byte SNAPSHOT = 1;
+    private static final int HEADER = 4 + 8 + 1 + 1 + 2 + 4;
+
+    private final Path dir;
+    private final String name;
+    private final int segmentSize;
+    private int segment;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    private FrameJournal(Path dir, String name, int segmentSize, int segment) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.segment = segment;
+        map();
+    }
+
+    /**
+     * Opens a journal continuing in a new segment after any existing ones of the same name.
+     */
+    public static FrameJournal open(Path dir, String name, int segmentSize) throws IOException {
+        Files.createDirectories(dir);
+        List<Path> segments = segments(dir, name);
+        return new FrameJournal(dir, name, segmentSize, segments.isEmpty() ? 0 : segmentIndex(segments.get(segments.size() - 1), name) + 1);
+    }
+
+    public synchronized void append(byte kind, long receivedNanos, char[] topic, int topicOffset, int topicLength,
+                                    char[] frame, int frameOffset, int frameLength) {
+        boolean wide = isWide(topic, topicOffset, topicLength) || isWide(frame, frameOffset, frameLength);
+        int length = HEADER + (topicLength + frameLength) * (wide ? 2 : 1);
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Frame of " + frameLength + " chars exceeds the journal segment size " + segmentSize);
+        }
+        if (buffer.remaining() < length) {
+            roll();
+        }
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.putLong(receivedNanos);
+        buffer.put(kind);
+        buffer.put((byte) (wide ? 1 : 0));
+        buffer.putShort((short) topicLength);
+        buffer.putInt(frameLength);
+        put(topic, topicOffset, topicLength, wide);
+        put(frame, frameOffset, frameLength, wide);
+        buffer.putInt(start, length);
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private void put(char[] chars, int offset, int length, boolean wide) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (wide) buffer.putChar(chars[i]);
+            else buffer.put((byte) chars[i]);
+        }
+    }
+
+    private static boolean isWide(char[] chars, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (chars[i] > 0xFF) return true;
+        }
+        return false;
+    }
+
+    private void roll() {
+        try {
+            buffer.force();
+            channel.close();
+            segment++;
+            map();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to roll journal " + name + " over to segment " + (segment + 1), ex);
+        }
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(segmentPath(dir, name, segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    static Path segmentPath(Path dir, String name, int segment) {
+        return dir.resolve("%s-%06d.journal".formatted(name, segment));
+    }
+
+    static List<Path> segments(Path dir, String name) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = new ArrayList<>(files
+                    .filter(path -> path.getFileName().toString().matches(name + "-\\d{6}\\.journal"))
+                    .toList());
+            segments.sort(null);
+            return segments;
+        }
+    }
+
+    private static int segmentIndex(Path segment, String name) {
+        String fileName = segment.getFileName().toString();
+        return Integer.parseInt(fileName.substring(name.length() + 1, fileName.length() - ".journal".length()));
+    }
+
+    /**
+     * Reads the records of all segments of a journal in order. Topic and frame are decoded into
+     * buffers reused across records.
+     */
+    public static class Reader implements AutoCloseable {
+        private final List<Path> segments;
+        private int segment = -1;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private byte kind;
+        private long receivedNanos;
+        private char[] topic = new char[128];
+        private int topicLength;
+        private char[] frame = new char[4096];
+        private int frameLength;
+
+        public Reader(Path dir, String name) throws IOException {
+            this.segments = segments(dir, name);
+        }
+
+        /**
+         * Moves to the next record.
+         * @return false once all records were read
+         */
+        public boolean next() throws IOException {
+            while (buffer == null || buffer.remaining() < HEADER || buffer.getInt(buffer.position()) == 0) {
+                if (!nextSegment()) return false;
+            }
+            buffer.getInt();
+            receivedNanos = buffer.getLong();
+            kind = buffer.get();
+            boolean wide = buffer.get() != 0;
+            topicLength = buffer.getShort();
+            frameLength = buffer.getInt();
+            if (topic.length < topicLength) topic = new char[topicLength];
+            if (frame.length < frameLength) frame = Arrays.copyOf(frame, Math.max(frame.length * 2, frameLength));
+            get(topic, topicLength, wide);
+            get(frame, frameLength, wide);
+            return true;
+        }
+
+        public byte getKind() {
+            return kind;
+        }
+
+        public long getReceivedNanos() {
+            return receivedNanos;
+        }
+
+        public char[] getTopic() {
+            return topic;
+        }
+
+        public int getTopicLength() {
+            return topicLength;
+        }
+
+        public char[] getFrame() {
+            return frame;
+        }
+
+        public int getFrameLength() {
+            return frameLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) channel.close();
+        }
+
+        private void get(char[] chars, int length, boolean wide) {
+            for (int i = 0; i < length; i++) {
+                chars[i] = wide ? buffer.getChar() : (char) (buffer.get() & 0xFF);
+            }
+        }
+
+        private boolean nextSegment() throws IOException {
+            if (channel != null) channel.close();
+            if (++segment >= segments.size()) {
+                buffer = null;
+                return false;
+            }
+            channel = FileChannel.open(segments.get(segment), StandardOpenOption.READ);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return true;
+        }
+    }
+}
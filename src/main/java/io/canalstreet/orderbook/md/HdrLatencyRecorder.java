@@ -0,0 +1,88 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentTable;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.HdrHistogram.SingleWriterRecorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LatencyRecorder} over HdrHistogram recorders, one per instrument and stage.
+ * Recording is wait free and allocation free once the instrument was seen, reads fold the
+ * recorded interval into a running total. Pipeline stages have a single writer thread per
+ * instrument and get the cheaper {@link SingleWriterRecorder}, push clients are written by
+ * a pool and share a {@link Recorder}.
+ */
+public class HdrLatencyRecorder implements LatencyRecorder {
+    private static final long LOWEST_NANOS = 10;
+    private static final long HIGHEST_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final LatencyStage[] STAGES = LatencyStage.values();
+
+    private final InstrumentTable<Stages> stagesByInstrument = new InstrumentTable<>();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void record(Instrument instrument, LatencyStage stage, long nanos) {
+        Stages stages = stagesByInstrument.get(instrument);
+        if (stages == null) {
+            stages = stagesByInstrument.computeIfAbsent(instrument, key -> new Stages());
+        }
+        long value = Math.max(LOWEST_NANOS, Math.min(nanos, HIGHEST_NANOS));
+        if (stage == LatencyStage.CLIENT) {
+            stages.client.recordValue(value);
+        } else {
+            stages.recorders[stage.ordinal()].recordValue(value);
+        }
+    }
+
+    @Override
+    public Map<String, Map<LatencyStage, Summary>> summary() {
+        Map<String, Map<LatencyStage, Summary>> summary = new TreeMap<>();
+        stagesByInstrument.forEach((instrument, stages) -> summary.put(instrument.getSymbol(), stages.summary()));
+        return summary;
+    }
+
+    private static class Stages {
+        private final SingleWriterRecorder[] recorders = new SingleWriterRecorder[STAGES.length];
+        private final Recorder client = new Recorder(LOWEST_NANOS, HIGHEST_NANOS, SIGNIFICANT_DIGITS);
+        private final Histogram[] intervals = new Histogram[STAGES.length];
+        private final Histogram[] totals = new Histogram[STAGES.length];
+
+        private Stages() {
+            for (int i = 0; i < STAGES.length; i++) {
+                recorders[i] = new SingleWriterRecorder(LOWEST_NANOS, HIGHEST_NANOS, SIGNIFICANT_DIGITS);
+                totals[i] = new Histogram(LOWEST_NANOS, HIGHEST_NANOS, SIGNIFICANT_DIGITS);
+            }
+        }
+
+        private synchronized Map<LatencyStage, Summary> summary() {
+            Map<LatencyStage, Summary> summary = new EnumMap<>(LatencyStage.class);
+            for (int i = 0; i < STAGES.length; i++) {
+                intervals[i] = STAGES[i] == LatencyStage.CLIENT
+                        ? client.getIntervalHistogram(intervals[i])
+                        : recorders[i].getIntervalHistogram(intervals[i]);
+                totals[i].add(intervals[i]);
+                Histogram total = totals[i];
+                if (total.getTotalCount() > 0) {
+                    summary.put(STAGES[i], new Summary(total.getTotalCount(), total.getMean() / 1_000,
+                            micros(total, 50), micros(total, 90), micros(total, 99), micros(total, 99.9), total.getMaxValue() / 1_000.0));
+                }
+            }
+            return summary;
+        }
+
+        private static double micros(Histogram histogram, double percentile) {
+            return histogram.getValueAtPercentile(percentile) / 1_000.0;
+        }
+    }
+}
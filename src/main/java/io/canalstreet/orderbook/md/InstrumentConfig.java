@@ -0,0 +1,92 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.data.PerpetualFuture;
+import jakarta.annotation.PostConstruct;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instruments registered and subscribed at startup, configured as {@code md.instruments[i].*},
+ * e.g. {@code md.instruments[0].symbol=BTC-USDT}. Ids are assigned in configuration order.
+ * Instruments naming the same underlying get one underlying instrument, whose book is consolidated
+ * from theirs.
+ */
+@Component
+@ConfigurationProperties(prefix = "md")
+@Data
+public class InstrumentConfig {
+
+    @Autowired
+    private MarketDataService marketDataService;
+
+    @Autowired
+    private InstrumentRegistry registry;
+
+    private List<Spec> instruments = new ArrayList<>();
+
+    @PostConstruct
+    public void initSubscriptions() {
+        Map<L2BookType, List<Instrument>> byBookType = new EnumMap<>(L2BookType.class);
+        List<Instrument> withTrades = new ArrayList<>();
+        Map<String, Instrument> underlyings = underlyings();
+        for (Spec spec : instruments) {
+            Instrument instrument = spec.toInstrument(marketDataService, underlyings.get(spec.getUnderlying()));
+            registry.register(marketDataService.getVenue(), instrument);
+            byBookType.computeIfAbsent(spec.getBookType(), key -> new ArrayList<>()).add(instrument);
+            if (spec.isTrades()) withTrades.add(instrument);
+        }
+        byBookType.forEach((bookType, list) -> marketDataService.subscribe(list, bookType));
+        if (!withTrades.isEmpty()) marketDataService.subscribeTrades(withTrades);
+    }
+
+    /**
+     * One instrument per underlying symbol, scaled as finely as the finest of its instruments so
+     * that their books merge exactly.
+     */
+    private Map<String, Instrument> underlyings() {
+        Map<String, Instrument> underlyings = new HashMap<>();
+        for (Spec spec : instruments) {
+            if (spec.getUnderlying() == null) continue;
+            Instrument underlying = Instrument.builder().symbol(spec.getUnderlying()).currency(spec.getCurrency())
+                    .priceScale(spec.getPriceScale()).quantityScale(spec.getQuantityScale()).build();
+            underlyings.merge(spec.getUnderlying(), underlying, (known, next) -> known.toBuilder()
+                    .priceScale(Math.max(known.getPriceScale(), next.getPriceScale()))
+                    .quantityScale(Math.max(known.getQuantityScale(), next.getQuantityScale())).build());
+        }
+        return underlyings;
+    }
+
+    @Data
+    public static class Spec {
+        private String symbol;
+        private String currency;
+        private boolean futures;
+        private int priceScale = 2;
+        private int quantityScale = 2;
+        private float tickSize = 0.01f;
+        private float pegIndexPrice;
+        private int snapshotDepth = 5;
+        private L2BookType bookType = L2BookType.RING;
+        // Aggregates the match stream into a TradeFlow next to the book
+        private boolean trades = true;
+        // Symbol of the underlying the book is consolidated into, none by default
+        private String underlying;
+
+        Instrument toInstrument(MarketDataService feed, Instrument underlyingInstrument) {
+            Instrument.InstrumentBuilder<?, ?> builder = futures ? PerpetualFuture.builder() : Instrument.builder();
+            return builder.symbol(symbol).currency(currency).priceScale(priceScale).quantityScale(quantityScale)
+                    .tickSize(tickSize).pegIndexPrice(pegIndexPrice).snapshotDepth(snapshotDepth).mdFeed(feed)
+                    .underlying(underlyingInstrument).build();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Price level order book of one instrument, written level by level from a feed. Single writer,
+ * lock free readers.
+ */
+public interface L2Book extends L2BookView {
+
+    void add(QuoteSide side, long price, long quantity);
+
+    void add(QuoteSide side, long price, long quantity, long sequenceStart, long sequenceEnd);
+
+    /**
+     * Replaces all levels of a side with the first n levels of the arrays, in one update, as for
+     * a top N depth snapshot. Levels are best first, those with size 0 are skipped.
+     */
+    void replaceTop(QuoteSide side, long[] prices, long[] quantities, int n, long sequence);
+
+    /**
+     * Clears the book, loads a snapshot's levels and replays the cached updates following it, in
+     * one update: readers see the book as it was before or once caught up, never in between.
+     * @return the number of cached updates applied
+     */
+    int reload(QuotesL2Event snapshot, QuotesL2UpdateCache updates);
+
+    /**
+     * Removes all levels and resets the sequence, ahead of applying a fresh snapshot.
+     */
+    void clear();
+
+}
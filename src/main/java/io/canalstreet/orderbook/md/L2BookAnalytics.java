@@ -0,0 +1,71 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Caller owned, reusable copy of the running analytics of a book taken atomically by
+ * {@link L2Book#readAnalytics}. Prices are scaled like the book's, NaN where a side is empty.
+ */
+public class L2BookAnalytics {
+
+    long version;
+    long bestBid;
+    long bestAsk;
+    long bestBidSize;
+    long bestAskSize;
+    long bidDepth;
+    long askDepth;
+    double mid;
+    double microprice;
+    double imbalance;
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getBestBid() {
+        return bestBid;
+    }
+
+    public long getBestAsk() {
+        return bestAsk;
+    }
+
+    /**
+     * Unsigned size at the best bid.
+     */
+    public long getBestBidSize() {
+        return bestBidSize;
+    }
+
+    public long getBestAskSize() {
+        return bestAskSize;
+    }
+
+    /**
+     * Total size of the top N bid levels.
+     */
+    public long getBidDepth() {
+        return bidDepth;
+    }
+
+    public long getAskDepth() {
+        return askDepth;
+    }
+
+    public double getMid() {
+        return mid;
+    }
+
+    /**
+     * Mid weighted towards the side with less size at the top: (bid * askSize + ask * bidSize) / (bidSize + askSize).
+     */
+    public double getMicroprice() {
+        return microprice;
+    }
+
+    /**
+     * (bidDepth - askDepth) / (bidDepth + askDepth) over the top N levels, in [-1, 1].
+     */
+    public double getImbalance() {
+        return imbalance;
+    }
+}
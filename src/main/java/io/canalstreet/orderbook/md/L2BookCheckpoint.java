@@ -0,0 +1,218 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Memory mapped checkpoint of one book: the best levels of both sides at a sequence, followed by a
+ * short journal of the levels applied since. Once the journal is full the checkpoint is rewritten
+ * from the book. Restoring loads the levels, then replays the journal, which brings the book back
+ * to the last update applied before a restart. Written by the book's single writer only.
+ * <p>
+ * The version is odd while the levels are rewritten, a checkpoint torn by a crash is not restored.
+ * A delta is counted after it was written. Writes reach the file when the process dies, not when
+ * the host does, the file is only forced on {@link #close()}.
+ * <pre>
+ * int magic | int version | long writtenMillis | long sequence | int priceScale | int quantityScale
+ * | int maxLevels | int maxDeltas | int bidCount | int askCount | int deltaCount
+ * | maxLevels x bid (long price, long size) | maxLevels x ask (long price, long size)
+ * | maxDeltas x (long price, long size, long sequence)
+ * </pre>
+ * The size of an ask delta is stored complemented, a negative size marks an ask.
+ */
+public class L2BookCheckpoint implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(L2BookCheckpoint.class);
+    private static final int MAGIC = 0x4C32434B;
+    private static final int VERSION = 4;
+    private static final int WRITTEN_MILLIS = 8;
+    private static final int SEQUENCE = 16;
+    private static final int PRICE_SCALE = 24;
+    private static final int QUANTITY_SCALE = 28;
+    private static final int MAX_LEVELS = 32;
+    private static final int MAX_DELTAS = 36;
+    private static final int BID_COUNT = 40;
+    private static final int ASK_COUNT = 44;
+    private static final int DELTA_COUNT = 48;
+    private static final int HEADER = 52;
+    private static final int LEVEL = 16;
+    private static final int DELTA = 24;
+
+    private final Instrument instrument;
+    private final int maxLevels;
+    private final int maxDeltas;
+    private final int deltasOffset;
+    private final long[] prices;
+    private final long[] quantities;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int deltaCount;
+    private long checkpoints;
+
+    private L2BookCheckpoint(Instrument instrument, FileChannel channel, int maxLevels, int maxDeltas) throws IOException {
+        this.instrument = instrument;
+        this.maxLevels = maxLevels;
+        this.maxDeltas = maxDeltas;
+        this.deltasOffset = HEADER + 2 * maxLevels * LEVEL;
+        this.prices = new long[maxLevels];
+        this.quantities = new long[maxLevels];
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(maxLevels, maxDeltas));
+        this.deltaCount = isValid() ? buffer.getInt(DELTA_COUNT) : 0;
+    }
+
+    /**
+     * Maps the instrument's checkpoint file in the directory, keeping a previous checkpoint of the same geometry
+     * to {@link #restore} from.
+     * @param maxLevels levels kept per side
+     * @param maxDeltas levels journaled before the checkpoint is rewritten
+     */
+    public static L2BookCheckpoint open(Path dir, Instrument instrument, int maxLevels, int maxDeltas) throws IOException {
+        Files.createDirectories(dir);
+        Path path = path(dir, instrument);
+        long size = size(maxLevels, maxDeltas);
+        if (Files.exists(path) && Files.size(path) != size) {
+            LOGGER.warn("Dropping the checkpoint {} of {} bytes, {} expected", path, Files.size(path), size);
+            Files.delete(path);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new L2BookCheckpoint(instrument, channel, maxLevels, maxDeltas);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    static Path path(Path dir, Instrument instrument) {
+        return dir.resolve(instrument.getSymbol() + ".book");
+    }
+
+    private static long size(int maxLevels, int maxDeltas) {
+        return HEADER + 2L * maxLevels * LEVEL + (long) maxDeltas * DELTA;
+    }
+
+    /**
+     * Loads the checkpoint and the levels journaled after it into the cleared book.
+     * @return false, leaving the book untouched, without a complete checkpoint of the instrument's scales
+     */
+    public boolean restore(L2Book book) {
+        if (!isValid() || buffer.getLong(SEQUENCE) == 0) {
+            return false;
+        }
+        long sequence = buffer.getLong(SEQUENCE);
+        book.clear();
+        int offset = HEADER;
+        for (int i = 0, n = buffer.getInt(BID_COUNT); i < n; i++, offset += LEVEL) {
+            book.add(BID, buffer.getLong(offset), buffer.getLong(offset + 8), sequence, sequence);
+        }
+        offset = HEADER + maxLevels * LEVEL;
+        for (int i = 0, n = buffer.getInt(ASK_COUNT); i < n; i++, offset += LEVEL) {
+            book.add(ASK, buffer.getLong(offset), buffer.getLong(offset + 8), sequence, sequence);
+        }
+        offset = deltasOffset;
+        for (int i = 0; i < deltaCount; i++, offset += DELTA) {
+            long quantity = buffer.getLong(offset + 8);
+            long deltaSequence = buffer.getLong(offset + 16);
+            book.add(quantity >= 0 ? BID : ASK, buffer.getLong(offset), quantity >= 0 ? quantity : ~quantity, deltaSequence, deltaSequence);
+        }
+        return true;
+    }
+
+    /**
+     * Journals a level just applied to the book, rewriting the checkpoint instead once the journal is full.
+     */
+    public void append(L2Book book, QuoteSide side, long price, long quantity, long sequence) {
+        if (deltaCount == maxDeltas) {
+            write(book);
+            return;
+        }
+        int offset = deltasOffset + deltaCount * DELTA;
+        buffer.putLong(offset, price);
+        buffer.putLong(offset + 8, side == BID ? Math.abs(quantity) : ~Math.abs(quantity));
+        buffer.putLong(offset + 16, sequence);
+        buffer.putInt(DELTA_COUNT, ++deltaCount);
+    }
+
+    /**
+     * Rewrites the checkpoint from the book and empties the journal. Books not yet initialized are not written.
+     */
+    public void write(L2Book book) {
+        if (!book.isInitialized()) {
+            return;
+        }
+        int version = buffer.getInt(VERSION);
+        buffer.putInt(VERSION, version | 1);
+        buffer.putInt(DELTA_COUNT, deltaCount = 0);
+        buffer.putLong(WRITTEN_MILLIS, System.currentTimeMillis());
+        buffer.putLong(SEQUENCE, book.getLastSequenceEnd());
+        buffer.putInt(PRICE_SCALE, instrument.getPriceScale());
+        buffer.putInt(QUANTITY_SCALE, instrument.getQuantityScale());
+        buffer.putInt(MAX_LEVELS, maxLevels);
+        buffer.putInt(MAX_DELTAS, maxDeltas);
+        buffer.putInt(BID_COUNT, writeSide(book, BID, HEADER));
+        buffer.putInt(ASK_COUNT, writeSide(book, ASK, HEADER + maxLevels * LEVEL));
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(VERSION, (version | 1) + 1);
+        checkpoints++;
+    }
+
+    private int writeSide(L2Book book, QuoteSide side, int offset) {
+        int count = book.readTop(side, prices, quantities, maxLevels);
+        for (int i = 0; i < count; i++, offset += LEVEL) {
+            buffer.putLong(offset, prices[i]);
+            buffer.putLong(offset + 8, quantities[i]);
+        }
+        return count;
+    }
+
+    private boolean isValid() {
+        return buffer.getInt(0) == MAGIC
+                && (buffer.getInt(VERSION) & 1) == 0
+                && buffer.getInt(PRICE_SCALE) == instrument.getPriceScale()
+                && buffer.getInt(QUANTITY_SCALE) == instrument.getQuantityScale()
+                && buffer.getInt(MAX_LEVELS) == maxLevels
+                && buffer.getInt(MAX_DELTAS) == maxDeltas;
+    }
+
+    /**
+     * Sequence of the book when the checkpoint was last written, 0 for none.
+     */
+    public long getSequence() {
+        return isValid() ? buffer.getLong(SEQUENCE) : 0;
+    }
+
+    /**
+     * Wall clock time the checkpoint was last written at.
+     */
+    public long getWrittenMillis() {
+        return isValid() ? buffer.getLong(WRITTEN_MILLIS) : 0;
+    }
+
+    public int getDeltaCount() {
+        return deltaCount;
+    }
+
+    /**
+     * Number of checkpoints written since opened.
+     */
+    public long getCheckpoints() {
+        return checkpoints;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,189 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Conflating fan out of a book's top N to push subscribers. The feed thread only flags the
+ * stream as changed, the sender threads fan the change out and write to the subscribers.
+ * A subscriber is sent the latest serialized book once it is done with the previous one,
+ * so a slow one skips versions instead of building a backlog. A subscriber stuck in a write for
+ * longer than a timeout is dropped by {@link #dropStalled}, its sender should not be one of a
+ * few shared threads, which stuck writes would take from every other subscriber.
+ */
+public class L2BookStream {
+
+    private final OrderbookResponseCache responses;
+    private final Executor sender;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final Drain fanOut;
+    private final LatencyRecorder latency;
+    private final Instrument instrument;
+    private volatile long updatedNanos;
+
+    /**
+     * Receives serialized books, one at a time.
+     */
+    public interface Sink {
+        void send(OrderbookResponseCache.Response response) throws Exception;
+    }
+
+    public L2BookStream(OrderbookResponseCache responses, Executor sender) {
+        this(responses, sender, LatencyRecorder.NOOP, null);
+    }
+
+    /**
+     * @param latency records the time from a book update to its write to each subscriber
+     */
+    public L2BookStream(OrderbookResponseCache responses, Executor sender, LatencyRecorder latency, Instrument instrument) {
+        this.responses = responses;
+        this.sender = sender;
+        this.latency = latency;
+        this.instrument = instrument;
+        this.fanOut = new Drain(() -> {
+            for (int i = 0; i < subscribers.size(); i++) {
+                subscribers.get(i).signal();
+            }
+        });
+    }
+
+    /**
+     * Called on every book update, from the feed thread.
+     */
+    public void onUpdate() {
+        if (latency.isEnabled()) updatedNanos = System.nanoTime();
+        fanOut.signal();
+    }
+
+    /**
+     * Adds a subscriber, sent the current book right away.
+     */
+    public Subscriber subscribe(Sink sink) {
+        return subscribe(sink, () -> { });
+    }
+
+    /**
+     * @param onStalled called once the subscriber was dropped for a stuck write, to close its connection
+     */
+    public Subscriber subscribe(Sink sink, Runnable onStalled) {
+        Subscriber subscriber = new Subscriber(sink, onStalled);
+        subscribers.add(subscriber);
+        subscriber.signal();
+        return subscriber;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscriber.closed = true;
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Drops the subscribers whose current write started longer than the timeout ago.
+     * @return the number of subscribers dropped
+     */
+    public int dropStalled(long timeoutNanos) {
+        long now = System.nanoTime();
+        int dropped = 0;
+        for (Subscriber subscriber : subscribers) {
+            long started = subscriber.sendStartedNanos;
+            if (started != 0 && now - started > timeoutNanos) {
+                unsubscribe(subscriber);
+                subscriber.onStalled.run();
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    public List<Subscriber> subscribers() {
+        return Collections.unmodifiableList(subscribers);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public class Subscriber {
+        private final Sink sink;
+        private final Runnable onStalled;
+        private final Drain drain = new Drain(this::sendLatest);
+        private volatile boolean closed;
+        // Start of the write in progress, 0 between writes
+        private volatile long sendStartedNanos;
+        private volatile long sentVersion = -1;
+        private volatile long sentCount;
+
+        private Subscriber(Sink sink, Runnable onStalled) {
+            this.sink = sink;
+            this.onStalled = onStalled;
+        }
+
+        private void signal() {
+            if (!closed) drain.signal();
+        }
+
+        private void sendLatest() {
+            OrderbookResponseCache.Response response = responses.json();
+            if (closed || response.version() == sentVersion) return;
+            try {
+                sendStartedNanos = System.nanoTime();
+                sink.send(response);
+                if (latency.isEnabled()) latency.record(instrument, LatencyStage.CLIENT, System.nanoTime() - updatedNanos);
+                sentVersion = response.version();
+                sentCount++;
+            } catch (Exception ex) {
+                unsubscribe(this);
+            } finally {
+                sendStartedNanos = 0;
+            }
+        }
+
+        public long getSentVersion() {
+            return sentVersion;
+        }
+
+        public long getSentCount() {
+            return sentCount;
+        }
+    }
+
+    /**
+     * Runs its task on the sender, at most once at a time. Signals arriving while it runs
+     * are folded into one more run.
+     */
+    private class Drain implements Runnable {
+        private static final int IDLE = 0;
+        private static final int RUNNING = 1;
+        private static final int DIRTY = 2;
+        private final AtomicInteger state = new AtomicInteger();
+        private final Runnable task;
+
+        private Drain(Runnable task) {
+            this.task = task;
+        }
+
+        private void signal() {
+            while (true) {
+                int current = state.get();
+                if (current == DIRTY) return;
+                if (state.compareAndSet(current, current == IDLE ? RUNNING : DIRTY)) {
+                    if (current == IDLE) sender.execute(this);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                state.set(RUNNING);
+                task.run();
+            } while (!state.compareAndSet(RUNNING, IDLE));
+        }
+    }
+}
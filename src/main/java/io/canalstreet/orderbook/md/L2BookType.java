@@ -0,0 +1,34 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+/**
+ * Book engine, and with it the feed, used for an instrument.
+ */
+public enum L2BookType {
+
+    /**
+     * Ring buffer around the best prices, fed by top of book depth snapshots.
+     */
+    RING,
+    /**
+     * Sorted full depth book, fed by the incremental level2 stream.
+     */
+    SPARSE,
+    /**
+     * Order by order book, fed by the level3 stream of every order's messages.
+     */
+    L3;
+
+    public L2BookView newBook(Instrument instrument, int l2depth) {
+        switch (this) {
+            case RING:
+                return new QuotesL2Book(instrument, l2depth);
+            case SPARSE:
+                return new QuotesL2SparseBook(instrument, l2depth);
+            default:
+                return new QuotesL3Book(instrument, l2depth);
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.util.List;
+
+/**
+ * Read side of a price level order book, lock free. Prices and sizes are scaled by the
+ * instrument, sizes of asks are reported negative.
+ */
+public interface L2BookView {
+
+    Instrument getInstrument();
+
+    boolean isInitialized();
+
+    long getBestBid();
+
+    long getBestAsk();
+
+    long getBestBidSize();
+
+    long getBestAskSize();
+
+    long getQtyAt(long price);
+
+    /**
+     * Version of the book, even and unchanged as long as the book was not updated.
+     */
+    long getVersion();
+
+    /**
+     * Copies the best levels of both sides into the snapshot, all taken at the same version.
+     * @return the version of the copy
+     */
+    long readSnapshot(QuotesL2Snapshot snapshot);
+
+    /**
+     * Copies up to n best non empty levels of a side, unsigned sizes, into the caller's arrays.
+     * @return the number of levels copied
+     */
+    int readTop(QuoteSide side, long[] prices, long[] quantities, int n);
+
+    /**
+     * Copies the running mid, microprice, imbalance and top N depth, all taken at the same version.
+     * @return the version of the copy
+     */
+    long readAnalytics(L2BookAnalytics analytics);
+
+    double getMicroprice();
+
+    /**
+     * Top N size imbalance, see {@link L2BookAnalytics#getImbalance()}.
+     */
+    double getImbalance();
+
+    /**
+     * Average price of sweeping the given size off one side within the top N levels, e.g. the
+     * asks for a buy. NaN when the top N levels do not hold that much.
+     */
+    double getSweepPrice(QuoteSide side, long quantity);
+
+    List<float[]> getBids();
+
+    List<float[]> getAsks();
+
+    long getLastSequenceStart();
+
+    long getLastSequenceEnd();
+
+}
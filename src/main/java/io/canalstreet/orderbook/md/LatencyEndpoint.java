@@ -0,0 +1,31 @@
+package io.canalstreet.orderbook.md;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint ({@code /actuator/latency}) with the stage latency percentiles of every
+ * instrument, empty unless {@code md.latency.enabled} is set.
+ */
+@Component
+@Endpoint(id = "latency")
+public class LatencyEndpoint {
+
+    @Autowired
+    MarketDataService marketDataService;
+
+    @ReadOperation
+    public Map<String, Map<LatencyStage, LatencyRecorder.Summary>> latency() {
+        return marketDataService.getLatencyRecorder().summary();
+    }
+
+    @ReadOperation
+    public Map<LatencyStage, LatencyRecorder.Summary> latency(@Selector String symbol) {
+        return marketDataService.getLatencyRecorder().summary().getOrDefault(symbol, Map.of());
+    }
+}
@@ -0,0 +1,43 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.util.Map;
+
+/**
+ * Per instrument, per stage latency recording. Callers check {@link #isEnabled()} before
+ * taking timestamps, so the disabled {@link #NOOP} costs one predictable branch.
+ */
+public interface LatencyRecorder {
+
+    LatencyRecorder NOOP = new LatencyRecorder() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void record(Instrument instrument, LatencyStage stage, long nanos) {
+        }
+
+        @Override
+        public Map<String, Map<LatencyStage, Summary>> summary() {
+            return Map.of();
+        }
+    };
+
+    boolean isEnabled();
+
+    void record(Instrument instrument, LatencyStage stage, long nanos);
+
+    /**
+     * Distribution of everything recorded so far, by symbol and stage.
+     */
+    Map<String, Map<LatencyStage, Summary>> summary();
+
+    /**
+     * Percentiles in microseconds.
+     */
+    record Summary(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+    }
+}
@@ -0,0 +1,19 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Points at which a frame's latency is recorded.
+ */
+public enum LatencyStage {
+    /** Socket receive to decoded event. */
+    DECODE,
+    /** Socket receive to sequence checked. */
+    SEQUENCE,
+    /** Socket receive to applied to the book. */
+    APPLY,
+    /** Socket receive to handed to the listeners. */
+    PUBLISH,
+    /** Book update to the serialized book written to a push client. */
+    CLIENT,
+    /** Local wall clock at decode minus the venue's timestamp, millisecond resolution. */
+    SKEW
+}
@@ -0,0 +1,59 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.util.Collection;
+
+/**
+ * Level2 feed of one venue, keeping a book per subscribed instrument.
+ */
+public interface MarketDataService {
+
+    /**
+     * Short venue name, as used to tell books of the same underlying apart.
+     */
+    String getVenue();
+
+    void subscribe(Instrument instrument, L2BookType bookType);
+
+    void subscribe(Collection<Instrument> instruments, L2BookType bookType);
+
+    void unsubscribe(Instrument instrument);
+
+    L2BookView getQuotesL2(Instrument instrument);
+
+    /**
+     * Book merged from the books of the subscribed instruments of the underlying, or null when
+     * none of them has it, see {@link Instrument#getUnderlying()}.
+     */
+    L2BookView getConsolidatedL2(Instrument underlying);
+
+    /**
+     * Subscribes the trades of subscribed instruments into their {@link TradeFlow}.
+     */
+    void subscribeTrades(Collection<Instrument> instruments);
+
+    /**
+     * Rolling trade flow of the instrument, or null when its trades are not subscribed.
+     */
+    TradeFlow getTradeFlow(Instrument instrument);
+
+    /**
+     * Instrument subscribed under the symbol, or null.
+     */
+    Instrument findInstrument(String symbol);
+
+    /**
+     * Underlying of subscribed instruments with the symbol, or null.
+     */
+    Instrument findUnderlying(String symbol);
+
+    /**
+     * Notified on the feed's publish thread after each applied update.
+     */
+    void addListener(QuotesL2Listener listener);
+
+    default LatencyRecorder getLatencyRecorder() {
+        return LatencyRecorder.NOOP;
+    }
+}
@@ -0,0 +1,18 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Wall clock time in microseconds since the epoch, read off the monotonic nanosecond clock from
+ * one reading of the wall clock. It never goes back and costs a nanoTime per reading, the top of
+ * book board and history stamp every update with it.
+ */
+public final class MicrosClock {
+    private static final long EPOCH_MICROS = System.currentTimeMillis() * 1_000;
+    private static final long START_NANOS = System.nanoTime();
+
+    private MicrosClock() {
+    }
+
+    public static long nowMicros() {
+        return EPOCH_MICROS + (System.nanoTime() - START_NANOS) / 1_000;
+    }
+}
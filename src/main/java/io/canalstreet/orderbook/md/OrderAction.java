@@ -0,0 +1,29 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Message of a level3 feed about one order, as applied to a {@link QuotesL3Book}.
+ */
+public enum OrderAction {
+
+    /**
+     * Order taken in by the matching engine, not resting yet. Only moves the sequence on.
+     */
+    RECEIVED,
+    /**
+     * Order resting in the book at its price and size.
+     */
+    OPEN,
+    /**
+     * Resting order filled by the size matched.
+     */
+    MATCH,
+    /**
+     * Resting order's size set, keeping its place in the queue.
+     */
+    CHANGE,
+    /**
+     * Order filled or canceled, out of the book.
+     */
+    DONE
+
+}
@@ -0,0 +1,50 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Range queries over the recorded top of book history, streamed as CSV.
+ */
+@RestController
+public class OrderbookHistoryController {
+    private static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
+    @Autowired
+    MarketDataService marketDataService;
+
+    @Autowired
+    TopOfBookStore topOfBookStore;
+
+    /**
+     * @param from first time, in microseconds since the epoch, included
+     * @param to last time, excluded
+     * @param resolution raw, 1s or 1m
+     */
+    @GetMapping(value = "/orderbook/history", produces = "text/csv")
+    public ResponseEntity<StreamingResponseBody> getHistory(@RequestParam(defaultValue = "BTC-USDT") String symbol,
+                                                            @RequestParam(defaultValue = "0") long from,
+                                                            @RequestParam(defaultValue = "" + Long.MAX_VALUE) long to,
+                                                            @RequestParam(defaultValue = "raw") String resolution) {
+        Instrument instrument = marketDataService.findInstrument(symbol);
+        TopOfBookHistory history = instrument == null ? null : topOfBookStore.getHistory(instrument);
+        if (history == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No history of " + symbol);
+        }
+        TopOfBookHistory.Resolution rows;
+        try {
+            rows = TopOfBookHistory.Resolution.of(resolution);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+        return ResponseEntity.ok().contentType(TEXT_CSV).body(out -> history.writeCsv(rows, from, to, out));
+    }
+}
@@ -0,0 +1,128 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Decimals;
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Top N of a book serialized once per book version and served as is until the book changes,
+ * as JSON or in a compact binary encoding. Exact decimals are written from the scaled prices
+ * and sizes, nothing is boxed.
+ * <p>
+ * Binary encoding, big endian:
+ * <pre>
+ * byte encodingVersion | byte priceScale | byte quantityScale | long bookVersion | long sequence
+ * | short bidCount | short askCount | bidCount x (long price, long size) | askCount x (long price, long size)
+ * </pre>
+ */
+public class OrderbookResponseCache {
+    public static final String BINARY_MEDIA_TYPE = "application/x-orderbook";
+    private static final byte BINARY_ENCODING_VERSION = 2;
+    private static final long EPOCH = System.currentTimeMillis();
+    private static final byte[] BIDS = "{\"bids\":[".getBytes();
+    private static final byte[] ASKS = "],\"asks\":[".getBytes();
+
+    private final L2BookView book;
+    private final QuotesL2Snapshot snapshot;
+    private final byte[] scratch;
+    private volatile Response json;
+    private volatile Response binary;
+
+    /**
+     * Serialized top of book at one book version.
+     */
+    public record Response(long version, byte[] body, String etag) {
+    }
+
+    public OrderbookResponseCache(L2BookView book, int depth) {
+        this.book = book;
+        this.snapshot = new QuotesL2Snapshot(depth);
+        // Worst case: 20 digits, sign and point for a price and a size, plus separators
+        this.scratch = new byte[BIDS.length + ASKS.length + 2 + 2 * depth * 50];
+    }
+
+    public Response json() {
+        Response cached = json;
+        if (cached != null && cached.version == book.getVersion()) {
+            return cached;
+        }
+        synchronized (this) {
+            long version = book.readSnapshot(snapshot);
+            if (json == null || json.version != version) {
+                json = new Response(version, encodeJson(), etag(version, 'j'));
+            }
+            return json;
+        }
+    }
+
+    public Response binary() {
+        Response cached = binary;
+        if (cached != null && cached.version == book.getVersion()) {
+            return cached;
+        }
+        synchronized (this) {
+            long version = book.readSnapshot(snapshot);
+            if (binary == null || binary.version != version) {
+                binary = new Response(version, encodeBinary(), etag(version, 'b'));
+            }
+            return binary;
+        }
+    }
+
+    private byte[] encodeJson() {
+        Instrument instrument = book.getInstrument();
+        int position = put(BIDS, 0);
+        position = putLevels(BID, instrument, position);
+        position = put(ASKS, position);
+        position = putLevels(ASK, instrument, position);
+        scratch[position++] = ']';
+        scratch[position++] = '}';
+        return Arrays.copyOf(scratch, position);
+    }
+
+    private int putLevels(QuoteSide side, Instrument instrument, int position) {
+        for (int i = 0; i < snapshot.getCount(side); i++) {
+            if (i > 0) scratch[position++] = ',';
+            scratch[position++] = '[';
+            position = Decimals.putDecimal(snapshot.getPrice(side, i), instrument.getPriceScale(), scratch, position);
+            scratch[position++] = ',';
+            position = Decimals.putDecimal(snapshot.getQuantity(side, i), instrument.getQuantityScale(), scratch, position);
+            scratch[position++] = ']';
+        }
+        return position;
+    }
+
+    private int put(byte[] bytes, int position) {
+        System.arraycopy(bytes, 0, scratch, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private byte[] encodeBinary() {
+        Instrument instrument = book.getInstrument();
+        int bidCount = snapshot.getCount(BID);
+        int askCount = snapshot.getCount(ASK);
+        ByteBuffer buffer = ByteBuffer.allocate(3 + 8 + 8 + 2 + 2 + (bidCount + askCount) * 16);
+        buffer.put(BINARY_ENCODING_VERSION)
+                .put((byte) instrument.getPriceScale())
+                .put((byte) instrument.getQuantityScale())
+                .putLong(snapshot.getVersion())
+                .putLong(snapshot.getSequence())
+                .putShort((short) bidCount)
+                .putShort((short) askCount);
+        for (int i = 0; i < bidCount; i++) buffer.putLong(snapshot.getPrice(BID, i)).putLong(snapshot.getQuantity(BID, i));
+        for (int i = 0; i < askCount; i++) buffer.putLong(snapshot.getPrice(ASK, i)).putLong(snapshot.getQuantity(ASK, i));
+        return buffer.array();
+    }
+
+    /**
+     * Versions restart with the process, the epoch keeps tags of different runs apart.
+     */
+    private static String etag(long version, char encoding) {
+        return "\"" + Long.toHexString(EPOCH) + "-" + Long.toHexString(version) + "-" + encoding + "\"";
+    }
+}
@@ -1,36 +1,167 @@
 package io.canalstreet.orderbook.md;
 
+import io.canalstreet.orderbook.data.Decimals;
 import io.canalstreet.orderbook.data.Instrument;
-import io.canalstreet.orderbook.md.kuc.KucMarketDataService;
-import jakarta.annotation.PostConstruct;
+import io.canalstreet.orderbook.data.InstrumentTable;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 @RestController
 public class OrderbookRestController {
+    private static final int DEPTH = 10;
 
     @Autowired
-    KucMarketDataService kucMarketDataService;
+    MarketDataService marketDataService;
 
-    private Instrument instrument;
+    @Autowired
+    TopOfBookBoard topOfBookBoard;
+
+    // Instruments are subscribed by the InstrumentConfig
+    private final InstrumentTable<OrderbookResponseCache> responseCaches = new InstrumentTable<>();
+
+    @GetMapping(value = "/orderbook", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getOrderbook(@RequestParam(defaultValue = "BTC-USDT") String symbol, WebRequest request) {
+        return respond(responseCache(symbol).json(), MediaType.APPLICATION_JSON, request);
+    }
+
+    /**
+     * Compact binary encoding of the same book for internal consumers, see {@link OrderbookResponseCache}.
+     */
+    @GetMapping(value = "/orderbook", produces = OrderbookResponseCache.BINARY_MEDIA_TYPE)
+    public ResponseEntity<byte[]> getOrderbookBinary(@RequestParam(defaultValue = "BTC-USDT") String symbol, WebRequest request) {
+        return respond(responseCache(symbol).binary(), MediaType.parseMediaType(OrderbookResponseCache.BINARY_MEDIA_TYPE), request);
+    }
+
+    /**
+     * Best prices, their sizes, sequence and update time of many instruments at once, read from
+     * the {@link TopOfBookBoard} rows without touching the books.
+     * @param symbols comma separated, all instruments when left out
+     */
+    @GetMapping(value = "/orderbook/top", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getTopOfBook(@RequestParam(required = false) List<String> symbols) {
+        if (symbols == null || symbols.isEmpty()) {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(topOfBookBoard.toJson());
+        }
+        int[] ids = new int[symbols.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Instrument instrument = marketDataService.findInstrument(symbols.get(i));
+            if (instrument == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown symbol " + symbols.get(i));
+            }
+            ids[i] = instrument.getId();
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(topOfBookBoard.toJson(ids, ids.length));
+    }
+
+    /**
+     * Running top of book analytics, read from the book without walking it.
+     * @param sweep size to price a sweep of each side for
+     */
+    @GetMapping(value = "/orderbook/analytics", produces = MediaType.APPLICATION_JSON_VALUE)
+    public AnalyticsResponse getAnalytics(@RequestParam(defaultValue = "BTC-USDT") String symbol,
+                                          @RequestParam(defaultValue = "1") double sweep) {
+        Instrument instrument = marketDataService.findInstrument(symbol);
+        L2BookView book = instrument == null ? null : marketDataService.getQuotesL2(instrument);
+        if (book == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown symbol " + symbol);
+        }
+        L2BookAnalytics analytics = new L2BookAnalytics();
+        book.readAnalytics(analytics);
+        long sweepQuantity = instrument.qtyToInt(sweep);
+        double priceUnit = Decimals.pow10Double(instrument.getPriceScale());
+        double quantityUnit = Decimals.pow10Double(instrument.getQuantityScale());
+        return new AnalyticsResponse(symbol, analytics.getVersion(),
+                analytics.getMid() / priceUnit, analytics.getMicroprice() / priceUnit, analytics.getImbalance(),
+                analytics.getBidDepth() / quantityUnit, analytics.getAskDepth() / quantityUnit,
+                book.getSweepPrice(QuoteSide.ASK, sweepQuantity) / priceUnit, book.getSweepPrice(QuoteSide.BID, sweepQuantity) / priceUnit);
+    }
+
+    /**
+     * Decimal prices and sizes, NaN ones are serialized as strings.
+     */
+    public record AnalyticsResponse(String symbol, long version, double mid, double microprice, double imbalance,
+                                    double bidDepth, double askDepth, double buySweepPrice, double sellSweepPrice) {
+    }
+
+    /**
+     * Rolling OHLCV, VWAP and signed taker flow of the instrument's trades over each
+     * {@link TradeFlow.Window}, ending now.
+     */
+    @GetMapping(value = "/orderbook/flow", produces = MediaType.APPLICATION_JSON_VALUE)
+    public FlowResponse getFlow(@RequestParam(defaultValue = "BTC-USDT") String symbol) {
+        Instrument instrument = marketDataService.findInstrument(symbol);
+        TradeFlow tradeFlow = instrument == null ? null : marketDataService.getTradeFlow(instrument);
+        if (tradeFlow == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No trades subscribed for " + symbol);
+        }
+        long now = System.currentTimeMillis();
+        double priceUnit = Decimals.pow10Double(instrument.getPriceScale());
+        double quantityUnit = Decimals.pow10Double(instrument.getQuantityScale());
+        TradeFlowWindow flow = new TradeFlowWindow();
+        List<FlowWindowResponse> windows = new ArrayList<>();
+        for (TradeFlow.Window window : TradeFlow.Window.values()) {
+            tradeFlow.read(window, now, flow);
+            boolean traded = flow.getTrades() > 0;
+            windows.add(new FlowWindowResponse(window.getLabel(), flow.getEndMillis(), flow.getTrades(),
+                    traded ? flow.getOpen() / priceUnit : Double.NaN, traded ? flow.getHigh() / priceUnit : Double.NaN,
+                    traded ? flow.getLow() / priceUnit : Double.NaN, traded ? flow.getClose() / priceUnit : Double.NaN,
+                    flow.getVolume() / quantityUnit, flow.getVwap() / priceUnit,
+                    flow.getBuyVolume() / quantityUnit, flow.getSellVolume() / quantityUnit, flow.getSignedFlow() / quantityUnit));
+        }
+        return new FlowResponse(symbol, tradeFlow.getTradeCount(), windows);
+    }
+
+    /**
+     * @param trades trades aggregated since the subscription
+     */
+    public record FlowResponse(String symbol, long trades, List<FlowWindowResponse> windows) {
+    }
+
+    /**
+     * Decimal prices and volumes of one window, prices are NaN without trades.
+     */
+    public record FlowWindowResponse(String window, long endMillis, long trades, double open, double high, double low, double close,
+                                     double volume, double vwap, double buyVolume, double sellVolume, double signedFlow) {
+    }
 
-    @PostConstruct
-    public void initSubscriptions() {
-        instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
-        kucMarketDataService.subscribe(instrument);
+    private ResponseEntity<byte[]> respond(OrderbookResponseCache.Response response, MediaType mediaType, WebRequest request) {
+        if (request.checkNotModified(response.etag())) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(response.etag()).contentType(mediaType).body(response.body());
     }
 
-    @RequestMapping(value = "/orderbook", produces = {"application/json"})
-    public Object getOrderbook() {
-        Map<String, List<float[]>> book = new HashMap<>();
-        book.put("bids", kucMarketDataService.getQuotesL2(instrument).getBids());
-        book.put("asks", kucMarketDataService.getQuotesL2(instrument).getAsks());
-        return book;
+    /**
+     * Cache of the instrument's book, or of the book consolidated across the instruments of an
+     * underlying under its symbol.
+     */
+    private OrderbookResponseCache responseCache(String symbol) {
+        Instrument instrument = marketDataService.findInstrument(symbol);
+        L2BookView book;
+        if (instrument != null) {
+            book = marketDataService.getQuotesL2(instrument);
+        } else {
+            instrument = marketDataService.findUnderlying(symbol);
+            book = instrument == null ? null : marketDataService.getConsolidatedL2(instrument);
+        }
+        if (book == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown symbol " + symbol);
+        }
+        OrderbookResponseCache cache = responseCaches.get(instrument);
+        if (cache == null) {
+            cache = responseCaches.computeIfAbsent(instrument, key -> new OrderbookResponseCache(book, DEPTH));
+        }
+        return cache;
     }
 
 }
@@ -0,0 +1,84 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentTable;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Server sent events stream of an instrument's top of book, conflated per client. Writes run on
+ * virtual threads, a client slow to read parks its own write only, and a client whose write is
+ * stuck past the write timeout is disconnected.
+ */
+@RestController
+public class OrderbookStreamController {
+    private static final int DEPTH = 10;
+
+    @Autowired
+    MarketDataService marketDataService;
+
+    @Value("${md.stream.write-timeout-ms:5000}")
+    long writeTimeoutMillis;
+
+    private final InstrumentTable<L2BookStream> streams = new InstrumentTable<>();
+    private final ExecutorService sender = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("orderbook-stream-", 1).factory());
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("orderbook-stream-watchdog").daemon().factory());
+
+    @PostConstruct
+    public void initListener() {
+        marketDataService.addListener((event, book) -> {
+            L2BookStream stream = streams.get(event.getInstrument());
+            if (stream != null) stream.onUpdate();
+        });
+        long period = Math.max(1, writeTimeoutMillis / 2);
+        watchdog.scheduleWithFixedDelay(this::dropStalled, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        watchdog.shutdownNow();
+        sender.shutdownNow();
+    }
+
+    private void dropStalled() {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        streams.forEach((instrument, stream) -> stream.dropStalled(timeoutNanos));
+    }
+
+    @GetMapping(value = "/orderbook/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamOrderbook(@RequestParam(defaultValue = "BTC-USDT") String symbol) {
+        Instrument instrument = marketDataService.findInstrument(symbol);
+        L2BookView book = instrument == null ? null : marketDataService.getQuotesL2(instrument);
+        if (book == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown symbol " + symbol);
+        }
+        L2BookStream stream = streams.computeIfAbsent(instrument, key -> new L2BookStream(new OrderbookResponseCache(book, DEPTH), sender,
+                marketDataService.getLatencyRecorder(), instrument));
+        SseEmitter emitter = new SseEmitter(0L);
+        L2BookStream.Subscriber subscriber = stream.subscribe(response -> emitter.send(SseEmitter.event()
+                .id(response.etag())
+                .name("book")
+                .data(response.body(), MediaType.APPLICATION_JSON)),
+                () -> emitter.completeWithError(new TimeoutException("Write stalled for " + writeTimeoutMillis + " ms")));
+        emitter.onCompletion(() -> stream.unsubscribe(subscriber));
+        emitter.onTimeout(() -> stream.unsubscribe(subscriber));
+        emitter.onError(ex -> stream.unsubscribe(subscriber));
+        return emitter;
+    }
+}
@@ -1,173 +1,372 @@
 package io.canalstreet.orderbook.md;
 
-import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
 import io.canalstreet.orderbook.data.Instrument;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import static io.canalstreet.orderbook.md.QuoteSide.ASK;
 import static io.canalstreet.orderbook.md.QuoteSide.BID;
 
 /**
  * Ring buffer enabled high performance Zero GC implementation of Order Book.
+ * Covers a window of ticks around the best prices, re-pegged as the market moves.
  */
-public class QuotesL2Book  {
-
-    private final Instrument instrument;
-    private final int l2depth;
-    private final IntArrayList quoteQtys;
-    private final int pegIndex;
-    private final long pegIndexPrice;
-    private long bestBidPrice = Integer.MIN_VALUE;
-    private long bestAskPrice = Integer.MAX_VALUE;
-    private long initSequence = 0;
-    private long lastSequenceStart = 0;
-    private long lastSequenceEnd = 0;
+public class QuotesL2Book extends AbstractL2Book {
+    private static final int MAX_SIZE = 1 << 16;
+
+    private final int tickSize;
+    private LongArrayList quoteQtys;
+    private int pegIndex;
+    private long pegIndexPrice;
+    private long bestBidPrice = NO_BID;
+    private long bestAskPrice = NO_ASK;
+    private long repegCount = 0;
+    // Live levels carried over a re-peg
+    private final long[] repegPrices;
+    private final long[] repegQtys;
+
+    public QuotesL2Book(Instrument instrument, int l2depth) {
+        this(instrument, l2depth, ringSize(instrument, l2depth));
+    }
 
     public QuotesL2Book(Instrument instrument, int l2depth, int size) {
-        this.instrument = instrument;
-        this.l2depth = l2depth;
+        super(instrument, l2depth);
+        this.tickSize = instrument.tickSizeInt();
         this.pegIndexPrice = instrument.priceToInt(instrument.getPegIndexPrice());
         this.pegIndex = size / 2;
-        this.quoteQtys = new IntArrayList(size);
-        for (int i = 0; i < size; i++) {
-            this.quoteQtys.add(0);
-        }
+        this.quoteQtys = newRing(size);
+        this.repegPrices = new long[2 * (l2depth + 1)];
+        this.repegQtys = new long[2 * (l2depth + 1)];
+    }
+
+    /**
+     * Smallest power of 2 ring holding both sides at full depth, a spread and a drift margin
+     * of one depth on each side. The spread allowance is 1bp of the peg price in ticks, capped
+     * at 4 depths, the ring grows on its own if the market ever needs more.
+     */
+    public static int ringSize(Instrument instrument, int l2depth) {
+        long spreadTicks = Math.round(instrument.getPegIndexPrice() * 0.0001 / instrument.getTickSize());
+        spreadTicks = Math.max(1, Math.min(spreadTicks, 4L * l2depth));
+        return nextPowerOfTwo((int) (4 * (l2depth + 1) + spreadTicks));
     }
 
-    public boolean isInitialized() {
-        return this.initSequence > 0;
+    @Override
+    protected void applyLevel(QuoteSide side, long price, long quantity) {
+        if (side == BID) {
+            applyBid(price, quantity);
+        }
+        else if (side == ASK) {
+            applyAsk(price, quantity);
+        }
     }
 
-    public void add(QuoteSide side, long price, int quantity) {
-        add(side, price, quantity, 0, 0);
+    private void applyBid(long price, long quantity) {
+        if (bestBidPrice == NO_BID || price > bestBidPrice) {
+            if (quantity == 0) return;
+            ensureWindow(BID, price);
+            if (bestBidPrice != NO_BID) {
+                // Levels falling out of depth behind the new best bid
+                long ticksJump = Math.min((price - bestBidPrice) / tickSize, l2depth + 1);
+                long trailing = bestBidPrice - (long) l2depth * tickSize;
+                for (int i = 0; i < ticksJump; i++) {
+                    clear(trailing + (long) i * tickSize, BID);
+                }
+            }
+            bestBidPrice = price;
+            set(price, quantity);
+            if (bestAskPrice != NO_ASK && price >= bestAskPrice) uncrossAsks(price);
+        }
+        else if (price == bestBidPrice && quantity == 0) {
+            set(price, 0);
+            bestBidPrice = nextLevel(BID, price);
+        }
+        else if (bestBidPrice - price <= (long) l2depth * tickSize) {
+            if (rawIndex(price) < 0) ensureWindow(BID, bestBidPrice);
+            set(price, quantity);
+        }
     }
 
-    public void add(QuoteSide side, long price, int quantity, long sequenceStart, long sequenceEnd) {
-        if (side == BID && bestBidPrice == Integer.MIN_VALUE) bestBidPrice = price;
-        if (side == ASK && bestAskPrice == Integer.MAX_VALUE) bestAskPrice = price;
-        if (outsideDepth(side, price))
-            return;
+    private void applyAsk(long price, long quantity) {
+        if (bestAskPrice == NO_ASK || price < bestAskPrice) {
+            if (quantity == 0) return;
+            ensureWindow(ASK, price);
+            if (bestAskPrice != NO_ASK) {
+                // Levels falling out of depth behind the new best ask
+                long ticksDrop = Math.min((bestAskPrice - price) / tickSize, l2depth + 1);
+                long trailing = bestAskPrice + (long) l2depth * tickSize;
+                for (int i = 0; i < ticksDrop; i++) {
+                    clear(trailing - (long) i * tickSize, ASK);
+                }
+            }
+            bestAskPrice = price;
+            set(price, -quantity);
+            if (bestBidPrice != NO_BID && price <= bestBidPrice) uncrossBids(price);
+        }
+        else if (price == bestAskPrice && quantity == 0) {
+            set(price, 0);
+            bestAskPrice = nextLevel(ASK, price);
+        }
+        else if (price - bestAskPrice <= (long) l2depth * tickSize) {
+            if (rawIndex(price) >= quoteQtys.size()) ensureWindow(ASK, bestAskPrice);
+            set(price, -quantity);
+        }
+    }
 
-        quoteQtys.set(toIndex(price), side.sign() * Math.abs(quantity));
+    /**
+     * Clears the side's live levels, moves the window once for the new best price and writes the
+     * levels within depth of it, instead of walking the best price and trailing levels level by level.
+     */
+    @Override
+    protected void replaceLevels(QuoteSide side, long[] prices, long[] quantities, int n) {
+        long best = side == BID ? NO_BID : NO_ASK;
+        for (int i = 0; i < n; i++) {
+            if (quantities[i] > 0 && (prices[i] - best) * side.sign() > 0) best = prices[i];
+        }
+        clearSide(side);
+        if (best == NO_BID || best == NO_ASK) return;
 
+        ensureWindow(side, best);
+        long depthRange = (long) l2depth * tickSize;
+        int sign = side.sign();
+        for (int i = 0; i < n; i++) {
+            if (quantities[i] > 0 && (best - prices[i]) * sign <= depthRange) set(prices[i], quantities[i] * sign);
+        }
         if (side == BID) {
-            updateBidBounds(price, quantity);
+            bestBidPrice = best;
+            if (bestAskPrice != NO_ASK && best >= bestAskPrice) uncrossAsks(best);
+        } else {
+            bestAskPrice = best;
+            if (bestBidPrice != NO_BID && best <= bestBidPrice) uncrossBids(best);
         }
-        else if (side == ASK) {
-            updateAskBounds(price, quantity);
+    }
+
+    /**
+     * Zeroes the side's levels within depth of its best price, stepping one slot per tick.
+     */
+    private void clearSide(QuoteSide side) {
+        long best = side == BID ? bestBidPrice : bestAskPrice;
+        if (side == BID) bestBidPrice = NO_BID;
+        else bestAskPrice = NO_ASK;
+        if (best == NO_BID || best == NO_ASK) return;
+        long[] ring = quoteQtys.buffer;
+        int size = quoteQtys.size();
+        int sign = side.sign();
+        int raw = rawIndex(best);
+        for (int i = 0; i <= l2depth; i++, raw -= sign) {
+            if (raw >= 0 && raw < size && ring[raw] * sign > 0) ring[raw] = 0;
         }
-        if (lastSequenceEnd == 0) initSequence = sequenceStart;
-        this.lastSequenceStart = sequenceStart;
-        this.lastSequenceEnd = sequenceEnd;
     }
 
-    private void updateBidBounds(long price, int quantity) {
-        if (quantity == 0 && bestBidPrice == price) {
-            for (int i = 0; quoteQtys.get(toIndex(bestBidPrice)) == 0 && i < quoteQtys.size(); i++) {
-                bestBidPrice = bestBidPrice - instrument.tickSizeInt();
+    @Override
+    protected void clearLevels() {
+        collectLive(BID, 0, false);
+        collectLive(ASK, 0, false);
+        bestBidPrice = NO_BID;
+        bestAskPrice = NO_ASK;
+    }
+
+    /**
+     * Next non empty level behind a removed best price, levels are only kept within depth.
+     */
+    private long nextLevel(QuoteSide side, long removedPrice) {
+        long step = -side.sign() * (long) tickSize;
+        long price = removedPrice;
+        for (int i = 0; i < l2depth; i++) {
+            price += step;
+            if (get(price) * side.sign() > 0) return price;
+        }
+        return side == BID ? NO_BID : NO_ASK;
+    }
+
+    private void uncrossAsks(long bidPrice) {
+        long price = bestAskPrice;
+        for (int i = 0; i <= l2depth; i++, price += tickSize) {
+            if (price <= bidPrice) {
+                clear(price, ASK);
+            }
+            else if (get(price) < 0) {
+                bestAskPrice = price;
+                return;
             }
         }
-        else if(price > bestBidPrice) {
-            int ticksJump = (int)((price - bestBidPrice) / instrument.tickSizeInt());
-            int indexTrailing = normIndex(toIndex(bestBidPrice) - l2depth);
-            for (int i = 0; i < ticksJump; i++) {
-                quoteQtys.set(oneRight(indexTrailing), 0);
+        bestAskPrice = NO_ASK;
+    }
+
+    private void uncrossBids(long askPrice) {
+        long price = bestBidPrice;
+        for (int i = 0; i <= l2depth; i++, price -= tickSize) {
+            if (price >= askPrice) {
+                clear(price, BID);
+            }
+            else if (get(price) > 0) {
+                bestBidPrice = price;
+                return;
             }
-            bestBidPrice = price;
         }
+        bestBidPrice = NO_BID;
     }
 
-    private void updateAskBounds(long price, int quantity) {
-        if (quantity == 0 && bestAskPrice == price) {
-            for (int i = 0; quoteQtys.get(toIndex(bestAskPrice)) == 0 && i < quoteQtys.size(); i++) {
-                bestAskPrice = bestAskPrice + instrument.tickSizeInt();
+    /**
+     * Re-pegs the ring when the live range after an update of the best price would leave the window.
+     * Only the live levels, at most depth per side, are moved. The ring grows if the live range
+     * is wider than the ring, the opposite side is dropped if it is too far away to be kept at all.
+     */
+    private void ensureWindow(QuoteSide side, long price) {
+        long depthRange = (long) l2depth * tickSize;
+        long low;
+        long high;
+        if (side == BID) {
+            low = price - depthRange;
+            high = bestAskPrice == NO_ASK || price >= bestAskPrice ? price : bestAskPrice + depthRange;
+        } else {
+            low = bestBidPrice == NO_BID || price <= bestBidPrice ? price : bestBidPrice - depthRange;
+            high = price + depthRange;
+        }
+        if (rawIndex(low) >= 0 && rawIndex(high) < quoteQtys.size()) return;
+
+        long span = (high - low) / tickSize + 1 + 2L * l2depth;
+        boolean keepOpposite = span <= MAX_SIZE;
+        int count = collectLive(BID, 0, side == BID || keepOpposite);
+        count = collectLive(ASK, count, side == ASK || keepOpposite);
+        if (!keepOpposite) {
+            // The opposite side is stale against a price this far away
+            if (side == BID) {
+                bestAskPrice = NO_ASK;
+                high = price;
+            } else {
+                bestBidPrice = NO_BID;
+                low = price;
             }
+            span = (high - low) / tickSize + 1 + 2L * l2depth;
         }
-        else if (price < bestAskPrice) {
-            int ticksDrop = (int)((bestAskPrice - price) / instrument.tickSizeInt());
-            int indexTrailing = normIndex(toIndex(bestAskPrice) + l2depth);
-            for (int i = 0; i < ticksDrop; i++) {
-                quoteQtys.set(oneLeft(indexTrailing), 0);
+        if (span > quoteQtys.size()) {
+            quoteQtys = newRing(nextPowerOfTwo((int) Math.min(span * 2, MAX_SIZE)));
+        }
+        pegIndex = quoteQtys.size() / 2;
+        pegIndexPrice = low + ((high - low) / tickSize / 2) * tickSize;
+        repegCount++;
+
+        for (int i = 0; i < count; i++) {
+            set(repegPrices[i], repegQtys[i]);
+        }
+    }
+
+    private int collectLive(QuoteSide side, int count, boolean keep) {
+        long best = side == BID ? bestBidPrice : bestAskPrice;
+        if (best == NO_BID || best == NO_ASK) return count;
+        long step = -side.sign() * (long) tickSize;
+        long price = best;
+        for (int i = 0; i <= l2depth; i++, price += step) {
+            int raw = rawIndex(price);
+            if (raw < 0 || raw >= quoteQtys.size()) continue;
+            long quantity = quoteQtys.get(raw);
+            if (quantity * side.sign() > 0) {
+                if (keep) {
+                    repegPrices[count] = price;
+                    repegQtys[count] = quantity;
+                    count++;
+                }
+                quoteQtys.set(raw, 0);
             }
-            bestAskPrice = price;
         }
+        return count;
     }
 
-    private boolean outsideDepth(QuoteSide side, long price) {
-        return  (side == BID && (Math.abs(bestBidPrice - price) / instrument.tickSizeInt() > l2depth)) ||
-                (side == ASK && (Math.abs(price - bestAskPrice) / instrument.tickSizeInt() > l2depth));
+    private long get(long price) {
+        int raw = rawIndex(price);
+        return raw >= 0 && raw < quoteQtys.size() ? quoteQtys.get(raw) : 0;
     }
 
-    public int toIndex(long price) {
-        int rawIndex = (int) (pegIndex + (price - pegIndexPrice) / instrument.tickSizeInt());
-        return normIndex(rawIndex);
+    private void set(long price, long signedQuantity) {
+        int raw = rawIndex(price);
+        if (raw >= 0 && raw < quoteQtys.size()) quoteQtys.set(raw, signedQuantity);
     }
 
-    private int normIndex(int rawIndex) {
-        int normRawIndex = rawIndex % quoteQtys.size();
-        return normRawIndex < 0 ? quoteQtys.size() + normRawIndex : normRawIndex;
+    private void clear(long price, QuoteSide side) {
+        int raw = rawIndex(price);
+        if (raw >= 0 && raw < quoteQtys.size() && quoteQtys.get(raw) * side.sign() > 0) quoteQtys.set(raw, 0);
     }
 
-    private int oneLeft(int index) {
-        return index > 0 ? index - 1 : quoteQtys.size() - 1;
+    private int rawIndex(long price) {
+        long raw = pegIndex + (price - pegIndexPrice) / tickSize;
+        return raw < Integer.MIN_VALUE || raw > Integer.MAX_VALUE ? -1 : (int) raw;
     }
 
-    private int oneRight(int index) {
-        return index + 1 == quoteQtys.size() ? 0 : index + 1;
+    private static LongArrayList newRing(int size) {
+        LongArrayList ring = new LongArrayList(size);
+        for (int i = 0; i < size; i++) {
+            ring.add(0);
+        }
+        return ring;
     }
 
-    public long getBestBid() {
-        return bestBidPrice;
+    private static int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
     }
 
-    public long getBestAsk() {
-        return bestAskPrice;
+    @Override
+    protected int readSide(QuoteSide side, long[] prices, long[] quantities, int n) {
+        long best = side == BID ? bestBidPrice : bestAskPrice;
+        if (best == NO_BID || best == NO_ASK) return 0;
+        LongArrayList qtys = quoteQtys;
+        int size = qtys.size();
+        long[] ring = qtys.buffer;
+        // Indexed from the copies only, a re-peg may swap the ring and move the peg meanwhile
+        long raw = pegIndex + (best - pegIndexPrice) / tickSize;
+        int index = size == 0 ? -1 : (int) Math.floorMod(raw, (long) size);
+        if (index < 0 || index >= ring.length || size > ring.length) return 0;
+        long step = -side.sign() * (long) tickSize;
+        int count = 0;
+        long price = best;
+        for (int i = 0; i <= l2depth && count < n; i++) {
+            long quantity = ring[index] * side.sign();
+            if (quantity > 0) {
+                prices[count] = price;
+                quantities[count] = quantity;
+                count++;
+            }
+            price += step;
+            index = side == BID ? (index > 0 ? index - 1 : size - 1) : (index + 1 == size ? 0 : index + 1);
+        }
+        return count;
     }
 
-    public int getBestBidSize() {
-        return quoteQtys.get(toIndex(bestBidPrice));
+    public int toIndex(long price) {
+        return normIndex(rawIndex(price));
     }
 
-    public int getBestAskSize() {
-        return quoteQtys.get(toIndex(bestAskPrice));
+    private int normIndex(int rawIndex) {
+        int normRawIndex = rawIndex % quoteQtys.size();
+        return normRawIndex < 0 ? quoteQtys.size() + normRawIndex : normRawIndex;
     }
 
-    public int getQtyAt(long price) {
-        return quoteQtys.get(toIndex(price));
+    @Override
+    public long getBestBid() {
+        return bestBidPrice;
     }
 
-    public int getQtyAt(QuoteSide side, int depth) {
-        int index = side == BID ? toIndex(getBestBid()) - depth : toIndex(getBestAsk()) + depth;
-        return quoteQtys.get(index);
+    @Override
+    public long getBestAsk() {
+        return bestAskPrice;
     }
 
-    public List<float[]> getBids() {
-        List<float[]> bids = new ArrayList<>();
-        long bidPrice = getBestBid();
-        for (int i = toIndex(bidPrice); toIndex(bidPrice) != toIndex(getBestBid() + l2depth); i = oneLeft(i)) {
-            bids.add(new float[]{ instrument.priceToDouble(bidPrice), instrument.qtyToDouble(quoteQtys.get(i)) });
-            bidPrice -= instrument.tickSizeInt();
-        }
-        return bids;
+    @Override
+    public long getQtyAt(long price) {
+        return get(price);
     }
 
-    public List<float[]> getAsks() {
-        List<float[]> bids = new ArrayList<>();
-        long askPrice = getBestAsk();
-        for (int i = toIndex(askPrice); toIndex(askPrice) != toIndex(getBestBid() + l2depth); i = oneLeft(i)) {
-            bids.add(new float[]{ instrument.priceToDouble(askPrice), instrument.qtyToDouble(quoteQtys.get(i)) });
-            askPrice -= instrument.tickSizeInt();
-        }
-        return bids;
+    public long getQtyAt(QuoteSide side, int depth) {
+        int index = side == BID ? toIndex(getBestBid()) - depth : toIndex(getBestAsk()) + depth;
+        return quoteQtys.get(normIndex(index));
     }
 
-    public long getLastSequenceStart(){
-        return this.lastSequenceStart;
+    /**
+     * Number of times the ring was re-pegged because the market drifted towards its edge.
+     */
+    public long getRepegCount() {
+        return repegCount;
     }
 
-    public long getLastSequenceEnd(){
-        return this.lastSequenceEnd;
+    public int getSize() {
+        return quoteQtys.size();
     }
 }
@@ -0,0 +1,249 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.util.Arrays;
+
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Reusable carrier of one decoded L2 message. Levels are held as scaled primitives,
+ * arrays only grow, so once warmed up an event is refilled without allocation.
+ * A trade of the instrument's match stream travels the same way, flagged by {@link #isTrade()},
+ * without levels, and so does an order message of a level3 feed, flagged by {@link #isOrder()}.
+ */
+public class QuotesL2Event {
+
+    private Instrument instrument;
+    private boolean snapshot;
+    private boolean sequenceGap;
+    private long sequenceStart;
+    private long sequenceEnd;
+    private long timestamp;
+    private boolean trade;
+    private long tradePrice;
+    private long tradeQuantity;
+    private QuoteSide takerSide;
+    private OrderAction orderAction;
+    private long orderIdHigh;
+    private long orderIdLow;
+    private QuoteSide orderSide;
+    private long orderPrice;
+    private long orderSize;
+    private final Levels bids = new Levels();
+    private final Levels asks = new Levels();
+
+    public void clear() {
+        instrument = null;
+        snapshot = false;
+        sequenceGap = false;
+        sequenceStart = 0;
+        sequenceEnd = 0;
+        timestamp = 0;
+        trade = false;
+        tradePrice = 0;
+        tradeQuantity = 0;
+        takerSide = null;
+        orderAction = null;
+        orderIdHigh = 0;
+        orderIdLow = 0;
+        orderSide = null;
+        orderPrice = 0;
+        orderSize = 0;
+        bids.count = 0;
+        asks.count = 0;
+    }
+
+    public void addLevel(QuoteSide side, long price, long quantity, long sequence) {
+        levels(side).add(price, quantity, sequence);
+    }
+
+    public int getLevelCount(QuoteSide side) {
+        return levels(side).count;
+    }
+
+    public long getPrice(QuoteSide side, int level) {
+        return levels(side).prices[level];
+    }
+
+    public long getQuantity(QuoteSide side, int level) {
+        return levels(side).quantities[level];
+    }
+
+    /**
+     * Prices of a side, valid up to {@link #getLevelCount}.
+     */
+    public long[] getPrices(QuoteSide side) {
+        return levels(side).prices;
+    }
+
+    /**
+     * Sizes of a side, valid up to {@link #getLevelCount}.
+     */
+    public long[] getQuantities(QuoteSide side) {
+        return levels(side).quantities;
+    }
+
+    /**
+     * Per level sequence as sent by the venue, or 0 when the feed does not carry one.
+     */
+    public long getSequence(QuoteSide side, int level) {
+        return levels(side).sequences[level];
+    }
+
+    public void setLevelSequence(QuoteSide side, int level, long sequence) {
+        levels(side).sequences[level] = sequence;
+    }
+
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    public void setInstrument(Instrument instrument) {
+        this.instrument = instrument;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Set by the sequence check when this update does not follow the previous one of the instrument.
+     */
+    public boolean isSequenceGap() {
+        return sequenceGap;
+    }
+
+    public void setSequenceGap(boolean sequenceGap) {
+        this.sequenceGap = sequenceGap;
+    }
+
+    public long getSequenceStart() {
+        return sequenceStart;
+    }
+
+    public void setSequenceStart(long sequenceStart) {
+        this.sequenceStart = sequenceStart;
+    }
+
+    public long getSequenceEnd() {
+        return sequenceEnd;
+    }
+
+    public void setSequenceEnd(long sequenceEnd) {
+        this.sequenceEnd = sequenceEnd;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * True when the event carries a trade rather than level updates.
+     */
+    public boolean isTrade() {
+        return trade;
+    }
+
+    /**
+     * Makes the event a trade.
+     * @param takerSide {@link QuoteSide#BID} when the taker bought
+     */
+    public void setTrade(long price, long quantity, QuoteSide takerSide) {
+        this.trade = true;
+        this.tradePrice = price;
+        this.tradeQuantity = quantity;
+        this.takerSide = takerSide;
+    }
+
+    public long getTradePrice() {
+        return tradePrice;
+    }
+
+    public long getTradeQuantity() {
+        return tradeQuantity;
+    }
+
+    public QuoteSide getTakerSide() {
+        return takerSide;
+    }
+
+    /**
+     * True when the event carries an order message of a level3 feed rather than level updates.
+     */
+    public boolean isOrder() {
+        return orderAction != null;
+    }
+
+    /**
+     * Makes the event an order message, its sequence being the event's sequence start and end.
+     * @param orderIdHigh bits of the venue's order id above the low 64 ones, the resting order's for a match
+     * @param orderIdLow low 64 bits of the order id
+     * @param side the order's side, null when the message does not carry it
+     * @param price 0 when the message does not carry it
+     * @param size the order's size when it opens or changes, the size filled when it matches
+     */
+    public void setOrder(OrderAction action, long orderIdHigh, long orderIdLow, QuoteSide side, long price, long size) {
+        this.orderAction = action;
+        this.orderIdHigh = orderIdHigh;
+        this.orderIdLow = orderIdLow;
+        this.orderSide = side;
+        this.orderPrice = price;
+        this.orderSize = size;
+    }
+
+    public OrderAction getOrderAction() {
+        return orderAction;
+    }
+
+    public long getOrderIdHigh() {
+        return orderIdHigh;
+    }
+
+    public long getOrderIdLow() {
+        return orderIdLow;
+    }
+
+    public QuoteSide getOrderSide() {
+        return orderSide;
+    }
+
+    public long getOrderPrice() {
+        return orderPrice;
+    }
+
+    public long getOrderSize() {
+        return orderSize;
+    }
+
+    private Levels levels(QuoteSide side) {
+        return side == BID ? bids : asks;
+    }
+
+    private static class Levels {
+        private long[] prices = new long[64];
+        private long[] quantities = new long[64];
+        private long[] sequences = new long[64];
+        private int count;
+
+        private void add(long price, long quantity, long sequence) {
+            if (count == prices.length) {
+                prices = Arrays.copyOf(prices, count * 2);
+                quantities = Arrays.copyOf(quantities, count * 2);
+                sequences = Arrays.copyOf(sequences, count * 2);
+            }
+            prices[count] = price;
+            quantities[count] = quantity;
+            sequences[count] = sequence;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Notified by the publish stage once an update has been applied to its book.
+ */
+public interface QuotesL2Listener {
+
+    void onQuotesL2(QuotesL2Event event, L2BookView book);
+
+}
@@ -0,0 +1,271 @@
+package io.canalstreet.orderbook.md;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Preallocated ring buffer pipeline between socket threads and the books.
+ * Frames are copied into ring slots by the socket threads and then pass through an optional
+ * capture stage, then decode, sequence check, apply and publish stages, each one running on its own thread.
+ * The apply stage is the only writer of the books fed by this pipeline.
+ * With an enabled {@link LatencyRecorder} each stage records the time since the frame was received.
+ */
+public class QuotesL2Pipeline implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuotesL2Pipeline.class);
+    private static final int SPIN_TRIES = 1_000;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final String name;
+    private final Slot[] slots;
+    private final int mask;
+    private final Cursor published = new Cursor();
+    private final Stage[] stages;
+    private final Stage apply;
+    private final LatencyRecorder latency;
+    private final boolean timed;
+    private volatile boolean running;
+
+    public QuotesL2Pipeline(String name, int capacity, FrameDecoder decoder,
+                            Consumer<QuotesL2Event> sequencer, Consumer<QuotesL2Event> applier, Consumer<QuotesL2Event> publisher) {
+        this(name, capacity, null, decoder, sequencer, applier, publisher);
+    }
+
+    /**
+     * @param capture sees every raw frame ahead of the decode stage, null for none
+     */
+    public QuotesL2Pipeline(String name, int capacity, FrameCapture capture, FrameDecoder decoder,
+                            Consumer<QuotesL2Event> sequencer, Consumer<QuotesL2Event> applier, Consumer<QuotesL2Event> publisher) {
+        this(name, capacity, capture, LatencyRecorder.NOOP, decoder, sequencer, applier, publisher);
+    }
+
+    /**
+     * @param latency records the per stage latency of decoded frames
+     */
+    public QuotesL2Pipeline(String name, int capacity, FrameCapture capture, LatencyRecorder latency, FrameDecoder decoder,
+                            Consumer<QuotesL2Event> sequencer, Consumer<QuotesL2Event> applier, Consumer<QuotesL2Event> publisher) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        this.name = name;
+        this.slots = new Slot[capacity];
+        this.mask = capacity - 1;
+        this.latency = latency;
+        this.timed = latency.isEnabled();
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        Stage first = capture == null ? null : new Stage("capture", published, null,
+                slot -> capture.capture(slot.frame.chars(), 0, slot.frame.length(), slot.receivedNanos));
+        Stage decode = new Stage("decode", first == null ? published : first.cursor, LatencyStage.DECODE, slot -> {
+            slot.decoded = decode(decoder, slot);
+            if (timed && slot.decoded && slot.event.getTimestamp() > 0) {
+                latency.record(slot.event.getInstrument(), LatencyStage.SKEW,
+                        Math.max(0, System.currentTimeMillis() - slot.event.getTimestamp()) * 1_000_000);
+            }
+        });
+        Stage sequence = new Stage("sequence", decode.cursor, LatencyStage.SEQUENCE, slot -> { if (slot.decoded) sequencer.accept(slot.event); });
+        this.apply = new Stage("apply", sequence.cursor, LatencyStage.APPLY, slot -> { if (slot.decoded) applier.accept(slot.event); });
+        this.apply.tasks = new ConcurrentLinkedQueue<>();
+        Stage publish = new Stage("publish", apply.cursor, LatencyStage.PUBLISH, slot -> { if (slot.decoded) publisher.accept(slot.event); });
+        this.stages = first == null ? new Stage[]{ decode, sequence, apply, publish } : new Stage[]{ first, decode, sequence, apply, publish };
+    }
+
+    public void start() {
+        running = true;
+        for (Stage stage : stages) {
+            Thread thread = new Thread(stage, name + "-" + stage.name);
+            thread.setDaemon(true);
+            stage.thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Copies a complete frame into the next slot. Blocks while the ring is full.
+     */
+    public synchronized void publish(CharSequence frame, long receivedNanos) {
+        long next = published.value + 1;
+        awaitCapacity(next);
+        Slot slot = slots[(int) next & mask];
+        slot.frame.reset();
+        slot.frame.append(frame);
+        slot.receivedNanos = receivedNanos;
+        published.setRelease(next);
+    }
+
+    public synchronized void publish(char[] frame, int offset, int length, long receivedNanos) {
+        long next = published.value + 1;
+        awaitCapacity(next);
+        Slot slot = slots[(int) next & mask];
+        slot.frame.reset();
+        slot.frame.append(frame, offset, length);
+        slot.receivedNanos = receivedNanos;
+        published.setRelease(next);
+    }
+
+    /**
+     * Runs the task on the apply stage thread in between frames, where it may write the books.
+     */
+    public void executeOnApply(Runnable task) {
+        apply.tasks.add(task);
+        Thread thread = apply.thread;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    /**
+     * Number of frames published but not yet through the last stage.
+     */
+    public int backlog() {
+        return (int) (published.getAcquire() - stages[stages.length - 1].cursor.getAcquire());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Stage stage : stages) {
+            if (stage.thread != null) {
+                LockSupport.unpark(stage.thread);
+                try {
+                    stage.thread.join(1_000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void awaitCapacity(long next) {
+        Cursor tail = stages[stages.length - 1].cursor;
+        int idle = 0;
+        while (next - tail.getAcquire() > slots.length) {
+            idle = idle(idle);
+        }
+    }
+
+    private boolean decode(FrameDecoder decoder, Slot slot) {
+        try {
+            return decoder.decode(slot.frame.chars(), 0, slot.frame.length(), slot.event);
+        } catch (Exception ex) {
+            LOGGER.error("Failed to parse message: {}", new String(slot.frame.chars(), 0, slot.frame.length()), ex);
+            return false;
+        }
+    }
+
+    private static int idle(int idle) {
+        if (idle < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return idle + 1;
+    }
+
+    private static class Slot {
+        private final FrameBuffer frame = new FrameBuffer(4096);
+        private final QuotesL2Event event = new QuotesL2Event();
+        private long receivedNanos;
+        private boolean decoded;
+    }
+
+    private class Stage implements Runnable {
+        private final String name;
+        private final Cursor upstream;
+        private final Cursor cursor = new Cursor();
+        private final LatencyStage latencyStage;
+        private final Consumer<Slot> handler;
+        private Queue<Runnable> tasks;
+        private volatile Thread thread;
+
+        private Stage(String name, Cursor upstream, LatencyStage latencyStage, Consumer<Slot> handler) {
+            this.name = name;
+            this.upstream = upstream;
+            this.latencyStage = latencyStage;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            long next = cursor.value + 1;
+            int idle = 0;
+            while (running) {
+                if (tasks != null) runTasks();
+                long available = upstream.getAcquire();
+                if (available < next) {
+                    idle = idle(idle);
+                    continue;
+                }
+                idle = 0;
+                for (; next <= available; next++) {
+                    Slot slot = slots[(int) next & mask];
+                    try {
+                        handler.accept(slot);
+                        if (timed && latencyStage != null && slot.decoded) {
+                            latency.record(slot.event.getInstrument(), latencyStage, System.nanoTime() - slot.receivedNanos);
+                        }
+                    } catch (Exception ex) {
+                        LOGGER.error("Stage {} failed on sequence {}", name, next, ex);
+                    }
+                }
+                cursor.setRelease(available);
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception ex) {
+                    LOGGER.error("Stage {} task failed", name, ex);
+                }
+            }
+        }
+    }
+
+    private static class CursorPadding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class CursorValue extends CursorPadding {
+        volatile long value = -1;
+    }
+
+    /**
+     * Stage position padded against false sharing with its neighbours.
+     */
+    private static class Cursor extends CursorValue {
+        private static final VarHandle VALUE;
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(CursorValue.class, "value", long.class);
+            } catch (ReflectiveOperationException ex) {
+                throw new ExceptionInInitializerError(ex);
+            }
+        }
+        long p9, p10, p11, p12, p13, p14, p15;
+
+        long getAcquire() {
+            return (long) VALUE.getAcquire(this);
+        }
+
+        void setRelease(long value) {
+            VALUE.setRelease(this, value);
+        }
+    }
+}
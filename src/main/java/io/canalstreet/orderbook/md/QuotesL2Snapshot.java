@@ -0,0 +1,63 @@
+package io.canalstreet.orderbook.md;
+
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Caller owned, reusable top N copy of a book taken atomically by {@link L2BookView#readSnapshot}.
+ */
+public class QuotesL2Snapshot {
+
+    private final long[] bidPrices;
+    private final long[] bidQuantities;
+    private final long[] askPrices;
+    private final long[] askQuantities;
+    int bidCount;
+    int askCount;
+    long version;
+    long sequence;
+
+    public QuotesL2Snapshot(int depth) {
+        this.bidPrices = new long[depth];
+        this.bidQuantities = new long[depth];
+        this.askPrices = new long[depth];
+        this.askQuantities = new long[depth];
+    }
+
+    public int getDepth() {
+        return bidPrices.length;
+    }
+
+    public int getCount(QuoteSide side) {
+        return side == BID ? bidCount : askCount;
+    }
+
+    public long getPrice(QuoteSide side, int level) {
+        return side == BID ? bidPrices[level] : askPrices[level];
+    }
+
+    /**
+     * Unsigned size at the level.
+     */
+    public long getQuantity(QuoteSide side, int level) {
+        return side == BID ? bidQuantities[level] : askQuantities[level];
+    }
+
+    /**
+     * Book version the snapshot was taken at.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    long[] prices(QuoteSide side) {
+        return side == BID ? bidPrices : askPrices;
+    }
+
+    long[] quantities(QuoteSide side) {
+        return side == BID ? bidQuantities : askQuantities;
+    }
+}
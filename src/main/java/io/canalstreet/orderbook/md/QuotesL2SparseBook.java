@@ -0,0 +1,192 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.util.Arrays;
+
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Full depth Order Book over sorted primitive price arrays, for feeds spreading thousands of
+ * levels across wide price ranges. Each side keeps its best price at the end of its arrays,
+ * so updates near the top of the book shift only a few elements.
+ * Arrays only grow, the book is allocation free once it reached its widest extent.
+ */
+public class QuotesL2SparseBook extends AbstractL2Book {
+
+    private final Side bids = new Side(BID);
+    private final Side asks = new Side(QuoteSide.ASK);
+    private final boolean removeCrossed;
+    private long bestBidPrice = NO_BID;
+    private long bestAskPrice = NO_ASK;
+
+    /**
+     * @param l2depth number of levels reported by {@link #getBids()}/{@link #getAsks()}, all levels are kept
+     */
+    public QuotesL2SparseBook(Instrument instrument, int l2depth) {
+        this(instrument, l2depth, true);
+    }
+
+    /**
+     * @param removeCrossed whether a new level drops the levels of the other side it crosses,
+     *                      false where sides may legitimately cross, as across venues
+     */
+    protected QuotesL2SparseBook(Instrument instrument, int l2depth, boolean removeCrossed) {
+        super(instrument, l2depth);
+        this.removeCrossed = removeCrossed;
+    }
+
+    @Override
+    protected void applyLevel(QuoteSide side, long price, long quantity) {
+        if (side == BID) {
+            bids.set(price, quantity);
+            if (quantity > 0 && removeCrossed) asks.removeCrossed(price);
+        } else {
+            asks.set(price, quantity);
+            if (quantity > 0 && removeCrossed) bids.removeCrossed(price);
+        }
+        bestBidPrice = bids.count > 0 ? bids.prices[bids.count - 1] : NO_BID;
+        bestAskPrice = asks.count > 0 ? asks.prices[asks.count - 1] : NO_ASK;
+    }
+
+    /**
+     * Levels are appended from the worst one, each lands at the end of the side's arrays.
+     */
+    @Override
+    protected void replaceLevels(QuoteSide side, long[] prices, long[] quantities, int n) {
+        Side levels = side == BID ? bids : asks;
+        levels.count = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            levels.set(prices[i], quantities[i]);
+        }
+        if (levels.count > 0 && removeCrossed) {
+            (side == BID ? asks : bids).removeCrossed(levels.prices[levels.count - 1]);
+        }
+        bestBidPrice = bids.count > 0 ? bids.prices[bids.count - 1] : NO_BID;
+        bestAskPrice = asks.count > 0 ? asks.prices[asks.count - 1] : NO_ASK;
+    }
+
+    @Override
+    protected void clearLevels() {
+        bids.count = 0;
+        asks.count = 0;
+        bestBidPrice = NO_BID;
+        bestAskPrice = NO_ASK;
+    }
+
+    @Override
+    protected int readSide(QuoteSide side, long[] prices, long[] quantities, int n) {
+        Side levels = side == BID ? bids : asks;
+        long[] sidePrices = levels.prices;
+        long[] sideQuantities = levels.quantities;
+        int last = Math.min(levels.count, Math.min(sidePrices.length, sideQuantities.length)) - 1;
+        int count = 0;
+        for (int i = last; i >= 0 && count < n; i--) {
+            prices[count] = sidePrices[i];
+            quantities[count] = sideQuantities[i];
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public long getBestBid() {
+        return bestBidPrice;
+    }
+
+    @Override
+    public long getBestAsk() {
+        return bestAskPrice;
+    }
+
+    @Override
+    public long getQtyAt(long price) {
+        long quantity = bids.get(price);
+        return quantity != 0 ? quantity : -asks.get(price);
+    }
+
+    /**
+     * Unsigned size at the price on one side, 0 without a level.
+     */
+    public long getQtyAt(QuoteSide side, long price) {
+        return side == BID ? bids.get(price) : asks.get(price);
+    }
+
+    public int getLevelCount(QuoteSide side) {
+        return side == BID ? bids.count : asks.count;
+    }
+
+    /**
+     * Levels of one side sorted from the worst to the best price.
+     */
+    private static class Side {
+        private final int sign;
+        private long[] prices = new long[256];
+        private long[] quantities = new long[256];
+        private int count;
+
+        private Side(QuoteSide side) {
+            this.sign = side.sign();
+        }
+
+        private void set(long price, long quantity) {
+            int index = search(price);
+            if (index >= 0) {
+                if (quantity > 0) {
+                    quantities[index] = quantity;
+                } else {
+                    System.arraycopy(prices, index + 1, prices, index, count - index - 1);
+                    System.arraycopy(quantities, index + 1, quantities, index, count - index - 1);
+                    count--;
+                }
+            } else if (quantity > 0) {
+                int insertion = -index - 1;
+                if (count == prices.length) {
+                    prices = Arrays.copyOf(prices, count * 2);
+                    quantities = Arrays.copyOf(quantities, count * 2);
+                }
+                System.arraycopy(prices, insertion, prices, insertion + 1, count - insertion);
+                System.arraycopy(quantities, insertion, quantities, insertion + 1, count - insertion);
+                prices[insertion] = price;
+                quantities[insertion] = quantity;
+                count++;
+            }
+        }
+
+        private long get(long price) {
+            long[] sidePrices = prices;
+            long[] sideQuantities = quantities;
+            int index = search(sidePrices, Math.min(count, Math.min(sidePrices.length, sideQuantities.length)), price);
+            return index >= 0 ? sideQuantities[index] : 0;
+        }
+
+        /**
+         * Drops the levels the other side's new price crossed, they are stale.
+         */
+        private void removeCrossed(long otherPrice) {
+            while (count > 0 && (prices[count - 1] - otherPrice) * sign >= 0) {
+                count--;
+            }
+        }
+
+        private int search(long price) {
+            return search(prices, count, price);
+        }
+
+        /**
+         * Binary search in the side's order: ascending prices for bids, descending for asks.
+         */
+        private int search(long[] sidePrices, int size, long price) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long cmp = (sidePrices[mid] - price) * sign;
+                if (cmp < 0) low = mid + 1;
+                else if (cmp > 0) high = mid - 1;
+                else return mid;
+            }
+            return -(low + 1);
+        }
+    }
+}
@@ -1,53 +1,119 @@
 package io.canalstreet.orderbook.md;
 
-import com.carrotsearch.hppc.IntArrayDeque;
-import com.carrotsearch.hppc.LongArrayDeque;
-import lombok.Data;
+import java.util.Arrays;
 
-import static io.canalstreet.orderbook.md.QuoteSide.BID;
-
-@Data
+/**
+ * FIFO of incremental level updates held back while a book is resynced from a snapshot.
+ * Updates are kept in arrival order with the sequence they were sent at, so that a replay
+ * applies only those following the snapshot. Arrays only grow, up to a maximum number of levels,
+ * a cache is reused across resyncs.
+ */
 public class QuotesL2UpdateCache {
+    public static final int DEFAULT_MAX_LEVELS = 1 << 18;
+
+    private final int maxLevels;
+
+    private QuoteSide[] sides = new QuoteSide[1024];
+    private long[] prices = new long[1024];
+    private long[] quantities = new long[1024];
+    private long[] sequences = new long[1024];
+    private int count;
+    private long firstSequenceStart;
+
+    public QuotesL2UpdateCache() {
+        this(DEFAULT_MAX_LEVELS);
+    }
 
-    private LongArrayDeque sequenceStartQueue = new LongArrayDeque(1000);
-    private LongArrayDeque sequenceEndQueue = new LongArrayDeque(1000);
-    private LongArrayDeque bidsPriceQueue = new LongArrayDeque(1000);
-    private IntArrayDeque bidsQuantityQueue = new IntArrayDeque(1000);
-    private LongArrayDeque asksPriceQueue = new LongArrayDeque(1000);
-    private IntArrayDeque asksQuantityQueue = new IntArrayDeque(1000);
+    /**
+     * @param maxLevels levels held at most, an update which does not fit any more is refused
+     */
+    public QuotesL2UpdateCache(int maxLevels) {
+        this.maxLevels = maxLevels;
+    }
 
     public boolean isEmpty() {
-        return sequenceStartQueue.isEmpty() && sequenceEndQueue.isEmpty();
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Sequence start of the oldest cached update, 0 when empty.
+     */
+    public long getFirstSequenceStart() {
+        return firstSequenceStart;
     }
 
-    public void add(QuoteSide side, long price, int quantity, long sequenceStart, long sequenceEnd) {
-        sequenceStartQueue.addFirst(sequenceStart);
-        sequenceEndQueue.addFirst(sequenceEnd);
-        if (side == BID) {
-            bidsPriceQueue.addFirst(price);
-            bidsQuantityQueue.addFirst(quantity);
+    /**
+     * Caches all levels of an incremental update, the levels of both sides merged in the order
+     * of their sequences, so that the book ends a replay at the update's last one. Levels without
+     * a sequence of their own are given the update's sequence end.
+     * @return false when the update did not fit, nothing of it was cached
+     */
+    public boolean add(QuotesL2Event event) {
+        int bidCount = event.getLevelCount(QuoteSide.BID);
+        int askCount = event.getLevelCount(QuoteSide.ASK);
+        if (count + bidCount + askCount > maxLevels) {
+            return false;
         }
-        if (side == QuoteSide.ASK) {
-            asksPriceQueue.addFirst(price);
-            asksQuantityQueue.addFirst(quantity);
+        if (count == 0) {
+            firstSequenceStart = event.getSequenceStart();
         }
+        int bid = 0;
+        int ask = 0;
+        while (bid < bidCount || ask < askCount) {
+            if (ask == askCount || bid < bidCount && sequence(event, QuoteSide.BID, bid) <= sequence(event, QuoteSide.ASK, ask)) {
+                add(QuoteSide.BID, event.getPrice(QuoteSide.BID, bid), event.getQuantity(QuoteSide.BID, bid), sequence(event, QuoteSide.BID, bid));
+                bid++;
+            } else {
+                add(QuoteSide.ASK, event.getPrice(QuoteSide.ASK, ask), event.getQuantity(QuoteSide.ASK, ask), sequence(event, QuoteSide.ASK, ask));
+                ask++;
+            }
+        }
+        return true;
     }
 
-    public void move(QuotesL2Book book) {
-        while(!isEmpty()) {
-            long sequenceStart = sequenceStartQueue.removeFirst();
-            long sequenceEnd = sequenceEndQueue.removeFirst();
+    private void add(QuoteSide side, long price, long quantity, long sequence) {
+        if (count == prices.length) {
+            int length = (int) Math.min((long) count * 2, Math.max(maxLevels, count + 1));
+            sides = Arrays.copyOf(sides, length);
+            prices = Arrays.copyOf(prices, length);
+            quantities = Arrays.copyOf(quantities, length);
+            sequences = Arrays.copyOf(sequences, length);
+        }
+        sides[count] = side;
+        prices[count] = price;
+        quantities[count] = quantity;
+        sequences[count] = sequence;
+        count++;
+    }
 
-            long bidPrice = bidsPriceQueue.removeFirst();
-            int bidQuantity = bidsQuantityQueue.removeFirst();
-            if (sequenceStart <= book.getLastSequenceEnd()+1 && sequenceEnd > book.getLastSequenceEnd()) {
-                book.add(BID, bidPrice, bidQuantity);
-            }
-            long askPrice = bidsPriceQueue.removeFirst();
-            int askQuantity = bidsQuantityQueue.removeFirst();
-            if (sequenceStart <= book.getLastSequenceEnd()+1 && sequenceEnd > book.getLastSequenceEnd()) {
-                book.add(BID, askPrice, askQuantity);
+    /**
+     * Applies, in arrival order, the cached updates sent after the snapshot the book was
+     * just loaded from, and empties the cache.
+     * @return the number of updates applied
+     */
+    public int replay(L2Book book, long snapshotSequence) {
+        int applied = 0;
+        for (int i = 0; i < count; i++) {
+            if (sequences[i] > snapshotSequence) {
+                book.add(sides[i], prices[i], quantities[i], sequences[i], sequences[i]);
+                applied++;
             }
         }
+        clear();
+        return applied;
+    }
+
+    public void clear() {
+        count = 0;
+        firstSequenceStart = 0;
+    }
+
+    private static long sequence(QuotesL2Event event, QuoteSide side, int level) {
+        long sequence = event.getSequence(side, level);
+        return sequence > 0 ? sequence : event.getSequenceEnd();
     }
 }
@@ -0,0 +1,627 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Order by order book of a level3 feed, written per order id as orders open, match, change and
+ * are done. Full depth levels are derived from the orders one level at a time into a
+ * {@link QuotesL2SparseBook} only this book writes, within the same write section, so the book
+ * reads as any other {@link L2BookView}.
+ * Orders are nodes of a pool of primitive arrays, linked in time priority into an intrusive FIFO
+ * per price level and found through an open addressing index keyed by the order id, up to 128
+ * bits as a high and a low long: KuCoin's ids are 24 hex digits, keyed exactly, never hashed.
+ * Freed nodes and levels are reused and the arrays only grow, the book is allocation free once
+ * it held its largest number of orders.
+ */
+public class QuotesL3Book implements L2BookView {
+    private static final int NONE = -1;
+
+    private final Instrument instrument;
+    private final QuotesL2SparseBook levels;
+    private final Levels bids = new Levels();
+    private final Levels asks = new Levels();
+    private final KeyIndex orders;
+    // Order nodes, linked from the oldest to the newest order of their level
+    private long[] idHighs;
+    private long[] idLows;
+    private long[] sizes;
+    private int[] levelSlots;
+    private byte[] sides;
+    private int[] next;
+    private int[] previous;
+    private int used;
+    private int free = NONE;
+    private int orderCount;
+
+    public QuotesL3Book(Instrument instrument, int l2depth) {
+        this(instrument, l2depth, 1 << 16);
+    }
+
+    /**
+     * @param orderCapacity number of order nodes preallocated, the pool doubles when the book holds more
+     */
+    public QuotesL3Book(Instrument instrument, int l2depth, int orderCapacity) {
+        this.instrument = instrument;
+        // Levels only ever hold resting orders, a crossing order is matched before it opens
+        this.levels = new QuotesL2SparseBook(instrument, l2depth, false);
+        this.orders = new KeyIndex(orderCapacity);
+        this.idHighs = new long[orderCapacity];
+        this.idLows = new long[orderCapacity];
+        this.sizes = new long[orderCapacity];
+        this.levelSlots = new int[orderCapacity];
+        this.sides = new byte[orderCapacity];
+        this.next = new int[orderCapacity];
+        this.previous = new int[orderCapacity];
+    }
+
+    /**
+     * Adds a resting order with an id of up to 64 bits, see {@link #open(QuoteSide, long, long, long, long, long)}.
+     */
+    public boolean open(QuoteSide side, long orderId, long price, long size, long sequence) {
+        return open(side, 0, orderId, price, size, sequence);
+    }
+
+    /**
+     * Adds a resting order at the back of its level's queue.
+     * @param idHigh bits of the order id above the low 64 ones
+     * @return false if the order is already in the book or has no size, the book is left unchanged
+     */
+    public boolean open(QuoteSide side, long idHigh, long idLow, long price, long size, long sequence) {
+        if (size <= 0 || orders.get(idHigh, idLow) != NONE) return false;
+        Levels queues = side == BID ? bids : asks;
+        levels.beginWrite();
+        try {
+            int node = allocate();
+            int slot = queues.acquire(price);
+            idHighs[node] = idHigh;
+            idLows[node] = idLow;
+            sizes[node] = size;
+            levelSlots[node] = slot;
+            sides[node] = (byte) side.ordinal();
+            queues.append(slot, node);
+            orders.put(idHigh, idLow, node);
+            orderCount++;
+            levels.updateLevel(side, price, queues.totals[slot]);
+            levels.updateSequence(sequence, sequence);
+        } finally {
+            levels.endWrite();
+        }
+        return true;
+    }
+
+    public boolean match(long orderId, long size, long sequence) {
+        return match(0, orderId, size, sequence);
+    }
+
+    /**
+     * Fills part of a resting order, removing it once nothing is left.
+     * @return false if the order is not in the book, as for a match following its done
+     */
+    public boolean match(long idHigh, long idLow, long size, long sequence) {
+        int node = orders.get(idHigh, idLow);
+        if (node == NONE) return false;
+        levels.beginWrite();
+        try {
+            resize(node, sizes[node] - size);
+            levels.updateSequence(sequence, sequence);
+        } finally {
+            levels.endWrite();
+        }
+        return true;
+    }
+
+    public boolean change(long orderId, long size, long sequence) {
+        return change(0, orderId, size, sequence);
+    }
+
+    /**
+     * Sets the size of a resting order, which keeps its place in the queue.
+     * @return false if the order is not in the book
+     */
+    public boolean change(long idHigh, long idLow, long size, long sequence) {
+        int node = orders.get(idHigh, idLow);
+        if (node == NONE) return false;
+        levels.beginWrite();
+        try {
+            resize(node, size);
+            levels.updateSequence(sequence, sequence);
+        } finally {
+            levels.endWrite();
+        }
+        return true;
+    }
+
+    public boolean done(long orderId, long sequence) {
+        return done(0, orderId, sequence);
+    }
+
+    /**
+     * Removes a filled or canceled order.
+     * @return false if the order is not in the book, as for the done of an order filled by a match
+     */
+    public boolean done(long idHigh, long idLow, long sequence) {
+        int node = orders.get(idHigh, idLow);
+        if (node == NONE) return false;
+        levels.beginWrite();
+        try {
+            remove(node);
+            levels.updateSequence(sequence, sequence);
+        } finally {
+            levels.endWrite();
+        }
+        return true;
+    }
+
+    private void resize(int node, long size) {
+        if (size <= 0) {
+            remove(node);
+            return;
+        }
+        Levels queues = queues(node);
+        int slot = levelSlots[node];
+        queues.totals[slot] += size - sizes[node];
+        sizes[node] = size;
+        levels.updateLevel(side(node), queues.prices[slot], queues.totals[slot]);
+    }
+
+    private void remove(int node) {
+        Levels queues = queues(node);
+        int slot = levelSlots[node];
+        long price = queues.prices[slot];
+        long total = queues.unlink(slot, node);
+        orders.remove(idHighs[node], idLows[node]);
+        orderCount--;
+        release(node);
+        levels.updateLevel(side(node), price, total);
+    }
+
+    /**
+     * Drops all orders and levels.
+     */
+    public void reset() {
+        levels.beginWrite();
+        try {
+            orders.clear();
+            bids.clear();
+            asks.clear();
+            used = 0;
+            free = NONE;
+            orderCount = 0;
+            // Joins this write section
+            levels.clear();
+        } finally {
+            levels.endWrite();
+        }
+    }
+
+    public long getQueueAhead(long orderId) {
+        return getQueueAhead(0, orderId);
+    }
+
+    /**
+     * Size resting ahead of the order in its level's queue.
+     * @return -1 if the order is not in the book
+     */
+    public long getQueueAhead(long idHigh, long idLow) {
+        while (true) {
+            long before = getVersion();
+            long ahead = queueAhead(idHigh, idLow);
+            VarHandle.loadLoadFence();
+            if (getVersion() == before) return ahead;
+        }
+    }
+
+    public long getOrderSize(long orderId) {
+        return getOrderSize(0, orderId);
+    }
+
+    /**
+     * Unsigned size of the order, 0 if it is not in the book.
+     */
+    public long getOrderSize(long idHigh, long idLow) {
+        while (true) {
+            long before = getVersion();
+            int node = orders.get(idHigh, idLow);
+            long[] orderSizes = sizes;
+            long size = node >= 0 && node < orderSizes.length ? orderSizes[node] : 0;
+            VarHandle.loadLoadFence();
+            if (getVersion() == before) return size;
+        }
+    }
+
+    /**
+     * Copies up to n orders of a level in time priority, the high and low longs of their ids and
+     * their sizes, into the caller's arrays.
+     * @return the number of orders copied
+     */
+    public int readOrders(QuoteSide side, long price, long[] highs, long[] lows, long[] quantities, int n) {
+        while (true) {
+            long before = getVersion();
+            int count = readLevel(side == BID ? bids : asks, price, highs, lows, quantities, n);
+            VarHandle.loadLoadFence();
+            if (getVersion() == before) return count;
+        }
+    }
+
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    /**
+     * Number of orders at the price on one side, 0 without a level.
+     */
+    public int getOrderCount(QuoteSide side, long price) {
+        while (true) {
+            long before = getVersion();
+            Levels levels = side == BID ? bids : asks;
+            int slot = levels.index.get(0, price);
+            int[] counts = levels.counts;
+            int count = slot >= 0 && slot < counts.length ? counts[slot] : 0;
+            VarHandle.loadLoadFence();
+            if (getVersion() == before) return count;
+        }
+    }
+
+    @Override
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Never: no level3 snapshot is loaded, the book holds the orders opened since the subscription
+     * but misses those resting before it.
+     */
+    @Override
+    public boolean isInitialized() {
+        return false;
+    }
+
+    @Override
+    public long getBestBid() {
+        return levels.getBestBid();
+    }
+
+    @Override
+    public long getBestAsk() {
+        return levels.getBestAsk();
+    }
+
+    @Override
+    public long getBestBidSize() {
+        return levels.getBestBidSize();
+    }
+
+    @Override
+    public long getBestAskSize() {
+        return levels.getBestAskSize();
+    }
+
+    @Override
+    public long getQtyAt(long price) {
+        return levels.getQtyAt(price);
+    }
+
+    public int getLevelCount(QuoteSide side) {
+        return levels.getLevelCount(side);
+    }
+
+    @Override
+    public long getVersion() {
+        return levels.getVersion();
+    }
+
+    @Override
+    public long readSnapshot(QuotesL2Snapshot snapshot) {
+        return levels.readSnapshot(snapshot);
+    }
+
+    @Override
+    public int readTop(QuoteSide side, long[] prices, long[] quantities, int n) {
+        return levels.readTop(side, prices, quantities, n);
+    }
+
+    @Override
+    public long readAnalytics(L2BookAnalytics analytics) {
+        return levels.readAnalytics(analytics);
+    }
+
+    @Override
+    public double getMicroprice() {
+        return levels.getMicroprice();
+    }
+
+    @Override
+    public double getImbalance() {
+        return levels.getImbalance();
+    }
+
+    @Override
+    public double getSweepPrice(QuoteSide side, long quantity) {
+        return levels.getSweepPrice(side, quantity);
+    }
+
+    @Override
+    public List<float[]> getBids() {
+        return levels.getBids();
+    }
+
+    @Override
+    public List<float[]> getAsks() {
+        return levels.getAsks();
+    }
+
+    @Override
+    public long getLastSequenceStart() {
+        return levels.getLastSequenceStart();
+    }
+
+    @Override
+    public long getLastSequenceEnd() {
+        return levels.getLastSequenceEnd();
+    }
+
+    /**
+     * Walks the queue ahead of the order, possibly on torn state: links are bounds checked and
+     * the walk is bounded, as links moved by the writer in between may form a cycle.
+     */
+    private long queueAhead(long idHigh, long idLow) {
+        int node = orders.get(idHigh, idLow);
+        long[] orderSizes = sizes;
+        int[] links = previous;
+        int length = Math.min(orderSizes.length, links.length);
+        if (node < 0 || node >= length) return -1;
+        long ahead = 0;
+        int steps = 0;
+        for (int p = links[node]; p >= 0 && p < length && steps < length; p = links[p], steps++) {
+            ahead += orderSizes[p];
+        }
+        return ahead;
+    }
+
+    private int readLevel(Levels levels, long price, long[] highs, long[] lows, long[] quantities, int n) {
+        int slot = levels.index.get(0, price);
+        int[] heads = levels.heads;
+        if (slot < 0 || slot >= heads.length) return 0;
+        long[] nodeHighs = idHighs;
+        long[] nodeLows = idLows;
+        long[] orderSizes = sizes;
+        int[] links = next;
+        int length = Math.min(Math.min(Math.min(nodeHighs.length, nodeLows.length), orderSizes.length), links.length);
+        int count = 0;
+        for (int p = heads[slot]; p >= 0 && p < length && count < n; p = links[p]) {
+            highs[count] = nodeHighs[p];
+            lows[count] = nodeLows[p];
+            quantities[count] = orderSizes[p];
+            count++;
+        }
+        return count;
+    }
+
+    private Levels queues(int node) {
+        return sides[node] == BID.ordinal() ? bids : asks;
+    }
+
+    private QuoteSide side(int node) {
+        return sides[node] == BID.ordinal() ? BID : ASK;
+    }
+
+    private int allocate() {
+        int node = free;
+        if (node != NONE) {
+            free = next[node];
+            return node;
+        }
+        if (used == idLows.length) {
+            int capacity = Math.max(16, used * 2);
+            idHighs = Arrays.copyOf(idHighs, capacity);
+            idLows = Arrays.copyOf(idLows, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            levelSlots = Arrays.copyOf(levelSlots, capacity);
+            sides = Arrays.copyOf(sides, capacity);
+            next = Arrays.copyOf(next, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+        }
+        return used++;
+    }
+
+    /**
+     * Returns the node to the pool, its next link chains the free nodes. Its previous link is
+     * left as it was, a reader still on the node walks on to nodes of the level.
+     */
+    private void release(int node) {
+        next[node] = free;
+        free = node;
+    }
+
+    /**
+     * Price levels of one side, each one the head and tail of its FIFO of orders with their
+     * count and total size, in slots reused once their last order is gone.
+     */
+    private class Levels {
+        private final KeyIndex index = new KeyIndex(256);
+        private long[] prices = new long[256];
+        private long[] totals = new long[256];
+        private int[] heads = new int[256];
+        private int[] tails = new int[256];
+        private int[] counts = new int[256];
+        private int used;
+        private int free = NONE;
+
+        /**
+         * Slot of the price's level, set up empty if the price has none.
+         */
+        private int acquire(long price) {
+            int slot = index.get(0, price);
+            if (slot != NONE) return slot;
+            slot = free;
+            if (slot != NONE) {
+                free = heads[slot];
+            } else {
+                if (used == prices.length) {
+                    int capacity = used * 2;
+                    prices = Arrays.copyOf(prices, capacity);
+                    totals = Arrays.copyOf(totals, capacity);
+                    heads = Arrays.copyOf(heads, capacity);
+                    tails = Arrays.copyOf(tails, capacity);
+                    counts = Arrays.copyOf(counts, capacity);
+                }
+                slot = used++;
+            }
+            prices[slot] = price;
+            totals[slot] = 0;
+            heads[slot] = NONE;
+            tails[slot] = NONE;
+            counts[slot] = 0;
+            index.put(0, price, slot);
+            return slot;
+        }
+
+        private void append(int slot, int node) {
+            int tail = tails[slot];
+            previous[node] = tail;
+            next[node] = NONE;
+            if (tail == NONE) heads[slot] = node;
+            else next[tail] = node;
+            tails[slot] = node;
+            counts[slot]++;
+            totals[slot] += sizes[node];
+        }
+
+        /**
+         * Takes the node out of the level's queue, releasing the level once empty.
+         * @return the total size left at the level
+         */
+        private long unlink(int slot, int node) {
+            int before = previous[node];
+            int after = next[node];
+            if (before == NONE) heads[slot] = after;
+            else next[before] = after;
+            if (after == NONE) tails[slot] = before;
+            else previous[after] = before;
+            totals[slot] -= sizes[node];
+            if (--counts[slot] > 0) return totals[slot];
+            index.remove(0, prices[slot]);
+            heads[slot] = free;
+            free = slot;
+            return 0;
+        }
+
+        private void clear() {
+            index.clear();
+            used = 0;
+            free = NONE;
+        }
+    }
+
+    /**
+     * Open addressing map of keys of two longs, a high and a low one, to non negative ints, with
+     * linear probing and removals shifting back the entries probed past the removed one. Prices
+     * are keyed with a high long of 0. Slots are found from the length of the arrays at hand, a
+     * read racing a resize or a removal misses or finds garbage but always ends, for the seqlock
+     * to retry it.
+     */
+    private static class KeyIndex {
+        private long[] highs;
+        private long[] lows;
+        // Value + 1, 0 for an empty slot
+        private int[] values;
+        private int size;
+
+        private KeyIndex(int expected) {
+            int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, 2 * expected - 1)) << 1);
+            this.highs = new long[capacity];
+            this.lows = new long[capacity];
+            this.values = new int[capacity];
+        }
+
+        private int get(long high, long low) {
+            long[] slotHighs = highs;
+            long[] slotLows = lows;
+            int[] slotValues = values;
+            if (slotHighs.length != slotValues.length || slotLows.length != slotValues.length) return NONE;
+            int mask = slotValues.length - 1;
+            int slot = slot(high, low, mask);
+            for (int i = 0; i <= mask; i++, slot = (slot + 1) & mask) {
+                int value = slotValues[slot];
+                if (value == 0) return NONE;
+                if (slotLows[slot] == low && slotHighs[slot] == high) return value - 1;
+            }
+            return NONE;
+        }
+
+        private void put(long high, long low, int value) {
+            if (2 * (size + 1) > values.length) grow();
+            int mask = values.length - 1;
+            int slot = slot(high, low, mask);
+            while (values[slot] != 0) {
+                if (lows[slot] == low && highs[slot] == high) {
+                    values[slot] = value + 1;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            highs[slot] = high;
+            lows[slot] = low;
+            values[slot] = value + 1;
+            size++;
+        }
+
+        private void remove(long high, long low) {
+            int mask = values.length - 1;
+            int slot = slot(high, low, mask);
+            while (values[slot] != 0 && (lows[slot] != low || highs[slot] != high)) slot = (slot + 1) & mask;
+            if (values[slot] == 0) return;
+            size--;
+            // Entries after the hole move into it unless their home slot lies between the two
+            int hole = slot;
+            for (int i = (hole + 1) & mask; values[i] != 0; i = (i + 1) & mask) {
+                int home = slot(highs[i], lows[i], mask);
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    highs[hole] = highs[i];
+                    lows[hole] = lows[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            values[hole] = 0;
+        }
+
+        private void clear() {
+            Arrays.fill(values, 0);
+            size = 0;
+        }
+
+        private void grow() {
+            long[] oldHighs = highs;
+            long[] oldLows = lows;
+            int[] oldValues = values;
+            long[] newHighs = new long[oldValues.length * 2];
+            long[] newLows = new long[oldValues.length * 2];
+            int[] newValues = new int[oldValues.length * 2];
+            int mask = newValues.length - 1;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] == 0) continue;
+                int slot = slot(oldHighs[i], oldLows[i], mask);
+                while (newValues[slot] != 0) slot = (slot + 1) & mask;
+                newHighs[slot] = oldHighs[i];
+                newLows[slot] = oldLows[i];
+                newValues[slot] = oldValues[i];
+            }
+            highs = newHighs;
+            lows = newLows;
+            values = newValues;
+        }
+
+        private static int slot(long high, long low, int mask) {
+            long hash = (low + high * 0xC2B2AE3D27D4EB4FL) * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Decimals;
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.data.InstrumentTable;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Latest top of book of every instrument packed into long arrays, one 64 byte row per
+ * {@link InstrumentRegistry} id, so that a query over many instruments reads rows instead of
+ * walking books. Rows are written on the publish stage of the instrument's pipeline, only when
+ * the best prices or their sizes changed, under a seqlock per row:
+ * <pre>
+ * seqlock | bid | ask | bidSize | askSize | sequence | updatedMicros | bookVersion
+ * </pre>
+ * Rows live in fixed pages, growing the table never moves a row a writer is updating.
+ */
+@Component
+public class TopOfBookBoard implements QuotesL2Listener {
+    static final int SEQLOCK = 0;
+    static final int BID = 1;
+    static final int ASK = 2;
+    static final int BID_SIZE = 3;
+    static final int ASK_SIZE = 4;
+    static final int SEQUENCE = 5;
+    static final int UPDATED_MICROS = 6;
+    static final int BOOK_VERSION = 7;
+    static final int ROW = 8;
+    private static final int PAGE_SHIFT = 6;
+    private static final int PAGE_ROWS = 1 << PAGE_SHIFT;
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final byte[] SYMBOL = "{\"symbol\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BID_FIELD = "\",\"bid\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ASK_FIELD = ",\"ask\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BID_SIZE_FIELD = ",\"bidSize\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ASK_SIZE_FIELD = ",\"askSize\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEQUENCE_FIELD = ",\"sequence\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME_FIELD = ",\"time\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    // Room for the fields and six longs with sign and point, the symbol comes on top
+    private static final int MAX_ROW = 256;
+
+    @Autowired
+    MarketDataService marketDataService;
+
+    private final InstrumentRegistry registry;
+    private final InstrumentTable<L2BookAnalytics> scratch = new InstrumentTable<>();
+    // Encoded {"symbol":"..","bid": of each instrument, written with its first row
+    private final InstrumentTable<byte[]> prefixes = new InstrumentTable<>();
+    private volatile long[][] pages = new long[0][];
+
+    public TopOfBookBoard(InstrumentRegistry registry) {
+        this.registry = registry;
+    }
+
+    @PostConstruct
+    public void initListener() {
+        marketDataService.addListener(this);
+    }
+
+    @Override
+    public void onQuotesL2(QuotesL2Event event, L2BookView book) {
+        record(book, MicrosClock.nowMicros());
+    }
+
+    /**
+     * Writes the book's top of book into its row unless unchanged. Single writer per instrument.
+     * @return whether the row was written
+     */
+    public boolean record(L2BookView book, long timeMicros) {
+        Instrument instrument = book.getInstrument();
+        L2BookAnalytics analytics = scratch.get(instrument);
+        if (analytics == null) {
+            analytics = scratch.computeIfAbsent(instrument, key -> new L2BookAnalytics());
+            prefixes.computeIfAbsent(instrument, TopOfBookBoard::prefix);
+        }
+        long version = book.readAnalytics(analytics);
+        long bidSize = analytics.getBestBidSize();
+        long askSize = analytics.getBestAskSize();
+        // The sentinels of empty sides are not reported
+        long bid = bidSize > 0 ? analytics.getBestBid() : 0;
+        long ask = askSize > 0 ? analytics.getBestAsk() : 0;
+        int id = instrument.getId();
+        long[] page = page(id);
+        int row = (id & (PAGE_ROWS - 1)) * ROW;
+        long seqlock = page[row + SEQLOCK];
+        if (seqlock != 0 && page[row + BID] == bid && page[row + ASK] == ask
+                && page[row + BID_SIZE] == bidSize && page[row + ASK_SIZE] == askSize) {
+            return false;
+        }
+        LONGS.setOpaque(page, row + SEQLOCK, seqlock + 1);
+        VarHandle.storeStoreFence();
+        page[row + BID] = bid;
+        page[row + ASK] = ask;
+        page[row + BID_SIZE] = bidSize;
+        page[row + ASK_SIZE] = askSize;
+        page[row + SEQUENCE] = book.getLastSequenceEnd();
+        page[row + UPDATED_MICROS] = timeMicros;
+        page[row + BOOK_VERSION] = version;
+        LONGS.setRelease(page, row + SEQLOCK, seqlock + 2);
+        return true;
+    }
+
+    /**
+     * Copies the row of the instrument id into the caller's array at the row offsets.
+     * @return false if the instrument has no top of book yet
+     */
+    public boolean read(int id, long[] into) {
+        long[][] current = pages;
+        int p = id >>> PAGE_SHIFT;
+        if (id < 0 || p >= current.length || current[p] == null) return false;
+        long[] page = current[p];
+        int row = (id & (PAGE_ROWS - 1)) * ROW;
+        while (true) {
+            long before = (long) LONGS.getAcquire(page, row + SEQLOCK);
+            if (before == 0) return false;
+            if ((before & 1) == 0) {
+                System.arraycopy(page, row + 1, into, 1, ROW - 1);
+                VarHandle.loadLoadFence();
+                if ((long) LONGS.getOpaque(page, row + SEQLOCK) == before) {
+                    into[SEQLOCK] = before;
+                    return true;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * JSON array of the top of book of the instrument ids, with decimal prices and sizes, null
+     * prices for empty sides and the update time in microseconds since the epoch. Ids without
+     * a top of book yet are left out.
+     */
+    public byte[] toJson(int[] ids, int count) {
+        long[] row = new long[ROW];
+        // Typical rows take half the room of the longest ones, the buffer grows for the rest
+        byte[] out = new byte[MAX_ROW + count * MAX_ROW / 2];
+        int position = 0;
+        out[position++] = '[';
+        for (int i = 0; i < count; i++) {
+            Instrument instrument = registry.get(ids[i]);
+            byte[] prefix = prefixes.get(ids[i]);
+            if (instrument == null || prefix == null || !read(ids[i], row)) continue;
+            if (position + prefix.length + MAX_ROW > out.length) {
+                out = Arrays.copyOf(out, 2 * out.length + prefix.length + MAX_ROW);
+            }
+            if (position > 1) out[position++] = ',';
+            position = put(prefix, out, position);
+            int priceScale = instrument.getPriceScale();
+            int quantityScale = instrument.getQuantityScale();
+            position = row[BID_SIZE] > 0 ? Decimals.putDecimal(row[BID], priceScale, out, position) : put(NULL, out, position);
+            position = put(ASK_FIELD, out, position);
+            position = row[ASK_SIZE] > 0 ? Decimals.putDecimal(row[ASK], priceScale, out, position) : put(NULL, out, position);
+            position = put(BID_SIZE_FIELD, out, position);
+            position = Decimals.putDecimal(row[BID_SIZE], quantityScale, out, position);
+            position = put(ASK_SIZE_FIELD, out, position);
+            position = Decimals.putDecimal(row[ASK_SIZE], quantityScale, out, position);
+            position = put(SEQUENCE_FIELD, out, position);
+            position = Decimals.putDecimal(row[SEQUENCE], 0, out, position);
+            position = put(TIME_FIELD, out, position);
+            position = Decimals.putDecimal(row[UPDATED_MICROS], 0, out, position);
+            out[position++] = '}';
+        }
+        out[position++] = ']';
+        return Arrays.copyOf(out, position);
+    }
+
+    /**
+     * JSON array of the top of book of every registered instrument, in id order.
+     */
+    public byte[] toJson() {
+        int size = registry.size();
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) ids[i] = i;
+        return toJson(ids, size);
+    }
+
+    private static byte[] prefix(Instrument instrument) {
+        byte[] symbol = instrument.getSymbol().getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = new byte[SYMBOL.length + symbol.length + BID_FIELD.length];
+        put(BID_FIELD, prefix, put(symbol, prefix, put(SYMBOL, prefix, 0)));
+        return prefix;
+    }
+
+    private long[] page(int id) {
+        int p = id >>> PAGE_SHIFT;
+        long[][] current = pages;
+        if (p < current.length && current[p] != null) return current[p];
+        synchronized (this) {
+            current = pages;
+            if (p >= current.length) {
+                current = Arrays.copyOf(current, Math.max(p + 1, 2 * current.length));
+            } else if (current[p] == null) {
+                current = current.clone();
+            } else {
+                return current[p];
+            }
+            current[p] = new long[PAGE_ROWS * ROW];
+            pages = current;
+            return current[p];
+        }
+    }
+
+    private static int put(byte[] bytes, byte[] out, int position) {
+        System.arraycopy(bytes, 0, out, position, bytes.length);
+        return position + bytes.length;
+    }
+}
@@ -0,0 +1,223 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Decimals;
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static io.canalstreet.orderbook.md.TopOfBookSeries.ASK;
+import static io.canalstreet.orderbook.md.TopOfBookSeries.ASK_DEPTH;
+import static io.canalstreet.orderbook.md.TopOfBookSeries.ASK_SIZE;
+import static io.canalstreet.orderbook.md.TopOfBookSeries.BID;
+import static io.canalstreet.orderbook.md.TopOfBookSeries.BID_DEPTH;
+import static io.canalstreet.orderbook.md.TopOfBookSeries.BID_SIZE;
+import static io.canalstreet.orderbook.md.TopOfBookSeries.TIME;
+import static io.canalstreet.orderbook.md.TopOfBookSeries.UPDATES;
+
+/**
+ * Top of book history of one instrument: best prices, their sizes and the top N depth of each
+ * side, as a raw series at microsecond time stamps plus rollups holding the last top of book of
+ * every second and minute, written once the interval is over. Updates leaving the top of book
+ * unchanged only count towards the last row. Recorded by a single thread, read concurrently.
+ */
+public class TopOfBookHistory {
+    private static final byte[] CSV_HEADER = "time,bid,ask,bidSize,askSize,bidDepth,askDepth,updates\n".getBytes(StandardCharsets.US_ASCII);
+
+    public enum Resolution {
+        RAW("raw", 0),
+        SECOND("1s", 1_000_000),
+        MINUTE("1m", 60_000_000);
+
+        private final String label;
+        private final long micros;
+
+        Resolution(String label, long micros) {
+            this.label = label;
+            this.micros = micros;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Resolution of a label such as "1s".
+         * @throws IllegalArgumentException for an unknown label
+         */
+        public static Resolution of(String label) {
+            for (Resolution resolution : values()) {
+                if (resolution.label.equals(label)) return resolution;
+            }
+            throw new IllegalArgumentException("Unknown resolution " + label);
+        }
+    }
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final Instrument instrument;
+    private final TopOfBookSeries[] series = new TopOfBookSeries[RESOLUTIONS.length];
+    private final L2BookAnalytics analytics = new L2BookAnalytics();
+    // Open rollup buckets, indexed by resolution ordinal
+    private final long[] bucketStarts = new long[series.length];
+    private final long[] bucketUpdates = new long[series.length];
+    private long bid;
+    private long ask;
+    private long bidSize;
+    private long askSize;
+    private long bidDepth;
+    private long askDepth;
+
+    /**
+     * @param maxChunks chunks retained per resolution, indexed by ordinal
+     */
+    public TopOfBookHistory(Instrument instrument, int chunkRows, int... maxChunks) {
+        this.instrument = instrument;
+        for (Resolution resolution : RESOLUTIONS) {
+            series[resolution.ordinal()] = new TopOfBookSeries(chunkRows, maxChunks[resolution.ordinal()]);
+        }
+    }
+
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    public TopOfBookSeries getSeries(Resolution resolution) {
+        return series[resolution.ordinal()];
+    }
+
+    /**
+     * Records the book's top of book at the time, in microseconds, no earlier than the previous one.
+     */
+    public void record(L2BookView book, long timeMicros) {
+        book.readAnalytics(analytics);
+        for (int r = 1; r < series.length; r++) {
+            roll(r, timeMicros);
+        }
+        long bidSize = analytics.getBestBidSize();
+        long askSize = analytics.getBestAskSize();
+        // The sentinels of empty sides are not part of the history
+        long bid = bidSize > 0 ? analytics.getBestBid() : 0;
+        long ask = askSize > 0 ? analytics.getBestAsk() : 0;
+        TopOfBookSeries raw = series[0];
+        if (raw.getCount() > 0 && bid == this.bid && ask == this.ask && bidSize == this.bidSize && askSize == this.askSize
+                && analytics.getBidDepth() == bidDepth && analytics.getAskDepth() == askDepth) {
+            raw.addUpdates(1);
+            return;
+        }
+        this.bid = bid;
+        this.ask = ask;
+        this.bidSize = bidSize;
+        this.askSize = askSize;
+        this.bidDepth = analytics.getBidDepth();
+        this.askDepth = analytics.getAskDepth();
+        raw.append(timeMicros, bid, ask, bidSize, askSize, bidDepth, askDepth, 1);
+    }
+
+    /**
+     * Closes the resolution's open bucket with the last top of book once the time moved past it.
+     */
+    private void roll(int r, long timeMicros) {
+        long width = RESOLUTIONS[r].micros;
+        long bucketStart = timeMicros - Math.floorMod(timeMicros, width);
+        if (bucketStart != bucketStarts[r]) {
+            if (bucketUpdates[r] > 0) {
+                series[r].append(bucketStarts[r], bid, ask, bidSize, askSize, bidDepth, askDepth, bucketUpdates[r]);
+            }
+            bucketStarts[r] = bucketStart;
+            bucketUpdates[r] = 0;
+        }
+        bucketUpdates[r]++;
+    }
+
+    /**
+     * Streams the rows of a resolution within [fromMicros, toMicros) as CSV with decimal prices and
+     * sizes, rows of empty sides without price. Rows are written straight from the columns as they
+     * are read, rows recycled meanwhile are skipped.
+     * @return the number of rows written
+     */
+    public long writeCsv(Resolution resolution, long fromMicros, long toMicros, OutputStream out) throws IOException {
+        TopOfBookSeries rows = series[resolution.ordinal()];
+        CsvWriter csv = new CsvWriter(out);
+        csv.put(CSV_HEADER);
+        int priceScale = instrument.getPriceScale();
+        int quantityScale = instrument.getQuantityScale();
+        long written = 0;
+        long count = rows.getCount();
+        for (long row = rows.search(fromMicros); row < count; row++) {
+            long time = rows.get(row, TIME);
+            long bid = rows.get(row, BID);
+            long ask = rows.get(row, ASK);
+            long bidSize = rows.get(row, BID_SIZE);
+            long askSize = rows.get(row, ASK_SIZE);
+            long bidDepth = rows.get(row, BID_DEPTH);
+            long askDepth = rows.get(row, ASK_DEPTH);
+            long updates = rows.get(row, UPDATES);
+            if (!rows.isRetained(row)) {
+                row = rows.getFirst() - 1;
+                continue;
+            }
+            if (time >= toMicros) break;
+            csv.putLong(time).put(',');
+            if (bidSize > 0) csv.putDecimal(bid, priceScale);
+            csv.put(',');
+            if (askSize > 0) csv.putDecimal(ask, priceScale);
+            csv.put(',').putDecimal(bidSize, quantityScale)
+                    .put(',').putDecimal(askSize, quantityScale)
+                    .put(',').putDecimal(bidDepth, quantityScale)
+                    .put(',').putDecimal(askDepth, quantityScale)
+                    .put(',').putLong(updates).put('\n');
+            written++;
+        }
+        csv.flush();
+        return written;
+    }
+
+    /**
+     * Buffers the text of rows ahead of the stream, nothing is allocated per row.
+     */
+    private static class CsvWriter {
+        // Room for the longest row
+        private static final int MAX_ROW = 256;
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+
+        private CsvWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        private CsvWriter put(byte[] bytes) {
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+            return this;
+        }
+
+        private CsvWriter put(char c) throws IOException {
+            buffer[position++] = (byte) c;
+            if (c == '\n' && position > buffer.length - MAX_ROW) flush();
+            return this;
+        }
+
+        private CsvWriter putLong(long value) {
+            position = Decimals.putDecimal(value, 0, buffer, position);
+            return this;
+        }
+
+        /**
+         * Plain decimal without trailing fraction zeros.
+         */
+        private CsvWriter putDecimal(long scaled, int scale) {
+            position = Decimals.putDecimal(scaled, scale, buffer, position);
+            return this;
+        }
+
+        private void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.canalstreet.orderbook.md;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Append only time series of top of book rows held column by column in fixed size off heap chunks.
+ * Chunks are allocated as the series grows and recycled oldest first once the series holds
+ * maxChunks of them, which bounds its retention. Single writer, lock free readers: a reader copies
+ * a row, then checks with {@link #isRetained} that its chunk was not recycled meanwhile.
+ * Rows are numbered from 0 for the life of the series.
+ */
+public class TopOfBookSeries {
+    public static final int TIME = 0;
+    public static final int BID = 1;
+    public static final int ASK = 2;
+    public static final int BID_SIZE = 3;
+    public static final int ASK_SIZE = 4;
+    public static final int BID_DEPTH = 5;
+    public static final int ASK_DEPTH = 6;
+    public static final int UPDATES = 7;
+    public static final int COLUMNS = 8;
+
+    private static final VarHandle COUNT;
+    private static final VarHandle FIRST;
+    static {
+        try {
+            COUNT = MethodHandles.lookup().findVarHandle(TopOfBookSeries.class, "count", long.class);
+            FIRST = MethodHandles.lookup().findVarHandle(TopOfBookSeries.class, "first", long.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private final int shift;
+    private final int mask;
+    private final int chunkRows;
+    private final long capacity;
+    private final ByteBuffer[] chunks;
+    private long count;
+    private long first;
+
+    /**
+     * @param chunkRows rows per chunk, a power of 2
+     * @param maxChunks chunks kept, the oldest one is recycled beyond
+     */
+    public TopOfBookSeries(int chunkRows, int maxChunks) {
+        if (Integer.bitCount(chunkRows) != 1) throw new IllegalArgumentException("Chunk rows must be a power of 2: " + chunkRows);
+        if (maxChunks < 1) throw new IllegalArgumentException("At least one chunk is needed: " + maxChunks);
+        this.shift = Integer.numberOfTrailingZeros(chunkRows);
+        this.mask = chunkRows - 1;
+        this.chunkRows = chunkRows;
+        this.capacity = (long) chunkRows * maxChunks;
+        this.chunks = new ByteBuffer[maxChunks];
+    }
+
+    public void append(long time, long bid, long ask, long bidSize, long askSize, long bidDepth, long askDepth, long updates) {
+        long row = count;
+        int offset = (int) row & mask;
+        ByteBuffer chunk = chunks[chunkIndex(row)];
+        if (offset == 0) {
+            if (row >= capacity) {
+                // Readers drop the recycled chunk's rows before they are overwritten
+                FIRST.setOpaque(this, row - capacity + chunkRows);
+                VarHandle.storeStoreFence();
+            } else if (chunk == null) {
+                chunk = ByteBuffer.allocateDirect(COLUMNS * chunkRows * Long.BYTES).order(ByteOrder.nativeOrder());
+                chunks[chunkIndex(row)] = chunk;
+            }
+        }
+        put(chunk, TIME, offset, time);
+        put(chunk, BID, offset, bid);
+        put(chunk, ASK, offset, ask);
+        put(chunk, BID_SIZE, offset, bidSize);
+        put(chunk, ASK_SIZE, offset, askSize);
+        put(chunk, BID_DEPTH, offset, bidDepth);
+        put(chunk, ASK_DEPTH, offset, askDepth);
+        put(chunk, UPDATES, offset, updates);
+        COUNT.setRelease(this, row + 1);
+    }
+
+    /**
+     * Adds to the update count of the last row, for updates which left the top of book as it was.
+     */
+    public void addUpdates(long updates) {
+        long row = count - 1;
+        ByteBuffer chunk = chunks[chunkIndex(row)];
+        int offset = (int) row & mask;
+        put(chunk, UPDATES, offset, chunk.getLong(index(UPDATES, offset)) + updates);
+    }
+
+    /**
+     * Number of rows ever appended, the next row's number.
+     */
+    public long getCount() {
+        return (long) COUNT.getAcquire(this);
+    }
+
+    /**
+     * Number of the oldest row retained.
+     */
+    public long getFirst() {
+        return (long) FIRST.getAcquire(this);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Value of a row below {@link #getCount()}, garbage when the row is no longer retained.
+     */
+    public long get(long row, int column) {
+        return chunks[chunkIndex(row)].getLong(index(column, (int) row & mask));
+    }
+
+    /**
+     * Whether the values read so far of the row were not overwritten.
+     */
+    public boolean isRetained(long row) {
+        VarHandle.loadLoadFence();
+        return row >= (long) FIRST.getOpaque(this);
+    }
+
+    /**
+     * First retained row at or after the time, {@link #getCount()} when none.
+     */
+    public long search(long time) {
+        long low = getFirst();
+        long high = getCount() - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            if (get(mid, TIME) < time) low = mid + 1;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    private int chunkIndex(long row) {
+        return (int) ((row >>> shift) % chunks.length);
+    }
+
+    private int index(int column, int offset) {
+        return (column * chunkRows + offset) * Long.BYTES;
+    }
+
+    private void put(ByteBuffer chunk, int column, int offset, long value) {
+        chunk.putLong(index(column, offset), value);
+    }
+}
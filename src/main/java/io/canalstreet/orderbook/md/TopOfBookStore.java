@@ -0,0 +1,54 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentTable;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the top of book history of every instrument of the market data service, on the
+ * publish stage of the instrument's pipeline. Rows are time stamped in microseconds since the
+ * epoch, taken from the monotonic clock anchored at startup.
+ */
+@Component
+public class TopOfBookStore implements QuotesL2Listener {
+    private static final int CHUNK_ROWS = 4096;
+
+    @Autowired
+    MarketDataService marketDataService;
+
+    @Value("${md.history.raw-chunks:16}")
+    int rawChunks;
+
+    @Value("${md.history.second-chunks:4}")
+    int secondChunks;
+
+    @Value("${md.history.minute-chunks:4}")
+    int minuteChunks;
+
+    private final InstrumentTable<TopOfBookHistory> histories = new InstrumentTable<>();
+
+    @PostConstruct
+    public void initListener() {
+        marketDataService.addListener(this);
+    }
+
+    @Override
+    public void onQuotesL2(QuotesL2Event event, L2BookView book) {
+        TopOfBookHistory history = histories.get(event.getInstrument());
+        if (history == null) {
+            history = histories.computeIfAbsent(event.getInstrument(),
+                    instrument -> new TopOfBookHistory(instrument, CHUNK_ROWS, rawChunks, secondChunks, minuteChunks));
+        }
+        history.record(book, MicrosClock.nowMicros());
+    }
+
+    /**
+     * History of the instrument, null until its first update.
+     */
+    public TopOfBookHistory getHistory(Instrument instrument) {
+        return histories.get(instrument);
+    }
+}
@@ -0,0 +1,189 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Rolling OHLCV, VWAP and signed trade flow of one instrument over each {@link Window}, kept in
+ * preallocated rings of time buckets. A trade lands in the bucket of its time in each ring, the
+ * bucket being reset when it still holds an older period, so a trade costs the same whatever the
+ * trade rate. A window read at some time covers the ring's buckets of the last span, its oldest
+ * bucket possibly in part.
+ * Single writer, seqlock publication like the books: readers retry until they summed the buckets
+ * at one even version, neither blocking the writer nor allocating.
+ */
+public class TradeFlow {
+    private static final VarHandle VERSION;
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(TradeFlow.class, "version", long.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    public enum Window {
+        SECOND("1s", 100, 10),
+        MINUTE("1m", 1_000, 60),
+        FIVE_MINUTES("5m", 5_000, 60);
+
+        private final String label;
+        private final long bucketMillis;
+        private final int buckets;
+
+        Window(String label, long bucketMillis, int buckets) {
+            this.label = label;
+            this.bucketMillis = bucketMillis;
+            this.buckets = buckets;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getSpanMillis() {
+            return bucketMillis * buckets;
+        }
+    }
+
+    private static final Window[] WINDOWS = Window.values();
+
+    // Columns of a bucket row
+    private static final int EPOCH = 0;
+    private static final int OPEN = 1;
+    private static final int HIGH = 2;
+    private static final int LOW = 3;
+    private static final int CLOSE = 4;
+    private static final int BUY_VOLUME = 5;
+    private static final int SELL_VOLUME = 6;
+    private static final int TRADES = 7;
+    private static final int COLUMNS = 8;
+
+    private final Instrument instrument;
+    // Bucket rows and notionals per window ordinal, slot of a bucket is its epoch modulo the ring size
+    private final long[][] rows = new long[WINDOWS.length][];
+    private final double[][] notionals = new double[WINDOWS.length][];
+    private long lastMillis;
+    private long version = 0;
+
+    public TradeFlow(Instrument instrument) {
+        this.instrument = instrument;
+        for (Window window : WINDOWS) {
+            rows[window.ordinal()] = new long[window.buckets * COLUMNS];
+            notionals[window.ordinal()] = new double[window.buckets];
+            for (int slot = 0; slot < window.buckets; slot++) {
+                rows[window.ordinal()][slot * COLUMNS + EPOCH] = -1;
+            }
+        }
+    }
+
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Adds a trade to each window.
+     * @param price scaled like the instrument's prices
+     * @param quantity scaled like the instrument's sizes
+     * @param takerSide {@link QuoteSide#BID} when the taker bought, lifting the offers
+     * @param timeMillis trade time, a trade older than a window's span is left out of it
+     */
+    public void onTrade(long price, long quantity, QuoteSide takerSide, long timeMillis) {
+        VERSION.setOpaque(this, version + 1);
+        VarHandle.storeStoreFence();
+        for (int w = 0; w < WINDOWS.length; w++) {
+            Window window = WINDOWS[w];
+            long[] ring = rows[w];
+            long epoch = timeMillis / window.bucketMillis;
+            int slot = (int) (epoch % window.buckets);
+            int row = slot * COLUMNS;
+            long held = ring[row + EPOCH];
+            if (held > epoch) {
+                continue;
+            }
+            if (held < epoch) {
+                ring[row + EPOCH] = epoch;
+                ring[row + OPEN] = price;
+                ring[row + HIGH] = price;
+                ring[row + LOW] = price;
+                ring[row + BUY_VOLUME] = 0;
+                ring[row + SELL_VOLUME] = 0;
+                ring[row + TRADES] = 0;
+                notionals[w][slot] = 0;
+            } else {
+                ring[row + HIGH] = Math.max(ring[row + HIGH], price);
+                ring[row + LOW] = Math.min(ring[row + LOW], price);
+            }
+            ring[row + CLOSE] = price;
+            ring[row + (takerSide == BID ? BUY_VOLUME : SELL_VOLUME)] += quantity;
+            ring[row + TRADES]++;
+            notionals[w][slot] += (double) price * quantity;
+        }
+        lastMillis = Math.max(lastMillis, timeMillis);
+        VERSION.setRelease(this, version + 1);
+    }
+
+    /**
+     * Number of trades added since creation.
+     */
+    public long getTradeCount() {
+        long current;
+        while (((current = (long) VERSION.getAcquire(this)) & 1) != 0) {
+            Thread.onSpinWait();
+        }
+        // Versions move by 2 per trade
+        return current >>> 1;
+    }
+
+    /**
+     * Sums the window's buckets of the span ending at the later of the given time and the last
+     * trade's, so a venue clock running ahead of the local one does not hide the latest trades.
+     * @return the version the window was read at
+     */
+    public long read(Window window, long nowMillis, TradeFlowWindow flow) {
+        long[] ring = rows[window.ordinal()];
+        double[] notional = notionals[window.ordinal()];
+        while (true) {
+            long before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                long newest = Math.max(nowMillis, lastMillis) / window.bucketMillis;
+                long open = 0, high = Long.MIN_VALUE, low = Long.MAX_VALUE, close = 0;
+                long buyVolume = 0, sellVolume = 0, trades = 0;
+                double notionalSum = 0;
+                for (long epoch = newest - window.buckets + 1; epoch <= newest; epoch++) {
+                    int slot = (int) (epoch % window.buckets);
+                    int row = slot * COLUMNS;
+                    if (epoch < 0 || ring[row + EPOCH] != epoch) continue;
+                    if (trades == 0) open = ring[row + OPEN];
+                    high = Math.max(high, ring[row + HIGH]);
+                    low = Math.min(low, ring[row + LOW]);
+                    close = ring[row + CLOSE];
+                    buyVolume += ring[row + BUY_VOLUME];
+                    sellVolume += ring[row + SELL_VOLUME];
+                    trades += ring[row + TRADES];
+                    notionalSum += notional[slot];
+                }
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before) {
+                    flow.version = before;
+                    flow.window = window;
+                    flow.endMillis = (newest + 1) * window.bucketMillis;
+                    flow.open = open;
+                    flow.high = trades == 0 ? 0 : high;
+                    flow.low = trades == 0 ? 0 : low;
+                    flow.close = close;
+                    flow.buyVolume = buyVolume;
+                    flow.sellVolume = sellVolume;
+                    flow.trades = trades;
+                    flow.notional = notionalSum;
+                    return before;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
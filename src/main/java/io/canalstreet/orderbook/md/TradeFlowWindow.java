@@ -0,0 +1,93 @@
+package io.canalstreet.orderbook.md;
+
+/**
+ * Caller owned, reusable copy of one window of a {@link TradeFlow} taken atomically by
+ * {@link TradeFlow#read}. Prices are scaled like the instrument's, as are volumes, 0 for a window
+ * without trades.
+ */
+public class TradeFlowWindow {
+
+    long version;
+    TradeFlow.Window window;
+    long endMillis;
+    long open;
+    long high;
+    long low;
+    long close;
+    long buyVolume;
+    long sellVolume;
+    long trades;
+    double notional;
+
+    public long getVersion() {
+        return version;
+    }
+
+    public TradeFlow.Window getWindow() {
+        return window;
+    }
+
+    /**
+     * End of the newest bucket summed, exclusive, the window starting one span earlier.
+     */
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public long getOpen() {
+        return open;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public long getClose() {
+        return close;
+    }
+
+    public long getVolume() {
+        return buyVolume + sellVolume;
+    }
+
+    /**
+     * Volume of the trades whose taker bought.
+     */
+    public long getBuyVolume() {
+        return buyVolume;
+    }
+
+    public long getSellVolume() {
+        return sellVolume;
+    }
+
+    /**
+     * Buy minus sell taker volume, positive when buyers lifted more than sellers hit.
+     */
+    public long getSignedFlow() {
+        return buyVolume - sellVolume;
+    }
+
+    public long getTrades() {
+        return trades;
+    }
+
+    /**
+     * Sum of price times size, in units of both scales.
+     */
+    public double getNotional() {
+        return notional;
+    }
+
+    /**
+     * Volume weighted average price, scaled like the prices, NaN without trades.
+     */
+    public double getVwap() {
+        long volume = getVolume();
+        return volume == 0 ? Double.NaN : notional / volume;
+    }
+}
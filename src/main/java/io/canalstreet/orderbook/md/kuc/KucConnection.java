@@ -0,0 +1,303 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.FrameBuffer;
+import io.canalstreet.orderbook.md.QuotesL2Pipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One KuCoin WebSocket feeding one pipeline shard. Counts the frames and chars it received,
+ * so that loaded connections can be spotted and their topics moved elsewhere.
+ * Frames are requested from the socket in batches of {@link #DEMAND}, renewed once half of them
+ * were received, so a pipeline blocking on a full ring stops the reads. Depth snapshot frames are
+ * conflated per topic while the pipeline lags by a quarter of its capacity, see {@link KucFrameConflator}.
+ */
+public class KucConnection {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KucConnection.class);
+    static final int MAX_SYMBOLS_PER_SUBSCRIBE = 100;
+    static final int DEMAND = 64;
+    private static final AtomicLong MESSAGE_IDS = new AtomicLong();
+
+    private final int id;
+    private final boolean futures;
+    private final int shard;
+    private final QuotesL2Pipeline pipeline;
+    private final KucFrameConflator conflator;
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private volatile WebSocket webSocket;
+    // Completes once the last message sent went out, a WebSocket takes one send at a time
+    private CompletableFuture<WebSocket> lastSend = CompletableFuture.completedFuture(null);
+    private volatile long connectedNanos;
+    private volatile long frames;
+    private volatile long chars;
+
+    KucConnection(int id, boolean futures, int shard, QuotesL2Pipeline pipeline, KucTopicMap<Instrument> subscriptions) {
+        this.id = id;
+        this.futures = futures;
+        this.shard = shard;
+        this.pipeline = pipeline;
+        this.conflator = new KucFrameConflator(pipeline, subscriptions, pipeline.capacity() / 4);
+    }
+
+    void connect(HttpClient httpClient, String url, String token, Consumer<KucConnection> closedHandler) {
+        WebSocket connected = httpClient.newWebSocketBuilder().buildAsync(URI.create(url + "?token=" + token),
+                new BncWebSocketListener(closedHandler)).join();
+        synchronized (this) {
+            webSocket = connected;
+            lastSend = CompletableFuture.completedFuture(connected);
+        }
+        connectedNanos = System.nanoTime();
+    }
+
+    /**
+     * Claims the reconnect of this connection, so that a close and an error of one socket reconnect it once.
+     * The claim ends once a new socket opened, or on {@link #endReconnect()}.
+     * @return false when a reconnect is under way already
+     */
+    boolean beginReconnect() {
+        return reconnecting.compareAndSet(false, true);
+    }
+
+    void endReconnect() {
+        reconnecting.set(false);
+    }
+
+    /**
+     * Drops the socket and stops the conflator's timed flushes, for good.
+     */
+    void close() {
+        conflator.close();
+        WebSocket current = webSocket;
+        if (current != null) current.abort();
+    }
+
+    boolean isOpen() {
+        WebSocket current = webSocket;
+        return current != null && !current.isInputClosed();
+    }
+
+    /**
+     * Counts the topic against this connection's limit ahead of subscribing it.
+     * @return false when the topic was reserved already
+     */
+    boolean reserve(String topic) {
+        return topics.add(topic);
+    }
+
+    /**
+     * Subscribes the topics, those sharing a prefix in multi symbol messages.
+     */
+    void subscribe(List<String> newTopics) {
+        Map<String, List<String>> symbolsByPrefix = new TreeMap<>();
+        for (String topic : newTopics) {
+            int colon = topic.indexOf(':');
+            symbolsByPrefix.computeIfAbsent(topic.substring(0, colon), key -> new ArrayList<>()).add(topic.substring(colon + 1));
+        }
+        symbolsByPrefix.forEach((prefix, symbols) -> {
+            for (int from = 0; from < symbols.size(); from += MAX_SYMBOLS_PER_SUBSCRIBE) {
+                List<String> batch = symbols.subList(from, Math.min(from + MAX_SYMBOLS_PER_SUBSCRIBE, symbols.size()));
+                send("subscribe", prefix + ":" + String.join(",", batch));
+            }
+        });
+    }
+
+    /**
+     * Subscribes all topics of the connection again, after it was reconnected.
+     */
+    void resubscribe() {
+        subscribe(new ArrayList<>(topics));
+    }
+
+    void unsubscribe(String topic) {
+        if (topics.remove(topic) && isOpen()) {
+            send("unsubscribe", topic);
+        }
+    }
+
+    /**
+     * Sends once the messages sent before went out, subscribing many batches back to back.
+     */
+    private synchronized void send(String type, String topic) {
+        WebSocket current = webSocket;
+        String message = """
+                { "id":%d, "type":"%s", "topic":"%s", "response":true }
+                """.formatted(MESSAGE_IDS.incrementAndGet(), type, topic);
+        lastSend = lastSend.exceptionally(ex -> current).thenCompose(sent -> current.sendText(message, true));
+        lastSend.whenComplete((sent, ex) -> {
+            if (ex != null) LOGGER.error("Failed to send {} of {} on WebSocket {}", type, topic, id, ex);
+        });
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isFutures() {
+        return futures;
+    }
+
+    /**
+     * Index of the pipeline this connection's frames are fed to.
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    public int getTopicCount() {
+        return topics.size();
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getChars() {
+        return chars;
+    }
+
+    /**
+     * Number of depth snapshot frames dropped for a newer one of their topic while the pipeline lagged.
+     */
+    public long getConflated() {
+        return conflator.getConflated();
+    }
+
+    public long getConflated(Instrument instrument) {
+        return conflator.getConflated(instrument);
+    }
+
+    /**
+     * Number of depth snapshot frames which were held back while the pipeline lagged.
+     */
+    public long getHeldFrames() {
+        return conflator.getHeldFrames();
+    }
+
+    /**
+     * Frames received per second since the connection was (re)established.
+     */
+    public double getFrameRate() {
+        long elapsed = System.nanoTime() - connectedNanos;
+        return elapsed <= 0 ? 0 : frames * 1e9 / elapsed;
+    }
+
+    class BncWebSocketListener implements WebSocket.Listener {
+        private static final ObjectMapper OM = new ObjectMapper();
+        private final Consumer<KucConnection> closedHandler;
+        private final FrameBuffer partialFrame = new FrameBuffer(4096);
+        // Messages requested but not received yet
+        private int demand;
+
+        BncWebSocketListener(Consumer<KucConnection> closedHandler) {
+            this.closedHandler = closedHandler;
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            // Closes of the new socket reconnect again
+            reconnecting.set(false);
+            demand = DEMAND;
+            webSocket.request(DEMAND);
+        }
+
+        /**
+         * Counts a received message against the demand, requests a new batch once half of it was received.
+         */
+        private void received(WebSocket webSocket) {
+            if (--demand <= DEMAND / 2) {
+                webSocket.request(DEMAND - demand);
+                demand = DEMAND;
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            long receivedNanos = System.nanoTime();
+            chars += data.length();
+            if (!last) {
+                partialFrame.append(data);
+            } else if (partialFrame.length() > 0) {
+                partialFrame.append(data);
+                conflator.publish(partialFrame.chars(), 0, partialFrame.length(), receivedNanos);
+                partialFrame.reset();
+                frames++;
+            } else {
+                conflator.publish(data, receivedNanos);
+                frames++;
+            }
+            received(webSocket);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onPing(WebSocket webSocket, ByteBuffer message) {
+            try {
+                LOGGER.info("Received ping message: {}", message);
+                ObjectNode pong = ((ObjectNode)OM.readTree(message.array())).put("type", "pong");
+                ByteBuffer byteBuffer = ByteBuffer.wrap(OM.writeValueAsBytes(pong));
+                LOGGER.info("Sending pong message: {}", byteBuffer);
+                webSocket.sendPong(byteBuffer);
+            } catch (IOException ex) {
+                LOGGER.error("Failed to parse ping message: {}", message, ex);
+            }
+            received(webSocket);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+            received(webSocket);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            received(webSocket);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            LOGGER.warn("WebSocket {} closed. Status code: {}. Reason: {}", id, statusCode, reason);
+            if (closedHandler != null) {
+                LOGGER.info("Reconnecting...");
+                closedHandler.accept(KucConnection.this);
+            }
+            return WebSocket.Listener.super.onClose(webSocket, statusCode, reason);
+        }
+
+        /**
+         * A connection reset by the venue ends here rather than in {@link #onClose}, it is reconnected all the same.
+         */
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            LOGGER.error("WebSocket {} failed", id, error);
+            if (closedHandler != null) {
+                LOGGER.info("Reconnecting...");
+                closedHandler.accept(KucConnection.this);
+            }
+            WebSocket.Listener.super.onError(webSocket, error);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentTable;
+import io.canalstreet.orderbook.md.FrameBuffer;
+import io.canalstreet.orderbook.md.QuotesL2Pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the frames of one connection to its pipeline, holding back depth snapshot frames while
+ * the pipeline lags. Each snapshot replaces the whole top of its book, so only the newest held
+ * frame per topic is kept and the ones it replaced are counted as conflated. Held frames go to
+ * the pipeline ahead of later frames once its backlog is below the lag threshold again, checked
+ * on every frame and every {@link #FLUSH_MILLIS} while frames are held. A burst thereby makes
+ * snapshot books stale instead of queueing frames without bound. Incremental frames are never held.
+ * The timed flushes run on a thread of the conflator's own, as a flush blocks while the pipeline is full.
+ */
+class KucFrameConflator {
+    static final long FLUSH_MILLIS = 1;
+    private static final char[] SNAPSHOT_TOPIC = "Depth".toCharArray();
+
+    private final QuotesL2Pipeline pipeline;
+    private final KucTopicMap<Instrument> subscriptions;
+    private final int lagBacklog;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kuc-conflate");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Frames of the listener thread, copied before the topic is looked up
+    private final FrameBuffer frame = new FrameBuffer(4096);
+    private final InstrumentTable<Held> heldByInstrument = new InstrumentTable<>();
+    // Held frames in the order their topics were first held
+    private final List<Held> held = new ArrayList<>();
+    private boolean flushScheduled;
+    private volatile int heldCount;
+    private volatile long heldFrames;
+    private volatile long conflated;
+
+    /**
+     * @param lagBacklog pipeline backlog from which snapshot frames are held
+     */
+    KucFrameConflator(QuotesL2Pipeline pipeline, KucTopicMap<Instrument> subscriptions, int lagBacklog) {
+        this.pipeline = pipeline;
+        this.subscriptions = subscriptions;
+        this.lagBacklog = lagBacklog;
+    }
+
+    void publish(CharSequence data, long receivedNanos) {
+        if (heldCount == 0 && pipeline.backlog() < lagBacklog) {
+            pipeline.publish(data, receivedNanos);
+            return;
+        }
+        frame.reset();
+        frame.append(data);
+        offer(frame.chars(), 0, frame.length(), receivedNanos);
+    }
+
+    void publish(char[] data, int offset, int length, long receivedNanos) {
+        if (heldCount == 0 && pipeline.backlog() < lagBacklog) {
+            pipeline.publish(data, offset, length, receivedNanos);
+            return;
+        }
+        offer(data, offset, length, receivedNanos);
+    }
+
+    private synchronized void offer(char[] data, int offset, int length, long receivedNanos) {
+        boolean lagging = pipeline.backlog() >= lagBacklog;
+        if (!lagging) flush();
+        Instrument instrument = lagging ? snapshotInstrument(data, offset, length) : null;
+        if (instrument == null) {
+            pipeline.publish(data, offset, length, receivedNanos);
+            return;
+        }
+        Held slot = heldByInstrument.computeIfAbsent(instrument, key -> new Held());
+        if (slot.pending) {
+            slot.conflated++;
+            conflated++;
+        } else {
+            slot.pending = true;
+            held.add(slot);
+            heldCount = held.size();
+        }
+        slot.frame.reset();
+        slot.frame.append(data, offset, length);
+        slot.receivedNanos = receivedNanos;
+        heldFrames++;
+        if (!flushScheduled) scheduleFlush();
+    }
+
+    private synchronized void flushWhenCaughtUp() {
+        flushScheduled = false;
+        if (held.isEmpty() || !pipeline.isRunning()) return;
+        if (pipeline.backlog() < lagBacklog) {
+            flush();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        try {
+            flusher.schedule(this::flushWhenCaughtUp, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+        } catch (RejectedExecutionException ex) {
+            // Closed, the held frames are dropped with the connection
+        }
+    }
+
+    /**
+     * Stops the timed flushes, frames still held are not published.
+     */
+    void close() {
+        flusher.shutdownNow();
+    }
+
+    private void flush() {
+        for (Held slot : held) {
+            pipeline.publish(slot.frame.chars(), 0, slot.frame.length(), slot.receivedNanos);
+            slot.pending = false;
+        }
+        held.clear();
+        heldCount = 0;
+    }
+
+    /**
+     * Instrument of a depth snapshot topic frame, null for other frames.
+     */
+    private Instrument snapshotInstrument(char[] data, int offset, int length) {
+        int start = KucMessageDecoder.findTopic(data, offset, length);
+        if (start < 0) return null;
+        int end = start;
+        int colon = -1;
+        while (end < offset + length && data[end] != '"') {
+            if (data[end] == ':' && colon < 0) colon = end;
+            end++;
+        }
+        if (colon < 0 || !contains(data, start, colon, SNAPSHOT_TOPIC)) return null;
+        return subscriptions.get(data, start, end - start);
+    }
+
+    private static boolean contains(char[] data, int from, int to, char[] literal) {
+        for (int i = from; i <= to - literal.length; i++) {
+            int j = 0;
+            while (j < literal.length && data[i + j] == literal[j]) j++;
+            if (j == literal.length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Number of snapshot frames held back at present, one at most per topic.
+     */
+    int getHeldCount() {
+        return heldCount;
+    }
+
+    /**
+     * Number of snapshot frames ever held back, conflated ones included.
+     */
+    long getHeldFrames() {
+        return heldFrames;
+    }
+
+    /**
+     * Number of snapshot frames replaced by a newer one of their topic while held.
+     */
+    long getConflated() {
+        return conflated;
+    }
+
+    synchronized long getConflated(Instrument instrument) {
+        Held slot = heldByInstrument.get(instrument);
+        return slot == null ? 0 : slot.conflated;
+    }
+
+    private static class Held {
+        private final FrameBuffer frame = new FrameBuffer(1024);
+        private long receivedNanos;
+        private boolean pending;
+        private long conflated;
+    }
+}
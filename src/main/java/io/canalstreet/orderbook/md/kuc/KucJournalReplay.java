@@ -0,0 +1,171 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.md.FrameJournal;
+import io.canalstreet.orderbook.md.L2BookType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a capture journal back through a {@link KucMarketDataService} of its own, rebuilding the
+ * books the captured session had. Snapshot fetches of the service are answered with the captured
+ * snapshots in order. Frames are replayed at their recorded pace, as fast as the pipeline takes
+ * them, or one {@link #step()} at a time.
+ */
+public class KucJournalReplay implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KucJournalReplay.class);
+
+    public enum Speed { RECORDED, MAX }
+
+    private final FrameJournal.Reader reader;
+    private final KucWebSocketAdapter webSocketAdapter = new KucWebSocketAdapter();
+    private final ReplayRestAdapter restAdapter = new ReplayRestAdapter();
+    // Replayed instruments get their ids from a registry of the replay's own
+    private final KucMarketDataService service = new KucMarketDataService(restAdapter, webSocketAdapter,
+            KucMarketDataService.Settings.builder().build(), new InstrumentRegistry());
+    private long firstNanos = -1;
+    private long startNanos;
+    private long frames;
+
+    public KucJournalReplay(Path dir) throws IOException {
+        this(dir, KucMarketDataService.JOURNAL_NAME);
+    }
+
+    public KucJournalReplay(Path dir, String name) throws IOException {
+        this.reader = new FrameJournal.Reader(dir, name);
+    }
+
+    /**
+     * Sets up an instrument of the captured session, with the book type it was captured with.
+     */
+    public void register(Instrument instrument, L2BookType bookType) {
+        service.register(instrument, bookType);
+    }
+
+    /**
+     * Sets up the trade flow of an instrument whose trades were captured.
+     */
+    public void registerTrades(Instrument instrument) {
+        service.registerTrades(instrument);
+    }
+
+    public KucMarketDataService getService() {
+        return service;
+    }
+
+    /**
+     * Replays the next record.
+     * @return false once the journal is exhausted
+     */
+    public boolean step() throws IOException {
+        if (!reader.next()) {
+            return false;
+        }
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Replays the rest of the journal and waits for the pipeline to drain.
+     * @return the number of frames replayed
+     */
+    public long run(Speed speed) throws IOException {
+        long from = frames;
+        long started = System.nanoTime();
+        while (reader.next()) {
+            if (speed == Speed.RECORDED) awaitRecordedTime(reader.getReceivedNanos());
+            dispatch();
+        }
+        while (!service.isIdle()) {
+            Thread.onSpinWait();
+        }
+        long replayed = frames - from;
+        long elapsed = System.nanoTime() - started;
+        LOGGER.info("Replayed {} frames in {} ms, {} frames/s", replayed, elapsed / 1_000_000,
+                elapsed == 0 ? 0 : replayed * 1_000_000_000L / elapsed);
+        return replayed;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+        reader.close();
+    }
+
+    private void dispatch() {
+        if (reader.getKind() == FrameJournal.SNAPSHOT) {
+            Instrument instrument = webSocketAdapter.getSubscriptions().get(reader.getTopic(), 0, reader.getTopicLength());
+            if (instrument != null) {
+                restAdapter.offer(instrument, new String(reader.getFrame(), 0, reader.getFrameLength()));
+            }
+        } else {
+            service.onFrame(reader.getFrame(), 0, reader.getFrameLength(), reader.getReceivedNanos());
+            frames++;
+        }
+    }
+
+    /**
+     * Waits until a record is due, at the same distance from the first one as when it was captured.
+     */
+    private void awaitRecordedTime(long receivedNanos) {
+        long now = System.nanoTime();
+        if (firstNanos < 0) {
+            firstNanos = receivedNanos;
+            startNanos = now;
+        }
+        long due = startNanos + (receivedNanos - firstNanos);
+        while ((now = System.nanoTime()) < due) {
+            LockSupport.parkNanos(Math.min(due - now, 1_000_000));
+        }
+    }
+
+    /**
+     * Answers snapshot fetches with the captured snapshots, as soon as the replay reached them.
+     */
+    private static class ReplayRestAdapter extends KucRestAdapter {
+        private final Map<Instrument, Queue<String>> snapshots = new HashMap<>();
+        private final Map<Instrument, Queue<CompletableFuture<String>>> fetches = new HashMap<>();
+
+        @Override
+        public synchronized CompletableFuture<String> fetchL2Book(Instrument instrument) {
+            String snapshot = poll(snapshots, instrument);
+            if (snapshot != null) {
+                return CompletableFuture.completedFuture(snapshot);
+            }
+            CompletableFuture<String> fetch = new CompletableFuture<>();
+            fetches.computeIfAbsent(instrument, key -> new ArrayDeque<>()).add(fetch);
+            return fetch;
+        }
+
+        private void offer(Instrument instrument, String snapshot) {
+            CompletableFuture<String> fetch;
+            synchronized (this) {
+                fetch = poll(fetches, instrument);
+                if (fetch == null) {
+                    snapshots.computeIfAbsent(instrument, key -> new ArrayDeque<>()).add(snapshot);
+                    return;
+                }
+            }
+            fetch.complete(snapshot);
+        }
+
+        private static <T> T poll(Map<Instrument, Queue<T>> queues, Instrument instrument) {
+            Queue<T> queue = queues.get(instrument);
+            return queue == null ? null : queue.poll();
+        }
+    }
+}
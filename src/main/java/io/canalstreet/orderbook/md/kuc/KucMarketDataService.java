@@ -1,82 +1,882 @@
 package io.canalstreet.orderbook.md.kuc;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.data.InstrumentTable;
+import io.canalstreet.orderbook.data.PerpetualFuture;
+import io.canalstreet.orderbook.md.ConsolidatedL2Book;
+import io.canalstreet.orderbook.md.FrameJournal;
+import io.canalstreet.orderbook.md.HdrLatencyRecorder;
+import io.canalstreet.orderbook.md.L2Book;
+import io.canalstreet.orderbook.md.L2BookCheckpoint;
+import io.canalstreet.orderbook.md.L2BookType;
+import io.canalstreet.orderbook.md.L2BookView;
+import io.canalstreet.orderbook.md.LatencyRecorder;
+import io.canalstreet.orderbook.md.MarketDataService;
 import io.canalstreet.orderbook.md.QuoteSide;
+import io.canalstreet.orderbook.md.QuotesL2Event;
+import io.canalstreet.orderbook.md.QuotesL2Listener;
+import io.canalstreet.orderbook.md.QuotesL2Pipeline;
 import io.canalstreet.orderbook.md.QuotesL2UpdateCache;
-import io.canalstreet.orderbook.md.QuotesL2Book;
+import io.canalstreet.orderbook.md.QuotesL3Book;
+import io.canalstreet.orderbook.md.TradeFlow;
+import jakarta.annotation.PreDestroy;
+import lombok.Builder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static io.canalstreet.orderbook.md.QuoteSide.ASK;
 import static io.canalstreet.orderbook.md.QuoteSide.BID;
 
+/**
+ * KuCoin level2 feed, with the match stream of instruments whose trades are subscribed aggregated
+ * into a {@link TradeFlow} by the apply stage of their book. Instruments get their id from the service's
+ * {@link InstrumentRegistry} on registration, books and per instrument state are held in arrays indexed by it, and topics of frames resolve
+ * straight to their instrument, so the stages never hash an instrument.
+ */
 @Service
-public class KucMarketDataService {
+public class KucMarketDataService implements MarketDataService {
     private static  final Logger LOGGER = LoggerFactory.getLogger(KucMarketDataService.class);
+    private static final int L2_DEPTH = 10;
+    public static final String VENUE = "KUC";
+    // Registry key of the underlyings consolidated across the venue's instruments
+    private static final String UNDERLYING_VENUE = VENUE + "-UNDERLYING";
 
-    private final KucRestAdapter restAdapter = new KucRestAdapter();
-    private final KucWebSocketAdapter webSocketAdapter = new KucWebSocketAdapter();
-    private Map<Instrument, QuotesL2Book> quotesL2Books = HashMap.newHashMap(5);
-    private Map<Instrument, QuotesL2UpdateCache> quotesCache = HashMap.newHashMap(5);
+    private static final long RESYNC_RETRY_MILLIS = 1_000;
+    private static final long RECONNECT_MIN_MILLIS = 100;
+    private static final long RECONNECT_MAX_MILLIS = 30_000;
+    public static final String JOURNAL_NAME = "kuc-md";
+    private static final int JOURNAL_SEGMENT_SIZE = 64 << 20;
+    private static final int CHECKPOINT_LEVELS = 1_000;
+    private static final int CHECKPOINT_DELTAS = 4_096;
+
+    private final KucRestAdapter restAdapter;
+    private final KucWebSocketAdapter webSocketAdapter;
+    private final InstrumentRegistry registry;
+    private final InstrumentTable<L2BookView> quotesL2Books = new InstrumentTable<>();
+    private final InstrumentTable<Resync> resyncs = new InstrumentTable<>();
+    private final InstrumentTable<TopicStats> topicStats = new InstrumentTable<>();
+    private final InstrumentTable<L2BookCheckpoint> checkpoints = new InstrumentTable<>();
+    private final InstrumentTable<TradeFlow> tradeFlows = new InstrumentTable<>();
+    private final InstrumentTable<ConsolidatedL2Book> consolidatedBooks = new InstrumentTable<>();
+    private final List<QuotesL2Listener> listeners = new CopyOnWriteArrayList<>();
+    private final QuotesL2Pipeline[] pipelines;
+    private final FrameJournal journal;
+    private final LatencyRecorder latencyRecorder;
+    private final Path checkpointDir;
+    // Reconnects block on the token request and the handshake, off the WebSocket listener threads
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kuc-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed;
+
+    @Autowired
+    public KucMarketDataService(@Value("${kuc.rest.spot-url:https://api.kucoin.com}") String restSpotUrl,
+                                @Value("${kuc.rest.futures-url:https://api-futures.kucoin.com}") String restFuturesUrl,
+                                @Value("${kuc.ws.spot-url:wss://ws-api-spot.kucoin.com}") String wsSpotUrl,
+                                @Value("${kuc.ws.futures-url:wss://ws-api-futures.kucoin.com}") String wsFuturesUrl,
+                                @Value("${kuc.journal.dir:}") String journalDir,
+                                @Value("${kuc.shards:2}") int shards,
+                                @Value("${md.latency.enabled:false}") boolean latencyEnabled,
+                                @Value("${kuc.checkpoint.dir:}") String checkpointDir,
+                                InstrumentRegistry registry) {
+        this(new KucRestAdapter(restSpotUrl, restFuturesUrl), new KucWebSocketAdapter(wsSpotUrl, wsFuturesUrl), Settings.builder()
+                .journal(openJournal(journalDir))
+                .shards(shards)
+                .latencyRecorder(latencyEnabled ? new HdrLatencyRecorder() : LatencyRecorder.NOOP)
+                .checkpointDir(checkpointDir.isBlank() ? null : Path.of(checkpointDir))
+                .build(), registry);
+    }
+
+    /**
+     * Service built outside of Spring, as by tests and the journal replay.
+     * @param registry assigns the ids of the instruments registered with this service, under its venue
+     */
+    KucMarketDataService(KucRestAdapter restAdapter, KucWebSocketAdapter webSocketAdapter, Settings settings, InstrumentRegistry registry) {
+        this.restAdapter = restAdapter;
+        this.webSocketAdapter = webSocketAdapter;
+        this.journal = settings.journal;
+        this.latencyRecorder = settings.latencyRecorder;
+        this.checkpointDir = settings.checkpointDir;
+        this.registry = Objects.requireNonNull(registry, "registry");
+        this.pipelines = new QuotesL2Pipeline[settings.shards];
+        for (int i = 0; i < pipelines.length; i++) {
+            pipelines[i] = new QuotesL2Pipeline("kuc-md-" + i, 4096, journal == null ? null : this::capture, latencyRecorder,
+                    new KucMessageDecoder(webSocketAdapter.getSubscriptions()), new SequenceCheck(),
+                    this::handleMessage, this::publish);
+            pipelines[i].start();
+        }
+    }
+
+    private static FrameJournal openJournal(String journalDir) {
+        if (journalDir == null || journalDir.isBlank()) {
+            return null;
+        }
+        try {
+            return FrameJournal.open(Path.of(journalDir), JOURNAL_NAME, JOURNAL_SEGMENT_SIZE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to open the capture journal in " + journalDir, ex);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        closed = true;
+        reconnector.shutdownNow();
+        webSocketAdapter.close();
+        for (QuotesL2Pipeline pipeline : pipelines) {
+            pipeline.close();
+        }
+        // The apply stages are stopped, the books have no writer left
+        checkpoints.forEach((instrument, checkpoint) -> {
+            try {
+                checkpoint.write((L2Book) quotesL2Books.get(instrument));
+                checkpoint.close();
+            } catch (IOException ex) {
+                LOGGER.error("Failed to close the checkpoint of {}", instrument.getSymbol(), ex);
+            }
+        });
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                LOGGER.error("Failed to close the capture journal", ex);
+            }
+        }
+    }
+
+    @Override
+    public String getVenue() {
+        return VENUE;
+    }
 
     public void subscribe(Instrument instrument) {
-        String token = restAdapter.fetchToken(instrument);
-        if (token == null) {
-            LOGGER.error("Failed to fetch the token. Aborting...");
+        subscribe(instrument, L2BookType.RING);
+    }
+
+    /**
+     * Subscribes the instrument's level2 feed into a book of the given type.
+     */
+    @Override
+    public void subscribe(Instrument instrument, L2BookType bookType) {
+        subscribe(List.of(instrument), bookType);
+    }
+
+    /**
+     * Subscribes the level2 feeds of many instruments at once, packed onto as few connections as the
+     * per connection topic limit allows.
+     */
+    @Override
+    public void subscribe(Collection<Instrument> instruments, L2BookType bookType) {
+        List<Instrument> spot = new ArrayList<>();
+        List<Instrument> futures = new ArrayList<>();
+        for (Instrument instrument : instruments) {
+            (instrument instanceof PerpetualFuture ? futures : spot).add(instrument);
+        }
+        for (List<Instrument> market : List.of(spot, futures)) {
+            if (market.isEmpty()) continue;
+            String token = restAdapter.fetchToken(market.get(0));
+            if (token == null) {
+                LOGGER.error("Failed to fetch the token. Aborting...");
+                continue;
+            }
+            // The adapter routes the market's topics in one batch as it subscribes them
+            for (Instrument instrument : market) {
+                registerBook(instrument, bookType);
+            }
+            webSocketAdapter.subscribe(market, token, bookType, pipelines, this::reconnect);
+        }
+    }
+
+    /**
+     * Subscribes the match topics of subscribed instruments, on the connections of their level2 topics.
+     */
+    @Override
+    public void subscribeTrades(Collection<Instrument> instruments) {
+        List<Instrument> spot = new ArrayList<>();
+        List<Instrument> futures = new ArrayList<>();
+        for (Instrument instrument : instruments) {
+            if (quotesL2Books.get(instrument) == null) {
+                LOGGER.warn("Trades of {} not subscribed, its level2 feed is not", instrument.getSymbol());
+                continue;
+            }
+            tradeFlows.putIfAbsent(instrument, new TradeFlow(instrument));
+            (instrument instanceof PerpetualFuture ? futures : spot).add(instrument);
+        }
+        for (List<Instrument> market : List.of(spot, futures)) {
+            if (market.isEmpty()) continue;
+            // Match topics which do not fit their book's connection go on a new one
+            String token = restAdapter.fetchToken(market.get(0));
+            if (token == null) {
+                LOGGER.error("Failed to fetch the token. Aborting...");
+                continue;
+            }
+            webSocketAdapter.subscribeTrades(market, token, pipelines, this::reconnect);
+        }
+    }
+
+    /**
+     * Sets up the instrument's trade flow and match topic routing without connecting.
+     */
+    public void registerTrades(Instrument instrument) {
+        tradeFlows.putIfAbsent(instrument, new TradeFlow(instrument));
+        webSocketAdapter.registerTrades(instrument);
+    }
+
+    /**
+     * Called on a WebSocket listener thread once the venue closed the connection, schedules its reconnect.
+     */
+    private void reconnect(KucConnection connection) {
+        if (!closed && connection.beginReconnect()) {
+            scheduleReconnect(connection, RECONNECT_MIN_MILLIS);
+        }
+    }
+
+    private void scheduleReconnect(KucConnection connection, long delayMillis) {
+        try {
+            reconnector.schedule(() -> tryReconnect(connection, delayMillis), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // Closed meanwhile
+        }
+    }
+
+    /**
+     * Reconnects with a fresh token, trying again after twice the delay, up to {@link #RECONNECT_MAX_MILLIS}, until it succeeds.
+     */
+    private void tryReconnect(KucConnection connection, long delayMillis) {
+        if (closed) return;
+        Instrument instrument = instrumentOf(connection);
+        if (instrument == null) {
+            LOGGER.warn("Connection {} has no topic left, not reconnected", connection.getId());
+            connection.endReconnect();
             return;
         }
-        webSocketAdapter.subscribe(instrument, token, this::handleMessage, () -> subscribe(instrument));
-        this.quotesL2Books.put(instrument, new QuotesL2Book(instrument, 10, 1000));
-        this.quotesCache.put(instrument, new QuotesL2UpdateCache());
+        long nextDelayMillis = Math.min(delayMillis * 2, RECONNECT_MAX_MILLIS);
+        try {
+            String token = restAdapter.fetchToken(instrument);
+            if (token != null) {
+                webSocketAdapter.reconnect(connection, token, this::reconnect);
+                LOGGER.info("Connection {} reconnected", connection.getId());
+                return;
+            }
+            LOGGER.error("Failed to fetch the token for connection {}, retrying in {} ms", connection.getId(), nextDelayMillis);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Failed to reconnect connection {}, retrying in {} ms", connection.getId(), nextDelayMillis, ex);
+        }
+        scheduleReconnect(connection, nextDelayMillis);
     }
 
+    private Instrument instrumentOf(KucConnection connection) {
+        for (int id = 0; id < registry.size(); id++) {
+            Instrument instrument = quotesL2Books.getInstrument(id);
+            if (instrument != null && (webSocketAdapter.getConnection(instrument) == connection
+                    || webSocketAdapter.getTradeConnection(instrument) == connection)) {
+                return instrument;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets up the instrument's book and topic routing without connecting, as needed to replay a journal.
+     */
+    public void register(Instrument instrument, L2BookType bookType) {
+        registerBook(instrument, bookType);
+        webSocketAdapter.register(instrument, bookType);
+    }
+
+    private void registerBook(Instrument instrument, L2BookType bookType) {
+        registry.register(VENUE, instrument);
+        // Ring books hold the whole depth of their snapshot topic
+        int depth = bookType == L2BookType.RING ? Math.max(L2_DEPTH, instrument.getSnapshotDepth()) : L2_DEPTH;
+        boolean added = this.quotesL2Books.putIfAbsent(instrument, bookType.newBook(instrument, depth)) == null;
+        this.resyncs.putIfAbsent(instrument, new Resync(depth));
+        this.topicStats.putIfAbsent(instrument, new TopicStats());
+        // Order by order books have no level checkpoint to resume from
+        if (added && checkpointDir != null && bookType != L2BookType.L3) {
+            restore(instrument);
+        }
+        if (added && instrument.getUnderlying() != null) {
+            consolidate(instrument);
+        }
+    }
+
+    /**
+     * Merges the new book into the consolidated book of its underlying, created with the first one.
+     */
+    private void consolidate(Instrument instrument) {
+        Instrument underlying = instrument.getUnderlying();
+        registry.register(UNDERLYING_VENUE, underlying);
+        consolidatedBooks.computeIfAbsent(underlying, key -> new ConsolidatedL2Book(key, L2_DEPTH)).addVenue(quotesL2Books.get(instrument));
+    }
+
+    /**
+     * Loads the new book from its checkpoint, ahead of its first frame. The book is readable right
+     * away and reconciled with the live feed by its first update.
+     */
+    private void restore(Instrument instrument) {
+        long start = System.nanoTime();
+        L2BookCheckpoint checkpoint;
+        try {
+            checkpoint = L2BookCheckpoint.open(checkpointDir, instrument, CHECKPOINT_LEVELS, CHECKPOINT_DELTAS);
+        } catch (IOException ex) {
+            LOGGER.error("Failed to open the checkpoint of {}, starting empty", instrument.getSymbol(), ex);
+            return;
+        }
+        checkpoints.put(instrument, checkpoint);
+        L2Book book = (L2Book) quotesL2Books.get(instrument);
+        if (checkpoint.restore(book)) {
+            Resync resync = resyncs.get(instrument);
+            resync.restoreNanos = System.nanoTime() - start;
+            resync.restored = true;
+            LOGGER.info("Restored {} at sequence {} from a checkpoint of {} ms ago in {} us",
+                    instrument.getSymbol(), book.getLastSequenceEnd(), System.currentTimeMillis() - checkpoint.getWrittenMillis(),
+                    resync.restoreNanos / 1_000);
+        }
+    }
+
+    /**
+     * Feeds a raw frame as if it was received from the socket.
+     */
+    public void onFrame(char[] frame, int offset, int length, long receivedNanos) {
+        int topicOffset = KucMessageDecoder.findTopic(frame, offset, length);
+        Instrument instrument = null;
+        if (topicOffset >= 0) {
+            int topicLength = 0;
+            while (topicOffset + topicLength < offset + length && frame[topicOffset + topicLength] != '"') topicLength++;
+            instrument = webSocketAdapter.getSubscriptions().get(frame, topicOffset, topicLength);
+        }
+        pipelines[instrument == null ? 0 : webSocketAdapter.getShard(instrument)].publish(frame, offset, length, receivedNanos);
+    }
+
+    /**
+     * True when all frames fed so far made it through the pipelines.
+     */
+    public boolean isIdle() {
+        for (QuotesL2Pipeline pipeline : pipelines) {
+            if (pipeline.backlog() > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Frames waiting in each shard's pipeline.
+     */
+    public int[] getShardBacklogs() {
+        int[] backlogs = new int[pipelines.length];
+        for (int i = 0; i < pipelines.length; i++) {
+            backlogs[i] = pipelines[i].backlog();
+        }
+        return backlogs;
+    }
+
+    @Override
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    public List<KucConnection> getConnections() {
+        return webSocketAdapter.getConnections();
+    }
+
+    @Override
     public void unsubscribe(Instrument instrument) {
         webSocketAdapter.unsubscribe(instrument);
     }
 
-    public QuotesL2Book getQuotesL2(Instrument instrument) {
+    @Override
+    public L2BookView getQuotesL2(Instrument instrument) {
         return quotesL2Books.get(instrument);
     }
 
-    private void handleMessage(Instrument instrument, JsonNode message) {
-        QuotesL2UpdateCache cache = quotesCache.get(instrument);
-        QuotesL2Book book = quotesL2Books.get(instrument);
-        if ("trade.l2update".equals(message.get("subject").asText())) {
-            long sequenceStart = message.at("/dara/sequenceStart").asLong();
-            long sequenceEnd = message.at("/dara/sequenceStart").asLong();
-            for (JsonNode bids : message.at("/data/changes/bids")) {
-                long price = instrument.priceToInt(bids.get(0).asDouble());
-                int quantity = instrument.qtyToInt(bids.get(1).asDouble());
-                cache.add(BID, price, quantity, sequenceStart, sequenceEnd);
-            }
-            for (JsonNode asks : message.at("/data/changes/asks")) {
-                long price = instrument.priceToInt(asks.get(0).asDouble());
-                int quantity = instrument.qtyToInt(asks.get(1).asDouble());
-                cache.add(ASK, price, quantity, sequenceStart, sequenceEnd);
-            }
-            if (quotesL2Books.get(instrument).isInitialized()) {
-                cache.move(quotesL2Books.get(instrument));
-            }
-
-            // Initial population of the book. Check for code=2000 could be improved/changed.
-            if ("2000".equals(message.get("code").asText())) {
-                for (JsonNode bids : message.at("/data/bids")) {
-                    long price = instrument.priceToInt(bids.get(0).asDouble());
-                    int quantity = instrument.qtyToInt(bids.get(1).asDouble());
-                    book.add(BID, price, quantity, sequenceStart, sequenceEnd);
-                }
-                for (JsonNode asks : message.at("/data/asks")) {
-                    long price = instrument.priceToInt(asks.get(0).asDouble());
-                    int quantity = instrument.qtyToInt(asks.get(1).asDouble());
-                    book.add(ASK, price, quantity, sequenceStart, sequenceEnd);
+    @Override
+    public L2BookView getConsolidatedL2(Instrument underlying) {
+        return consolidatedBooks.get(underlying);
+    }
+
+    @Override
+    public TradeFlow getTradeFlow(Instrument instrument) {
+        return tradeFlows.get(instrument);
+    }
+
+    /**
+     * Number of completed resyncs of the instrument's book from a REST snapshot.
+     */
+    public long getResyncCount(Instrument instrument) {
+        Resync resync = resyncs.get(instrument);
+        return resync == null ? 0 : resync.count;
+    }
+
+    /**
+     * Time from the detection of a gap to the book being live again, of the last resync.
+     */
+    public long getLastResyncNanos(Instrument instrument) {
+        Resync resync = resyncs.get(instrument);
+        return resync == null ? 0 : resync.lastNanos;
+    }
+
+    public long getMaxResyncNanos(Instrument instrument) {
+        Resync resync = resyncs.get(instrument);
+        return resync == null ? 0 : resync.maxNanos;
+    }
+
+    /**
+     * Time it took to load the instrument's book from its checkpoint, 0 when it was not restored.
+     */
+    public long getRestoreNanos(Instrument instrument) {
+        Resync resync = resyncs.get(instrument);
+        return resync == null ? 0 : resync.restoreNanos;
+    }
+
+    /**
+     * Time from the registration of the instrument to its book first being in line with the live
+     * feed, 0 until then and for order by order books, built without a snapshot.
+     */
+    public long getStartupNanos(Instrument instrument) {
+        Resync resync = resyncs.get(instrument);
+        return resync == null ? 0 : resync.startupNanos;
+    }
+
+    /**
+     * Delay between the venue's timestamp and the publication of the instrument's last message.
+     */
+    public long getLagMillis(Instrument instrument) {
+        TopicStats stats = topicStats.get(instrument);
+        return stats == null ? 0 : stats.lagMillis;
+    }
+
+    public long getMaxLagMillis(Instrument instrument) {
+        TopicStats stats = topicStats.get(instrument);
+        return stats == null ? 0 : stats.maxLagMillis;
+    }
+
+    public long getMessageCount(Instrument instrument) {
+        TopicStats stats = topicStats.get(instrument);
+        return stats == null ? 0 : stats.messages;
+    }
+
+    /**
+     * Number of level3 opens the instrument's order by order book rejected, as for an order id
+     * already in the book.
+     */
+    public long getRejectedOpenCount(Instrument instrument) {
+        TopicStats stats = topicStats.get(instrument);
+        return stats == null ? 0 : stats.rejectedOpens;
+    }
+
+    /**
+     * Number of the instrument's depth snapshot frames dropped for a newer one while its pipeline lagged.
+     */
+    public long getConflatedCount(Instrument instrument) {
+        KucConnection connection = webSocketAdapter.getConnection(instrument);
+        return connection == null ? 0 : connection.getConflated(instrument);
+    }
+
+    /**
+     * Instrument registered under the symbol, or null.
+     */
+    @Override
+    public Instrument findInstrument(String symbol) {
+        Instrument registered = registry.find(VENUE, symbol);
+        return registered == null ? null : quotesL2Books.getInstrument(registered.getId());
+    }
+
+    @Override
+    public Instrument findUnderlying(String symbol) {
+        Instrument registered = registry.find(UNDERLYING_VENUE, symbol);
+        return registered == null ? null : consolidatedBooks.getInstrument(registered.getId());
+    }
+
+    @Override
+    public void addListener(QuotesL2Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Capture stage: journals the raw frame with its topic.
+     */
+    private void capture(char[] frame, int offset, int length, long receivedNanos) {
+        int topicOffset = KucMessageDecoder.findTopic(frame, offset, length);
+        int topicLength = 0;
+        if (topicOffset < 0) {
+            topicOffset = offset;
+        } else {
+            while (topicOffset + topicLength < offset + length && frame[topicOffset + topicLength] != '"') topicLength++;
+        }
+        journal.append(FrameJournal.FRAME, receivedNanos, frame, topicOffset, topicLength, frame, offset, length);
+    }
+
+    /**
+     * Sequence stage: flags incremental updates which do not continue the previous one, trades are
+     * sequenced apart and left alone.
+     * Owned by the shard's sequence stage thread, last sequences are indexed by instrument id.
+     */
+    private static class SequenceCheck implements Consumer<QuotesL2Event> {
+        private long[] lastSequenceEnds = new long[64];
+
+        @Override
+        public void accept(QuotesL2Event event) {
+            if (event.isTrade()) {
+                return;
+            }
+            int id = event.getInstrument().getId();
+            if (id >= lastSequenceEnds.length) {
+                lastSequenceEnds = Arrays.copyOf(lastSequenceEnds, Math.max(id + 1, lastSequenceEnds.length * 2));
+            }
+            if (event.isSnapshot()) {
+                lastSequenceEnds[id] = event.getSequenceEnd();
+                return;
+            }
+            long lastSequenceEnd = lastSequenceEnds[id];
+            event.setSequenceGap(lastSequenceEnd > 0 && event.getSequenceStart() > lastSequenceEnd + 1);
+            if (event.getSequenceEnd() > lastSequenceEnd) {
+                lastSequenceEnds[id] = event.getSequenceEnd();
+            }
+        }
+    }
+
+    /**
+     * Apply stage: the single writer of the books. Incremental updates of a book which is not
+     * initialized or fell behind a gap are cached while a REST snapshot is fetched, other
+     * instruments keep being applied meanwhile. Trades go to the instrument's trade flow, whatever
+     * the state of its book, and order messages to its order by order book.
+     */
+    private void handleMessage(QuotesL2Event event) {
+        Instrument instrument = event.getInstrument();
+        if (event.isTrade()) {
+            TradeFlow tradeFlow = tradeFlows.get(instrument);
+            if (tradeFlow != null) {
+                long time = event.getTimestamp() > 0 ? event.getTimestamp() : System.currentTimeMillis();
+                tradeFlow.onTrade(event.getTradePrice(), event.getTradeQuantity(), event.getTakerSide(), time);
+            }
+            return;
+        }
+        if (event.isOrder()) {
+            applyOrder((QuotesL3Book) quotesL2Books.get(instrument), event);
+            return;
+        }
+        L2Book book = (L2Book) quotesL2Books.get(instrument);
+        Resync resync = resyncs.get(instrument);
+        L2BookCheckpoint checkpoint = checkpoints.get(instrument);
+        if (event.isSnapshot()) {
+            if (checkpoint != null) resync.readReplaced(book);
+            replaceTop(book, event, BID);
+            replaceTop(book, event, ASK);
+            if (checkpoint != null) journalSnapshot(checkpoint, book, event, resync);
+            markStarted(instrument, resync);
+            return;
+        }
+        if (resync.restored) {
+            // First update after a restore: the book carries on only if nothing was missed in between
+            resync.restored = false;
+            if (event.getSequenceStart() > book.getLastSequenceEnd() + 1) {
+                LOGGER.info("Restored {} at {} missed the updates up to {}, resyncing",
+                        instrument.getSymbol(), book.getLastSequenceEnd(), event.getSequenceStart());
+                startResync(instrument, resync);
+            }
+        }
+        if (event.isSequenceGap()) {
+            LOGGER.warn("Sequence gap for {}: {} follows {}", instrument.getSymbol(), event.getSequenceStart(), book.getLastSequenceEnd());
+            startResync(instrument, resync);
+        } else if (!resync.active && !book.isInitialized()) {
+            startResync(instrument, resync);
+        }
+        if (resync.active) {
+            if (!resync.cache.add(event)) {
+                // No snapshot came for all the updates the cache holds, start over from this one
+                LOGGER.warn("Resync cache of {} full at {} updates, fetching a new snapshot", instrument.getSymbol(), resync.cache.size());
+                startResync(instrument, resync);
+                resync.cache.add(event);
+            }
+        } else if (event.getSequenceEnd() > book.getLastSequenceEnd()) {
+            applyUpdate(book, event, BID);
+            applyUpdate(book, event, ASK);
+            if (checkpoint != null) journal(checkpoint, book, event);
+            markStarted(instrument, resync);
+        }
+    }
+
+    /**
+     * Applies an order message. The venue serves no level3 snapshot without authentication, so the
+     * book is built from the orders opened since the subscription and a gap is only logged: orders
+     * missed in it are not in the book, and the book holds on to those done in it until a reset.
+     * Without a snapshot the book is never initialized, nor counted as started.
+     */
+    private void applyOrder(QuotesL3Book book, QuotesL2Event event) {
+        Instrument instrument = event.getInstrument();
+        long sequence = event.getSequenceEnd();
+        if (event.isSequenceGap()) {
+            LOGGER.warn("Sequence gap for {}: {} follows {}", instrument.getSymbol(), event.getSequenceStart(), book.getLastSequenceEnd());
+        }
+        long idHigh = event.getOrderIdHigh();
+        long idLow = event.getOrderIdLow();
+        switch (event.getOrderAction()) {
+            case OPEN:
+                // A duplicate or empty open leaves the book short of a resting order
+                if (!book.open(event.getOrderSide(), idHigh, idLow, event.getOrderPrice(), event.getOrderSize(), sequence)) {
+                    TopicStats stats = topicStats.get(instrument);
+                    stats.rejectedOpens++;
+                    LOGGER.warn("Open of order {} of {} at {} rejected, {} so far", String.format("%08x%016x", idHigh, idLow),
+                            instrument.getSymbol(), sequence, stats.rejectedOpens);
                 }
+                break;
+            case MATCH:
+                book.match(idHigh, idLow, event.getOrderSize(), sequence);
+                break;
+            case CHANGE:
+                book.change(idHigh, idLow, event.getOrderSize(), sequence);
+                break;
+            case DONE:
+                // Orders filled by their last match are gone already
+                book.done(idHigh, idLow, sequence);
+                break;
+            default:
+                return;
+        }
+    }
+
+    private static void journal(L2BookCheckpoint checkpoint, L2Book book, QuotesL2Event event) {
+        for (QuoteSide side : QuoteSide.values()) {
+            for (int i = 0; i < event.getLevelCount(side); i++) {
+                checkpoint.append(book, side, event.getPrice(side, i), event.getQuantity(side, i), event.getSequenceEnd());
+            }
+        }
+    }
+
+    /**
+     * Journals the levels of a snapshot applied to the book, and as removed the levels it replaced
+     * at prices the snapshot does not have, read ahead of the replace. Journaling only after the
+     * book was updated keeps a checkpoint rewritten by a full journal in line with the book.
+     */
+    private static void journalSnapshot(L2BookCheckpoint checkpoint, L2Book book, QuotesL2Event event, Resync resync) {
+        for (QuoteSide side : QuoteSide.values()) {
+            int s = side.ordinal();
+            long[] prices = event.getPrices(side);
+            int count = event.getLevelCount(side);
+            for (int i = 0; i < resync.replacedCounts[s]; i++) {
+                long price = resync.replacedPrices[s][i];
+                int j = 0;
+                while (j < count && prices[j] != price) j++;
+                if (j == count) checkpoint.append(book, side, price, 0, event.getSequenceEnd());
+            }
+        }
+        journal(checkpoint, book, event);
+    }
+
+    /**
+     * Records the time the instrument's book took to be in line with the live feed for the first time.
+     */
+    private static void markStarted(Instrument instrument, Resync resync) {
+        if (resync.startupNanos == 0) {
+            resync.startupNanos = System.nanoTime() - resync.registeredNanos;
+            LOGGER.info("{} in line with the live feed {} us after registration", instrument.getSymbol(), resync.startupNanos / 1_000);
+        }
+    }
+
+    /**
+     * Starts caching the instrument's updates and fetches a snapshot. A gap during a resync
+     * restarts it, the updates cached so far would not follow on from any snapshot.
+     */
+    private void startResync(Instrument instrument, Resync resync) {
+        if (!resync.active) {
+            resync.active = true;
+            resync.startNanos = System.nanoTime();
+        }
+        resync.cache.clear();
+        fetchSnapshot(instrument, ++resync.id);
+    }
+
+    private void fetchSnapshot(Instrument instrument, long resyncId) {
+        restAdapter.fetchL2Book(instrument).whenComplete((body, ex) -> {
+            if (ex != null) {
+                LOGGER.error("Failed to fetch L2 snapshot for {}, retrying", instrument.getSymbol(), ex);
+                scheduleRetry(instrument, resyncId);
+                return;
+            }
+            QuotesL2Event snapshot = new QuotesL2Event();
+            char[] chars = body.toCharArray();
+            if (journal != null) {
+                char[] topic = webSocketAdapter.getTopic(instrument).toCharArray();
+                journal.append(FrameJournal.SNAPSHOT, System.nanoTime(), topic, 0, topic.length, chars, 0, chars.length);
+            }
+            try {
+                new KucMessageDecoder(webSocketAdapter.getSubscriptions()).decodeSnapshot(instrument, chars, 0, chars.length, snapshot);
+            } catch (RuntimeException decodeEx) {
+                LOGGER.error("Failed to parse L2 snapshot for {}: {}", instrument.getSymbol(), body, decodeEx);
+                scheduleRetry(instrument, resyncId);
+                return;
+            }
+            pipelineOf(instrument).executeOnApply(() -> completeResync(instrument, resyncId, snapshot));
+        });
+    }
+
+    private void scheduleRetry(Instrument instrument, long resyncId) {
+        CompletableFuture.delayedExecutor(RESYNC_RETRY_MILLIS, TimeUnit.MILLISECONDS)
+                .execute(() -> pipelineOf(instrument).executeOnApply(() -> retryResync(instrument, resyncId)));
+    }
+
+    /**
+     * Pipeline whose apply stage writes the instrument's book.
+     */
+    private QuotesL2Pipeline pipelineOf(Instrument instrument) {
+        return pipelines[webSocketAdapter.getShard(instrument)];
+    }
+
+    private void retryResync(Instrument instrument, long resyncId) {
+        Resync resync = resyncs.get(instrument);
+        if (resync.active && resync.id == resyncId) {
+            fetchSnapshot(instrument, resyncId);
+        }
+    }
+
+    /**
+     * Runs on the apply stage: loads the snapshot and replays the cached updates following it, in
+     * one update of the book.
+     */
+    private void completeResync(Instrument instrument, long resyncId, QuotesL2Event snapshot) {
+        Resync resync = resyncs.get(instrument);
+        if (!resync.active || resync.id != resyncId) {
+            return;
+        }
+        long snapshotSequence = snapshot.getSequenceEnd();
+        if (!resync.cache.isEmpty() && resync.cache.getFirstSequenceStart() > snapshotSequence + 1) {
+            LOGGER.warn("L2 snapshot of {} at {} is older than the cached updates from {}, fetching again",
+                    instrument.getSymbol(), snapshotSequence, resync.cache.getFirstSequenceStart());
+            scheduleRetry(instrument, resyncId);
+            return;
+        }
+        L2Book book = (L2Book) quotesL2Books.get(instrument);
+        int replayed = book.reload(snapshot, resync.cache);
+        L2BookCheckpoint checkpoint = checkpoints.get(instrument);
+        if (checkpoint != null) checkpoint.write(book);
+        resync.active = false;
+        resync.count++;
+        resync.lastNanos = System.nanoTime() - resync.startNanos;
+        resync.maxNanos = Math.max(resync.maxNanos, resync.lastNanos);
+        LOGGER.info("Resynced {} from snapshot {} replaying {} updates in {} us",
+                instrument.getSymbol(), snapshotSequence, replayed, resync.lastNanos / 1_000);
+        markStarted(instrument, resync);
+        mergeConsolidated(instrument, book);
+    }
+
+    /**
+     * Publish stage: merges applied updates into the consolidated book of the instrument's underlying
+     * and hands them over to the listeners, trades only count in the topic stats.
+     */
+    private void publish(QuotesL2Event event) {
+        TopicStats stats = topicStats.get(event.getInstrument());
+        stats.messages++;
+        if (event.getTimestamp() > 0) {
+            stats.lagMillis = System.currentTimeMillis() - event.getTimestamp();
+            stats.maxLagMillis = Math.max(stats.maxLagMillis, stats.lagMillis);
+        }
+        if (event.isTrade()) {
+            return;
+        }
+        L2BookView book = quotesL2Books.get(event.getInstrument());
+        mergeConsolidated(event.getInstrument(), book);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onQuotesL2(event, book);
+        }
+    }
+
+    private void mergeConsolidated(Instrument instrument, L2BookView book) {
+        Instrument underlying = instrument.getUnderlying();
+        ConsolidatedL2Book consolidated = underlying == null ? null : consolidatedBooks.get(underlying);
+        if (consolidated != null) consolidated.onUpdate(book);
+    }
+
+    /**
+     * A snapshot side replaces the book side in one update, levels it leaves out are removed.
+     */
+    private static void replaceTop(L2Book book, QuotesL2Event event, QuoteSide side) {
+        book.replaceTop(side, event.getPrices(side), event.getQuantities(side), event.getLevelCount(side), event.getSequenceEnd());
+    }
+
+    private static void applyUpdate(L2Book book, QuotesL2Event event, QuoteSide side) {
+        for (int i = 0; i < event.getLevelCount(side); i++) {
+            book.add(side, event.getPrice(side, i), event.getQuantity(side, i), event.getSequenceStart(), event.getSequenceEnd());
+        }
+    }
+
+    /**
+     * Resync state of one instrument, written by the apply stage only but for the restore on registration.
+     */
+    private static class Resync {
+        private final QuotesL2UpdateCache cache = new QuotesL2UpdateCache();
+        // Levels a snapshot replaces, per side ordinal, read for the checkpoint journal
+        private final long[][] replacedPrices;
+        private final long[] replacedQuantities;
+        private final int[] replacedCounts = new int[2];
+        private final long registeredNanos = System.nanoTime();
+        private volatile boolean restored;
+        private volatile long restoreNanos;
+        private volatile long startupNanos;
+        private boolean active;
+        private long id;
+        private long startNanos;
+        private volatile long count;
+        private volatile long lastNanos;
+        private volatile long maxNanos;
+
+        private Resync(int depth) {
+            this.replacedPrices = new long[2][depth + 1];
+            this.replacedQuantities = new long[depth + 1];
+        }
+
+        private void readReplaced(L2Book book) {
+            for (QuoteSide side : QuoteSide.values()) {
+                replacedCounts[side.ordinal()] = book.readTop(side, replacedPrices[side.ordinal()], replacedQuantities, replacedQuantities.length);
             }
         }
     }
 
+    /**
+     * Message count and lag of one instrument's topic, written by the publish stage of its shard only
+     * but for the rejected opens, written by its apply stage.
+     */
+    private static class TopicStats {
+        private volatile long messages;
+        private volatile long lagMillis;
+        private volatile long maxLagMillis;
+        private volatile long rejectedOpens;
+    }
+
+    /**
+     * Optional parts of a service built outside of Spring, defaulting to one shard and no journal,
+     * latency recording or checkpoints.
+     */
+    @Builder
+    static class Settings {
+        // Captures every raw frame and fetched snapshot for replay
+        private final FrameJournal journal;
+        // Pipelines the connections are spread over, each one with its own stage threads
+        @Builder.Default
+        private final int shards = 1;
+        @Builder.Default
+        private final LatencyRecorder latencyRecorder = LatencyRecorder.NOOP;
+        // Where the books are checkpointed and restored from on registration
+        private final Path checkpointDir;
+    }
 }
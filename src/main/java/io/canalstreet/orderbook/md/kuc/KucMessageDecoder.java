@@ -0,0 +1,519 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Decimals;
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.FrameBuffer;
+import io.canalstreet.orderbook.md.FrameDecoder;
+import io.canalstreet.orderbook.md.OrderAction;
+import io.canalstreet.orderbook.md.QuoteSide;
+import io.canalstreet.orderbook.md.QuotesL2Event;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Streaming, allocation free decoder of KuCoin level2, level3 and match frames.
+ * Reads the characters of a frame once, routes on topic and writes the levels as scaled
+ * primitives into a reusable {@link QuotesL2Event}. Partial frames are accumulated in a
+ * buffer reused across frames. Not thread safe, one instance per decoding thread.
+ */
+public class KucMessageDecoder implements FrameDecoder {
+
+    private static final char[] TOPIC_KEY = "\"topic\":".toCharArray();
+    static final String LEVEL3_TOPIC = "/spotMarket/level3:";
+    // Match times are in nanoseconds, millisecond times stay below
+    private static final long NANOS_THRESHOLD = 1_000_000_000_000_000L;
+    // Order ids are 96 bit object ids in hex
+    private static final int MAX_ORDER_ID_DIGITS = 24;
+
+    private final KucTopicMap<Instrument> topics;
+    private final FrameBuffer frame = new FrameBuffer(4096);
+
+    private char[] buf;
+    private int pos;
+    private int end;
+
+    public KucMessageDecoder(KucTopicMap<Instrument> topics) {
+        this.topics = topics;
+    }
+
+    /**
+     * Accumulates a possibly partial frame and decodes it once the last part arrived.
+     * @return true when a complete level2, level3 or match message for a subscribed topic was decoded into the event.
+     */
+    public boolean onText(CharSequence data, boolean last, QuotesL2Event event) {
+        frame.append(data);
+        if (!last) {
+            return false;
+        }
+        try {
+            return decode(frame.chars(), 0, frame.length(), event);
+        } finally {
+            frame.reset();
+        }
+    }
+
+    @Override
+    public boolean decode(char[] chars, int offset, int length, QuotesL2Event event) {
+        event.clear();
+        this.buf = chars;
+        this.pos = offset;
+        this.end = offset + length;
+
+        boolean message = false;
+        boolean trade = false;
+        int topicStart = -1;
+        int topicLength = 0;
+        int subjectStart = -1;
+        int subjectLength = 0;
+        int dataStart = -1;
+
+        skipWhitespace();
+        expect('{');
+        while (true) {
+            skipWhitespace();
+            if (at(pos) == '}') break;
+            int keyStart = pos + 1;
+            int keyLength = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (equals(keyStart, keyLength, "type")) {
+                int valueStart = pos + 1;
+                message = equals(valueStart, skipString(), "message");
+            } else if (equals(keyStart, keyLength, "topic")) {
+                topicStart = pos + 1;
+                topicLength = skipString();
+            } else if (equals(keyStart, keyLength, "subject")) {
+                subjectStart = pos + 1;
+                subjectLength = skipString();
+                trade = equals(subjectStart, subjectLength, "trade.l3match") || equals(subjectStart, subjectLength, "match");
+            } else if (equals(keyStart, keyLength, "data")) {
+                dataStart = pos;
+                skipValue();
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            if (at(pos) == ',') pos++;
+        }
+        if (!message || topicStart < 0 || dataStart < 0) {
+            return false;
+        }
+        Instrument instrument = topics.get(buf, topicStart, topicLength);
+        if (instrument == null) {
+            return false;
+        }
+        event.setInstrument(instrument);
+        pos = dataStart;
+        if (startsWith(topicStart, topicLength, LEVEL3_TOPIC)) {
+            // A level3 match is a resting order's fill, not the match stream's trade
+            OrderAction action = orderAction(subjectStart, subjectLength);
+            if (action == null) {
+                return false;
+            }
+            decodeOrder(instrument, action, event);
+        } else if (trade) {
+            decodeTrade(instrument, event);
+        } else {
+            decodeData(instrument, event);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the topic of a raw frame without decoding it.
+     * @return the offset of the topic's first char, its length being up to the next quote, or -1 without topic.
+     */
+    public static int findTopic(char[] chars, int offset, int length) {
+        int end = offset + length - TOPIC_KEY.length;
+        for (int i = offset; i <= end; i++) {
+            if (chars[i] == '"' && matches(chars, i, TOPIC_KEY)) {
+                int start = i + TOPIC_KEY.length;
+                while (start < offset + length && chars[start] <= ' ') start++;
+                return start < offset + length && chars[start] == '"' ? start + 1 : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(char[] chars, int offset, char[] literal) {
+        for (int i = 0; i < literal.length; i++) {
+            if (chars[offset + i] != literal[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a REST level2 snapshot response ({"code":..,"data":{"sequence":..,"bids":..,"asks":..}}).
+     */
+    public boolean decodeSnapshot(Instrument instrument, char[] chars, int offset, int length, QuotesL2Event event) {
+        event.clear();
+        this.buf = chars;
+        this.pos = offset;
+        this.end = offset + length;
+        skipWhitespace();
+        expect('{');
+        while (true) {
+            skipWhitespace();
+            if (at(pos) == '}') break;
+            int keyStart = pos + 1;
+            int keyLength = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (equals(keyStart, keyLength, "data") && at(pos) == '{') {
+                event.setInstrument(instrument);
+                decodeData(instrument, event);
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            if (at(pos) == ',') pos++;
+        }
+        return event.getInstrument() != null;
+    }
+
+    private void decodeData(Instrument instrument, QuotesL2Event event) {
+        boolean incremental = false;
+        long sequence = 0;
+        expect('{');
+        while (true) {
+            skipWhitespace();
+            if (at(pos) == '}') break;
+            int keyStart = pos + 1;
+            int keyLength = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (equals(keyStart, keyLength, "changes")) {
+                incremental = true;
+                decodeChanges(instrument, event);
+            } else if (equals(keyStart, keyLength, "bids")) {
+                decodeLevels(instrument, BID, event);
+            } else if (equals(keyStart, keyLength, "asks")) {
+                decodeLevels(instrument, ASK, event);
+            } else if (equals(keyStart, keyLength, "change")) {
+                incremental = true;
+                decodeChange(instrument, event);
+            } else if (equals(keyStart, keyLength, "sequenceStart")) {
+                event.setSequenceStart(readLong());
+            } else if (equals(keyStart, keyLength, "sequenceEnd")) {
+                event.setSequenceEnd(readLong());
+            } else if (equals(keyStart, keyLength, "sequence")) {
+                sequence = readLong();
+            } else if (equals(keyStart, keyLength, "timestamp") || equals(keyStart, keyLength, "time") || equals(keyStart, keyLength, "ts")) {
+                event.setTimestamp(readLong());
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            if (at(pos) == ',') pos++;
+        }
+        pos++;
+        event.setSnapshot(!incremental);
+        if (sequence > 0) {
+            event.setSequenceStart(sequence);
+            event.setSequenceEnd(sequence);
+            if (incremental) {
+                for (int i = 0; i < event.getLevelCount(BID); i++) event.setLevelSequence(BID, i, sequence);
+                for (int i = 0; i < event.getLevelCount(ASK); i++) event.setLevelSequence(ASK, i, sequence);
+            }
+        } else if (event.getSequenceEnd() == 0) {
+            // Depth snapshot topics carry no sequence, their timestamp orders them instead.
+            event.setSequenceStart(event.getTimestamp());
+            event.setSequenceEnd(event.getTimestamp());
+        }
+    }
+
+    /**
+     * Match data, spot {"price":..,"size":..,"side":"buy","time":"<nanos>",..}, futures the same
+     * with "ts". The side is the taker's.
+     */
+    private void decodeTrade(Instrument instrument, QuotesL2Event event) {
+        long price = 0;
+        long quantity = 0;
+        QuoteSide takerSide = null;
+        expect('{');
+        while (true) {
+            skipWhitespace();
+            if (at(pos) == '}') break;
+            int keyStart = pos + 1;
+            int keyLength = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (equals(keyStart, keyLength, "price")) {
+                price = readScaled(instrument.getPriceScale());
+            } else if (equals(keyStart, keyLength, "size")) {
+                quantity = readScaled(instrument.getQuantityScale());
+            } else if (equals(keyStart, keyLength, "side")) {
+                takerSide = at(pos + 1) == 'b' ? BID : ASK;
+                skipValue();
+            } else if (equals(keyStart, keyLength, "time") || equals(keyStart, keyLength, "ts")) {
+                long time = readLong();
+                event.setTimestamp(time > NANOS_THRESHOLD ? time / 1_000_000 : time);
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            if (at(pos) == ',') pos++;
+        }
+        pos++;
+        event.setTrade(price, quantity, takerSide);
+    }
+
+    private OrderAction orderAction(int subjectStart, int subjectLength) {
+        if (equals(subjectStart, subjectLength, "received")) return OrderAction.RECEIVED;
+        if (equals(subjectStart, subjectLength, "open")) return OrderAction.OPEN;
+        if (equals(subjectStart, subjectLength, "match")) return OrderAction.MATCH;
+        if (equals(subjectStart, subjectLength, "update")) return OrderAction.CHANGE;
+        if (equals(subjectStart, subjectLength, "done")) return OrderAction.DONE;
+        return null;
+    }
+
+    /**
+     * Level3 data {"sequence":..,"orderId":..,"side":"buy","price":..,"size":..,"ts":"<nanos>",..},
+     * a match naming the resting order as makerOrderId and an update the new size as size.
+     */
+    private void decodeOrder(Instrument instrument, OrderAction action, QuotesL2Event event) {
+        String idKey = action == OrderAction.MATCH ? "makerOrderId" : "orderId";
+        long idHigh = 0;
+        long idLow = 0;
+        QuoteSide side = null;
+        long price = 0;
+        long size = 0;
+        long sequence = 0;
+        expect('{');
+        while (true) {
+            skipWhitespace();
+            if (at(pos) == '}') break;
+            int keyStart = pos + 1;
+            int keyLength = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (equals(keyStart, keyLength, idKey)) {
+                // Up to 24 hex digits: the 8 leading ones make the high long, the last 16 the low one
+                expect('"');
+                int start = pos;
+                while (at(pos) != '"') pos++;
+                int digits = pos - start;
+                if (digits == 0 || digits > MAX_ORDER_ID_DIGITS) {
+                    throw new NumberFormatException("Order id of " + digits + " chars at " + start);
+                }
+                int split = Math.max(start, pos - 16);
+                idHigh = parseHex(start, split);
+                idLow = parseHex(split, pos);
+                pos++;
+            } else if (equals(keyStart, keyLength, "side")) {
+                side = at(pos + 1) == 'b' ? BID : ASK;
+                skipValue();
+            } else if (equals(keyStart, keyLength, "price") && action == OrderAction.OPEN) {
+                price = readScaled(instrument.getPriceScale());
+            } else if (equals(keyStart, keyLength, "size") && action != OrderAction.RECEIVED) {
+                size = readScaled(instrument.getQuantityScale());
+            } else if (equals(keyStart, keyLength, "sequence")) {
+                sequence = readLong();
+            } else if (equals(keyStart, keyLength, "ts")) {
+                long time = readLong();
+                event.setTimestamp(time > NANOS_THRESHOLD ? time / 1_000_000 : time);
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            if (at(pos) == ',') pos++;
+        }
+        pos++;
+        event.setSequenceStart(sequence);
+        event.setSequenceEnd(sequence);
+        event.setOrder(action, idHigh, idLow, side, price, size);
+    }
+
+    /**
+     * Exact value of the hex digits between the indexes, at most 16 of them.
+     */
+    private long parseHex(int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(buf[i], 16);
+            if (digit < 0) throw new NumberFormatException("Order id not hexadecimal at " + i);
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private void decodeChanges(Instrument instrument, QuotesL2Event event) {
+        expect('{');
+        while (true) {
+            skipWhitespace();
+            if (at(pos) == '}') break;
+            int keyStart = pos + 1;
+            int keyLength = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (equals(keyStart, keyLength, "bids")) {
+                decodeLevels(instrument, BID, event);
+            } else if (equals(keyStart, keyLength, "asks")) {
+                decodeLevels(instrument, ASK, event);
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            if (at(pos) == ',') pos++;
+        }
+        pos++;
+    }
+
+    /**
+     * Levels as [["price","size"(,"sequence")],...], values quoted or not.
+     */
+    private void decodeLevels(Instrument instrument, QuoteSide side, QuotesL2Event event) {
+        expect('[');
+        while (true) {
+            skipWhitespace();
+            if (at(pos) == ']') break;
+            expect('[');
+            skipWhitespace();
+            long price = readScaled(instrument.getPriceScale());
+            skipWhitespace();
+            expect(',');
+            skipWhitespace();
+            long quantity = readScaled(instrument.getQuantityScale());
+            skipWhitespace();
+            long sequence = 0;
+            if (at(pos) == ',') {
+                pos++;
+                skipWhitespace();
+                sequence = readLong();
+                skipWhitespace();
+            }
+            while (at(pos) != ']') {
+                if (at(pos) == ',') pos++;
+                skipWhitespace();
+                skipValue();
+                skipWhitespace();
+            }
+            pos++;
+            event.addLevel(side, price, quantity, sequence);
+            skipWhitespace();
+            if (at(pos) == ',') pos++;
+        }
+        pos++;
+    }
+
+    /**
+     * Futures incremental change as "price,side,size".
+     */
+    private void decodeChange(Instrument instrument, QuotesL2Event event) {
+        expect('"');
+        long price = readScaled(instrument.getPriceScale());
+        expect(',');
+        QuoteSide side = at(pos) == 'b' ? BID : ASK;
+        while (at(pos) != ',') pos++;
+        pos++;
+        long quantity = readScaled(instrument.getQuantityScale());
+        if (at(pos) == '"') pos++;
+        event.addLevel(side, price, quantity, 0);
+    }
+
+    /**
+     * Parses a plain decimal, quoted or not, into a long scaled by 10^scale rounding half up.
+     */
+    private long readScaled(int scale) {
+        boolean quoted = at(pos) == '"';
+        if (quoted) pos++;
+        int start = pos;
+        char c;
+        while (pos < end && ((c = buf[pos]) >= '0' && c <= '9' || c == '.' || c == '-')) pos++;
+        long value = Decimals.parse(buf, start, pos, scale);
+        if (quoted && at(pos) == '"') pos++;
+        return value;
+    }
+
+    private long readLong() {
+        boolean quoted = at(pos) == '"';
+        if (quoted) pos++;
+        long value = 0;
+        char c;
+        while (pos < end && (c = buf[pos]) >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            pos++;
+        }
+        if (quoted) {
+            while (at(pos) != '"') pos++;
+            pos++;
+        }
+        return value;
+    }
+
+    /**
+     * Skips a string value starting at the opening quote.
+     * @return the length of its content.
+     */
+    private int skipString() {
+        expect('"');
+        int start = pos;
+        while (at(pos) != '"') {
+            if (at(pos) == '\\') pos++;
+            pos++;
+        }
+        return pos++ - start;
+    }
+
+    private void skipValue() {
+        char c = at(pos);
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int nesting = 0;
+            do {
+                c = at(pos);
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                if (c == '{' || c == '[') nesting++;
+                else if (c == '}' || c == ']') nesting--;
+                pos++;
+            } while (nesting > 0);
+        } else {
+            while (pos < end && (c = buf[pos]) != ',' && c != '}' && c != ']') pos++;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && buf[pos] <= ' ') pos++;
+    }
+
+    /**
+     * Char of the frame at the index, scans running past the frame's end fail it as malformed
+     * rather than read what a previous frame left in the buffer.
+     */
+    private char at(int index) {
+        if (index >= end) {
+            throw new IllegalStateException("Malformed frame, truncated at " + index);
+        }
+        return buf[index];
+    }
+
+    private void expect(char c) {
+        if (pos >= end || buf[pos] != c) {
+            throw new IllegalStateException("Malformed frame, expected '" + c + "' at " + pos);
+        }
+        pos++;
+    }
+
+    private boolean startsWith(int start, int length, String literal) {
+        return length >= literal.length() && equals(start, literal.length(), literal);
+    }
+
+    private boolean equals(int start, int length, String literal) {
+        if (length != literal.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buf[start + i] != literal.charAt(i)) return false;
+        }
+        return true;
+    }
+}
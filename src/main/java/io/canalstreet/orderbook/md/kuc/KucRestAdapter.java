@@ -11,6 +11,7 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public class KucRestAdapter {
     private static  final Logger LOGGER = LoggerFactory.getLogger(KucRestAdapter.class);
@@ -18,9 +19,20 @@ public class KucRestAdapter {
     private static final ObjectMapper OM = new ObjectMapper();
 
     private HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+    private final String spotUrl;
+    private final String futuresUrl;
+
+    public KucRestAdapter() {
+        this("https://api.kucoin.com", "https://api-futures.kucoin.com");
+    }
+
+    public KucRestAdapter(String spotUrl, String futuresUrl) {
+        this.spotUrl = spotUrl;
+        this.futuresUrl = futuresUrl;
+    }
 
     public String fetchToken(Instrument instrument) {
-        String url = instrument instanceof PerpetualFuture ? "https://api-futures.kucoin.com/api/v1/bullet-public" : "https://api.kucoin.com/api/v1/bullet-public";
+        String url = (instrument instanceof PerpetualFuture ? futuresUrl : spotUrl) + "/api/v1/bullet-public";
 
         HttpRequest request = HttpRequest.newBuilder()
                 .POST(HttpRequest.BodyPublishers.noBody())
@@ -55,15 +67,29 @@ public class KucRestAdapter {
         return null;
     }
 
-    public void fetchL2Book(Instrument instrument) {
-        String url = instrument instanceof PerpetualFuture ? "https://api-futures.kucoin.com/api/v3/market/orderbook/level2?symbol=" : "https://api.kucoin.com/api/v3/market/orderbook/level2?symbol=";
+    /**
+     * Requests the public level2 snapshot of the instrument: full depth for futures,
+     * the best 100 levels for spot where the full depth endpoint needs an API key.
+     * @return the response body, completed exceptionally on failure.
+     */
+    public CompletableFuture<String> fetchL2Book(Instrument instrument) {
+        String url = instrument instanceof PerpetualFuture
+                ? futuresUrl + "/api/v1/level2/snapshot?symbol="
+                : spotUrl + "/api/v1/market/orderbook/level2_100?symbol=";
 
         HttpRequest request = HttpRequest.newBuilder()
-                .POST(HttpRequest.BodyPublishers.noBody())
+                .GET()
                 .uri(URI.create(url + instrument.getSymbol()))
                 .header("Accept", "application/json")
                 .timeout(Duration.ofSeconds(10))
                 .build();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Failed to fetch L2 book for " + instrument.getSymbol() + ". Status code: " + response.statusCode() + ". Body: " + response.body());
+            }
+            return response.body();
+        });
     }
 
 }
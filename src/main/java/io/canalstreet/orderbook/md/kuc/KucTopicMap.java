@@ -0,0 +1,117 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import java.util.Map;
+
+/**
+ * Topic lookup keyed directly by the characters of an incoming frame, so routing does not
+ * need a {@link String} per message. Writes copy the table and are expected to be rare
+ * (subscribe/unsubscribe), reads are lock free and allocation free.
+ */
+public class KucTopicMap<V> {
+
+    private volatile Table table = new Table(8);
+
+    public void put(String topic, V value) {
+        putAll(Map.of(topic, value));
+    }
+
+    /**
+     * Puts many topics with a single copy of the table, as for all topics of a subscription.
+     */
+    public synchronized void putAll(Map<String, ? extends V> entries) {
+        Table current = table;
+        Table next = new Table(Integer.highestOneBit(Math.max(8, (current.size + entries.size()) * 4) - 1) << 1);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != null && !entries.containsKey(current.keys[i])) {
+                next.insert(current.keys[i], current.values[i]);
+            }
+        }
+        entries.forEach(next::insert);
+        table = next;
+    }
+
+    public synchronized void remove(String topic) {
+        Table current = table;
+        Table next = new Table(current.keys.length);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != null && !current.keys[i].equals(topic)) {
+                next.insert(current.keys[i], current.values[i]);
+            }
+        }
+        table = next;
+    }
+
+    public V get(String topic) {
+        return get(topic, 0, topic.length());
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(CharSequence chars, int offset, int length) {
+        Table t = table;
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars.charAt(offset + i);
+        }
+        for (int slot = mix(hash) & t.mask; t.keys[slot] != null; slot = (slot + 1) & t.mask) {
+            if (matches(t.keys[slot], chars, offset, length)) {
+                return (V) t.values[slot];
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(char[] chars, int offset, int length) {
+        Table t = table;
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        for (int slot = mix(hash) & t.mask; t.keys[slot] != null; slot = (slot + 1) & t.mask) {
+            String key = t.keys[slot];
+            if (key.length() == length) {
+                int i = 0;
+                while (i < length && key.charAt(i) == chars[offset + i]) i++;
+                if (i == length) return (V) t.values[slot];
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return table.size;
+    }
+
+    private static boolean matches(String key, CharSequence chars, int offset, int length) {
+        if (key.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != chars.charAt(offset + i)) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Table {
+        private final String[] keys;
+        private final Object[] values;
+        private final int mask;
+        private int size;
+
+        private Table(int capacity) {
+            this.keys = new String[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private void insert(String key, Object value) {
+            int slot = mix(key.hashCode()) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+    }
+}
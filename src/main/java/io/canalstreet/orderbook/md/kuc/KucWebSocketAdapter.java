@@ -1,134 +1,272 @@
 package io.canalstreet.orderbook.md.kuc;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentTable;
 import io.canalstreet.orderbook.data.PerpetualFuture;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.canalstreet.orderbook.md.L2BookType;
+import io.canalstreet.orderbook.md.QuotesL2Pipeline;
 
-import java.io.IOException;
-import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.WebSocket;
-import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletionStage;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
+/**
+ * Subscription manager of the KuCoin level2 and match topics. Topics are packed onto connections up to
+ * a per connection limit, more connections are opened as needed and spread round robin over
+ * the pipeline shards. All topics of an instrument go through one connection, so its book
+ * keeps a single writer.
+ */
 public class KucWebSocketAdapter {
+    static final int MAX_TOPICS_PER_CONNECTION = 300;
 
-    private static final HttpClient httpClient = HttpClient.newHttpClient();
-    private WebSocket webSocketMargin;
-    private WebSocket webSocketFutures;
-    private static final Map<String, Instrument> subscriptions = HashMap.newHashMap(2);
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final KucTopicMap<Instrument> subscriptions = new KucTopicMap<>();
+    private final InstrumentTable<String> topics = new InstrumentTable<>();
+    private final InstrumentTable<String> tradeTopics = new InstrumentTable<>();
+    private final InstrumentTable<KucConnection> connectionsByInstrument = new InstrumentTable<>();
+    private final InstrumentTable<KucConnection> tradeConnections = new InstrumentTable<>();
+    private final List<KucConnection> connections = new CopyOnWriteArrayList<>();
+    private final String spotUrl;
+    private final String futuresUrl;
+    private final int maxTopicsPerConnection;
 
-    public void subscribe(Instrument instrument, String token, BiConsumer<Instrument,JsonNode> messageHandler, Runnable wsClosedHandler) {
-        String subscribeMessage = """
-                { "id":1,"type":"subscribe","topic":"/spotMarket/level2Depth5:%s", "response":true }
-                """.formatted(instrument.getSymbol());
+    public KucWebSocketAdapter() {
+        this("wss://ws-api-spot.kucoin.com", "wss://ws-api-futures.kucoin.com");
+    }
 
-        if (instrument instanceof PerpetualFuture) {
-            if (webSocketFutures == null || webSocketFutures.isInputClosed()) {
-                webSocketFutures = httpClient.newWebSocketBuilder().buildAsync(URI.create("wss://ws-api-futures.kucoin.com?token="+token),
-                        new BncWebSocketListener(messageHandler, wsClosedHandler)).join();
-            }
-            webSocketFutures.sendText(subscribeMessage, true);
-            subscriptions.put("/contractMarket/level2Depth5:"+instrument.getSymbol(), instrument);
-        } else {
-            if (webSocketMargin == null || webSocketMargin.isInputClosed()) {
-                webSocketMargin = httpClient.newWebSocketBuilder().buildAsync(URI.create("wss://ws-api-spot.kucoin.com?token="+token),
-                        new BncWebSocketListener(messageHandler, wsClosedHandler)).join();
-            }
-            webSocketMargin.sendText(subscribeMessage, true);
-            subscriptions.put("/spotMarket/level2Depth5:"+instrument.getSymbol(), instrument);
-        }
+    public KucWebSocketAdapter(String spotUrl, String futuresUrl) {
+        this(spotUrl, futuresUrl, MAX_TOPICS_PER_CONNECTION);
     }
 
-    public void unsubscribe(Instrument instrument) {
-        String unSubscribeMessage = """
-                { "id":1, "type":"unsubscribe", "topic":"/spotMarket/level2Depth5:%s", "response":true }
-                """.formatted(instrument.getSymbol());
+    public KucWebSocketAdapter(String spotUrl, String futuresUrl, int maxTopicsPerConnection) {
+        this.spotUrl = spotUrl;
+        this.futuresUrl = futuresUrl;
+        this.maxTopicsPerConnection = maxTopicsPerConnection;
+    }
 
-        if (instrument instanceof PerpetualFuture && webSocketFutures != null && !webSocketFutures.isInputClosed()) {
-            webSocketFutures.sendText(unSubscribeMessage, true);
+    /**
+     * Subscribes the instruments of one market, placing each on the first connection with room left.
+     * @param shards pipelines new connections are spread over
+     * @param closedHandler called with a connection which was closed by the venue
+     */
+    public synchronized void subscribe(List<Instrument> instruments, String token, L2BookType bookType,
+                                       QuotesL2Pipeline[] shards, Consumer<KucConnection> closedHandler) {
+        List<Instrument> placed = new ArrayList<>();
+        for (Instrument instrument : instruments) {
+            if (connectionsByInstrument.get(instrument) == null) placed.add(instrument);
         }
-        else if (webSocketMargin != null && !webSocketMargin.isInputClosed()) {
-            webSocketMargin.sendText(unSubscribeMessage, true);
+        register(placed, bookType);
+        Map<KucConnection, List<String>> newTopics = new LinkedHashMap<>();
+        for (Instrument instrument : placed) {
+            String topic = topics.get(instrument);
+            boolean futures = instrument instanceof PerpetualFuture;
+            KucConnection connection = connectionWithRoom(futures, -1);
+            if (connection == null) {
+                connection = open(futures, connections.size() % shards.length, shards, token, closedHandler);
+            }
+            connection.reserve(topic);
+            connectionsByInstrument.put(instrument, connection);
+            newTopics.computeIfAbsent(connection, key -> new ArrayList<>()).add(topic);
         }
+        newTopics.forEach(KucConnection::subscribe);
     }
 
-    static class BncWebSocketListener implements WebSocket.Listener {
-        private static final Logger LOGGER = LoggerFactory.getLogger(BncWebSocketListener.class);
-        private static final ObjectMapper OM = new ObjectMapper();
-        private final BiConsumer<Instrument,JsonNode> messageHandler;
-        private final Runnable wsClosedHandler;
-
-        public BncWebSocketListener(BiConsumer<Instrument,JsonNode> messageHandler, Runnable wsClosedCallback) {
-            this.messageHandler = messageHandler;
-            this.wsClosedHandler = wsClosedCallback;
+    /**
+     * Subscribes the match topics of instruments whose level2 topic is subscribed, on a connection
+     * of the shard writing their book so their trades reach the same apply stage. A match topic
+     * counts against the per connection limit like any topic: it goes on the connection of its
+     * instrument's level2 topic while that one has room, on another connection of the shard
+     * otherwise, opened as needed.
+     */
+    public synchronized void subscribeTrades(List<Instrument> instruments, String token,
+                                             QuotesL2Pipeline[] shards, Consumer<KucConnection> closedHandler) {
+        List<Instrument> connected = new ArrayList<>();
+        for (Instrument instrument : instruments) {
+            if (connectionsByInstrument.get(instrument) != null && tradeConnections.get(instrument) == null) connected.add(instrument);
+        }
+        registerTrades(connected);
+        Map<KucConnection, List<String>> newTopics = new LinkedHashMap<>();
+        for (Instrument instrument : connected) {
+            KucConnection bookConnection = connectionsByInstrument.get(instrument);
+            KucConnection connection = bookConnection.getTopicCount() < maxTopicsPerConnection ? bookConnection
+                    : connectionWithRoom(bookConnection.isFutures(), bookConnection.getShard());
+            if (connection == null) {
+                connection = open(bookConnection.isFutures(), bookConnection.getShard(), shards, token, closedHandler);
+            }
+            String topic = tradeTopics.get(instrument);
+            connection.reserve(topic);
+            tradeConnections.put(instrument, connection);
+            newTopics.computeIfAbsent(connection, key -> new ArrayList<>()).add(topic);
         }
+        newTopics.forEach(KucConnection::subscribe);
+    }
 
-        @Override
-        public void onOpen(WebSocket webSocket) {
-            WebSocket.Listener.super.onOpen(webSocket);
+    /**
+     * Opens a closed connection again with a fresh token and subscribes its topics again.
+     */
+    public synchronized void reconnect(KucConnection connection, String token, Consumer<KucConnection> closedHandler) {
+        connection.connect(httpClient, connection.isFutures() ? futuresUrl : spotUrl, token, closedHandler);
+        connection.resubscribe();
+    }
+
+    /**
+     * Closes all connections, which their closed handler is expected not to reconnect any more.
+     */
+    public synchronized void close() {
+        for (KucConnection connection : connections) {
+            connection.close();
         }
+    }
 
-        @Override
-        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
-            if (messageHandler != null) {
-                try {
-                    JsonNode message = OM.readTree(data.toString());
-                    if ("message".equals(message.get("type").asText())) {
-                        String topic = message.get("topic").asText();
-                        messageHandler.accept(subscriptions.get(topic), message);
-                    }
-                } catch (Exception ex) {
-                    LOGGER.error("Failed to parse message: {}", data, ex);
-                }
+    /**
+     * @param shard shard the connection feeds, -1 for any
+     */
+    private KucConnection connectionWithRoom(boolean futures, int shard) {
+        for (KucConnection connection : connections) {
+            if (connection.isFutures() == futures && (shard < 0 || connection.getShard() == shard)
+                    && connection.getTopicCount() < maxTopicsPerConnection && connection.isOpen()) {
+                return connection;
             }
-            return null;
         }
+        return null;
+    }
 
-        @Override
-        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
-            return WebSocket.Listener.super.onBinary(webSocket, data, last);
-        }
+    private KucConnection open(boolean futures, int shard, QuotesL2Pipeline[] shards, String token, Consumer<KucConnection> closedHandler) {
+        KucConnection connection = new KucConnection(connections.size(), futures, shard, shards[shard], subscriptions);
+        connection.connect(httpClient, futures ? futuresUrl : spotUrl, token, closedHandler);
+        connections.add(connection);
+        return connection;
+    }
 
-        @Override
-        public CompletionStage<?> onPing(WebSocket webSocket, ByteBuffer message) {
-            try {
-                LOGGER.info("Received ping message: {}", message);
-                ObjectNode pong = ((ObjectNode)OM.readTree(message.array())).put("type", "pong");
-                ByteBuffer byteBuffer = ByteBuffer.wrap(OM.writeValueAsBytes(pong));
-                LOGGER.info("Sending pong message: {}", byteBuffer);
-                webSocket.sendPong(byteBuffer);
-            } catch (IOException ex) {
-                LOGGER.error("Failed to parse ping message: {}", message, ex);
-            }
-            return null;
+    /**
+     * Routes the instrument's topic to it without subscribing, frames of the topic decode from then on.
+     * The instrument is registered with the registry of the service already.
+     * @return the topic
+     */
+    public String register(Instrument instrument, L2BookType bookType) {
+        register(List.of(instrument), bookType);
+        return topics.get(instrument);
+    }
+
+    /**
+     * Routes the instruments' topics to them without subscribing, publishing the routing table once.
+     */
+    public synchronized void register(Collection<Instrument> instruments, L2BookType bookType) {
+        Map<String, Instrument> routes = new LinkedHashMap<>();
+        for (Instrument instrument : instruments) {
+            String topic = topic(instrument, bookType);
+            routes.put(topic, instrument);
+            topics.put(instrument, topic);
         }
+        subscriptions.putAll(routes);
+    }
 
-        @Override
-        public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
-            return WebSocket.Listener.super.onPong(webSocket, message);
+    /**
+     * Routes the instrument's match topic to it without subscribing.
+     * @return the topic
+     */
+    public String registerTrades(Instrument instrument) {
+        registerTrades(List.of(instrument));
+        return tradeTopics.get(instrument);
+    }
+
+    /**
+     * Routes the instruments' match topics to them without subscribing, publishing the routing table once.
+     */
+    public synchronized void registerTrades(Collection<Instrument> instruments) {
+        Map<String, Instrument> routes = new LinkedHashMap<>();
+        for (Instrument instrument : instruments) {
+            String topic = tradeTopic(instrument);
+            routes.put(topic, instrument);
+            tradeTopics.put(instrument, topic);
         }
+        subscriptions.putAll(routes);
+    }
+
+    public String getTopic(Instrument instrument) {
+        return topics.get(instrument);
+    }
+
+    /**
+     * Index of the pipeline the instrument's frames are fed to, 0 when it is not subscribed.
+     */
+    public int getShard(Instrument instrument) {
+        KucConnection connection = connectionsByInstrument.get(instrument);
+        return connection == null ? 0 : connection.getShard();
+    }
+
+    /**
+     * Connection the instrument's topic is subscribed on, or null.
+     */
+    public KucConnection getConnection(Instrument instrument) {
+        return connectionsByInstrument.get(instrument);
+    }
+
+    /**
+     * Connection the instrument's match topic is subscribed on, or null.
+     */
+    public KucConnection getTradeConnection(Instrument instrument) {
+        return tradeConnections.get(instrument);
+    }
 
-        @Override
-        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
-            LOGGER.warn("WebSocket closed. Status code: {}. Reason: {}", statusCode, reason);
-            if (this.wsClosedHandler != null) {
-                LOGGER.info("Reconnecting...");
-                this.wsClosedHandler.run();
+    public List<KucConnection> getConnections() {
+        return Collections.unmodifiableList(connections);
+    }
+
+    /**
+     * Top 5 or 50 depth snapshots, per {@link Instrument#getSnapshotDepth()}, feed the ring book,
+     * the full incremental level2 stream the sparse one and the spot level3 stream the order by order one.
+     * @throws IllegalArgumentException for a snapshot depth the venue does not publish, or a level3 future
+     */
+    static String topic(Instrument instrument, L2BookType bookType) {
+        boolean futures = instrument instanceof PerpetualFuture;
+        if (bookType == L2BookType.L3) {
+            if (futures) {
+                throw new IllegalArgumentException("No level3 topic decoded for future " + instrument.getSymbol());
             }
-            return WebSocket.Listener.super.onClose(webSocket, statusCode, reason);
+            return KucMessageDecoder.LEVEL3_TOPIC + instrument.getSymbol();
+        }
+        if (bookType == L2BookType.SPARSE) {
+            return (futures ? "/contractMarket/level2:" : "/market/level2:") + instrument.getSymbol();
         }
+        int depth = instrument.getSnapshotDepth();
+        if (depth != 5 && depth != 50) {
+            throw new IllegalArgumentException("No level2Depth" + depth + " topic for " + instrument.getSymbol());
+        }
+        return (futures ? "/contractMarket/level2Depth" : "/spotMarket/level2Depth") + depth + ":" + instrument.getSymbol();
+    }
 
-        @Override
-        public void onError(WebSocket webSocket, Throwable error) {
-            WebSocket.Listener.super.onError(webSocket, error);
+    static String tradeTopic(Instrument instrument) {
+        return (instrument instanceof PerpetualFuture ? "/contractMarket/execution:" : "/market/match:") + instrument.getSymbol();
+    }
+
+    public KucTopicMap<Instrument> getSubscriptions() {
+        return subscriptions;
+    }
+
+    public synchronized void unsubscribe(Instrument instrument) {
+        String topic = topics.get(instrument);
+        if (topic == null) {
+            return;
+        }
+        topics.remove(instrument);
+        subscriptions.remove(topic);
+        String tradeTopic = tradeTopics.get(instrument);
+        if (tradeTopic != null) {
+            tradeTopics.remove(instrument);
+            subscriptions.remove(tradeTopic);
         }
+        KucConnection connection = connectionsByInstrument.get(instrument);
+        connectionsByInstrument.remove(instrument);
+        if (connection != null) connection.unsubscribe(topic);
+        KucConnection tradeConnection = tradeConnections.get(instrument);
+        tradeConnections.remove(instrument);
+        if (tradeConnection != null) tradeConnection.unsubscribe(tradeTopic);
     }
 }
@@ -0,0 +1,62 @@
+package io.canalstreet.orderbook.md.shm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+
+/**
+ * Layout of a book mirrored into a memory mapped file, in the host's byte order. All fields are
+ * longs, the levels are held column by column, best first:
+ * <pre>
+ * magic | seqlock | sequence | bookVersion | updatedMicros | depth | priceScale | quantityScale | bidCount | askCount
+ * | padding up to 128 bytes | depth x bid price | depth x bid size | depth x ask price | depth x ask size
+ * </pre>
+ * The seqlock is odd while the writer updates the file, readers retry until they copied it at one even value.
+ */
+final class SharedBookLayout {
+    static final long MAGIC = 0x4F42534D30303031L;
+    static final int MAGIC_OFFSET = 0;
+    static final int SEQLOCK = 8;
+    static final int SEQUENCE = 16;
+    static final int BOOK_VERSION = 24;
+    static final int UPDATED_MICROS = 32;
+    static final int DEPTH = 40;
+    static final int PRICE_SCALE = 48;
+    static final int QUANTITY_SCALE = 56;
+    static final int BID_COUNT = 64;
+    static final int ASK_COUNT = 72;
+    static final int HEADER = 128;
+
+    /**
+     * Ordered accesses to the longs of a mapped buffer, which must be 8 byte aligned.
+     */
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private SharedBookLayout() {
+    }
+
+    static long size(int depth) {
+        return HEADER + 4L * depth * Long.BYTES;
+    }
+
+    static int bidPrices(int depth) {
+        return HEADER;
+    }
+
+    static int bidQuantities(int depth) {
+        return HEADER + depth * Long.BYTES;
+    }
+
+    static int askPrices(int depth) {
+        return HEADER + 2 * depth * Long.BYTES;
+    }
+
+    static int askQuantities(int depth) {
+        return HEADER + 3 * depth * Long.BYTES;
+    }
+
+    static Path path(Path dir, String symbol) {
+        return dir.resolve(symbol + ".l2");
+    }
+}
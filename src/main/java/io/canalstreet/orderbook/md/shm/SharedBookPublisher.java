@@ -0,0 +1,77 @@
+package io.canalstreet.orderbook.md.shm;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentTable;
+import io.canalstreet.orderbook.md.L2BookView;
+import io.canalstreet.orderbook.md.MarketDataService;
+import io.canalstreet.orderbook.md.QuotesL2Event;
+import io.canalstreet.orderbook.md.QuotesL2Listener;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Mirrors every book of the market data service into shared memory on the publish stage of its
+ * pipeline, when a directory is configured. A tmpfs directory such as /dev/shm keeps the mirrors
+ * off the disk.
+ */
+@Component
+public class SharedBookPublisher implements QuotesL2Listener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedBookPublisher.class);
+
+    @Autowired
+    MarketDataService marketDataService;
+
+    @Value("${md.shm.dir:}")
+    String dir;
+
+    @Value("${md.shm.depth:20}")
+    int depth;
+
+    private final InstrumentTable<SharedBookWriter> writers = new InstrumentTable<>();
+    private final long epochMicros = System.currentTimeMillis() * 1_000;
+    private final long startNanos = System.nanoTime();
+
+    @PostConstruct
+    public void initListener() {
+        if (dir != null && !dir.isBlank()) {
+            marketDataService.addListener(this);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        writers.forEach((instrument, writer) -> {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                LOGGER.error("Failed to close the shared book of {}", instrument.getSymbol(), ex);
+            }
+        });
+    }
+
+    @Override
+    public void onQuotesL2(QuotesL2Event event, L2BookView book) {
+        SharedBookWriter writer = writers.get(event.getInstrument());
+        if (writer == null) {
+            writer = writers.computeIfAbsent(event.getInstrument(), this::open);
+        }
+        writer.publish(book, epochMicros + (System.nanoTime() - startNanos) / 1_000);
+    }
+
+    private SharedBookWriter open(Instrument instrument) {
+        try {
+            return SharedBookWriter.open(Path.of(dir), instrument, depth);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to map the shared book of " + instrument.getSymbol() + " in " + dir, ex);
+        }
+    }
+}
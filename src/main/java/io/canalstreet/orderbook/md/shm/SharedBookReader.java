@@ -0,0 +1,192 @@
+package io.canalstreet.orderbook.md.shm;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.ASK_COUNT;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.BID_COUNT;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.BOOK_VERSION;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.DEPTH;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.HEADER;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.LONGS;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.MAGIC;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.MAGIC_OFFSET;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.PRICE_SCALE;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.QUANTITY_SCALE;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.SEQLOCK;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.SEQUENCE;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.UPDATED_MICROS;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.path;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.size;
+
+/**
+ * Reads the top N of a book mirrored by a {@link SharedBookWriter} of another process, depending
+ * on the JDK only. {@link #read()} copies the mirror at one seqlock version into arrays owned by
+ * the reader, the getters then return that copy. Neither blocks the writer nor allocates.
+ * Not thread safe, one reader per reading thread.
+ */
+public class SharedBookReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int depth;
+    private final long[] bidPrices;
+    private final long[] bidQuantities;
+    private final long[] askPrices;
+    private final long[] askQuantities;
+    private final int priceScale;
+    private final int quantityScale;
+    private int bidCount;
+    private int askCount;
+    private long sequence;
+    private long bookVersion;
+    private long updatedMicros;
+    private long version = -1;
+
+    private SharedBookReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+        if (header.order(ByteOrder.nativeOrder()).getLong(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not a shared book");
+        }
+        this.depth = (int) header.getLong(DEPTH);
+        this.priceScale = (int) header.getLong(PRICE_SCALE);
+        this.quantityScale = (int) header.getLong(QUANTITY_SCALE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size(depth));
+        buffer.order(ByteOrder.nativeOrder());
+        this.bidPrices = new long[depth];
+        this.bidQuantities = new long[depth];
+        this.askPrices = new long[depth];
+        this.askQuantities = new long[depth];
+    }
+
+    /**
+     * Maps the file the writer keeps for the symbol in the directory.
+     * @throws IOException if there is none yet
+     */
+    public static SharedBookReader open(Path dir, String symbol) throws IOException {
+        FileChannel channel = FileChannel.open(path(dir, symbol), StandardOpenOption.READ);
+        try {
+            return new SharedBookReader(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * True when the writer updated the mirror since the last {@link #read()}, costs a single load.
+     */
+    public boolean hasChanged() {
+        return (long) LONGS.getAcquire(buffer, SEQLOCK) != version;
+    }
+
+    /**
+     * Copies the mirror, retrying while the writer is updating it.
+     * @return the seqlock version of the copy
+     */
+    public long read() {
+        while (true) {
+            long before = (long) LONGS.getAcquire(buffer, SEQLOCK);
+            if ((before & 1) == 0) {
+                // Counts are clamped, a torn copy must not fail but is discarded below
+                int bids = (int) Math.max(0, Math.min(depth, buffer.getLong(BID_COUNT)));
+                int asks = (int) Math.max(0, Math.min(depth, buffer.getLong(ASK_COUNT)));
+                copy(SharedBookLayout.bidPrices(depth), bidPrices, bids);
+                copy(SharedBookLayout.bidQuantities(depth), bidQuantities, bids);
+                copy(SharedBookLayout.askPrices(depth), askPrices, asks);
+                copy(SharedBookLayout.askQuantities(depth), askQuantities, asks);
+                long sequence = buffer.getLong(SEQUENCE);
+                long bookVersion = buffer.getLong(BOOK_VERSION);
+                long updatedMicros = buffer.getLong(UPDATED_MICROS);
+                VarHandle.loadLoadFence();
+                if ((long) LONGS.getOpaque(buffer, SEQLOCK) == before) {
+                    this.bidCount = bids;
+                    this.askCount = asks;
+                    this.sequence = sequence;
+                    this.bookVersion = bookVersion;
+                    this.updatedMicros = updatedMicros;
+                    this.version = before;
+                    return before;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private void copy(int offset, long[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            values[i] = buffer.getLong(offset + i * Long.BYTES);
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    public int getQuantityScale() {
+        return quantityScale;
+    }
+
+    public int getBidCount() {
+        return bidCount;
+    }
+
+    public int getAskCount() {
+        return askCount;
+    }
+
+    /**
+     * Scaled price of a bid level, best first.
+     */
+    public long getBidPrice(int level) {
+        return bidPrices[level];
+    }
+
+    /**
+     * Unsigned scaled size of a bid level.
+     */
+    public long getBidQuantity(int level) {
+        return bidQuantities[level];
+    }
+
+    public long getAskPrice(int level) {
+        return askPrices[level];
+    }
+
+    public long getAskQuantity(int level) {
+        return askQuantities[level];
+    }
+
+    /**
+     * Feed sequence the book was at.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getBookVersion() {
+        return bookVersion;
+    }
+
+    /**
+     * Time the writer copied the book, in microseconds since the epoch, to tell a stale mirror.
+     */
+    public long getUpdatedMicros() {
+        return updatedMicros;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
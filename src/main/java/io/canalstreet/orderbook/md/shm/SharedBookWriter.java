@@ -0,0 +1,135 @@
+package io.canalstreet.orderbook.md.shm;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.L2BookView;
+import io.canalstreet.orderbook.md.QuotesL2Snapshot;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.ASK_COUNT;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.BID_COUNT;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.BOOK_VERSION;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.DEPTH;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.LONGS;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.MAGIC;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.MAGIC_OFFSET;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.PRICE_SCALE;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.QUANTITY_SCALE;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.SEQLOCK;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.SEQUENCE;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.UPDATED_MICROS;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.path;
+import static io.canalstreet.orderbook.md.shm.SharedBookLayout.size;
+
+/**
+ * Mirrors the top N of a book into a memory mapped file for {@link SharedBookReader}s in other
+ * processes of the host, see {@link SharedBookLayout}. Single writer.
+ */
+public class SharedBookWriter implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final QuotesL2Snapshot snapshot;
+    private final int depth;
+    private final int bidPrices;
+    private final int bidQuantities;
+    private final int askPrices;
+    private final int askQuantities;
+    private long seqlock;
+    private long bookVersion = -1;
+
+    private SharedBookWriter(FileChannel channel, Instrument instrument, int depth) throws IOException {
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(depth));
+        buffer.order(ByteOrder.nativeOrder());
+        this.snapshot = new QuotesL2Snapshot(depth);
+        this.depth = depth;
+        this.bidPrices = SharedBookLayout.bidPrices(depth);
+        this.bidQuantities = SharedBookLayout.bidQuantities(depth);
+        this.askPrices = SharedBookLayout.askPrices(depth);
+        this.askQuantities = SharedBookLayout.askQuantities(depth);
+        // Carries on from the seqlock of a previous writer, readers never see it go back
+        this.seqlock = (long) LONGS.getAcquire(buffer, SEQLOCK) + 1 & ~1L;
+        beginWrite();
+        buffer.putLong(DEPTH, depth);
+        buffer.putLong(PRICE_SCALE, instrument.getPriceScale());
+        buffer.putLong(QUANTITY_SCALE, instrument.getQuantityScale());
+        buffer.putLong(MAGIC_OFFSET, MAGIC);
+        endWrite();
+    }
+
+    /**
+     * Maps the instrument's file in the directory. A file of another depth is replaced rather than
+     * resized, readers still mapping it see it go stale.
+     */
+    public static SharedBookWriter open(Path dir, Instrument instrument, int depth) throws IOException {
+        Files.createDirectories(dir);
+        Path path = path(dir, instrument.getSymbol());
+        if (Files.exists(path) && Files.size(path) != size(depth)) {
+            Files.delete(path);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new SharedBookWriter(channel, instrument, depth);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Copies the book's top N into the file, unless the book did not change since the last copy.
+     * @param updatedMicros time of the update, in microseconds since the epoch
+     */
+    public void publish(L2BookView book, long updatedMicros) {
+        long version = book.readSnapshot(snapshot);
+        if (version == bookVersion) {
+            return;
+        }
+        bookVersion = version;
+        int bidCount = snapshot.getCount(BID);
+        int askCount = snapshot.getCount(ASK);
+        beginWrite();
+        buffer.putLong(SEQUENCE, snapshot.getSequence());
+        buffer.putLong(BOOK_VERSION, version);
+        buffer.putLong(UPDATED_MICROS, updatedMicros);
+        buffer.putLong(BID_COUNT, bidCount);
+        buffer.putLong(ASK_COUNT, askCount);
+        for (int i = 0; i < bidCount; i++) {
+            buffer.putLong(bidPrices + i * Long.BYTES, snapshot.getPrice(BID, i));
+            buffer.putLong(bidQuantities + i * Long.BYTES, snapshot.getQuantity(BID, i));
+        }
+        for (int i = 0; i < askCount; i++) {
+            buffer.putLong(askPrices + i * Long.BYTES, snapshot.getPrice(ASK, i));
+            buffer.putLong(askQuantities + i * Long.BYTES, snapshot.getQuantity(ASK, i));
+        }
+        endWrite();
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    private void beginWrite() {
+        LONGS.setOpaque(buffer, SEQLOCK, ++seqlock);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        LONGS.setRelease(buffer, SEQLOCK, ++seqlock);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,91 @@
+package io.canalstreet.orderbook.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DecimalsTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "0.1, 8, 10000000",
+            "12.345, 2, 1235",
+            "12.344, 2, 1234",
+            "-12.345, 2, -1235",
+            "7, 3, 7000",
+            ".5, 1, 5",
+            "21.47483648, 8, 2147483648",
+            "92233720368.54775807, 8, 9223372036854775807",
+    })
+    public void testParse(String decimal, int scale, long expected) {
+        assertEquals(expected, Decimals.parse(decimal, scale));
+    }
+
+    @Test
+    public void testParseRejects() {
+        assertThrows(NumberFormatException.class, () -> Decimals.parse("", 2));
+        assertThrows(NumberFormatException.class, () -> Decimals.parse("1e5", 2));
+        assertThrows(NumberFormatException.class, () -> Decimals.parse("1.2.3", 2));
+        assertThrows(ArithmeticException.class, () -> Decimals.parse("92233720368.54775808", 8));
+        // Rounding up the largest value
+        assertThrows(ArithmeticException.class, () -> Decimals.parse("92233720368.547758075", 8));
+    }
+
+    @Test
+    public void testParseInPlace() {
+        char[] frame = "[\"100000.1\",\"0.00331\"]".toCharArray();
+        assertEquals(1_000_001, Decimals.parse(frame, 2, 10, 1));
+        assertEquals(331_000, Decimals.parse(frame, 13, 20, 8));
+        assertThrows(NumberFormatException.class, () -> Decimals.parse(frame, 10, 10, 1));
+    }
+
+    @Test
+    public void testAppend() {
+        assertEquals("0.00000010", Decimals.append(new StringBuilder(), 10, 8).toString());
+        assertEquals("-12.35", Decimals.append(new StringBuilder(), -1235, 2).toString());
+        assertEquals("7", Decimals.append(new StringBuilder(), 7, 0).toString());
+        assertEquals("21.47483648", Decimals.append(new StringBuilder(), Decimals.parse("21.47483648", 8), 8).toString());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "10000000, 8, 0.1",
+            "-1235, 2, -12.35",
+            "7000, 3, 7",
+            "0, 4, 0",
+            "-5, 1, -0.5",
+            "100000000, 0, 100000000",
+            "9223372036854775807, 18, 9.223372036854775807",
+            "-9223372036854775808, 18, -9.223372036854775808",
+            "-9223372036854775808, 0, -9223372036854775808",
+    })
+    public void testPutDecimal(long scaled, int scale, String expected) {
+        byte[] out = new byte[Decimals.MAX_DECIMAL_BYTES + 2];
+        int end = Decimals.putDecimal(scaled, scale, out, 2);
+        String written = new String(out, 2, end - 2, StandardCharsets.US_ASCII);
+        assertEquals(expected, written);
+        // Parsing accumulates the magnitude, which Long.MIN_VALUE has none of in a long
+        if (scaled != Long.MIN_VALUE) assertEquals(scaled, Decimals.parse(written, scale));
+    }
+
+    @Test
+    public void testPutDecimalRejectsScale() {
+        assertThrows(IllegalArgumentException.class, () -> Decimals.putDecimal(1, -1, new byte[8], 0));
+        assertThrows(IllegalArgumentException.class, () -> Decimals.putDecimal(1, Decimals.MAX_SCALE + 1, new byte[8], 0));
+    }
+
+    @Test
+    public void testInstrumentRoundTrip() {
+        Instrument instrument = Instrument.builder().symbol("BTC-USDT").quantityScale(8).priceScale(1).tickSize(0.1f).build();
+        assertEquals(5_000_000_000L, instrument.qtyToInt(50));
+        assertEquals(50.0, instrument.qtyToDouble(5_000_000_000L));
+        assertEquals(1_000_001, instrument.priceToInt(100_000.1));
+        assertEquals(100_000.1, instrument.priceToDouble(1_000_001));
+        assertEquals(instrument.qtyToInt(0.50535683), instrument.parseQty("0.50535683"));
+    }
+}
@@ -0,0 +1,46 @@
+package io.canalstreet.orderbook.data;
+
+import io.canalstreet.orderbook.md.kuc.KucCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling conversions used on every level reported by the books.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstrumentBenchmark {
+
+    Instrument instrument = KucCorpus.BTC_USDT;
+    double price = 100_000.1;
+    double quantity = 0.50535683;
+    String quantityText = "0.50535683";
+
+    @Benchmark
+    public long priceToInt() {
+        return instrument.priceToInt(price);
+    }
+
+    @Benchmark
+    public long qtyToInt() {
+        return instrument.qtyToInt(quantity);
+    }
+
+    @Benchmark
+    public long parseQty() {
+        return instrument.parseQty(quantityText);
+    }
+}
@@ -0,0 +1,87 @@
+package io.canalstreet.orderbook.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InstrumentTableTest {
+
+    @Test
+    public void testRegisterAssignsIdPerVenueAndSymbol() {
+        InstrumentRegistry registry = new InstrumentRegistry();
+        Instrument btc = instrument("BTC-USDT");
+        Instrument eth = instrument("ETH-USDT");
+        Instrument btcAgain = instrument("BTC-USDT");
+        Instrument btcElsewhere = instrument("BTC-USDT");
+
+        assertEquals(0, registry.register("KUC", btc));
+        assertEquals(1, registry.register("KUC", eth));
+        assertEquals(0, registry.register("KUC", btcAgain));
+        assertEquals(0, btcAgain.getId());
+        // The same symbol on another venue is another instrument
+        assertEquals(2, registry.register("BNC", btcElsewhere));
+        assertEquals(3, registry.size());
+        assertSame(btc, registry.get(0));
+        assertSame(eth, registry.find("KUC", "ETH-USDT"));
+        assertSame(btcElsewhere, registry.find("BNC", "BTC-USDT"));
+        assertNull(registry.get(3));
+        assertNull(registry.find("KUC", "XRP-USDT"));
+        assertNull(registry.find("BNC", "ETH-USDT"));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 3, registry.register("KUC", instrument("S" + i + "-USDT")));
+        }
+        assertEquals(103, registry.getInstruments().size());
+        assertEquals("S99-USDT", registry.get(102).getSymbol());
+    }
+
+    @Test
+    public void testIdsOfOneRegistryOnly() {
+        Instrument btc = instrument("BTC-USDT");
+        new InstrumentRegistry().register("KUC", btc);
+        InstrumentRegistry other = new InstrumentRegistry();
+        other.register("KUC", instrument("ETH-USDT"));
+        assertThrows(IllegalArgumentException.class, () -> other.register("KUC", btc));
+        assertThrows(IllegalArgumentException.class, () -> new InstrumentTable<String>().put(instrument("ETH-USDT"), "eth"));
+    }
+
+    @Test
+    public void testValuesIndexedById() {
+        InstrumentRegistry registry = new InstrumentRegistry();
+        InstrumentTable<String> table = new InstrumentTable<>();
+        Instrument btc = instrument("BTC-USDT");
+        Instrument eth = instrument("ETH-USDT");
+        registry.register("KUC", btc);
+        registry.register("KUC", eth);
+
+        table.put(btc, "btc");
+        assertEquals("btc", table.get(btc));
+        assertEquals("btc", table.get(btc.getId()));
+        assertSame(btc, table.getInstrument(btc.getId()));
+        assertNull(table.get(eth));
+
+        assertEquals("btc", table.putIfAbsent(btc, "other"));
+        assertEquals("eth", table.computeIfAbsent(eth, key -> "eth"));
+        assertEquals("eth", table.computeIfAbsent(eth, key -> "other"));
+
+        List<String> visited = new ArrayList<>();
+        table.forEach((instrument, value) -> visited.add(instrument.getSymbol() + "=" + value));
+        assertEquals(List.of("BTC-USDT=btc", "ETH-USDT=eth"), visited);
+
+        table.remove(btc);
+        assertNull(table.get(btc));
+        assertNull(table.getInstrument(btc.getId()));
+        assertNull(table.get(-1));
+        assertNull(table.get(1 << 20));
+    }
+
+    static Instrument instrument(String symbol) {
+        return Instrument.builder().symbol(symbol).currency("USDT").quantityScale(8).priceScale(2).tickSize(0.01f).build();
+    }
+}
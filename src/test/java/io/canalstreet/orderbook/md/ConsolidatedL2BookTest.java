@@ -0,0 +1,101 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.PerpetualFuture;
+import org.junit.jupiter.api.Test;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConsolidatedL2BookTest {
+
+    Instrument consolidated = Instrument.builder().symbol("BTC").currency("USDT").quantityScale(4).priceScale(2).build();
+    Instrument spot = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(4).priceScale(1).build();
+    Instrument perp = PerpetualFuture.builder().symbol("XBTUSDTM").currency("USDT").quantityScale(3).priceScale(2).build();
+
+    @Test
+    public void testVenueDeltasMergeIncrementally() {
+        QuotesL2SparseBook spotBook = new QuotesL2SparseBook(spot, 10);
+        QuotesL2SparseBook perpBook = new QuotesL2SparseBook(perp, 10);
+        spotBook.add(BID, 1000, 10, 1, 1);    // 100.0 x 0.0010
+        spotBook.add(ASK, 1002, 20, 2, 2);    // 100.2 x 0.0020
+        perpBook.add(BID, 10000, 3, 1, 1);    // 100.00 x 0.003
+        perpBook.add(BID, 10005, 1, 2, 2);    // 100.05 x 0.001
+
+        ConsolidatedL2Book book = new ConsolidatedL2Book(consolidated, 5);
+        book.addVenue(spotBook);
+        book.addVenue(perpBook);
+        assertEquals(2, book.getVenueCount());
+        assertEquals(10005, book.getBestBid());
+        assertEquals(10, book.getQtyAt(BID, 10005));
+        assertEquals(40, book.getQtyAt(BID, 10000));
+        assertEquals(10020, book.getBestAsk());
+
+        // Venue updates only touch that venue's share of a level
+        spotBook.add(BID, 1000, 15, 3, 3);
+        book.onUpdate(spotBook);
+        assertEquals(45, book.getQtyAt(BID, 10000));
+        perpBook.add(BID, 10005, 0, 3, 3);
+        book.onUpdate(perpBook);
+        assertEquals(10000, book.getBestBid());
+        assertEquals(45, book.getBestBidSize());
+
+        // A perp ask below the spot bid crosses the merged book instead of removing spot levels
+        perpBook.add(ASK, 9990, 2, 4, 4);
+        book.onUpdate(perpBook);
+        assertEquals(9990, book.getBestAsk());
+        assertEquals(10000, book.getBestBid());
+        assertEquals(15, book.getQtyAt(BID, 10000));
+        assertEquals(2, book.getLevelCount(ASK));
+
+        spotBook.clear();
+        book.onUpdate(spotBook);
+        assertEquals(0, book.getLevelCount(BID));
+        assertEquals(9990, book.getBestAsk());
+    }
+
+    @Test
+    public void testOnlyTopNOfEachVenueIsMerged() {
+        QuotesL2SparseBook spotBook = new QuotesL2SparseBook(spot, 10);
+        for (int i = 0; i < 5; i++) {
+            spotBook.add(BID, 1000 - i, 1 + i, i + 1, i + 1);
+        }
+        ConsolidatedL2Book book = new ConsolidatedL2Book(consolidated, 3);
+        book.addVenue(spotBook);
+        assertEquals(3, book.getLevelCount(BID));
+
+        spotBook.add(BID, 1000, 0, 6, 6);
+        book.onUpdate(spotBook);
+        assertEquals(3, book.getLevelCount(BID));
+        assertEquals(9990, book.getBestBid());
+        assertEquals(4, book.getQtyAt(BID, 9970));
+    }
+
+    @Test
+    public void testFinerVenueScaleRejected() {
+        Instrument fine = Instrument.builder().symbol("BTC-FINE").currency("USDT").quantityScale(8).priceScale(1).build();
+        ConsolidatedL2Book book = new ConsolidatedL2Book(consolidated, 3);
+        assertThrows(IllegalArgumentException.class, () -> book.addVenue(new QuotesL2SparseBook(fine, 10)));
+    }
+
+    @Test
+    public void testReadOnlyView() {
+        QuotesL2SparseBook spotBook = new QuotesL2SparseBook(spot, 10);
+        spotBook.add(BID, 1000, 10, 1, 1);
+        L2BookView book = new ConsolidatedL2Book(consolidated, 3);
+        ((ConsolidatedL2Book) book).addVenue(spotBook);
+
+        // Only merging the venues writes the levels
+        assertFalse(book instanceof L2Book);
+        assertTrue(book.isInitialized());
+        assertEquals(10000, book.getBestBid());
+        assertEquals(10, book.getBestBidSize());
+        QuotesL2Snapshot snapshot = new QuotesL2Snapshot(3);
+        assertEquals(book.getVersion(), book.readSnapshot(snapshot));
+        assertEquals(1, snapshot.getCount(BID));
+    }
+}
@@ -0,0 +1,58 @@
+package io.canalstreet.orderbook.md;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FrameJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRolloverAndReplayOrder() throws Exception {
+        char[] topic = "/market/level2:BTC-USDT".toCharArray();
+        try (FrameJournal journal = FrameJournal.open(dir, "test", 1024)) {
+            for (int i = 0; i < 100; i++) {
+                char[] frame = ("{\"seq\":" + i + "}").toCharArray();
+                journal.append(FrameJournal.FRAME, i * 10L, topic, 0, topic.length, frame, 0, frame.length);
+            }
+            assertTrue(journal.getSegment() > 0);
+        }
+        try (FrameJournal.Reader reader = new FrameJournal.Reader(dir, "test")) {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(reader.next());
+                assertEquals(FrameJournal.FRAME, reader.getKind());
+                assertEquals(i * 10L, reader.getReceivedNanos());
+                assertEquals("/market/level2:BTC-USDT", new String(reader.getTopic(), 0, reader.getTopicLength()));
+                assertEquals("{\"seq\":" + i + "}", new String(reader.getFrame(), 0, reader.getFrameLength()));
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testWideCharsAndReopen() throws Exception {
+        char[] frame = "{\"note\":\"€\"}".toCharArray();
+        try (FrameJournal journal = FrameJournal.open(dir, "test", 1024)) {
+            journal.append(FrameJournal.SNAPSHOT, 1, new char[0], 0, 0, frame, 0, frame.length);
+        }
+        try (FrameJournal journal = FrameJournal.open(dir, "test", 1024)) {
+            assertEquals(1, journal.getSegment());
+            journal.append(FrameJournal.FRAME, 2, new char[0], 0, 0, frame, 0, 2);
+        }
+        try (FrameJournal.Reader reader = new FrameJournal.Reader(dir, "test")) {
+            assertTrue(reader.next());
+            assertEquals(FrameJournal.SNAPSHOT, reader.getKind());
+            assertEquals(new String(frame), new String(reader.getFrame(), 0, reader.getFrameLength()));
+            assertTrue(reader.next());
+            assertEquals("{\"", new String(reader.getFrame(), 0, reader.getFrameLength()));
+            assertFalse(reader.next());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HdrLatencyRecorderTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+
+    {
+        new InstrumentRegistry().register("KUC", instrument);
+    }
+
+    @Test
+    public void testPercentilesAccumulateAcrossReads() {
+        HdrLatencyRecorder recorder = new HdrLatencyRecorder();
+        for (int i = 1; i <= 100; i++) {
+            recorder.record(instrument, LatencyStage.APPLY, i * 1_000L);
+        }
+        LatencyRecorder.Summary apply = recorder.summary().get("BTC-USDT").get(LatencyStage.APPLY);
+        assertEquals(100, apply.count());
+        assertEquals(50, apply.p50(), 1);
+        assertEquals(99, apply.p99(), 1);
+        assertEquals(100, apply.max(), 1);
+        assertFalse(recorder.summary().get("BTC-USDT").containsKey(LatencyStage.DECODE));
+
+        recorder.record(instrument, LatencyStage.APPLY, 1_000_000);
+        apply = recorder.summary().get("BTC-USDT").get(LatencyStage.APPLY);
+        assertEquals(101, apply.count());
+        assertEquals(1_000, apply.max(), 10);
+    }
+
+    @Test
+    public void testPipelineRecordsEveryStage() throws Exception {
+        HdrLatencyRecorder recorder = new HdrLatencyRecorder();
+        FrameDecoder decoder = (frame, offset, length, event) -> {
+            event.clear();
+            event.setInstrument(instrument);
+            event.setTimestamp(System.currentTimeMillis() - 5);
+            return true;
+        };
+        try (QuotesL2Pipeline pipeline = new QuotesL2Pipeline("test", 64, null, recorder, decoder, event -> {}, event -> {}, event -> {})) {
+            pipeline.start();
+            for (int i = 0; i < 1_000; i++) {
+                pipeline.publish("frame", System.nanoTime());
+            }
+            while (pipeline.backlog() > 0) {
+                Thread.sleep(1);
+            }
+        }
+        Map<LatencyStage, LatencyRecorder.Summary> stages = recorder.summary().get("BTC-USDT");
+        for (LatencyStage stage : new LatencyStage[]{LatencyStage.DECODE, LatencyStage.SEQUENCE, LatencyStage.APPLY, LatencyStage.PUBLISH, LatencyStage.SKEW}) {
+            assertEquals(1_000, stages.get(stage).count(), stage.name());
+        }
+        assertTrue(stages.get(LatencyStage.SKEW).p50() >= 5_000);
+        assertTrue(stages.get(LatencyStage.PUBLISH).max() >= stages.get(LatencyStage.DECODE).p50());
+    }
+}
@@ -0,0 +1,106 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Apply and top N read costs of the book engines. The ring book holds the levels its depth
+ * snapshot feed carries, the sparse book the full depth of the incremental feed.
+ * Run with {@code mvn -Pjmh verify -Djmh.includes=L2BookBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class L2BookBenchmark {
+
+    private static final int DEPTH = 10;
+    private static final int UPDATES = 1 << 12;
+
+    @Param({"RING", "SPARSE"})
+    L2BookType bookType;
+
+    @Param({"2000"})
+    int sparseLevels;
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    L2Book book;
+    QuotesL2Snapshot snapshot = new QuotesL2Snapshot(DEPTH);
+    L2BookAnalytics analytics = new L2BookAnalytics();
+    long[] prices = new long[DEPTH];
+    long[] quantities = new long[DEPTH];
+    QuoteSide[] updateSides = new QuoteSide[UPDATES];
+    long[] updatePrices = new long[UPDATES];
+    long[] updateQuantities = new long[UPDATES];
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        book = (L2Book) bookType.newBook(instrument, DEPTH);
+        long peg = instrument.priceToInt(100_000);
+        int tick = instrument.tickSizeInt();
+        int levels = bookType == L2BookType.SPARSE ? sparseLevels : DEPTH;
+        for (int i = 1; i <= levels; i++) {
+            book.add(BID, peg - (long) i * tick, 1_000 + i);
+            book.add(ASK, peg + (long) i * tick, 1_000 + i);
+        }
+        // Size changes within the top of the book, where most of the feed's updates land
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < UPDATES; i++) {
+            QuoteSide side = random.nextBoolean() ? BID : ASK;
+            updateSides[i] = side;
+            updatePrices[i] = peg - (long) side.sign() * (1 + random.nextInt(DEPTH)) * tick;
+            updateQuantities[i] = 1 + random.nextInt(10_000);
+        }
+    }
+
+    @Benchmark
+    public long apply() {
+        int i = next++ & (UPDATES - 1);
+        book.add(updateSides[i], updatePrices[i], updateQuantities[i]);
+        return book.getVersion();
+    }
+
+    @Benchmark
+    public long readSnapshot() {
+        book.readSnapshot(snapshot);
+        return snapshot.getVersion();
+    }
+
+    @Benchmark
+    public int readTop() {
+        return book.readTop(BID, prices, quantities, DEPTH) + book.readTop(ASK, prices, quantities, DEPTH);
+    }
+
+    @Benchmark
+    public double readAnalytics() {
+        book.readAnalytics(analytics);
+        return analytics.getMicroprice() + book.getSweepPrice(ASK, 10_000);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(L2BookBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,111 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class L2BookCheckpointTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRestoreCheckpointAndDeltas() throws Exception {
+        QuotesL2SparseBook book = new QuotesL2SparseBook(instrument, 10);
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, instrument, 100, 4)) {
+            assertFalse(checkpoint.restore(book));
+            for (int i = 1; i <= 50; i++) {
+                book.add(BID, 1_000_000 - i, 3_000_000_000L + i, i, i);
+                book.add(ASK, 1_000_000 + i, 3_000_000_000L + i, i, i);
+            }
+            checkpoint.write(book);
+            assertEquals(50, checkpoint.getSequence());
+
+            book.add(BID, 999_999, 0, 51, 51);
+            checkpoint.append(book, BID, 999_999, 0, 51);
+            book.add(ASK, 1_000_001, -7, 52, 52);
+            checkpoint.append(book, ASK, 1_000_001, -7, 52);
+            book.add(ASK, 1_000_002, 0, 53, 53);
+            checkpoint.append(book, ASK, 1_000_002, 0, 53);
+            assertEquals(3, checkpoint.getDeltaCount());
+        }
+
+        QuotesL2SparseBook restored = new QuotesL2SparseBook(instrument, 10);
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, instrument, 100, 4)) {
+            assertTrue(checkpoint.restore(restored));
+            assertEquals(3, checkpoint.getDeltaCount());
+        }
+        assertTrue(restored.isInitialized());
+        assertEquals(53, restored.getLastSequenceEnd());
+        assertEquals(book.getBestBid(), restored.getBestBid());
+        assertEquals(-7, restored.getBestAskSize());
+        assertEquals(49, restored.getLevelCount(BID));
+        assertEquals(49, restored.getLevelCount(ASK));
+        for (int i = 2; i <= 50; i++) {
+            assertEquals(book.getQtyAt(1_000_000 - i), restored.getQtyAt(1_000_000 - i));
+            assertEquals(book.getQtyAt(1_000_000 + i), restored.getQtyAt(1_000_000 + i));
+        }
+    }
+
+    @Test
+    public void testFullJournalRewritesCheckpoint() throws Exception {
+        QuotesL2Book book = new QuotesL2Book(instrument, 10);
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, instrument, 100, 2)) {
+            checkpoint.write(book);
+            assertEquals(0, checkpoint.getCheckpoints());
+
+            for (int i = 1; i <= 6; i++) {
+                book.add(BID, instrument.priceToInt(99_999.9), i, i, i);
+                checkpoint.append(book, BID, instrument.priceToInt(99_999.9), i, i);
+            }
+            assertEquals(2, checkpoint.getCheckpoints());
+            assertEquals(6, checkpoint.getSequence());
+            assertEquals(0, checkpoint.getDeltaCount());
+        }
+        QuotesL2Book restored = new QuotesL2Book(instrument, 10);
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, instrument, 100, 2)) {
+            assertTrue(checkpoint.restore(restored));
+        }
+        assertEquals(6, restored.getBestBidSize());
+        assertEquals(6, restored.getLastSequenceEnd());
+    }
+
+    @Test
+    public void testTornOrForeignCheckpointIgnored() throws Exception {
+        QuotesL2SparseBook book = new QuotesL2SparseBook(instrument, 10);
+        book.add(BID, 999_999, 1, 1, 1);
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, instrument, 10, 10)) {
+            checkpoint.write(book);
+        }
+        Instrument rescaled = instrument.toBuilder().quantityScale(6).build();
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, rescaled, 10, 10)) {
+            assertFalse(checkpoint.restore(new QuotesL2SparseBook(rescaled, 10)));
+        }
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, instrument, 20, 10)) {
+            assertFalse(checkpoint.restore(new QuotesL2SparseBook(instrument, 10)));
+        }
+
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, instrument, 10, 10)) {
+            checkpoint.write(book);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(L2BookCheckpoint.path(dir, instrument).toFile(), "rw")) {
+            // As left by a crash while rewriting the levels
+            file.seek(4);
+            file.writeInt(3);
+        }
+        try (L2BookCheckpoint checkpoint = L2BookCheckpoint.open(dir, instrument, 10, 10)) {
+            assertFalse(checkpoint.restore(new QuotesL2SparseBook(instrument, 10)));
+        }
+    }
+}
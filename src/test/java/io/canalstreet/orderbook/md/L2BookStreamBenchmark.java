@@ -0,0 +1,71 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Feed thread cost of an update fanned out to push subscribers, some of which are slow.
+ * The sent count per update shows how much conflation kicks in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class L2BookStreamBenchmark {
+
+    @Param({"1", "100", "500"})
+    int subscribers;
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    QuotesL2Book book = new QuotesL2Book(instrument, 10);
+    ExecutorService sender;
+    L2BookStream stream;
+    LongAdder sentBytes = new LongAdder();
+    long peg = instrument.priceToInt(100_000);
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        sender = Executors.newFixedThreadPool(4);
+        stream = new L2BookStream(new OrderbookResponseCache(book, 10), sender);
+        for (int i = 0; i < subscribers; i++) {
+            boolean slow = i % 50 == 49;
+            stream.subscribe(response -> {
+                sentBytes.add(response.body().length);
+                if (slow) Thread.sleep(1);
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sender.shutdownNow();
+    }
+
+    @Benchmark
+    public void update() {
+        book.add(BID, peg - 1 - (next & 3), 1 + (next++ & 1023));
+        stream.onUpdate();
+    }
+}
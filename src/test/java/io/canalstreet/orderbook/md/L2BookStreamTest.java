@@ -0,0 +1,126 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class L2BookStreamTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    QuotesL2Book book = new QuotesL2Book(instrument, 10);
+    ExecutorService sender = Executors.newFixedThreadPool(4);
+    L2BookStream stream = new L2BookStream(new OrderbookResponseCache(book, 10), sender);
+
+    @AfterEach
+    public void tearDown() {
+        sender.shutdownNow();
+    }
+
+    @Test
+    public void testSlowSubscribersAreConflated() throws Exception {
+        List<L2BookStream.Subscriber> fast = new ArrayList<>();
+        List<L2BookStream.Subscriber> slow = new ArrayList<>();
+        AtomicBoolean outOfOrder = new AtomicBoolean();
+        for (int i = 0; i < 300; i++) {
+            boolean isSlow = i % 30 == 0;
+            AtomicLong lastVersion = new AtomicLong(-1);
+            L2BookStream.Subscriber subscriber = stream.subscribe(response -> {
+                if (response.version() <= lastVersion.getAndSet(response.version())) outOfOrder.set(true);
+                if (isSlow) Thread.sleep(20);
+            });
+            (isSlow ? slow : fast).add(subscriber);
+        }
+
+        long peg = instrument.priceToInt(100_000);
+        int updates = 2_000;
+        long started = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            book.add(i % 2 == 0 ? BID : ASK, peg - (i % 2 == 0 ? 1 : -1) * (1 + i % 5), 1 + i);
+            stream.onUpdate();
+        }
+        long feedNanos = (System.nanoTime() - started) / updates;
+
+        long finalVersion = book.getVersion();
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        for (L2BookStream.Subscriber subscriber : stream.subscribers()) {
+            while (subscriber.getSentVersion() != finalVersion) {
+                assertTrue(System.nanoTime() < deadline, "Subscriber never caught up");
+                Thread.sleep(1);
+            }
+        }
+        assertFalse(outOfOrder.get());
+        for (L2BookStream.Subscriber subscriber : slow) {
+            assertTrue(subscriber.getSentCount() < updates / 10, "Slow subscriber was sent " + subscriber.getSentCount());
+        }
+        // The feed thread only flags the stream, whatever the number of subscribers
+        assertTrue(feedNanos < 100_000, "Feed thread spent " + feedNanos + " ns per update");
+    }
+
+    @Test
+    public void testFailingSubscriberIsDropped() throws Exception {
+        stream.subscribe(response -> { throw new IOException("Broken pipe"); });
+        L2BookStream.Subscriber healthy = stream.subscribe(response -> { });
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (stream.getSubscriberCount() != 1) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        book.add(BID, instrument.priceToInt(99_999.9), 5);
+        stream.onUpdate();
+        while (healthy.getSentVersion() != book.getVersion()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        assertEquals(1, stream.getSubscriberCount());
+    }
+
+    /**
+     * More stuck clients than a fixed pool has threads, on virtual threads the others keep being
+     * served until the stuck ones are dropped.
+     */
+    @Test
+    public void testStalledSubscribersAreDropped() throws Exception {
+        ExecutorService virtualSender = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            L2BookStream virtualStream = new L2BookStream(new OrderbookResponseCache(book, 10), virtualSender);
+            CountDownLatch stuck = new CountDownLatch(1);
+            AtomicInteger closed = new AtomicInteger();
+            for (int i = 0; i < 8; i++) {
+                virtualStream.subscribe(response -> stuck.await(), closed::incrementAndGet);
+            }
+            L2BookStream.Subscriber healthy = virtualStream.subscribe(response -> { });
+            book.add(BID, instrument.priceToInt(99_999.9), 5);
+            virtualStream.onUpdate();
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (healthy.getSentVersion() != book.getVersion()) {
+                assertTrue(System.nanoTime() < deadline, "Healthy subscriber starved");
+                Thread.sleep(1);
+            }
+
+            Thread.sleep(50);
+            assertEquals(8, virtualStream.dropStalled(20_000_000));
+            assertEquals(8, closed.get());
+            assertEquals(1, virtualStream.getSubscriberCount());
+            assertEquals(0, virtualStream.dropStalled(20_000_000));
+            stuck.countDown();
+        } finally {
+            virtualSender.shutdownNow();
+        }
+    }
+}
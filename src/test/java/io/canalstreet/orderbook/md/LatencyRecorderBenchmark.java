@@ -0,0 +1,52 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per stage cost of the latency instrumentation as run by the pipeline after each handler,
+ * disabled against recording into the HdrHistogram recorders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyRecorderBenchmark {
+
+    @Param({"false", "true"})
+    boolean enabled;
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    LatencyRecorder latency;
+    boolean timed;
+    long receivedNanos;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        latency = enabled ? new HdrLatencyRecorder() : LatencyRecorder.NOOP;
+        timed = latency.isEnabled();
+        receivedNanos = System.nanoTime();
+    }
+
+    @Benchmark
+    public void stage() {
+        if (timed) {
+            latency.record(instrument, LatencyStage.APPLY, System.nanoTime() - receivedNanos);
+        }
+    }
+}
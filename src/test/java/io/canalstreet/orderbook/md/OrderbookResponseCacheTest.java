@@ -0,0 +1,61 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class OrderbookResponseCacheTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    QuotesL2Book book = new QuotesL2Book(instrument, 10);
+    OrderbookResponseCache cache = new OrderbookResponseCache(book, 2);
+
+    @Test
+    public void testJsonServedPerVersion() {
+        book.add(BID, instrument.priceToInt(99_999.9), instrument.qtyToInt(0.5));
+        book.add(BID, instrument.priceToInt(99_999), instrument.qtyToInt(12));
+        book.add(BID, instrument.priceToInt(99_998), instrument.qtyToInt(1));
+        book.add(ASK, instrument.priceToInt(100_000.1), instrument.qtyToInt(0.00000001));
+
+        OrderbookResponseCache.Response response = cache.json();
+        assertEquals("{\"bids\":[[99999.9,0.5],[99999,12]],\"asks\":[[100000.1,0.00000001]]}",
+                new String(response.body(), StandardCharsets.US_ASCII));
+        assertSame(response, cache.json());
+
+        book.add(ASK, instrument.priceToInt(100_000.1), 0);
+        OrderbookResponseCache.Response updated = cache.json();
+        assertNotEquals(response.etag(), updated.etag());
+        assertEquals("{\"bids\":[[99999.9,0.5],[99999,12]],\"asks\":[]}", new String(updated.body(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testBinary() {
+        book.add(BID, instrument.priceToInt(99_999.9), instrument.qtyToInt(0.5), 7, 7);
+        book.add(ASK, instrument.priceToInt(100_000.1), instrument.qtyToInt(2), 8, 8);
+
+        OrderbookResponseCache.Response response = cache.binary();
+        assertSame(response, cache.binary());
+        assertNotEquals(cache.json().etag(), response.etag());
+        ByteBuffer buffer = ByteBuffer.wrap(response.body());
+        assertEquals(2, buffer.get());
+        assertEquals(1, buffer.get());
+        assertEquals(8, buffer.get());
+        assertEquals(book.getVersion(), buffer.getLong());
+        assertEquals(8, buffer.getLong());
+        assertEquals(1, buffer.getShort());
+        assertEquals(1, buffer.getShort());
+        assertEquals(999_999, buffer.getLong());
+        assertEquals(50_000_000, buffer.getLong());
+        assertEquals(1_000_001, buffer.getLong());
+        assertEquals(200_000_000, buffer.getLong());
+        assertEquals(0, buffer.remaining());
+    }
+}
@@ -0,0 +1,63 @@
+package io.canalstreet.orderbook.md;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Local client harness for {@code /orderbook/stream}: opens N concurrent SSE clients against a
+ * running service, every tenth one reading slowly, and reports the events each group received.
+ * <pre>
+ * java -cp target/test-classes:target/classes:... io.canalstreet.orderbook.md.OrderbookStreamHarness http://localhost:8080 500 30
+ * </pre>
+ */
+public class OrderbookStreamHarness {
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        HttpClient httpClient = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/orderbook/stream")).header("Accept", "text/event-stream").build();
+        AtomicLongArray events = new AtomicLongArray(clients);
+        CountDownLatch done = new CountDownLatch(clients);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            boolean slow = i % 10 == 9;
+            Thread.ofVirtual().start(() -> {
+                try {
+                    HttpResponse<java.io.InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                        for (String line = reader.readLine(); line != null && System.nanoTime() < deadline; line = reader.readLine()) {
+                            if (line.startsWith("data:")) {
+                                events.incrementAndGet(client);
+                                if (slow) Thread.sleep(100);
+                            }
+                        }
+                    }
+                } catch (Exception ex) {
+                    System.err.println("Client " + client + " failed: " + ex);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long fast = 0;
+        long slow = 0;
+        for (int i = 0; i < clients; i++) {
+            if (i % 10 == 9) slow += events.get(i);
+            else fast += events.get(i);
+        }
+        int slowClients = clients / 10;
+        System.out.printf("%d clients over %d s: %.1f events/s per fast client, %.1f events/s per slow client%n",
+                clients, seconds, (double) fast / Math.max(1, clients - slowClients) / seconds, (double) slow / Math.max(1, slowClients) / seconds);
+    }
+}
@@ -0,0 +1,86 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.kuc.KucCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Book and update cache costs replaying the recorded corpus. Applying an event includes the
+ * best price walks when a best level is removed and the re-pegs when the market drifts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuotesL2BookBenchmark {
+
+    Instrument instrument = KucCorpus.BTC_USDT;
+    QuotesL2Event[] events;
+    QuotesL2Book book;
+    QuotesL2UpdateCache cache = new QuotesL2UpdateCache();
+    QuotesL2Book replayBook;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        events = KucCorpus.events();
+        book = new QuotesL2Book(instrument, 10);
+        replayBook = new QuotesL2Book(instrument, 10);
+        for (QuotesL2Event event : events) {
+            apply(book, event);
+        }
+    }
+
+    @Benchmark
+    public long add() {
+        apply(book, events[next++ % events.length]);
+        return book.getVersion();
+    }
+
+    /**
+     * One event cached during a resync, then replayed once the cache holds the whole corpus.
+     */
+    @Benchmark
+    public int cacheAddReplay() {
+        int index = next++ % events.length;
+        cache.add(events[index]);
+        return index == events.length - 1 ? cache.replay(replayBook, 0) : cache.size();
+    }
+
+    @Benchmark
+    public List<float[]> getBids() {
+        return book.getBids();
+    }
+
+    @Benchmark
+    public List<float[]> getAsks() {
+        return book.getAsks();
+    }
+
+    private static void apply(L2Book book, QuotesL2Event event) {
+        for (int i = 0; i < event.getLevelCount(BID); i++) {
+            book.add(BID, event.getPrice(BID, i), event.getQuantity(BID, i), event.getSequenceStart(), event.getSequenceEnd());
+        }
+        for (int i = 0; i < event.getLevelCount(ASK); i++) {
+            book.add(ASK, event.getPrice(ASK, i), event.getQuantity(ASK, i), event.getSequenceStart(), event.getSequenceEnd());
+        }
+    }
+}
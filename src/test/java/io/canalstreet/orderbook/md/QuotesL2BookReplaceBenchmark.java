@@ -0,0 +1,90 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.kuc.KucCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Applying top N depth snapshots to the ring book level by level against replacing each side
+ * at once. The snapshots follow a random walk of the mid with gaps between levels, as the
+ * level2Depth5 and level2Depth50 topics send them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuotesL2BookReplaceBenchmark {
+    private static final int SNAPSHOTS = 1024;
+
+    @Param({"5", "50"})
+    int depth;
+
+    Instrument instrument = KucCorpus.BTC_USDT;
+    QuotesL2Event[] snapshots = new QuotesL2Event[SNAPSHOTS];
+    QuotesL2Book levelBook;
+    QuotesL2Book replaceBook;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        int tick = instrument.tickSizeInt();
+        long mid = instrument.priceToInt(instrument.getPegIndexPrice());
+        for (int s = 0; s < SNAPSHOTS; s++) {
+            mid += (random.nextInt(5) - 2) * tick;
+            QuotesL2Event event = new QuotesL2Event();
+            event.setSnapshot(true);
+            event.setSequenceStart(s + 1);
+            event.setSequenceEnd(s + 1);
+            long bid = mid - tick;
+            long ask = mid + tick;
+            for (int i = 0; i < depth; i++) {
+                event.addLevel(BID, bid, 1 + random.nextInt(1_000_000), 0);
+                event.addLevel(ASK, ask, 1 + random.nextInt(1_000_000), 0);
+                bid -= (1 + random.nextInt(2)) * tick;
+                ask += (1 + random.nextInt(2)) * tick;
+            }
+            snapshots[s] = event;
+        }
+        levelBook = new QuotesL2Book(instrument, Math.max(10, depth));
+        replaceBook = new QuotesL2Book(instrument, Math.max(10, depth));
+    }
+
+    @Benchmark
+    public long perLevel() {
+        QuotesL2Event event = snapshots[next++ & (SNAPSHOTS - 1)];
+        for (QuoteSide side : QuoteSide.values()) {
+            for (int i = 0; i < event.getLevelCount(side); i++) {
+                levelBook.add(side, event.getPrice(side, i), event.getQuantity(side, i), event.getSequenceStart(), event.getSequenceEnd());
+            }
+        }
+        return levelBook.getVersion();
+    }
+
+    @Benchmark
+    public long replaceTop() {
+        QuotesL2Event event = snapshots[next++ & (SNAPSHOTS - 1)];
+        replaceBook.replaceTop(BID, event.getPrices(BID), event.getQuantities(BID), event.getLevelCount(BID), event.getSequenceEnd());
+        replaceBook.replaceTop(ASK, event.getPrices(ASK), event.getQuantities(ASK), event.getLevelCount(ASK), event.getSequenceEnd());
+        return replaceBook.getVersion();
+    }
+}
@@ -2,12 +2,17 @@ package io.canalstreet.orderbook.md;
 
 import io.canalstreet.orderbook.data.Instrument;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import static io.canalstreet.orderbook.md.QuoteSide.ASK;
 import static io.canalstreet.orderbook.md.QuoteSide.BID;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class QuotesL2BookTest {
 
@@ -32,6 +37,35 @@ public class QuotesL2BookTest {
         initialBestAsk = book.getBestAsk();
     }
 
+    @Test
+    public void testRunningAnalytics() {
+        L2BookAnalytics analytics = new L2BookAnalytics();
+        book.readAnalytics(analytics);
+        assertEquals(pegIndexPrice, analytics.getMid());
+        assertEquals(pegIndexPrice, analytics.getMicroprice());
+        assertEquals(0, analytics.getImbalance());
+        assertEquals(instrument.qtyToInt(2210), analytics.getBidDepth());
+
+        // Three times the best ask size on the best bid pulls the microprice towards the ask
+        book.add(BID, initialBestBid, instrument.qtyToInt(303));
+        book.readAnalytics(analytics);
+        assertEquals(pegIndexPrice + 0.5, analytics.getMicroprice(), 1e-9);
+        assertEquals(instrument.qtyToInt(303), analytics.getBestBidSize());
+        assertEquals(202.0 / (2412 + 2210), analytics.getImbalance(), 1e-9);
+        assertEquals(book.getMicroprice(), analytics.getMicroprice());
+        assertEquals(book.getImbalance(), analytics.getImbalance());
+
+        double expected = (101 * (pegIndexPrice + 1.0) + 101.5 * (pegIndexPrice + 2.0)) / 202.5;
+        assertEquals(expected, book.getSweepPrice(ASK, instrument.qtyToInt(202.5)), 1e-9);
+        assertEquals(initialBestBid, book.getSweepPrice(BID, instrument.qtyToInt(10)), 1e-9);
+        assertTrue(Double.isNaN(book.getSweepPrice(ASK, instrument.qtyToInt(1_000_000))));
+
+        book.clear();
+        book.readAnalytics(analytics);
+        assertTrue(Double.isNaN(analytics.getMid()));
+        assertEquals(0, analytics.getAskDepth());
+    }
+
     @CsvSource({ // Number of ticks of price rise rotating QuotesL2Book circular buffer
             "20", // No rotation
             "40", // Partial rotation
@@ -51,8 +85,11 @@ public class QuotesL2BookTest {
         }
         assertEquals(initialBestBid + ticksUp * instrument.tickSizeInt(), book.getBestBid());
         assertEquals(initialBestAsk + ticksUp * instrument.tickSizeInt(), book.getBestAsk());
-        assertEquals(((bookSize/2) + ticksUp - 1) % bookSize, book.toIndex(book.getBestBid()));
-        assertEquals(((bookSize/2) + ticksUp + 1) % bookSize, book.toIndex(book.getBestAsk()));
+        // The ring re-pegs instead of wrapping, so the spread is contiguous in the ring
+        assertEquals(book.toIndex(book.getBestBid()) + 2, book.toIndex(book.getBestAsk()));
+        assertEquals(instrument.qtyToInt(ticksUp), book.getBestBidSize());
+        assertEquals(-instrument.qtyToInt(ticksUp), book.getBestAskSize());
+        assertEquals(bookSize, book.getSize());
     }
 
     @CsvSource({ // Number of ticks of price fall rotating QuotesL2Book circular buffer
@@ -74,9 +111,211 @@ public class QuotesL2BookTest {
         }
         assertEquals(initialBestBid - ticksDown * instrument.tickSizeInt(), book.getBestBid());
         assertEquals(initialBestAsk - ticksDown * instrument.tickSizeInt(), book.getBestAsk());
-        int rawIndexBid = (bookSize/2) - ticksDown - 1;
-        int rawIndexAsk = (bookSize/2) - ticksDown + 1;
-        assertEquals(rawIndexBid > 0 ? rawIndexBid : bookSize + rawIndexBid % bookSize, book.toIndex(book.getBestBid()));
-        assertEquals(rawIndexAsk > 0 ? rawIndexAsk : bookSize + rawIndexAsk % bookSize, book.toIndex(book.getBestAsk()));
+        assertEquals(book.toIndex(book.getBestBid()) + 2, book.toIndex(book.getBestAsk()));
+        assertEquals(instrument.qtyToInt(ticksDown), book.getBestBidSize());
+        assertEquals(-instrument.qtyToInt(ticksDown), book.getBestAskSize());
+        assertEquals(bookSize, book.getSize());
+    }
+
+    @Test
+    public void testCrossingUpdateRefreshesOtherSide() {
+        int tick = instrument.tickSizeInt();
+        book.add(BID, initialBestAsk, instrument.qtyToInt(5));
+        L2BookAnalytics analytics = new L2BookAnalytics();
+        book.readAnalytics(analytics);
+        assertEquals(initialBestAsk + tick, book.getBestAsk());
+        assertEquals(initialBestAsk + tick, analytics.getBestAsk());
+        assertEquals(instrument.qtyToInt(102), analytics.getBestAskSize());
+        assertEquals(instrument.qtyToInt(2210 - 101), analytics.getAskDepth());
+        assertEquals(-instrument.qtyToInt(102), book.getBestAskSize());
+
+        book.add(ASK, initialBestBid - tick, instrument.qtyToInt(7));
+        book.readAnalytics(analytics);
+        assertEquals(initialBestBid - 2 * tick, analytics.getBestBid());
+        assertEquals(instrument.qtyToInt(103), book.getBestBidSize());
+        // The deepest bid fell out of depth behind the crossing bid
+        assertEquals(instrument.qtyToInt(2210 - 101 - 102 - 120), analytics.getBidDepth());
+    }
+
+    @Test
+    public void testRepegOnDrift() {
+        QuotesL2Book derived = new QuotesL2Book(instrument, 5);
+        int size = derived.getSize();
+        assertEquals(1, Integer.bitCount(size));
+        long bid = pegIndexPrice - instrument.tickSizeInt();
+        for (int i = 1; i <= 5; i++) {
+            derived.add(BID, bid - (i - 1) * instrument.tickSizeInt(), 10 * i);
+            derived.add(ASK, bid + (i + 1) * instrument.tickSizeInt(), 10 * i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            derived.add(ASK, derived.getBestAsk(), 0);
+            derived.add(ASK, derived.getBestAsk() + 4 * instrument.tickSizeInt(), 50);
+            derived.add(BID, derived.getBestBid() + instrument.tickSizeInt(), 10);
+        }
+        assertEquals(bid + 10_000 * instrument.tickSizeInt(), derived.getBestBid());
+        assertEquals(size, derived.getSize());
+        assertTrue(derived.getRepegCount() > 0);
+        QuotesL2Snapshot snapshot = new QuotesL2Snapshot(5);
+        derived.readSnapshot(snapshot);
+        assertEquals(5, snapshot.getCount(BID));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(derived.getBestBid() - i * instrument.tickSizeInt(), snapshot.getPrice(BID, i));
+            assertEquals(10, snapshot.getQuantity(BID, i));
+        }
+
+        // A jump far beyond the window keeps the book consistent
+        long far = derived.getBestAsk() + 1_000_000L * instrument.tickSizeInt();
+        derived.add(ASK, derived.getBestAsk(), 0);
+        derived.add(BID, far, 7);
+        derived.add(ASK, far + instrument.tickSizeInt(), 8);
+        assertEquals(far, derived.getBestBid());
+        assertEquals(far + instrument.tickSizeInt(), derived.getBestAsk());
+        assertEquals(7, derived.getBestBidSize());
+        assertEquals(-8, derived.getBestAskSize());
+    }
+
+    @Test
+    public void testQuantitiesBeyondInt() {
+        long quantity = 3L * Integer.MAX_VALUE;
+        book.add(BID, initialBestBid, quantity);
+        book.add(ASK, initialBestAsk, quantity + 1);
+        assertEquals(quantity, book.getBestBidSize());
+        assertEquals(-(quantity + 1), book.getBestAskSize());
+        assertEquals(quantity, book.getQtyAt(initialBestBid));
+
+        QuotesL2Snapshot snapshot = new QuotesL2Snapshot(1);
+        book.readSnapshot(snapshot);
+        assertEquals(quantity, snapshot.getQuantity(BID, 0));
+        assertEquals(quantity + 1, snapshot.getQuantity(ASK, 0));
+    }
+
+    @Test
+    public void testReplaceTop() {
+        int tick = instrument.tickSizeInt();
+        long version = book.getVersion();
+        long[] prices = { pegIndexPrice - 3 * tick, pegIndexPrice - 4 * tick, pegIndexPrice - 5 * tick, pegIndexPrice - 6 * tick };
+        long[] quantities = { 30, 0, 50, 60 };
+        book.replaceTop(BID, prices, quantities, 4, 42);
+        assertEquals(version + 2, book.getVersion());
+        assertEquals(42, book.getLastSequenceEnd());
+        assertEquals(prices[0], book.getBestBid());
+        // Levels the snapshot left out are gone
+        assertEquals(0, book.getQtyAt(initialBestBid));
+        assertEquals(0, book.getQtyAt(prices[1]));
+        assertEquals(0, book.getQtyAt(pegIndexPrice - 20 * tick));
+        assertEquals(50, book.getQtyAt(prices[2]));
+        long[] topPrices = new long[l2depth];
+        long[] topQuantities = new long[l2depth];
+        assertEquals(3, book.readTop(BID, topPrices, topQuantities, l2depth));
+        L2BookAnalytics analytics = new L2BookAnalytics();
+        book.readAnalytics(analytics);
+        assertEquals(140, analytics.getBidDepth());
+        assertEquals(initialBestAsk, analytics.getBestAsk());
+
+        // A crossing snapshot drops the asks it crossed
+        book.replaceTop(BID, new long[]{ pegIndexPrice + 2 * tick }, new long[]{ 10 }, 1, 43);
+        assertEquals(pegIndexPrice + 3 * tick, book.getBestAsk());
+        assertEquals(0, book.getQtyAt(initialBestAsk));
+
+        // A snapshot far away re-pegs the ring once
+        long repegs = book.getRepegCount();
+        long farAsk = pegIndexPrice + 10_000 * tick;
+        book.replaceTop(ASK, new long[]{ farAsk, farAsk + tick }, new long[]{ 5, 6 }, 2, 44);
+        assertEquals(repegs + 1, book.getRepegCount());
+        assertEquals(farAsk, book.getBestAsk());
+        assertEquals(-6, book.getQtyAt(farAsk + tick));
+        assertEquals(pegIndexPrice + 2 * tick, book.getBestBid());
+
+        book.replaceTop(ASK, prices, quantities, 0, 45);
+        assertEquals(0, book.getBestAskSize());
+        assertEquals(0, book.readTop(ASK, topPrices, topQuantities, l2depth));
+    }
+
+    @Test
+    public void testSnapshotVersion() {
+        QuotesL2Snapshot snapshot = new QuotesL2Snapshot(5);
+        long version = book.readSnapshot(snapshot);
+        assertEquals(0, version % 2);
+        assertEquals(version, book.getVersion());
+        assertEquals(5, snapshot.getCount(BID));
+        assertEquals(5, snapshot.getCount(ASK));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(initialBestBid - i * instrument.tickSizeInt(), snapshot.getPrice(BID, i));
+            assertEquals(initialBestAsk + i * instrument.tickSizeInt(), snapshot.getPrice(ASK, i));
+            assertEquals(instrument.qtyToInt(101 + i), snapshot.getQuantity(BID, i));
+            assertEquals(instrument.qtyToInt(101 + i), snapshot.getQuantity(ASK, i));
+        }
+
+        book.add(BID, initialBestBid, instrument.qtyToInt(7));
+        assertEquals(version + 2, book.getVersion());
+        assertEquals(version + 2, book.readSnapshot(snapshot));
+        assertEquals(instrument.qtyToInt(7), snapshot.getQuantity(BID, 0));
+    }
+
+    @Test
+    public void testConcurrentSnapshots() throws Exception {
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 50_000; i++) {
+                long quantity = instrument.qtyToInt(i % 100 + 1);
+                if ((i / 100) % 2 == 0) {
+                    book.add(ASK, book.getBestAsk(), 0);
+                    book.add(ASK, book.getBestAsk() + (l2depth - 1) * instrument.tickSizeInt(), quantity);
+                    book.add(BID, book.getBestBid() + instrument.tickSizeInt(), quantity);
+                } else {
+                    book.add(BID, book.getBestBid(), 0);
+                    book.add(BID, book.getBestBid() - (l2depth - 1) * instrument.tickSizeInt(), quantity);
+                    book.add(ASK, book.getBestAsk() - instrument.tickSizeInt(), quantity);
+                }
+            }
+        });
+        QuotesL2Snapshot snapshot = new QuotesL2Snapshot(l2depth);
+        writer.start();
+        long lastVersion = -1;
+        while (writer.isAlive()) {
+            long version = book.readSnapshot(snapshot);
+            assertEquals(0, version % 2);
+            assertTrue(version >= lastVersion);
+            lastVersion = version;
+            if (snapshot.getCount(BID) > 0 && snapshot.getCount(ASK) > 0) {
+                assertTrue(snapshot.getPrice(BID, 0) < snapshot.getPrice(ASK, 0));
+            }
+            for (int i = 1; i < snapshot.getCount(BID); i++) {
+                assertTrue(snapshot.getPrice(BID, i) < snapshot.getPrice(BID, i - 1));
+            }
+            for (int i = 1; i < snapshot.getCount(ASK); i++) {
+                assertTrue(snapshot.getPrice(ASK, i) > snapshot.getPrice(ASK, i - 1));
+            }
+        }
+        writer.join();
+    }
+
+    /**
+     * Readers racing re-pegs which grow the ring read the old or the new ring, never past either.
+     */
+    @Test
+    public void testConcurrentSnapshotsWhileRingGrows() throws Exception {
+        AtomicReference<QuotesL2Book> current = new AtomicReference<>(new QuotesL2Book(instrument, 5, 16));
+        int tick = instrument.tickSizeInt();
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 500; round++) {
+                QuotesL2Book growing = new QuotesL2Book(instrument, 5, 16);
+                growing.add(BID, pegIndexPrice - tick, 1);
+                current.set(growing);
+                // Each ask twice as far from the bid as the last, the ring doubles to keep both sides
+                for (int distance = 8; distance < 4_000; distance *= 2) {
+                    growing.add(ASK, pegIndexPrice + distance * tick, 1);
+                    growing.add(ASK, growing.getBestAsk(), 0);
+                    growing.add(ASK, pegIndexPrice + 2 * distance * tick, 1);
+                }
+            }
+        });
+        QuotesL2Snapshot snapshot = new QuotesL2Snapshot(5);
+        writer.start();
+        while (writer.isAlive()) {
+            current.get().readSnapshot(snapshot);
+            assertTrue(snapshot.getCount(BID) <= 1);
+        }
+        writer.join();
+        assertTrue(current.get().getSize() > 16);
     }
 }
@@ -0,0 +1,69 @@
+package io.canalstreet.orderbook.md;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class QuotesL2PipelineTest {
+
+    static final int FRAMES = 50_000;
+
+    @Test
+    public void testStagesRunInOrderOnDedicatedThreads() throws Exception {
+        Set<String> applyThreads = ConcurrentHashMap.newKeySet();
+        long[] lastSequenced = new long[2];
+        long[] lastApplied = new long[2];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        AtomicInteger published = new AtomicInteger();
+
+        // Frames are "<producer>:<sequence>"
+        FrameDecoder decoder = (frame, offset, length, event) -> {
+            event.clear();
+            event.setSequenceStart(frame[offset] - '0');
+            long sequence = 0;
+            for (int i = offset + 2; i < offset + length; i++) sequence = sequence * 10 + (frame[i] - '0');
+            event.setSequenceEnd(sequence);
+            return true;
+        };
+        try (QuotesL2Pipeline pipeline = new QuotesL2Pipeline("test", 64, decoder,
+                event -> {
+                    int producer = (int) event.getSequenceStart();
+                    event.setSequenceGap(event.getSequenceEnd() != lastSequenced[producer] + 1);
+                    lastSequenced[producer] = event.getSequenceEnd();
+                },
+                event -> {
+                    applyThreads.add(Thread.currentThread().getName());
+                    int producer = (int) event.getSequenceStart();
+                    if (event.isSequenceGap() || event.getSequenceEnd() != lastApplied[producer] + 1) outOfOrder.incrementAndGet();
+                    lastApplied[producer] = event.getSequenceEnd();
+                },
+                event -> published.incrementAndGet())) {
+            pipeline.start();
+
+            Thread[] producers = new Thread[2];
+            for (int p = 0; p < producers.length; p++) {
+                int producer = p;
+                producers[p] = new Thread(() -> {
+                    for (int i = 1; i <= FRAMES; i++) pipeline.publish(producer + ":" + i, System.nanoTime());
+                });
+                producers[p].start();
+            }
+            for (Thread producer : producers) producer.join();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (published.get() < 2 * FRAMES && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, pipeline.backlog());
+        }
+        assertEquals(2 * FRAMES, published.get());
+        assertEquals(0, outOfOrder.get());
+        assertEquals(Set.of("test-apply"), applyThreads);
+        assertTrue(lastApplied[0] == FRAMES && lastApplied[1] == FRAMES);
+    }
+}
@@ -0,0 +1,100 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class QuotesL2SparseBookTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTCUSD").currency("USD").quantityScale(2).priceScale(2).tickSize(0.01f).pegIndexPrice(100_000).build();
+    long pegIndexPrice = instrument.priceToInt(100_000);
+    int l2depth = 5;
+    QuotesL2SparseBook book = new QuotesL2SparseBook(instrument, l2depth);
+
+    @BeforeEach
+    public void setup() {
+        for (int i = 1; i <= 1_000; i++) {
+            book.add(BID, pegIndexPrice - i * instrument.tickSizeInt(), instrument.qtyToInt(i));
+            book.add(ASK, pegIndexPrice + i * instrument.tickSizeInt(), instrument.qtyToInt(i));
+        }
+    }
+
+    @Test
+    public void testFullDepthKept() {
+        assertEquals(1_000, book.getLevelCount(BID));
+        assertEquals(1_000, book.getLevelCount(ASK));
+        assertEquals(pegIndexPrice - instrument.tickSizeInt(), book.getBestBid());
+        assertEquals(pegIndexPrice + instrument.tickSizeInt(), book.getBestAsk());
+        assertEquals(instrument.qtyToInt(1_000), book.getQtyAt(pegIndexPrice - 1_000 * instrument.tickSizeInt()));
+        assertEquals(-instrument.qtyToInt(1_000), book.getQtyAt(pegIndexPrice + 1_000 * instrument.tickSizeInt()));
+        assertEquals((float) instrument.priceToDouble(book.getBestAsk()), book.getAsks().get(0)[0]);
+    }
+
+    @Test
+    public void testWidePriceRange() {
+        // Levels far apart in price cost no more than adjacent ones
+        book.add(BID, pegIndexPrice / 2, instrument.qtyToInt(7));
+        book.add(ASK, pegIndexPrice * 2, instrument.qtyToInt(9));
+        assertEquals(instrument.qtyToInt(7), book.getQtyAt(pegIndexPrice / 2));
+        assertEquals(-instrument.qtyToInt(9), book.getQtyAt(pegIndexPrice * 2));
+        assertEquals(1_001, book.getLevelCount(BID));
+    }
+
+    @Test
+    public void testRemoveBest() {
+        book.add(BID, book.getBestBid(), 0);
+        book.add(ASK, book.getBestAsk(), 0);
+        assertEquals(pegIndexPrice - 2 * instrument.tickSizeInt(), book.getBestBid());
+        assertEquals(pegIndexPrice + 2 * instrument.tickSizeInt(), book.getBestAsk());
+        assertEquals(instrument.qtyToInt(2), book.getBestBidSize());
+        assertEquals(999, book.getLevelCount(BID));
+    }
+
+    @Test
+    public void testCrossingBidClearsAsks() {
+        long price = pegIndexPrice + 3 * instrument.tickSizeInt();
+        book.add(BID, price, instrument.qtyToInt(50));
+        assertEquals(price, book.getBestBid());
+        assertEquals(pegIndexPrice + 4 * instrument.tickSizeInt(), book.getBestAsk());
+        assertEquals(997, book.getLevelCount(ASK));
+
+        // The analytics of the asks dropped the crossed levels too
+        L2BookAnalytics analytics = new L2BookAnalytics();
+        book.readAnalytics(analytics);
+        assertEquals(pegIndexPrice + 4 * instrument.tickSizeInt(), analytics.getBestAsk());
+        assertEquals(instrument.qtyToInt(4), analytics.getBestAskSize());
+        assertEquals(instrument.qtyToInt(4 + 5 + 6 + 7 + 8), analytics.getAskDepth());
+        assertEquals(-instrument.qtyToInt(4), book.getBestAskSize());
+    }
+
+    @Test
+    public void testReplaceTop() {
+        int tick = instrument.tickSizeInt();
+        long[] prices = { pegIndexPrice + 2 * tick, pegIndexPrice - 2 * tick, pegIndexPrice - 3 * tick };
+        long[] quantities = { 20, 0, 30 };
+        book.replaceTop(BID, prices, quantities, 3, 7);
+        assertEquals(2, book.getLevelCount(BID));
+        assertEquals(prices[0], book.getBestBid());
+        assertEquals(30, book.getQtyAt(BID, prices[2]));
+        assertEquals(0, book.getQtyAt(BID, pegIndexPrice - 1_000 * tick));
+        // The asks crossed by the new best bid are dropped
+        assertEquals(pegIndexPrice + 3 * tick, book.getBestAsk());
+        assertEquals(998, book.getLevelCount(ASK));
+        assertEquals(7, book.getLastSequenceEnd());
+    }
+
+    @Test
+    public void testSnapshotOrder() {
+        QuotesL2Snapshot snapshot = new QuotesL2Snapshot(l2depth);
+        book.readSnapshot(snapshot);
+        assertEquals(l2depth, snapshot.getCount(BID));
+        for (int i = 0; i < l2depth; i++) {
+            assertEquals(pegIndexPrice - (i + 1) * instrument.tickSizeInt(), snapshot.getPrice(BID, i));
+            assertEquals(pegIndexPrice + (i + 1) * instrument.tickSizeInt(), snapshot.getPrice(ASK, i));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.junit.jupiter.api.Test;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class QuotesL2UpdateCacheTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTCUSD").currency("USD").quantityScale(2).priceScale(2).tickSize(0.01f).pegIndexPrice(100_000).build();
+
+    @Test
+    public void testReplayInSequenceOrderAcrossSides() {
+        QuotesL2Event event = new QuotesL2Event();
+        event.setInstrument(instrument);
+        event.setSequenceStart(11);
+        event.setSequenceEnd(14);
+        event.addLevel(BID, 9_999_900, 100, 11);
+        event.addLevel(BID, 9_999_800, 200, 13);
+        event.addLevel(ASK, 10_000_100, 300, 12);
+        event.addLevel(ASK, 10_000_200, 400, 14);
+        QuotesL2UpdateCache cache = new QuotesL2UpdateCache();
+        cache.add(event);
+        event.clear();
+        event.setSequenceStart(15);
+        event.setSequenceEnd(16);
+        event.addLevel(ASK, 10_000_100, 0, 15);
+        event.addLevel(BID, 9_999_900, 50, 16);
+        cache.add(event);
+
+        QuotesL2SparseBook book = new QuotesL2SparseBook(instrument, 5);
+        assertEquals(5, cache.replay(book, 11));
+        // The bid of the last update was sent after its ask, the book ends at its sequence
+        assertEquals(16, book.getLastSequenceEnd());
+        assertEquals(9_999_900, book.getBestBid());
+        assertEquals(50, book.getBestBidSize());
+        assertEquals(10_000_200, book.getBestAsk());
+        assertEquals(-400, book.getBestAskSize());
+    }
+
+    @Test
+    public void testReloadInOneUpdate() {
+        QuotesL2SparseBook book = new QuotesL2SparseBook(instrument, 5);
+        book.add(BID, 9_000_000, 10, 1, 1);
+        book.add(ASK, 11_000_000, 10, 2, 2);
+        QuotesL2UpdateCache cache = new QuotesL2UpdateCache();
+        QuotesL2Event event = new QuotesL2Event();
+        event.setInstrument(instrument);
+        event.setSequenceStart(21);
+        event.setSequenceEnd(21);
+        event.addLevel(BID, 9_999_900, 70, 21);
+        cache.add(event);
+
+        QuotesL2Event snapshot = new QuotesL2Event();
+        snapshot.setInstrument(instrument);
+        snapshot.setSequenceEnd(20);
+        snapshot.addLevel(BID, 9_999_900, 100, 0);
+        snapshot.addLevel(BID, 9_999_800, 200, 0);
+        snapshot.addLevel(ASK, 10_000_100, 300, 0);
+        long version = book.getVersion();
+        assertEquals(1, book.reload(snapshot, cache));
+        assertEquals(version + 2, book.getVersion());
+        assertEquals(21, book.getLastSequenceEnd());
+        assertEquals(0, book.getQtyAt(9_000_000));
+        assertEquals(70, book.getBestBidSize());
+        assertEquals(-300, book.getBestAskSize());
+        assertEquals(2, book.getLevelCount(BID));
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testUpdatesBeyondTheMaximumRefused() {
+        QuotesL2UpdateCache cache = new QuotesL2UpdateCache(3);
+        QuotesL2Event event = new QuotesL2Event();
+        event.setInstrument(instrument);
+        event.setSequenceStart(1);
+        event.setSequenceEnd(2);
+        event.addLevel(BID, 9_999_900, 100, 1);
+        event.addLevel(ASK, 10_000_100, 100, 2);
+        assertTrue(cache.add(event));
+        assertFalse(cache.add(event));
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertTrue(cache.add(event));
+    }
+}
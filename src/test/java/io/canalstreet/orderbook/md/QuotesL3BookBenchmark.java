@@ -0,0 +1,98 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.kuc.KucCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Order book costs under a level3 flow holding some 20000 orders on a few hundred levels per
+ * side, about the resting depth of BTC-USDT: opens skewed towards the top of the book, then
+ * fills, size changes and cancels of random resting orders. The flow's own bookkeeping of
+ * live order ids is part of the cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuotesL3BookBenchmark {
+    static final int ORDERS = 20_000;
+    static final int TICKS = 400;
+
+    Instrument instrument = KucCorpus.BTC_USDT;
+    long tick = instrument.tickSizeInt();
+    long mid = instrument.priceToInt(instrument.getPegIndexPrice());
+    QuotesL3Book book;
+    SplittableRandom random = new SplittableRandom(42);
+    long[] live = new long[2 * ORDERS];
+    int liveCount;
+    long nextId = 1;
+    long sequence = 1;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        book = new QuotesL3Book(instrument, 10);
+        while (liveCount < ORDERS) {
+            open();
+        }
+    }
+
+    /**
+     * One level3 message: an open while the book is short of orders, else a fill, change or cancel.
+     */
+    @Benchmark
+    public long message() {
+        if (liveCount < ORDERS || liveCount < 2 * ORDERS && random.nextBoolean()) {
+            open();
+            return book.getVersion();
+        }
+        int index = random.nextInt(liveCount);
+        long id = live[index];
+        int action = random.nextInt(4);
+        if (action == 0) {
+            book.match(id, 1, sequence++);
+        } else if (action == 1) {
+            book.change(id, 1 + random.nextInt(1_000), sequence++);
+        } else {
+            book.done(id, sequence++);
+        }
+        if (book.getOrderSize(id) == 0) live[index] = live[--liveCount];
+        return book.getVersion();
+    }
+
+    @Benchmark
+    public long queueAhead() {
+        return book.getQueueAhead(live[random.nextInt(liveCount)]);
+    }
+
+    @Benchmark
+    public long bestBidSize() {
+        return book.getBestBidSize();
+    }
+
+    private void open() {
+        QuoteSide side = random.nextBoolean() ? BID : ASK;
+        // Half the orders within 8 ticks of the top
+        int distance = Math.min(TICKS, 1 + (int) (8 * -Math.log(1 - random.nextDouble())));
+        long price = side == BID ? mid - distance * tick : mid + distance * tick;
+        book.open(side, nextId, price, 1 + random.nextInt(1_000), sequence++);
+        live[liveCount++] = nextId++;
+    }
+}
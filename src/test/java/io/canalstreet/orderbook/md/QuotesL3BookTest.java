@@ -0,0 +1,217 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class QuotesL3BookTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTCUSD").currency("USD").quantityScale(2).priceScale(2).tickSize(0.01f).pegIndexPrice(100_000).build();
+    long tick = instrument.tickSizeInt();
+    long bid = instrument.priceToInt(99_999);
+    long ask = instrument.priceToInt(100_001);
+    QuotesL3Book book = new QuotesL3Book(instrument, 5, 4);
+
+    @Test
+    public void testLevelsDerivedFromOrders() {
+        assertTrue(book.open(BID, 1, bid, 100, 1));
+        assertTrue(book.open(BID, 2, bid, 250, 2));
+        assertTrue(book.open(BID, 3, bid - tick, 40, 3));
+        assertTrue(book.open(ASK, 4, ask, 70, 4));
+        assertFalse(book.open(ASK, 4, ask + tick, 70, 5));
+
+        assertFalse(book.isInitialized());
+        assertEquals(4, book.getLastSequenceEnd());
+        assertEquals(4, book.getOrderCount());
+        assertEquals(bid, book.getBestBid());
+        assertEquals(350, book.getBestBidSize());
+        assertEquals(ask, book.getBestAsk());
+        assertEquals(-70, book.getBestAskSize());
+        assertEquals(40, book.getQtyAt(bid - tick));
+        assertEquals(2, book.getOrderCount(BID, bid));
+
+        assertTrue(book.match(1, 100, 6));
+        assertEquals(250, book.getBestBidSize());
+        assertEquals(1, book.getOrderCount(BID, bid));
+        assertFalse(book.done(1, 7));
+
+        assertTrue(book.change(2, 50, 8));
+        assertEquals(50, book.getBestBidSize());
+        assertTrue(book.done(2, 9));
+        assertEquals(bid - tick, book.getBestBid());
+        assertEquals(0, book.getQtyAt(bid));
+        assertEquals(0, book.getOrderCount(BID, bid));
+        assertEquals(9, book.getLastSequenceEnd());
+        assertFalse(book.match(42, 1, 10));
+    }
+
+    @Test
+    public void testQueuePositionInTimePriority() {
+        book.open(ASK, 10, ask, 5, 1);
+        book.open(ASK, 11, ask, 7, 2);
+        book.open(ASK, 12, ask, 9, 3);
+        book.open(ASK, 13, ask + tick, 1, 4);
+        assertEquals(0, book.getQueueAhead(10));
+        assertEquals(12, book.getQueueAhead(12));
+        assertEquals(0, book.getQueueAhead(13));
+        assertEquals(-1, book.getQueueAhead(99));
+
+        // A partial fill of the head and a size change leave the queue in order
+        book.match(10, 2, 5);
+        book.change(11, 4, 6);
+        assertEquals(7, book.getQueueAhead(12));
+        book.done(11, 7);
+        assertEquals(3, book.getQueueAhead(12));
+        assertEquals(9, book.getOrderSize(12));
+        assertEquals(0, book.getOrderSize(11));
+
+        // A reopened order joins the back of the queue
+        book.open(ASK, 11, ask, 4, 8);
+        long[] highs = new long[4];
+        long[] ids = new long[4];
+        long[] sizes = new long[4];
+        assertEquals(3, book.readOrders(ASK, ask, highs, ids, sizes, 4));
+        assertArrayEquals(new long[4], highs);
+        assertArrayEquals(new long[]{ 10, 12, 11, 0 }, ids);
+        assertArrayEquals(new long[]{ 3, 9, 4, 0 }, sizes);
+        assertEquals(12, book.getQueueAhead(11));
+    }
+
+    /**
+     * Ids of up to 128 bits are keyed exactly, ids sharing their low long are distinct orders.
+     */
+    @Test
+    public void testWideOrderIds() {
+        assertTrue(book.open(BID, 0x6287c301L, 0x5c27d000017e6a1bL, bid, 100, 1));
+        assertTrue(book.open(BID, 0x7287c301L, 0x5c27d000017e6a1bL, bid, 30, 2));
+        assertFalse(book.open(BID, 0x6287c301L, 0x5c27d000017e6a1bL, bid, 30, 3));
+        assertEquals(130, book.getBestBidSize());
+        assertEquals(100, book.getQueueAhead(0x7287c301L, 0x5c27d000017e6a1bL));
+        assertTrue(book.done(0x6287c301L, 0x5c27d000017e6a1bL, 4));
+        assertEquals(0, book.getOrderSize(0x6287c301L, 0x5c27d000017e6a1bL));
+        assertEquals(30, book.getOrderSize(0x7287c301L, 0x5c27d000017e6a1bL));
+        long[] highs = new long[2];
+        long[] lows = new long[2];
+        assertEquals(1, book.readOrders(BID, bid, highs, lows, new long[2], 2));
+        assertEquals(0x7287c301L, highs[0]);
+        assertEquals(0x5c27d000017e6a1bL, lows[0]);
+    }
+
+    @Test
+    public void testReset() {
+        book.open(BID, 1, bid, 100, 1);
+        book.open(ASK, 2, ask, 100, 2);
+        book.reset();
+        assertEquals(0, book.getLastSequenceEnd());
+        assertEquals(0, book.getOrderCount());
+        assertEquals(0, book.getBestBidSize());
+        assertEquals(-1, book.getQueueAhead(1));
+        assertTrue(book.open(BID, 1, bid, 30, 3));
+        assertEquals(30, book.getBestBidSize());
+    }
+
+    @Test
+    public void testLevelsReadOnly() {
+        book.open(BID, 1, bid, 100, 1);
+        // Only the order messages write the levels
+        L2BookView view = book;
+        assertFalse(view instanceof L2Book);
+        QuotesL2Snapshot snapshot = new QuotesL2Snapshot(5);
+        assertEquals(book.getVersion(), view.readSnapshot(snapshot));
+        assertEquals(1, snapshot.getCount(BID));
+        assertEquals(100, snapshot.getQuantity(BID, 0));
+        assertEquals(1, snapshot.getSequence());
+    }
+
+    /**
+     * Random opens, fills, changes and cancels over a few hundred orders and levels, well past
+     * the pool's initial capacity, checked against a plain map of the orders.
+     */
+    @Test
+    public void testRandomFlowMatchesOrders() {
+        SplittableRandom random = new SplittableRandom(7);
+        Map<Long, long[]> expected = new HashMap<>();
+        long[] live = new long[1_000];
+        int liveCount = 0;
+        long nextId = 1;
+        for (int sequence = 1; sequence <= 50_000; sequence++) {
+            if (liveCount < 500 && (liveCount == 0 || random.nextInt(2) == 0)) {
+                QuoteSide side = random.nextBoolean() ? BID : ASK;
+                long price = side == BID ? bid - random.nextInt(100) * tick : ask + random.nextInt(100) * tick;
+                long size = 1 + random.nextInt(100);
+                assertTrue(book.open(side, nextId, price, size, sequence));
+                expected.put(nextId, new long[]{ side.ordinal(), price, size });
+                live[liveCount++] = nextId++;
+                continue;
+            }
+            int index = random.nextInt(liveCount);
+            long id = live[index];
+            long[] order = expected.get(id);
+            int action = random.nextInt(3);
+            if (action == 0) {
+                long fill = 1 + random.nextInt((int) order[2]);
+                assertTrue(book.match(id, fill, sequence));
+                order[2] -= fill;
+            } else if (action == 1) {
+                order[2] = 1 + random.nextInt(100);
+                assertTrue(book.change(id, order[2], sequence));
+            } else {
+                assertTrue(book.done(id, sequence));
+                order[2] = 0;
+            }
+            if (order[2] == 0) {
+                expected.remove(id);
+                live[index] = live[--liveCount];
+            }
+        }
+
+        assertEquals(expected.size(), book.getOrderCount());
+        Map<Long, Long> levels = new HashMap<>();
+        for (long[] order : expected.values()) {
+            levels.merge(order[0] == BID.ordinal() ? order[1] : -order[1], order[2], Long::sum);
+        }
+        levels.forEach((key, size) -> assertEquals(size, key > 0 ? book.getQtyAt(key) : -book.getQtyAt(-key)));
+        assertEquals(levels.keySet().stream().filter(key -> key > 0).count(), book.getLevelCount(BID));
+        assertEquals(levels.keySet().stream().filter(key -> key < 0).count(), book.getLevelCount(ASK));
+        for (int i = 0; i < liveCount; i++) {
+            assertEquals(expected.get(live[i])[2], book.getOrderSize(live[i]));
+        }
+    }
+
+    @Test
+    public void testZeroAllocationInSteadyState() {
+        book = new QuotesL3Book(instrument, 5, 1_024);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sequence = flow(1, 200_000);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        flow(sequence, 200_000);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertEquals(0, allocated, "Bytes allocated applying 200000 order messages");
+    }
+
+    /**
+     * Orders opened around the top of the book and done 500 messages later, partly filled first.
+     */
+    private long flow(long sequence, int messages) {
+        for (int i = 0; i < messages; i += 3, sequence += 3) {
+            QuoteSide side = (sequence & 4) == 0 ? BID : ASK;
+            long price = side == BID ? bid - (sequence % 7) * tick : ask + (sequence % 5) * tick;
+            book.open(side, sequence, price, 10, sequence);
+            book.match(sequence - 150, 3, sequence + 1);
+            book.done(sequence - 498, sequence + 2);
+            book.getQueueAhead(sequence - 300);
+        }
+        return sequence;
+    }
+}
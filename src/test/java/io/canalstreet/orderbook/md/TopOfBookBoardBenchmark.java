@@ -0,0 +1,79 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * A batch top of book query over 500 instruments served from the board rows, against reading
+ * the best prices and sizes off each book as the per instrument endpoint does, and the cost a
+ * row write adds to the publish stage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopOfBookBoardBenchmark {
+    private static final int INSTRUMENTS = 500;
+
+    InstrumentRegistry registry = new InstrumentRegistry();
+    TopOfBookBoard board = new TopOfBookBoard(registry);
+    QuotesL2Book[] books = new QuotesL2Book[INSTRUMENTS];
+    int[] ids = new int[INSTRUMENTS];
+    L2BookAnalytics analytics = new L2BookAnalytics();
+    long time;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < INSTRUMENTS; i++) {
+            Instrument instrument = Instrument.builder().symbol("SYM" + i + "-USDT").currency("USDT").quantityScale(8).priceScale(2).tickSize(0.01f).pegIndexPrice(100 + i).build();
+            ids[i] = registry.register("KUC", instrument);
+            books[i] = new QuotesL2Book(instrument, 10);
+            long mid = instrument.priceToInt(instrument.getPegIndexPrice());
+            for (int level = 1; level <= 10; level++) {
+                books[i].add(BID, mid - level, 100_000_000L * level, level, level);
+                books[i].add(ASK, mid + level, 100_000_000L * level, level, level);
+            }
+            board.record(books[i], 1_700_000_000_000_000L);
+        }
+    }
+
+    @Benchmark
+    public byte[] boardJson() {
+        return board.toJson(ids, INSTRUMENTS);
+    }
+
+    @Benchmark
+    public long booksAnalytics() {
+        long sum = 0;
+        for (QuotesL2Book book : books) {
+            book.readAnalytics(analytics);
+            sum += analytics.getBestBid() + analytics.getBestAsk() + analytics.getBestBidSize() + analytics.getBestAskSize();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public boolean record() {
+        QuotesL2Book book = books[0];
+        book.add(BID, book.getBestBid(), 100_000_000L + (++time & 1), time, time);
+        return board.record(book, time);
+    }
+}
@@ -0,0 +1,73 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TopOfBookBoardTest {
+
+    InstrumentRegistry registry = new InstrumentRegistry();
+    TopOfBookBoard board = new TopOfBookBoard(registry);
+    Instrument btc = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    Instrument eth = Instrument.builder().symbol("ETH-USDT").currency("USDT").quantityScale(4).priceScale(2).tickSize(0.01f).pegIndexPrice(3_000).build();
+
+    @Test
+    public void testRowsWrittenOnTopOfBookChanges() {
+        registry.register("KUC", btc);
+        registry.register("KUC", eth);
+        QuotesL2Book btcBook = new QuotesL2Book(btc, 10);
+        QuotesL2SparseBook ethBook = new QuotesL2SparseBook(eth, 10);
+        long[] row = new long[TopOfBookBoard.ROW];
+        assertFalse(board.read(btc.getId(), row));
+
+        btcBook.add(BID, 999_999, 50_000_000, 1, 1);
+        assertTrue(board.record(btcBook, 100));
+        btcBook.add(ASK, 1_000_001, 200_000_000, 2, 2);
+        assertTrue(board.record(btcBook, 200));
+        // Levels behind the best ones leave the row as it was
+        btcBook.add(BID, 999_990, 10, 3, 3);
+        assertFalse(board.record(btcBook, 300));
+
+        assertTrue(board.read(btc.getId(), row));
+        assertEquals(4, row[TopOfBookBoard.SEQLOCK]);
+        assertEquals(999_999, row[TopOfBookBoard.BID]);
+        assertEquals(1_000_001, row[TopOfBookBoard.ASK]);
+        assertEquals(200_000_000, row[TopOfBookBoard.ASK_SIZE]);
+        assertEquals(2, row[TopOfBookBoard.SEQUENCE]);
+        assertEquals(200, row[TopOfBookBoard.UPDATED_MICROS]);
+
+        ethBook.add(ASK, 300_050, 12_500, 7, 7);
+        board.record(ethBook, 400);
+        assertEquals("""
+                [{"symbol":"BTC-USDT","bid":99999.9,"ask":100000.1,"bidSize":0.5,"askSize":2,"sequence":2,"time":200},\
+                {"symbol":"ETH-USDT","bid":null,"ask":3000.5,"bidSize":0,"askSize":1.25,"sequence":7,"time":400}]""",
+                new String(board.toJson(), StandardCharsets.UTF_8));
+        assertEquals("""
+                [{"symbol":"ETH-USDT","bid":null,"ask":3000.5,"bidSize":0,"askSize":1.25,"sequence":7,"time":400}]""",
+                new String(board.toJson(new int[]{eth.getId()}, 1), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRowsOnManyPages() {
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            Instrument instrument = Instrument.builder().symbol("S" + i).currency("USDT").quantityScale(0).priceScale(0).tickSize(1).build();
+            registry.register("KUC", instrument);
+            QuotesL2SparseBook book = new QuotesL2SparseBook(instrument, 5);
+            book.add(BID, i + 1, 1, i, i);
+            board.record(book, i);
+            if (i > 0) expected.append(',');
+            expected.append("{\"symbol\":\"S").append(i).append("\",\"bid\":").append(i + 1)
+                    .append(",\"ask\":null,\"bidSize\":1,\"askSize\":0,\"sequence\":").append(i).append(",\"time\":").append(i).append('}');
+        }
+        assertEquals(expected.append(']').toString(), new String(board.toJson(), StandardCharsets.UTF_8));
+    }
+}
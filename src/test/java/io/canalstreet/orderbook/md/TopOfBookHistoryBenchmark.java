@@ -0,0 +1,72 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.TopOfBookHistory.Resolution;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Cost the history adds to the publish stage per update, and the rate of a range query streamed
+ * off the columns. Run with {@code mvn -Pjmh verify -Djmh.includes=TopOfBookHistoryBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopOfBookHistoryBenchmark {
+
+    private static final int ROWS = 1 << 16;
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    QuotesL2Book book = new QuotesL2Book(instrument, 10);
+    TopOfBookHistory history = new TopOfBookHistory(instrument, 4096, 16, 4, 4);
+    TopOfBookHistory filled = new TopOfBookHistory(instrument, 4096, 16, 4, 4);
+    OutputStream discard = OutputStream.nullOutputStream();
+    long time;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 1; i <= 10; i++) {
+            book.add(BID, 1_000_000 - i, 100_000_000L * i);
+            book.add(QuoteSide.ASK, 1_000_000 + i, 100_000_000L * i);
+        }
+        for (int i = 0; i < ROWS; i++) {
+            book.add(BID, 999_999, 1 + i);
+            filled.record(book, i * 100L);
+        }
+    }
+
+    @Benchmark
+    public long record() {
+        time += 100;
+        book.add(BID, 999_999, 1 + (time & 0xFFFF));
+        history.record(book, time);
+        return time;
+    }
+
+    /**
+     * Streams all {@value ROWS} retained rows per call.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long writeCsv() throws IOException {
+        return filled.writeCsv(Resolution.RAW, 0, Long.MAX_VALUE, discard);
+    }
+}
@@ -0,0 +1,95 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.TopOfBookHistory.Resolution;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TopOfBookHistoryTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    QuotesL2SparseBook book = new QuotesL2SparseBook(instrument, 5);
+    TopOfBookHistory history = new TopOfBookHistory(instrument, 4, 2, 2, 2);
+
+    @Test
+    public void testRawRowsAndRollups() throws IOException {
+        long t0 = 1_700_000_000_000_000L;
+        book.add(BID, 999_999, 50_000_000);
+        history.record(book, t0);
+        book.add(ASK, 1_000_001, 200_000_000);
+        history.record(book, t0 + 10);
+        // Updates leaving the top of book as it was count towards the last row
+        history.record(book, t0 + 20);
+        book.add(BID, 999_999, 25_000_000);
+        history.record(book, t0 + 1_000_005);
+        book.add(ASK, 1_000_001, 0);
+        history.record(book, t0 + 2_500_000);
+
+        TopOfBookSeries raw = history.getSeries(Resolution.RAW);
+        assertEquals(4, raw.getCount());
+        assertEquals(t0 + 10, raw.get(1, TopOfBookSeries.TIME));
+        assertEquals(1_000_001, raw.get(1, TopOfBookSeries.ASK));
+        assertEquals(2, raw.get(1, TopOfBookSeries.UPDATES));
+        assertEquals(0, raw.get(3, TopOfBookSeries.ASK_SIZE));
+
+        // Closed seconds only, each with the last top of book within it
+        TopOfBookSeries seconds = history.getSeries(Resolution.SECOND);
+        assertEquals(2, seconds.getCount());
+        assertEquals(t0, seconds.get(0, TopOfBookSeries.TIME));
+        assertEquals(50_000_000, seconds.get(0, TopOfBookSeries.BID_SIZE));
+        assertEquals(3, seconds.get(0, TopOfBookSeries.UPDATES));
+        assertEquals(t0 + 1_000_000, seconds.get(1, TopOfBookSeries.TIME));
+        assertEquals(25_000_000, seconds.get(1, TopOfBookSeries.BID_SIZE));
+        assertEquals(0, history.getSeries(Resolution.MINUTE).getCount());
+
+        assertEquals("""
+                time,bid,ask,bidSize,askSize,bidDepth,askDepth,updates
+                1700000000000010,99999.9,100000.1,0.5,2,0.5,2,2
+                1700000001000005,99999.9,100000.1,0.25,2,0.25,2,1
+                """, csv(Resolution.RAW, t0 + 1, t0 + 2_500_000));
+        assertEquals("""
+                time,bid,ask,bidSize,askSize,bidDepth,askDepth,updates
+                1700000002500000,99999.9,,0.25,0,0.25,0,1
+                """, csv(Resolution.RAW, t0 + 2_500_000, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRetention() throws IOException {
+        TopOfBookSeries raw = history.getSeries(Resolution.RAW);
+        for (int i = 1; i <= 9; i++) {
+            book.add(BID, 999_999, i);
+            history.record(book, i);
+        }
+        // 2 chunks of 4 rows: writing the 9th row recycled the chunk of rows 0 to 3
+        assertEquals(9, raw.getCount());
+        assertEquals(4, raw.getFirst());
+        assertFalse(raw.isRetained(3));
+        assertTrue(raw.isRetained(4));
+        assertEquals(4, raw.search(0));
+        assertEquals(7, raw.search(8));
+        assertEquals(9, raw.search(10));
+        assertEquals(5, csv(Resolution.RAW, 0, Long.MAX_VALUE).lines().count() - 1);
+    }
+
+    @Test
+    public void testUnknownResolution() {
+        assertEquals(Resolution.MINUTE, Resolution.of("1m"));
+        assertThrows(IllegalArgumentException.class, () -> Resolution.of("5m"));
+    }
+
+    String csv(Resolution resolution, long from, long to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        history.writeCsv(resolution, from, to, out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+}
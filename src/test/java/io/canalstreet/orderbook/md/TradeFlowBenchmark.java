@@ -0,0 +1,59 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.md.kuc.KucCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Cost of adding a trade to the three windows, and of reading the widest one, at some 1000
+ * trades a second of a busy instrument.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeFlowBenchmark {
+    TradeFlow tradeFlow = new TradeFlow(KucCorpus.BTC_USDT);
+    TradeFlowWindow flow = new TradeFlowWindow();
+    long time = 1_700_000_000_000L;
+    long trades;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < 300_000; i++) {
+            trade();
+        }
+    }
+
+    @Benchmark
+    public long onTrade() {
+        trade();
+        return trades;
+    }
+
+    @Benchmark
+    public long readFiveMinutes() {
+        return tradeFlow.read(TradeFlow.Window.FIVE_MINUTES, time, flow);
+    }
+
+    private void trade() {
+        trades++;
+        tradeFlow.onTrade(10_000_000 + (trades & 63), 1 + (trades & 7), (trades & 1) == 0 ? BID : ASK, time += trades & 1);
+    }
+}
@@ -0,0 +1,121 @@
+package io.canalstreet.orderbook.md;
+
+import io.canalstreet.orderbook.data.Instrument;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static io.canalstreet.orderbook.md.TradeFlow.Window.FIVE_MINUTES;
+import static io.canalstreet.orderbook.md.TradeFlow.Window.MINUTE;
+import static io.canalstreet.orderbook.md.TradeFlow.Window.SECOND;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TradeFlowTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTCUSD").currency("USD").quantityScale(2).priceScale(2).tickSize(0.01f).pegIndexPrice(100_000).build();
+    TradeFlow tradeFlow = new TradeFlow(instrument);
+    TradeFlowWindow flow = new TradeFlowWindow();
+    TradeFlow.Window[] windows = TradeFlow.Window.values();
+    long start = 1_700_000_000_000L;
+
+    @Test
+    public void testOhlcvOfEachWindow() {
+        tradeFlow.onTrade(10_000_000, 100, BID, start);
+        tradeFlow.onTrade(10_000_500, 200, BID, start + 30_000);
+        tradeFlow.onTrade(9_999_000, 300, ASK, start + 59_200);
+        tradeFlow.onTrade(10_000_100, 400, BID, start + 59_900);
+
+        tradeFlow.read(SECOND, start + 59_900, flow);
+        assertEquals(2, flow.getTrades());
+        assertEquals(9_999_000, flow.getOpen());
+        assertEquals(10_000_100, flow.getHigh());
+        assertEquals(9_999_000, flow.getLow());
+        assertEquals(10_000_100, flow.getClose());
+        assertEquals(700, flow.getVolume());
+        assertEquals(100, flow.getSignedFlow());
+        assertEquals((9_999_000.0 * 300 + 10_000_100.0 * 400) / 700, flow.getVwap(), 1e-6);
+
+        tradeFlow.read(MINUTE, start + 59_900, flow);
+        assertEquals(4, flow.getTrades());
+        assertEquals(10_000_000, flow.getOpen());
+        assertEquals(10_000_500, flow.getHigh());
+        assertEquals(700, flow.getBuyVolume());
+        assertEquals(300, flow.getSellVolume());
+        assertEquals(start + 60_000, flow.getEndMillis());
+
+        // A minute on, the first trades rolled out of the minute but not out of the five minutes
+        tradeFlow.read(MINUTE, start + 91_000, flow);
+        assertEquals(2, flow.getTrades());
+        assertEquals(9_999_000, flow.getOpen());
+        tradeFlow.read(FIVE_MINUTES, start + 91_000, flow);
+        assertEquals(4, flow.getTrades());
+        assertEquals(400, flow.getSignedFlow());
+        tradeFlow.read(SECOND, start + 91_000, flow);
+        assertEquals(0, flow.getTrades());
+        assertEquals(0, flow.getClose());
+        assertTrue(Double.isNaN(flow.getVwap()));
+        assertEquals(4, tradeFlow.getTradeCount());
+    }
+
+    @Test
+    public void testRecycledBucketsHoldTheirNewPeriodOnly() {
+        // One trade per second for ten minutes, each bucket of the minute ring is reused ten times
+        for (int i = 0; i < 600; i++) {
+            tradeFlow.onTrade(10_000_000 + i, 1, i % 3 == 0 ? ASK : BID, start + i * 1_000L);
+        }
+        long now = start + 599_000;
+        tradeFlow.read(MINUTE, now, flow);
+        assertEquals(60, flow.getTrades());
+        assertEquals(10_000_540, flow.getOpen());
+        assertEquals(10_000_599, flow.getClose());
+        assertEquals(20, flow.getSellVolume());
+        tradeFlow.read(FIVE_MINUTES, now, flow);
+        assertEquals(300, flow.getTrades());
+        assertEquals(10_000_300, flow.getLow());
+
+        // A trade older than a ring's span is left out of it only
+        tradeFlow.onTrade(1, 1_000, ASK, now - 120_000);
+        tradeFlow.read(MINUTE, now, flow);
+        assertEquals(60, flow.getTrades());
+        tradeFlow.read(FIVE_MINUTES, now, flow);
+        assertEquals(301, flow.getTrades());
+        assertEquals(1, flow.getLow());
+    }
+
+    /**
+     * The window ends at the last trade when the venue's clock runs ahead of the reader's.
+     */
+    @Test
+    public void testReadAheadOfLocalClock() {
+        tradeFlow.onTrade(10_000_000, 5, BID, start + 250);
+        tradeFlow.read(SECOND, start, flow);
+        assertEquals(1, flow.getTrades());
+        assertEquals(start + 300, flow.getEndMillis());
+    }
+
+    @Test
+    public void testZeroAllocationInSteadyState() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.getCurrentThreadAllocatedBytes();
+        flow(0, 400_000);
+        // A round may still catch the JIT swapping code in, steady state is a round allocating nothing
+        long allocated = -1;
+        for (int round = 1; round <= 3 && allocated != 0; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            flow(round * 400_000, 100_000);
+            allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        }
+        assertEquals(0, allocated, "Bytes allocated adding and reading 100000 trades");
+    }
+
+    private void flow(int from, int trades) {
+        for (int i = from; i < from + trades; i++) {
+            long time = start + i * 7L;
+            tradeFlow.onTrade(10_000_000 + i % 50, 1 + i % 9, (i & 1) == 0 ? BID : ASK, time);
+            tradeFlow.read(windows[i % windows.length], time, flow);
+        }
+    }
+}
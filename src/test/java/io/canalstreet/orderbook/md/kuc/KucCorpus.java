@@ -0,0 +1,66 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.QuotesL2Event;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * KuCoin BTC-USDT level2 frames replayed by the benchmarks, one frame per line of
+ * {@code kuc/level2-btc-usdt.txt}, lines starting with # are comments.
+ */
+public class KucCorpus {
+
+    public static final Instrument BTC_USDT = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+
+    public static List<String> frames() {
+        List<String> frames = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Objects.requireNonNull(KucCorpus.class.getResourceAsStream("/kuc/level2-btc-usdt.txt")), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.isEmpty() && line.charAt(0) != '#') frames.add(line);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return frames;
+    }
+
+    /**
+     * A new instance of {@link #BTC_USDT}, for a service to register with its own registry.
+     */
+    public static Instrument newBtcUsdt() {
+        return BTC_USDT.toBuilder().id(-1).build();
+    }
+
+    /**
+     * Topics of the corpus mapped to {@link #BTC_USDT}.
+     */
+    public static KucTopicMap<Instrument> topics() {
+        KucTopicMap<Instrument> topics = new KucTopicMap<>();
+        topics.put("/market/level2:BTC-USDT", BTC_USDT);
+        topics.put("/spotMarket/level2Depth5:BTC-USDT", BTC_USDT);
+        return topics;
+    }
+
+    /**
+     * The corpus decoded, one event per frame.
+     */
+    public static QuotesL2Event[] events() {
+        List<String> frames = frames();
+        KucMessageDecoder decoder = new KucMessageDecoder(topics());
+        QuotesL2Event[] events = new QuotesL2Event[frames.size()];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new QuotesL2Event();
+            decoder.onText(frames.get(i), true, events[i]);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,454 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentTable;
+import io.canalstreet.orderbook.md.L2BookType;
+import io.canalstreet.orderbook.md.L2BookView;
+import io.canalstreet.orderbook.md.QuotesL2Event;
+import io.canalstreet.orderbook.md.QuotesL2Listener;
+import lombok.Builder;
+import lombok.Getter;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic KuCoin level2 feed pushed through a {@link KucStandIn}. Each symbol keeps a book
+ * whose mid takes a random walk, with levels set and removed around it. Symbols of
+ * {@link L2BookType#SPARSE} books get {@code trade.l2update} frames and their REST snapshots
+ * are served from the book at its sequence, those of {@link L2BookType#RING} books get
+ * {@code level2Depth5} frames at most once per millisecond each.
+ * <p>
+ * The rate is paced on one thread and can be multiplied in bursts. Gaps are updates applied to
+ * the book but never sent, reconnect storms drop all WebSockets of the stand-in at once.
+ * End to end latency is taken from the send of a frame to the publication of its update.
+ */
+class KucFeedGenerator implements AutoCloseable {
+    private static final int SENT_RING = 1024;
+    private static final int LEVELS = 20;
+    private static final int MAX_LEVELS = 200;
+    private static final long LOWEST_NANOS = 100;
+    private static final long HIGHEST_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    @Builder
+    @Getter
+    static class Settings {
+        @Builder.Default
+        private final int symbols = 100;
+        /**
+         * Share of the symbols fed by depth snapshots into ring books, the others by incremental updates.
+         */
+        @Builder.Default
+        private final double depthShare = 0.5;
+        /**
+         * Frames per second outside of bursts, over all symbols.
+         */
+        @Builder.Default
+        private final int rate = 10_000;
+        @Builder.Default
+        private final int burstFactor = 1;
+        @Builder.Default
+        private final long burstEveryMillis = 0;
+        @Builder.Default
+        private final long burstMillis = 0;
+        /**
+         * Chance of an incremental update being lost.
+         */
+        @Builder.Default
+        private final double gapProbability = 0;
+        /**
+         * Chance of the mid moving by a tick with an update.
+         */
+        @Builder.Default
+        private final double walkProbability = 0.1;
+        @Builder.Default
+        private final long stormEveryMillis = 0;
+        /**
+         * Storms close the WebSockets with a close frame, or reset them.
+         */
+        @Builder.Default
+        private final boolean gracefulStorms = true;
+        @Builder.Default
+        private final long seed = 42;
+    }
+
+    private final KucStandIn standIn;
+    private final Settings settings;
+    private final Random random;
+    private final List<Feed> feeds = new ArrayList<>();
+    private final Map<String, Feed> feedsBySymbol = new ConcurrentHashMap<>();
+    private final InstrumentTable<Feed> feedsByInstrument = new InstrumentTable<>();
+    private final Recorder latency = new Recorder(LOWEST_NANOS, HIGHEST_NANOS, 3);
+    private final Histogram latencyTotal = new Histogram(LOWEST_NANOS, HIGHEST_NANOS, 3);
+    private final StringBuilder frame = new StringBuilder(1024);
+    private Thread thread;
+    private volatile boolean running;
+    private volatile long sent;
+    private volatile long dropped;
+    private volatile long gaps;
+    private volatile long storms;
+    private final AtomicLong published = new AtomicLong();
+
+    KucFeedGenerator(KucStandIn standIn, Settings settings) {
+        this.standIn = standIn;
+        this.settings = settings;
+        this.random = new Random(settings.seed);
+        int depthSymbols = (int) Math.round(settings.symbols * settings.depthShare);
+        for (int i = 0; i < settings.symbols; i++) {
+            String symbol = "S%04d-USDT".formatted(i);
+            double peg = 10 + random.nextInt(1_000);
+            Instrument instrument = Instrument.builder().symbol(symbol).currency("USDT").priceScale(2).quantityScale(4)
+                    .tickSize(0.01f).pegIndexPrice((float) peg).build();
+            Feed feed = new Feed(instrument, i < depthSymbols ? L2BookType.RING : L2BookType.SPARSE, Math.round(peg * 100));
+            feeds.add(feed);
+            feedsBySymbol.put(symbol, feed);
+        }
+        standIn.serveSnapshots(this::snapshot);
+    }
+
+    /**
+     * Instruments fed into books of the type, to subscribe.
+     */
+    List<Instrument> getInstruments(L2BookType bookType) {
+        List<Instrument> instruments = new ArrayList<>();
+        for (Feed feed : feeds) {
+            if (feed.bookType == bookType) instruments.add(feed.instrument);
+        }
+        return instruments;
+    }
+
+    /**
+     * Records the latency of the updates the generator sent, once published by the service.
+     * Created once the instruments were subscribed, and so registered with the service.
+     */
+    QuotesL2Listener latencyListener() {
+        for (Feed feed : feeds) {
+            feedsByInstrument.put(feed.instrument, feed);
+        }
+        return this::onPublished;
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this::run, "kuc-feed-generator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sends one more update of every symbol, for the books to catch up with the last gap or
+     * storm once the generator was stopped.
+     */
+    void sendRound() throws InterruptedException {
+        for (Feed feed : feeds) {
+            while (!feed.step(random, false)) {
+                Thread.sleep(1);
+            }
+        }
+        standIn.flush();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        if (thread != null) thread.join();
+    }
+
+    List<Feed> getFeeds() {
+        return Collections.unmodifiableList(feeds);
+    }
+
+    long getSent() {
+        return sent;
+    }
+
+    /**
+     * Frames not sent as no connection had their topic subscribed, during storms.
+     */
+    long getDropped() {
+        return dropped;
+    }
+
+    long getGaps() {
+        return gaps;
+    }
+
+    long getStorms() {
+        return storms;
+    }
+
+    long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * End to end latency of all updates published so far.
+     */
+    synchronized Histogram getLatency() {
+        latencyTotal.add(latency.getIntervalHistogram());
+        return latencyTotal.copy();
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        long last = start;
+        long nextStorm = settings.stormEveryMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(settings.stormEveryMillis) : Long.MAX_VALUE;
+        double credit = 0;
+        int next = 0;
+        while (running) {
+            long now = System.nanoTime();
+            credit += (now - last) * 1e-9 * settings.rate * burst(now - start);
+            last = now;
+            // A stalled thread does not make up for more than 10 ms of frames at once
+            credit = Math.min(credit, settings.rate * burst(now - start) / 100.0 + 1);
+            if (now >= nextStorm) {
+                standIn.dropConnections(settings.gracefulStorms);
+                storms++;
+                nextStorm += TimeUnit.MILLISECONDS.toNanos(settings.stormEveryMillis);
+            }
+            if (credit < 1) {
+                LockSupport.parkNanos(50_000);
+                continue;
+            }
+            int attempts = 0;
+            while (credit >= 1 && attempts++ < feeds.size()) {
+                Feed feed = feeds.get(next);
+                next = next + 1 == feeds.size() ? 0 : next + 1;
+                // Depth topics of symbols sent within the millisecond pass their turn
+                if (feed.step(random, random.nextDouble() < settings.gapProbability)) {
+                    credit--;
+                    attempts = 0;
+                }
+            }
+            standIn.flush();
+        }
+    }
+
+    private double burst(long elapsedNanos) {
+        if (settings.burstEveryMillis <= 0 || settings.burstFactor <= 1) return 1;
+        long phase = TimeUnit.NANOSECONDS.toMillis(elapsedNanos) % settings.burstEveryMillis;
+        return phase < settings.burstMillis ? settings.burstFactor : 1;
+    }
+
+    private String snapshot(String symbol) {
+        Feed feed = feedsBySymbol.get(symbol);
+        return feed == null ? null : feed.snapshot();
+    }
+
+    private void onPublished(QuotesL2Event event, L2BookView book) {
+        Feed feed = feedsByInstrument.get(event.getInstrument());
+        if (feed == null) return;
+        long sentNanos = feed.sentNanos(event.getSequenceEnd());
+        if (sentNanos > 0) {
+            latency.recordValue(Math.max(LOWEST_NANOS, Math.min(System.nanoTime() - sentNanos, HIGHEST_NANOS)));
+            published.incrementAndGet();
+        }
+    }
+
+    /**
+     * Book and frames of one symbol, written by the generator thread under its lock, which the
+     * REST snapshots take too.
+     */
+    class Feed {
+        private final Instrument instrument;
+        private final L2BookType bookType;
+        private final String topic;
+        private final NavigableMap<Long, Long> bids = new TreeMap<>(Collections.reverseOrder());
+        private final NavigableMap<Long, Long> asks = new TreeMap<>();
+        // Sequences or depth timestamps of the last frames sent and their send times
+        private final AtomicLongArray sentKeys = new AtomicLongArray(SENT_RING);
+        private final long[] sentTimes = new long[SENT_RING];
+        private final List<long[]> changes = new ArrayList<>();
+        private long mid;
+        private long sequence = 1_000;
+        private long lastTimestamp;
+
+        private Feed(Instrument instrument, L2BookType bookType, long mid) {
+            this.instrument = instrument;
+            this.bookType = bookType;
+            this.topic = KucWebSocketAdapter.topic(instrument, bookType);
+            this.mid = mid;
+            for (int i = 1; i <= LEVELS; i++) {
+                bids.put(mid - i, 1 + (long) random.nextInt(10_000_000));
+                asks.put(mid + i, 1 + (long) random.nextInt(10_000_000));
+            }
+        }
+
+        Instrument getInstrument() {
+            return instrument;
+        }
+
+        L2BookType getBookType() {
+            return bookType;
+        }
+
+        synchronized long getSequence() {
+            return sequence;
+        }
+
+        synchronized long getBestBid() {
+            return bids.firstKey();
+        }
+
+        synchronized long getBestAsk() {
+            return asks.firstKey();
+        }
+
+        synchronized long getBestBidSize() {
+            return bids.firstEntry().getValue();
+        }
+
+        /**
+         * Moves the book on and sends its frame, unless lost.
+         * @return false if a depth frame of the symbol was sent within the same millisecond already
+         */
+        private boolean step(Random random, boolean lost) {
+            String text;
+            long key;
+            synchronized (this) {
+                long timestamp = System.currentTimeMillis();
+                if (bookType == L2BookType.RING && timestamp <= lastTimestamp) return false;
+                changes.clear();
+                if (random.nextDouble() < settings.walkProbability) {
+                    // Levels the mid moves onto are taken off, the book stays uncrossed
+                    mid += random.nextBoolean() ? 1 : -1;
+                    if (asks.remove(mid) != null) changes.add(new long[]{1, mid, 0});
+                    if (bids.remove(mid) != null) changes.add(new long[]{0, mid, 0});
+                }
+                boolean bid = random.nextBoolean();
+                long price = bid ? mid - 1 - random.nextInt(LEVELS) : mid + 1 + random.nextInt(LEVELS);
+                long size = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(10_000_000);
+                set(bid, price, size);
+                // Removing a level which was not there changes nothing, it is set instead
+                if (changes.isEmpty()) set(bid, price, 1 + random.nextInt(10_000_000));
+                // Far levels are taken off once the walk left too many behind
+                NavigableMap<Long, Long> side = bid ? bids : asks;
+                if (side.size() > MAX_LEVELS) set(bid, side.lastKey(), 0);
+                if (bids.isEmpty()) set(true, mid - 1, 1);
+                if (asks.isEmpty()) set(false, mid + 1, 1);
+                if (bookType == L2BookType.RING) {
+                    lastTimestamp = timestamp;
+                    key = timestamp;
+                    text = depthFrame(timestamp);
+                } else {
+                    long first = sequence + 1;
+                    sequence += changes.size();
+                    key = sequence;
+                    text = lost ? null : updateFrame(first, timestamp);
+                }
+            }
+            if (text == null) {
+                gaps++;
+                return true;
+            }
+            long now = System.nanoTime();
+            sentTimes[(int) (key & (SENT_RING - 1))] = now;
+            sentKeys.lazySet((int) (key & (SENT_RING - 1)), key);
+            if (standIn.send(topic, text.getBytes(StandardCharsets.US_ASCII))) {
+                sent++;
+            } else {
+                dropped++;
+            }
+            return true;
+        }
+
+        private void set(boolean bid, long price, long size) {
+            NavigableMap<Long, Long> side = bid ? bids : asks;
+            if (size == 0) {
+                if (side.remove(price) == null) return;
+            } else {
+                side.put(price, size);
+            }
+            changes.add(new long[]{bid ? 0 : 1, price, size});
+        }
+
+        /**
+         * Send time of the frame with the sequence, 0 if it was not sent lately.
+         */
+        private long sentNanos(long key) {
+            int index = (int) (key & (SENT_RING - 1));
+            long time = sentTimes[index];
+            return sentKeys.get(index) == key ? time : 0;
+        }
+
+        private String updateFrame(long first, long timestamp) {
+            StringBuilder out = frame;
+            out.setLength(0);
+            out.append("{\"type\":\"message\",\"topic\":\"").append(topic)
+                    .append("\",\"subject\":\"trade.l2update\",\"data\":{\"changes\":{\"asks\":[");
+            appendChanges(out, 1, first);
+            out.append("],\"bids\":[");
+            appendChanges(out, 0, first);
+            out.append("]},\"sequenceEnd\":").append(sequence).append(",\"sequenceStart\":").append(first)
+                    .append(",\"symbol\":\"").append(instrument.getSymbol()).append("\",\"time\":").append(timestamp).append("}}");
+            return out.toString();
+        }
+
+        private void appendChanges(StringBuilder out, int side, long first) {
+            boolean separator = false;
+            for (int i = 0; i < changes.size(); i++) {
+                long[] change = changes.get(i);
+                if (change[0] != side) continue;
+                if (separator) out.append(',');
+                out.append("[\"");
+                appendDecimal(out, change[1], 2).append("\",\"");
+                appendDecimal(out, change[2], 4).append("\",\"").append(first + i).append("\"]");
+                separator = true;
+            }
+        }
+
+        private String depthFrame(long timestamp) {
+            StringBuilder out = frame;
+            out.setLength(0);
+            out.append("{\"type\":\"message\",\"topic\":\"").append(topic).append("\",\"subject\":\"level2\",\"data\":{\"asks\":");
+            appendLevels(out, asks, 5);
+            out.append(",\"bids\":");
+            appendLevels(out, bids, 5);
+            out.append(",\"timestamp\":").append(timestamp).append("}}");
+            return out.toString();
+        }
+
+        private synchronized String snapshot() {
+            StringBuilder out = new StringBuilder(8 * 1024);
+            out.append("{\"code\":\"200000\",\"data\":{\"time\":").append(System.currentTimeMillis())
+                    .append(",\"sequence\":\"").append(sequence).append("\",\"bids\":");
+            appendLevels(out, bids, 100);
+            out.append(",\"asks\":");
+            appendLevels(out, asks, 100);
+            return out.append("}}").toString();
+        }
+
+        private static void appendLevels(StringBuilder out, NavigableMap<Long, Long> side, int depth) {
+            out.append('[');
+            int n = 0;
+            for (Map.Entry<Long, Long> level : side.entrySet()) {
+                if (n++ == depth) break;
+                if (n > 1) out.append(',');
+                out.append("[\"");
+                appendDecimal(out, level.getKey(), 2).append("\",\"");
+                appendDecimal(out, level.getValue(), 4).append("\"]");
+            }
+            out.append(']');
+        }
+    }
+
+    private static StringBuilder appendDecimal(StringBuilder out, long scaled, int scale) {
+        long unit = scale == 2 ? 100 : 10_000;
+        out.append(scaled / unit).append('.');
+        String fraction = Long.toString(scaled % unit + unit);
+        return out.append(fraction, 1, fraction.length());
+    }
+}
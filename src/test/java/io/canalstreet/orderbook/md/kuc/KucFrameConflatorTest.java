@@ -0,0 +1,81 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.md.FrameDecoder;
+import io.canalstreet.orderbook.md.QuotesL2Pipeline;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static io.canalstreet.orderbook.md.kuc.KucMarketDataServiceTest.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class KucFrameConflatorTest {
+
+    Instrument btc = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    Instrument eth = Instrument.builder().symbol("ETH-USDT").currency("USDT").quantityScale(8).priceScale(2).tickSize(0.01f).pegIndexPrice(3_000).build();
+
+    {
+        InstrumentRegistry registry = new InstrumentRegistry();
+        registry.register("KUC", btc);
+        registry.register("KUC", eth);
+    }
+
+    @Test
+    public void testSnapshotsConflatedWhileLagging() throws Exception {
+        KucTopicMap<Instrument> subscriptions = new KucTopicMap<>();
+        subscriptions.put("/spotMarket/level2Depth5:BTC-USDT", btc);
+        subscriptions.put("/market/level2:ETH-USDT", eth);
+        Queue<String> decoded = new ConcurrentLinkedQueue<>();
+        CountDownLatch applying = new CountDownLatch(1);
+        FrameDecoder decoder = (frame, offset, length, event) -> {
+            decoded.add(new String(frame, offset, length).replaceAll(".*\"data\":(\\d+).*", "$1"));
+            return true;
+        };
+        try (QuotesL2Pipeline pipeline = new QuotesL2Pipeline("test", 16, decoder, event -> {}, event -> {
+            try {
+                applying.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, event -> {})) {
+            pipeline.start();
+            KucFrameConflator conflator = new KucFrameConflator(pipeline, subscriptions, 4);
+
+            // The apply stage is stuck from the first frame, the backlog reaches 4 with the 4th one
+            for (int i = 1; i <= 10; i++) {
+                conflator.publish(frame("/spotMarket/level2Depth5:BTC-USDT", i), i);
+            }
+            // Incremental frames are never held
+            char[] increment = frame("/market/level2:ETH-USDT", 11).toCharArray();
+            conflator.publish(increment, 0, increment.length, 11);
+            conflator.publish(frame("/spotMarket/level2Depth5:BTC-USDT", 12), 12);
+            assertEquals(5, pipeline.backlog());
+            assertEquals(1, conflator.getHeldCount());
+            assertEquals(7, conflator.getHeldFrames());
+            assertEquals(6, conflator.getConflated());
+            assertEquals(6, conflator.getConflated(btc));
+            assertEquals(0, conflator.getConflated(eth));
+
+            // Once the pipeline caught up only the newest snapshot is published
+            applying.countDown();
+            await(() -> decoded.size() == 6);
+            assertEquals(List.of("1", "2", "3", "4", "11", "12"), List.copyOf(decoded));
+            assertEquals(0, conflator.getHeldCount());
+
+            conflator.publish(frame("/spotMarket/level2Depth5:BTC-USDT", 13), 13);
+            await(() -> decoded.size() == 7);
+            assertEquals(6, conflator.getConflated());
+            conflator.close();
+        }
+    }
+
+    static String frame(String topic, int data) {
+        return """
+                {"type":"message","topic":"%s","subject":"level2","data":%d}""".formatted(topic, data);
+    }
+}
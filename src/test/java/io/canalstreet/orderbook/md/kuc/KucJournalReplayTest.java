@@ -0,0 +1,105 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.md.FrameJournal;
+import io.canalstreet.orderbook.md.L2BookType;
+import io.canalstreet.orderbook.md.L2BookView;
+import io.canalstreet.orderbook.md.QuotesL2Event;
+import io.canalstreet.orderbook.md.QuotesL2Snapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static io.canalstreet.orderbook.md.kuc.KucMarketDataServiceTest.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KucJournalReplayTest {
+
+    static final String SNAPSHOT = """
+            {"code":"200000","data":{"time":1663747970273,"sequence":"14103860","bids":[["99999.9","1"],["99999.0","2"]],"asks":[["100000.1","1"],["100001.0","2"]]}}""";
+
+    Instrument instrument = KucCorpus.newBtcUsdt();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testReplayRebuildsBook() throws Exception {
+        List<String> frames = KucCorpus.frames();
+        QuotesL2Snapshot captured = new QuotesL2Snapshot(2_000);
+        long capturedSequence;
+        try (KucStandIn standIn = new KucStandIn()) {
+            KucMarketDataService live = new KucMarketDataService(new KucRestAdapter(standIn.httpUrl(), standIn.httpUrl()),
+                    new KucWebSocketAdapter(standIn.wsUrl(), standIn.wsUrl()),
+                    KucMarketDataService.Settings.builder().journal(FrameJournal.open(dir, KucMarketDataService.JOURNAL_NAME, 64 << 10)).build(),
+                    new InstrumentRegistry());
+            standIn.holdSnapshot();
+            live.subscribe(instrument, L2BookType.SPARSE);
+            standIn.awaitReceived();
+            for (int i = 0; i < 20; i++) standIn.send(frames.get(i));
+            await(() -> standIn.getSnapshotRequests() == 1);
+            standIn.releaseSnapshot(SNAPSHOT);
+            await(() -> live.getResyncCount(instrument) == 1);
+            for (int i = 20; i < frames.size(); i++) standIn.send(frames.get(i));
+            L2BookView book = live.getQuotesL2(instrument);
+            long lastSequence = Arrays.stream(KucCorpus.events()).filter(event -> !event.isSnapshot()).mapToLong(QuotesL2Event::getSequenceEnd).max().orElseThrow();
+            await(() -> book.getLastSequenceEnd() == lastSequence && live.isIdle());
+            book.readSnapshot(captured);
+            capturedSequence = book.getLastSequenceEnd();
+            live.close();
+        }
+
+        // The replay builds its instruments anew, as a process reading the journal later would
+        Instrument replayedInstrument = KucCorpus.newBtcUsdt();
+        try (KucJournalReplay replay = new KucJournalReplay(dir)) {
+            replay.register(replayedInstrument, L2BookType.SPARSE);
+            assertEquals(frames.size(), replay.run(KucJournalReplay.Speed.MAX));
+            L2BookView book = replay.getService().getQuotesL2(replayedInstrument);
+            await(() -> book.getLastSequenceEnd() == capturedSequence);
+            QuotesL2Snapshot replayed = new QuotesL2Snapshot(2_000);
+            book.readSnapshot(replayed);
+            assertEquals(1, replay.getService().getResyncCount(replayedInstrument));
+            assertTrue(captured.getCount(BID) > 10);
+            assertSameLevels(captured, replayed);
+        }
+    }
+
+    @Test
+    public void testStepped() throws Exception {
+        char[] topic = "/market/level2:BTC-USDT".toCharArray();
+        List<String> frames = KucCorpus.frames();
+        try (FrameJournal journal = FrameJournal.open(dir, KucMarketDataService.JOURNAL_NAME, 64 << 10)) {
+            for (int i = 0; i < 5; i++) {
+                char[] frame = frames.get(i).toCharArray();
+                journal.append(FrameJournal.FRAME, i, topic, 0, topic.length, frame, 0, frame.length);
+            }
+        }
+        try (KucJournalReplay replay = new KucJournalReplay(dir)) {
+            replay.register(instrument, L2BookType.SPARSE);
+            assertTrue(replay.step());
+            assertTrue(replay.step());
+            assertEquals(2, replay.getFrames());
+            assertEquals(3, replay.run(KucJournalReplay.Speed.RECORDED));
+        }
+    }
+
+    static void assertSameLevels(QuotesL2Snapshot expected, QuotesL2Snapshot actual) {
+        assertEquals(expected.getCount(BID), actual.getCount(BID));
+        assertEquals(expected.getCount(ASK), actual.getCount(ASK));
+        for (int i = 0; i < expected.getCount(BID); i++) {
+            assertEquals(expected.getPrice(BID, i), actual.getPrice(BID, i));
+            assertEquals(expected.getQuantity(BID, i), actual.getQuantity(BID, i));
+        }
+        for (int i = 0; i < expected.getCount(ASK); i++) {
+            assertEquals(expected.getPrice(ASK, i), actual.getPrice(ASK, i));
+            assertEquals(expected.getQuantity(ASK, i), actual.getQuantity(ASK, i));
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.md.L2BookType;
+import io.canalstreet.orderbook.md.L2BookView;
+import io.canalstreet.orderbook.md.QuotesL3Book;
+import io.canalstreet.orderbook.md.TradeFlow;
+import io.canalstreet.orderbook.md.TradeFlowWindow;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KucMarketDataServiceTest {
+
+    Instrument instrument = Instrument.builder().symbol("ETH-USDT").currency("USDT").quantityScale(4).priceScale(1).tickSize(0.1f).pegIndexPrice(100).build();
+    KucStandIn standIn;
+    KucMarketDataService service;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        standIn = new KucStandIn();
+        service = new KucMarketDataService(new KucRestAdapter(standIn.httpUrl(), standIn.httpUrl()),
+                new KucWebSocketAdapter(standIn.wsUrl(), standIn.wsUrl()), KucMarketDataService.Settings.builder().build(), new InstrumentRegistry());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        service.close();
+        standIn.close();
+    }
+
+    @Test
+    public void testResyncOnSubscribeAndGap() throws Exception {
+        standIn.holdSnapshot();
+        service.subscribe(instrument, L2BookType.SPARSE);
+        assertTrue(standIn.awaitReceived().contains("/market/level2:ETH-USDT"));
+        L2BookView book = service.getQuotesL2(instrument);
+
+        // Not initialized: updates are cached until the snapshot at 105 arrives
+        standIn.send(update(103, "98.0", "3"));
+        standIn.send(update(104, "99.0", "4"));
+        standIn.send(update(105, "98.0", "0"));
+        standIn.send(update(106, "98.5", "6"));
+        standIn.send(update(107, "99.9", "0"));
+        standIn.send(update(108, "99.5", "8"));
+        await(() -> standIn.getSnapshotRequests() == 1);
+        standIn.releaseSnapshot(snapshot(105, "[[\"100.0\",\"1\"],[\"99.9\",\"2\"]]", "[[\"100.1\",\"1\"]]"));
+        await(() -> service.getResyncCount(instrument) == 1);
+
+        assertEquals(instrument.priceToInt(100.0), book.getBestBid());
+        assertEquals(0, book.getQtyAt(instrument.priceToInt(99.0)));
+        assertEquals(instrument.qtyToInt(6), book.getQtyAt(instrument.priceToInt(98.5)));
+        assertEquals(0, book.getQtyAt(instrument.priceToInt(99.9)));
+        assertEquals(instrument.qtyToInt(8), book.getQtyAt(instrument.priceToInt(99.5)));
+        assertEquals(108, book.getLastSequenceEnd());
+
+        // Live again, then a gap from 108 to 120 triggers a second resync
+        standIn.holdSnapshot();
+        standIn.send(update(109, "99.4", "9"));
+        standIn.send(update(120, "97.0", "20"));
+        standIn.send(update(121, "96.0", "21"));
+        standIn.send(update(122, "96.0", "0"));
+        standIn.send(update(123, "95.0", "23"));
+        await(() -> standIn.getSnapshotRequests() == 2);
+        standIn.releaseSnapshot(snapshot(122, "[[\"100.0\",\"5\"]]", "[[\"100.1\",\"5\"]]"));
+        await(() -> service.getResyncCount(instrument) == 2);
+
+        assertEquals(instrument.qtyToInt(5), book.getBestBidSize());
+        assertEquals(0, book.getQtyAt(instrument.priceToInt(99.4)));
+        assertEquals(0, book.getQtyAt(instrument.priceToInt(97.0)));
+        assertEquals(0, book.getQtyAt(instrument.priceToInt(96.0)));
+        assertEquals(instrument.qtyToInt(23), book.getQtyAt(instrument.priceToInt(95.0)));
+        assertTrue(service.getLastResyncNanos(instrument) > 0);
+
+        standIn.send(update(124, "95.0", "0"));
+        await(() -> book.getLastSequenceEnd() == 124);
+        assertEquals(0, book.getQtyAt(instrument.priceToInt(95.0)));
+    }
+
+    /**
+     * Failed token requests and handshakes are retried off the listener thread until the topics are subscribed again.
+     */
+    @Test
+    public void testReconnectRetriedUntilItSucceeds() throws Exception {
+        standIn.releaseSnapshot(snapshot(105, "[[\"100.0\",\"1\"]]", "[[\"100.1\",\"1\"]]"));
+        service.subscribe(instrument, L2BookType.SPARSE);
+        assertTrue(standIn.awaitReceived().contains("/market/level2:ETH-USDT"));
+        await(() -> standIn.getTopicCount() == 1);
+        int tokenRequests = standIn.getTokenRequests();
+
+        standIn.failTokens(2);
+        standIn.refuseUpgrades(2);
+        standIn.dropConnections(false);
+        assertTrue(standIn.awaitReceived().contains("/market/level2:ETH-USDT"));
+        await(() -> standIn.getTopicCount() == 1);
+        // Two failed tokens, then a fresh token for each of the two refused handshakes and the last one
+        assertEquals(tokenRequests + 5, standIn.getTokenRequests());
+        assertEquals(1, standIn.getConnectionCount());
+    }
+
+    @Test
+    public void testTradesAggregatedWhileBookResyncs() throws Exception {
+        standIn.holdSnapshot();
+        service.subscribe(instrument, L2BookType.SPARSE);
+        assertTrue(standIn.awaitReceived().contains("/market/level2:ETH-USDT"));
+        assertNull(service.getTradeFlow(instrument));
+        service.subscribeTrades(List.of(instrument));
+        assertTrue(standIn.awaitReceived().contains("/market/match:ETH-USDT"));
+        TradeFlow tradeFlow = service.getTradeFlow(instrument);
+
+        // The book waits for its snapshot, trades are aggregated regardless
+        long now = System.currentTimeMillis();
+        standIn.send(update(103, "98.0", "3"));
+        standIn.send(match(now - 2_000, "buy", "100.5", "2"));
+        standIn.send(match(now - 500, "sell", "100.0", "1.5"));
+        standIn.send(match(now, "buy", "101.0", "0.5"));
+        await(() -> tradeFlow.getTradeCount() == 3);
+        assertFalse(service.getQuotesL2(instrument).isInitialized());
+
+        TradeFlowWindow flow = new TradeFlowWindow();
+        tradeFlow.read(TradeFlow.Window.MINUTE, now, flow);
+        assertEquals(3, flow.getTrades());
+        assertEquals(instrument.priceToInt(100.5), flow.getOpen());
+        assertEquals(instrument.priceToInt(100.0), flow.getLow());
+        assertEquals(instrument.priceToInt(101.0), flow.getClose());
+        assertEquals(instrument.qtyToInt(4), flow.getVolume());
+        assertEquals(instrument.qtyToInt(1), flow.getSignedFlow());
+        tradeFlow.read(TradeFlow.Window.SECOND, now, flow);
+        assertEquals(2, flow.getTrades());
+        assertEquals(instrument.qtyToInt(-1), flow.getSignedFlow());
+    }
+
+    @Test
+    public void testBooksConsolidatedByUnderlying() throws Exception {
+        Instrument underlying = Instrument.builder().symbol("ETH").currency("USDT").quantityScale(4).priceScale(2).build();
+        Instrument usdt = instrument.toBuilder().underlying(underlying).build();
+        Instrument usdc = instrument.toBuilder().symbol("ETH-USDC").currency("USDC").underlying(underlying).build();
+        service.subscribe(List.of(usdt, usdc), L2BookType.RING);
+        standIn.awaitReceived();
+        assertEquals(underlying, service.findUnderlying("ETH"));
+        assertNull(service.findUnderlying("ETH-USDT"));
+        L2BookView book = service.getConsolidatedL2(underlying);
+        assertFalse(book.isInitialized());
+
+        long timestamp = System.currentTimeMillis();
+        standIn.send(KucWebSocketAdapterTest.depth5("ETH-USDT", timestamp));
+        standIn.send(KucWebSocketAdapterTest.depth5("ETH-USDC", timestamp));
+        await(() -> book.getBestBidSize() == underlying.qtyToInt(4));
+        assertTrue(book.isInitialized());
+        assertEquals(underlying.priceToInt(99.9), book.getBestBid());
+        assertEquals(underlying.priceToInt(100.1), book.getBestAsk());
+        assertEquals(-underlying.qtyToInt(2), book.getBestAskSize());
+    }
+
+    @Test
+    public void testOrderBookBuiltFromLevel3() throws Exception {
+        service.subscribe(instrument, L2BookType.L3);
+        assertTrue(standIn.awaitReceived().contains("/spotMarket/level3:ETH-USDT"));
+        QuotesL3Book book = (QuotesL3Book) service.getQuotesL2(instrument);
+
+        standIn.send(order("received", 11, "\"orderId\":\"a1\""));
+        standIn.send(order("open", 12, "\"orderId\":\"a1\",\"side\":\"buy\",\"price\":\"99.9\",\"size\":\"2\""));
+        standIn.send(order("open", 13, "\"orderId\":\"a2\",\"side\":\"buy\",\"price\":\"99.9\",\"size\":\"3\""));
+        standIn.send(order("open", 14, "\"orderId\":\"a3\",\"side\":\"sell\",\"price\":\"100.1\",\"size\":\"1\""));
+        standIn.send(order("match", 15, "\"makerOrderId\":\"a1\",\"takerOrderId\":\"a4\",\"side\":\"buy\",\"price\":\"99.9\",\"size\":\"0.5\""));
+        standIn.send(order("done", 16, "\"orderId\":\"a3\",\"reason\":\"canceled\""));
+        // Opening a resting order again is rejected and counted
+        standIn.send(order("open", 17, "\"orderId\":\"a2\",\"side\":\"buy\",\"price\":\"99.8\",\"size\":\"1\""));
+        await(() -> book.getLastSequenceEnd() == 16 && service.getRejectedOpenCount(instrument) == 1);
+        assertEquals(2, book.getOrderCount());
+        assertEquals(999, book.getBestBid());
+        assertEquals(45_000, book.getBestBidSize());
+        assertEquals(0, book.getBestAskSize());
+        // Orders resting ahead of the subscription are missing, the book is not counted as initialized
+        assertFalse(book.isInitialized());
+        assertEquals(0, service.getStartupNanos(instrument));
+        // The book never asked for a level2 snapshot
+        assertEquals(0, standIn.getSnapshotRequests());
+    }
+
+    @Test
+    public void testWarmRestartFromCheckpoint(@TempDir Path dir) throws Exception {
+        service.close();
+        service = checkpointedService(dir);
+        standIn.holdSnapshot();
+        service.subscribe(instrument, L2BookType.SPARSE);
+        assertTrue(standIn.awaitReceived().contains("/market/level2:ETH-USDT"));
+        standIn.send(update(103, "98.0", "3"));
+        await(() -> standIn.getSnapshotRequests() == 1);
+        standIn.releaseSnapshot(snapshot(102, "[[\"100.0\",\"1\"]]", "[[\"100.1\",\"1\"]]"));
+        await(() -> service.getResyncCount(instrument) == 1);
+        standIn.send(update(104, "99.0", "4"));
+        await(() -> service.getQuotesL2(instrument).getLastSequenceEnd() == 104);
+        assertTrue(service.getStartupNanos(instrument) > 0);
+        assertEquals(0, service.getRestoreNanos(instrument));
+        service.close();
+
+        // Restored ahead of any frame, then carried on by the live feed without a snapshot
+        service = restartedService(dir);
+        service.subscribe(instrument, L2BookType.SPARSE);
+        L2BookView book = service.getQuotesL2(instrument);
+        assertTrue(service.getRestoreNanos(instrument) > 0);
+        assertEquals(0, service.getStartupNanos(instrument));
+        assertEquals(104, book.getLastSequenceEnd());
+        assertEquals(instrument.priceToInt(100.0), book.getBestBid());
+        assertEquals(instrument.qtyToInt(3), book.getQtyAt(instrument.priceToInt(98.0)));
+        assertEquals(instrument.qtyToInt(4), book.getQtyAt(instrument.priceToInt(99.0)));
+        assertTrue(standIn.awaitReceived().contains("/market/level2:ETH-USDT"));
+        standIn.send(update(105, "98.0", "0"));
+        await(() -> service.getStartupNanos(instrument) > 0);
+        assertEquals(0, book.getQtyAt(instrument.priceToInt(98.0)));
+        assertEquals(0, service.getResyncCount(instrument));
+        assertEquals(1, standIn.getSnapshotRequests());
+        service.close();
+
+        // Updates were missed while down: the restored book is served until a resync completes
+        service = restartedService(dir);
+        standIn.holdSnapshot();
+        service.subscribe(instrument, L2BookType.SPARSE);
+        L2BookView restarted = service.getQuotesL2(instrument);
+        assertTrue(standIn.awaitReceived().contains("/market/level2:ETH-USDT"));
+        standIn.send(update(110, "97.0", "10"));
+        await(() -> standIn.getSnapshotRequests() == 2);
+        assertEquals(105, restarted.getLastSequenceEnd());
+        assertEquals(instrument.qtyToInt(4), restarted.getQtyAt(instrument.priceToInt(99.0)));
+        standIn.releaseSnapshot(snapshot(109, "[[\"100.0\",\"9\"]]", "[[\"100.1\",\"9\"]]"));
+        await(() -> service.getResyncCount(instrument) == 1);
+        assertEquals(110, restarted.getLastSequenceEnd());
+        assertEquals(0, restarted.getQtyAt(instrument.priceToInt(99.0)));
+        assertEquals(instrument.qtyToInt(10), restarted.getQtyAt(instrument.priceToInt(97.0)));
+        assertTrue(service.getStartupNanos(instrument) > 0);
+    }
+
+    /**
+     * A checkpointed service as a new process starts it, with its instruments built anew.
+     */
+    KucMarketDataService restartedService(Path dir) {
+        instrument = instrument.toBuilder().id(-1).build();
+        return checkpointedService(dir);
+    }
+
+    KucMarketDataService checkpointedService(Path dir) {
+        return new KucMarketDataService(new KucRestAdapter(standIn.httpUrl(), standIn.httpUrl()),
+                new KucWebSocketAdapter(standIn.wsUrl(), standIn.wsUrl()), KucMarketDataService.Settings.builder().checkpointDir(dir).build(),
+                new InstrumentRegistry());
+    }
+
+    static String update(long sequence, String bidPrice, String bidSize) {
+        return """
+                {"type":"message","topic":"/market/level2:ETH-USDT","subject":"trade.l2update","data":{"changes":{"asks":[],"bids":[["%s","%s","%d"]]},"sequenceEnd":%d,"sequenceStart":%d,"symbol":"ETH-USDT","time":1663747970273}}"""
+                .formatted(bidPrice, bidSize, sequence, sequence, sequence);
+    }
+
+    static String match(long timeMillis, String side, String price, String size) {
+        return """
+                {"type":"message","topic":"/market/match:ETH-USDT","subject":"trade.l3match","data":{"price":"%s","sequence":"1","side":"%s","size":"%s","symbol":"ETH-USDT","time":"%d","type":"match"}}"""
+                .formatted(price, side, size, timeMillis * 1_000_000);
+    }
+
+    static String order(String subject, long sequence, String fields) {
+        return """
+                {"type":"message","topic":"/spotMarket/level3:ETH-USDT","subject":"%s","data":{%s,"sequence":"%d","symbol":"ETH-USDT","ts":"1663747970273000000"}}"""
+                .formatted(subject, fields, sequence);
+    }
+
+    static String snapshot(long sequence, String bids, String asks) {
+        return """
+                {"code":"200000","data":{"time":1663747970273,"sequence":"%d","bids":%s,"asks":%s}}""".formatted(sequence, bids, asks);
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+}
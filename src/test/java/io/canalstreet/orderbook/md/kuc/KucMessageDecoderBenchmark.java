@@ -0,0 +1,62 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.md.QuotesL2Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the recorded frames as the WebSocket listener hands them over, whole or split
+ * into two parts the way long frames arrive.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KucMessageDecoderBenchmark {
+
+    KucMessageDecoder decoder = new KucMessageDecoder(KucCorpus.topics());
+    QuotesL2Event event = new QuotesL2Event();
+    String[] frames;
+    String[] heads;
+    String[] tails;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<String> corpus = KucCorpus.frames();
+        frames = corpus.toArray(new String[0]);
+        heads = new String[frames.length];
+        tails = new String[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            heads[i] = frames[i].substring(0, frames[i].length() / 2);
+            tails[i] = frames[i].substring(frames[i].length() / 2);
+        }
+    }
+
+    @Benchmark
+    public boolean onText() {
+        String frame = frames[next++ % frames.length];
+        return decoder.onText(frame, true, event);
+    }
+
+    @Benchmark
+    public boolean onTextSplit() {
+        int index = next++ % frames.length;
+        decoder.onText(heads[index], false, event);
+        return decoder.onText(tails[index], true, event);
+    }
+}
@@ -0,0 +1,224 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.OrderAction;
+import io.canalstreet.orderbook.md.QuotesL2Event;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KucMessageDecoderTest {
+
+    static final String DEPTH5 = """
+            {"type":"message","topic":"/spotMarket/level2Depth5:BTC-USDT","subject":"level2","data":{"asks":[["100000.1","0.5"],["100000.2","1.25"]],"bids":[["99999.9","0.001"],["99999.8","1.5"]],"timestamp":1586948108193}}""";
+    static final String L2UPDATE = """
+            {"type":"message","topic":"/spotMarket/level2Depth5:BTC-USDT","subject":"trade.l2update","data":{"changes":{"asks":[["100000.3","0.00331","14103845"]],"bids":[["99999.7","0","14103846"]]},"sequenceEnd":14103846,"sequenceStart":14103845,"symbol":"BTC-USDT","time":1663747970273}}""";
+
+    static final String MATCH = """
+            {"type":"message","topic":"/market/match:BTC-USDT","subject":"trade.l3match","data":{"makerOrderId":"6287c3015c27d000017e6a1b","price":"100000.25","sequence":"1545896669147","side":"sell","size":"0.015","symbol":"BTC-USDT","takerOrderId":"6287c3015c27d000017e6a1c","time":"1663747970273000000","tradeId":"5c24c5da03aa673885cd67aa","type":"match"}}""";
+
+    static String level3(String subject, String fields) {
+        return """
+                {"type":"message","topic":"/spotMarket/level3:BTC-USDT","subject":"%s","data":{%s,"sequence":"1545896669147","symbol":"BTC-USDT","ts":"1663747970273000000"}}"""
+                .formatted(subject, fields);
+    }
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    KucTopicMap<Instrument> topics = new KucTopicMap<>();
+    KucMessageDecoder decoder = new KucMessageDecoder(topics);
+    QuotesL2Event event = new QuotesL2Event();
+
+    {
+        topics.put("/spotMarket/level2Depth5:BTC-USDT", instrument);
+        topics.put("/market/match:BTC-USDT", instrument);
+    }
+
+    @Test
+    public void testDepthSnapshot() {
+        assertTrue(decoder.onText(DEPTH5, true, event));
+        assertSame(instrument, event.getInstrument());
+        assertTrue(event.isSnapshot());
+        assertEquals(1586948108193L, event.getSequenceEnd());
+        assertEquals(2, event.getLevelCount(BID));
+        assertEquals(2, event.getLevelCount(ASK));
+        assertEquals(1_000_001, event.getPrice(ASK, 0));
+        assertEquals(50_000_000, event.getQuantity(ASK, 0));
+        assertEquals(999_998, event.getPrice(BID, 1));
+        assertEquals(150_000_000, event.getQuantity(BID, 1));
+        assertEquals(100_000, event.getQuantity(BID, 0));
+    }
+
+    @Test
+    public void testPartialIncrementalUpdate() {
+        int split = L2UPDATE.length() / 3;
+        assertFalse(decoder.onText(L2UPDATE.subSequence(0, split), false, event));
+        assertFalse(decoder.onText(L2UPDATE.subSequence(split, 2 * split), false, event));
+        assertTrue(decoder.onText(L2UPDATE.subSequence(2 * split, L2UPDATE.length()), true, event));
+        assertFalse(event.isSnapshot());
+        assertEquals(14103845, event.getSequenceStart());
+        assertEquals(14103846, event.getSequenceEnd());
+        assertEquals(1_000_003, event.getPrice(ASK, 0));
+        assertEquals(331_000, event.getQuantity(ASK, 0));
+        assertEquals(14103845, event.getSequence(ASK, 0));
+        assertEquals(0, event.getQuantity(BID, 0));
+        assertEquals(14103846, event.getSequence(BID, 0));
+    }
+
+    @Test
+    public void testLevel3Orders() {
+        topics.put("/spotMarket/level3:BTC-USDT", instrument);
+        assertTrue(decoder.onText(level3("open", "\"orderId\":\"6287c3015c27d000017e6a1b\",\"price\":\"100000.2\",\"side\":\"buy\",\"size\":\"0.5\""), true, event));
+        assertTrue(event.isOrder());
+        assertFalse(event.isTrade());
+        assertEquals(OrderAction.OPEN, event.getOrderAction());
+        assertEquals(BID, event.getOrderSide());
+        assertEquals(1_000_002, event.getOrderPrice());
+        assertEquals(50_000_000, event.getOrderSize());
+        assertEquals(1545896669147L, event.getSequenceStart());
+        assertEquals(1545896669147L, event.getSequenceEnd());
+        assertEquals(1663747970273L, event.getTimestamp());
+        assertEquals(0x6287c301L, event.getOrderIdHigh());
+        assertEquals(0x5c27d000017e6a1bL, event.getOrderIdLow());
+
+        // A level3 match is the maker order's fill, not a trade
+        assertTrue(decoder.onText(level3("match", "\"makerOrderId\":\"6287c3015c27d000017e6a1b\",\"price\":\"100000.2\",\"side\":\"sell\",\"size\":\"0.2\",\"takerOrderId\":\"6287c3015c27d000017e6a1c\""), true, event));
+        assertFalse(event.isTrade());
+        assertEquals(OrderAction.MATCH, event.getOrderAction());
+        assertEquals(0x6287c301L, event.getOrderIdHigh());
+        assertEquals(0x5c27d000017e6a1bL, event.getOrderIdLow());
+        assertEquals(20_000_000, event.getOrderSize());
+
+        assertTrue(decoder.onText(level3("update", "\"orderId\":\"6287c3015c27d000017e6a1b\",\"size\":\"0.1\""), true, event));
+        assertEquals(OrderAction.CHANGE, event.getOrderAction());
+        assertEquals(10_000_000, event.getOrderSize());
+
+        assertTrue(decoder.onText(level3("done", "\"orderId\":\"6287c3015c27d000017e6a1c\",\"reason\":\"canceled\""), true, event));
+        assertEquals(OrderAction.DONE, event.getOrderAction());
+        assertEquals(0x5c27d000017e6a1cL, event.getOrderIdLow());
+
+        // Ids are read exactly, differing in their leading digits only
+        assertTrue(decoder.onText(level3("done", "\"orderId\":\"7287c3015c27d000017e6a1c\""), true, event));
+        assertEquals(0x7287c301L, event.getOrderIdHigh());
+        assertEquals(0x5c27d000017e6a1cL, event.getOrderIdLow());
+        assertTrue(decoder.onText(level3("done", "\"orderId\":\"a1\""), true, event));
+        assertEquals(0, event.getOrderIdHigh());
+        assertEquals(0xa1, event.getOrderIdLow());
+        assertThrows(NumberFormatException.class, () -> decoder.onText(level3("done", "\"orderId\":\"6287c3015c27d000017e6a1c0\""), true, event));
+        assertThrows(NumberFormatException.class, () -> decoder.onText(level3("done", "\"orderId\":\"6287c3015c27d000017e6a1x\""), true, event));
+
+        assertTrue(decoder.onText(level3("received", "\"orderId\":\"6287c3015c27d000017e6a1d\""), true, event));
+        assertEquals(OrderAction.RECEIVED, event.getOrderAction());
+        assertFalse(decoder.onText(level3("unknown", "\"orderId\":\"6287c3015c27d000017e6a1d\""), true, event));
+
+        // The match stream's match stays a trade
+        assertTrue(decoder.onText(MATCH, true, event));
+        assertTrue(event.isTrade());
+        assertFalse(event.isOrder());
+    }
+
+    @Test
+    public void testFuturesChange() {
+        topics.put("/contractMarket/level2:XBTUSDTM", instrument);
+        assertTrue(decoder.onText("""
+                {"subject":"level2","topic":"/contractMarket/level2:XBTUSDTM","type":"message","data":{"sequence":18,"change":"5000.0,sell,83","timestamp":1551770400000}}""", true, event));
+        assertFalse(event.isSnapshot());
+        assertEquals(18, event.getSequenceStart());
+        assertEquals(18, event.getSequenceEnd());
+        assertEquals(1551770400000L, event.getTimestamp());
+        assertEquals(0, event.getLevelCount(BID));
+        assertEquals(1, event.getLevelCount(ASK));
+        assertEquals(50_000, event.getPrice(ASK, 0));
+        assertEquals(8_300_000_000L, event.getQuantity(ASK, 0));
+        assertEquals(18, event.getSequence(ASK, 0));
+
+        // The change last in its data
+        assertTrue(decoder.onText("""
+                {"type":"message","topic":"/contractMarket/level2:XBTUSDTM","data":{"sequence":19,"change":"4999.5,buy,0"}}""", true, event));
+        assertEquals(49_995, event.getPrice(BID, 0));
+        assertEquals(0, event.getQuantity(BID, 0));
+    }
+
+    @Test
+    public void testMatch() {
+        assertTrue(decoder.onText(MATCH, true, event));
+        assertSame(instrument, event.getInstrument());
+        assertTrue(event.isTrade());
+        assertFalse(event.isSnapshot());
+        assertEquals(1_000_003, event.getTradePrice());
+        assertEquals(1_500_000, event.getTradeQuantity());
+        assertEquals(ASK, event.getTakerSide());
+        assertEquals(1663747970273L, event.getTimestamp());
+        assertEquals(0, event.getLevelCount(BID));
+
+        // Futures executions in lots, the subject ahead of the topic
+        topics.put("/contractMarket/execution:XBTUSDTM", instrument);
+        assertTrue(decoder.onText("""
+                {"subject":"match","type":"message","topic":"/contractMarket/execution:XBTUSDTM","data":{"symbol":"XBTUSDTM","sequence":36,"side":"buy","size":3,"price":"100001.1","ts":1663747970273000000}}""", true, event));
+        assertTrue(event.isTrade());
+        assertEquals(BID, event.getTakerSide());
+        assertEquals(1_000_011, event.getTradePrice());
+        assertEquals(300_000_000, event.getTradeQuantity());
+        assertEquals(1663747970273L, event.getTimestamp());
+
+        // The next level2 frame is no trade
+        assertTrue(decoder.onText(L2UPDATE, true, event));
+        assertFalse(event.isTrade());
+    }
+
+    @Test
+    public void testIgnoresControlAndUnknownTopics() {
+        assertFalse(decoder.onText("{\"id\":\"hQvf8jkno\",\"type\":\"welcome\"}", true, event));
+        assertFalse(decoder.onText(DEPTH5.replace("BTC-USDT", "ETH-USDT"), true, event));
+        assertTrue(decoder.onText(DEPTH5, true, event));
+    }
+
+    /**
+     * Sizes beyond a long at the instrument's scale fail the frame instead of wrapping around.
+     */
+    @Test
+    public void testOverflowingSizeRejected() {
+        assertThrows(ArithmeticException.class, () -> decoder.onText(DEPTH5.replace("\"1.25\"", "\"92233720368.54775808\""), true, event));
+        assertThrows(ArithmeticException.class, () -> decoder.onText(DEPTH5.replace("\"1.25\"", "\"92233720368.547758075\""), true, event));
+        assertTrue(decoder.onText(DEPTH5, true, event));
+        assertEquals(125_000_000, event.getQuantity(ASK, 1));
+    }
+
+    /**
+     * Frames cut anywhere inside a string, an array or an object fail as malformed, never reading
+     * on into the rest of the buffer they were decoded from.
+     */
+    @Test
+    public void testTruncatedFrameRejected() {
+        char[] chars = (L2UPDATE + MATCH).toCharArray();
+        for (int cut : new int[]{ L2UPDATE.indexOf("trade.l2update") + 3, L2UPDATE.indexOf("[[") + 1, L2UPDATE.indexOf("\"sequenceEnd\""), L2UPDATE.length() - 1 }) {
+            assertThrows(IllegalStateException.class, () -> decoder.decode(chars, 0, cut, event), "Cut at " + cut);
+        }
+        assertTrue(decoder.decode(chars, 0, L2UPDATE.length(), event));
+        assertEquals(14103846, event.getSequenceEnd());
+    }
+
+    @Test
+    public void testZeroAllocationInSteadyState() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 20_000; i++) {
+            decoder.onText(DEPTH5, true, event);
+            decoder.onText(L2UPDATE, true, event);
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 10_000; i++) {
+            decoder.onText(DEPTH5, true, event);
+            decoder.onText(L2UPDATE, true, event);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertEquals(0, allocated, "Bytes allocated decoding 20000 frames");
+    }
+}
@@ -0,0 +1,106 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.md.L2BookType;
+import org.HdrHistogram.Histogram;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Soak test of the KuCoin feed against the local stand-in: a {@link KucFeedGenerator} pushes
+ * synthetic frames through {@link KucStandIn} into {@link KucRestAdapter},
+ * {@link KucWebSocketAdapter} and {@link KucMarketDataService}, and the sustained frame rates,
+ * resyncs and end to end latency percentiles are reported every second and at the end.
+ * <pre>
+ * java -cp target/test-classes:target/classes:... io.canalstreet.orderbook.md.kuc.KucSoakHarness \
+ *     symbols=2000 rate=50000 seconds=60 shards=2 burst-factor=4 burst-every=10000 burst-millis=1000 \
+ *     gap=0.0001 storm-every=20000 graceful=true depth-share=0.5
+ * </pre>
+ */
+public class KucSoakHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        int shards = Integer.parseInt(options.getOrDefault("shards", "2"));
+        KucFeedGenerator.Settings settings = KucFeedGenerator.Settings.builder()
+                .symbols(Integer.parseInt(options.getOrDefault("symbols", "1000")))
+                .depthShare(Double.parseDouble(options.getOrDefault("depth-share", "0.5")))
+                .rate(Integer.parseInt(options.getOrDefault("rate", "20000")))
+                .burstFactor(Integer.parseInt(options.getOrDefault("burst-factor", "1")))
+                .burstEveryMillis(Long.parseLong(options.getOrDefault("burst-every", "0")))
+                .burstMillis(Long.parseLong(options.getOrDefault("burst-millis", "0")))
+                .gapProbability(Double.parseDouble(options.getOrDefault("gap", "0")))
+                .stormEveryMillis(Long.parseLong(options.getOrDefault("storm-every", "0")))
+                .gracefulStorms(Boolean.parseBoolean(options.getOrDefault("graceful", "true")))
+                .build();
+
+        try (KucStandIn standIn = new KucStandIn()) {
+            KucFeedGenerator generator = new KucFeedGenerator(standIn, settings);
+            KucMarketDataService service = new KucMarketDataService(new KucRestAdapter(standIn.httpUrl(), standIn.httpUrl()),
+                    new KucWebSocketAdapter(standIn.wsUrl(), standIn.wsUrl()), KucMarketDataService.Settings.builder().shards(shards).build(),
+                    new InstrumentRegistry());
+            try {
+                for (L2BookType bookType : L2BookType.values()) {
+                    List<Instrument> instruments = generator.getInstruments(bookType);
+                    if (!instruments.isEmpty()) service.subscribe(instruments, bookType);
+                }
+                service.addListener(generator.latencyListener());
+                long deadline = System.nanoTime() + 30_000_000_000L;
+                while (standIn.getTopicCount() < settings.getSymbols() && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                System.out.printf("%d symbols subscribed on %d connections%n", standIn.getTopicCount(), standIn.getConnectionCount());
+
+                generator.start();
+                long start = System.nanoTime();
+                long lastSent = 0;
+                long lastPublished = 0;
+                for (int second = 1; second <= seconds; second++) {
+                    Thread.sleep(Math.max(0, (start + second * 1_000_000_000L - System.nanoTime()) / 1_000_000));
+                    long sent = generator.getSent();
+                    long published = generator.getPublished();
+                    System.out.printf("%3d s: %,8d frames/s sent, %,8d updates/s published, backlogs %s%n", second,
+                            sent - lastSent, published - lastPublished, Arrays.toString(service.getShardBacklogs()));
+                    lastSent = sent;
+                    lastPublished = published;
+                }
+                generator.close();
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                report(generator, service, elapsed);
+            } finally {
+                generator.close();
+                service.close();
+            }
+        }
+    }
+
+    private static void report(KucFeedGenerator generator, KucMarketDataService service, double seconds) {
+        long resyncs = 0;
+        long conflated = 0;
+        for (KucFeedGenerator.Feed feed : generator.getFeeds()) {
+            resyncs += service.getResyncCount(feed.getInstrument());
+            conflated += service.getConflatedCount(feed.getInstrument());
+        }
+        System.out.printf("Sustained over %.1f s: %,.0f frames/s sent, %,.0f updates/s published%n",
+                seconds, generator.getSent() / seconds, generator.getPublished() / seconds);
+        System.out.printf("Dropped in storms %,d, gaps %,d, storms %d, resyncs %,d, conflated %,d%n",
+                generator.getDropped(), generator.getGaps(), generator.getStorms(), resyncs, conflated);
+        Histogram latency = generator.getLatency();
+        System.out.printf("Send to publish latency us: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f over %,d updates%n",
+                micros(latency, 50), micros(latency, 90), micros(latency, 99), micros(latency, 99.9),
+                latency.getMaxValue() / 1_000.0, latency.getTotalCount());
+    }
+
+    private static double micros(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1_000.0;
+    }
+}
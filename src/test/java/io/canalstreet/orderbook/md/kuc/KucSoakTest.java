@@ -0,0 +1,76 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.md.L2BookType;
+import io.canalstreet.orderbook.md.L2BookView;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static io.canalstreet.orderbook.md.kuc.KucMarketDataServiceTest.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KucSoakTest {
+
+    KucStandIn standIn;
+    KucFeedGenerator generator;
+    KucMarketDataService service;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        standIn = new KucStandIn();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (generator != null) generator.close();
+        if (service != null) service.close();
+        standIn.close();
+    }
+
+    @Test
+    public void testBooksFollowGeneratorThroughGapsAndStorms() throws Exception {
+        generator = new KucFeedGenerator(standIn, KucFeedGenerator.Settings.builder()
+                .symbols(40).rate(4_000).burstFactor(4).burstEveryMillis(400).burstMillis(100)
+                .gapProbability(0.01).stormEveryMillis(700).gracefulStorms(false).build());
+        service = new KucMarketDataService(new KucRestAdapter(standIn.httpUrl(), standIn.httpUrl()),
+                new KucWebSocketAdapter(standIn.wsUrl(), standIn.wsUrl(), 8), KucMarketDataService.Settings.builder().shards(2).build(),
+                new InstrumentRegistry());
+        service.subscribe(generator.getInstruments(L2BookType.RING), L2BookType.RING);
+        service.subscribe(generator.getInstruments(L2BookType.SPARSE), L2BookType.SPARSE);
+        service.addListener(generator.latencyListener());
+        await(() -> standIn.getTopicCount() == 40);
+
+        generator.start();
+        Thread.sleep(1_500);
+        generator.close();
+        assertTrue(generator.getStorms() >= 2);
+        assertTrue(generator.getGaps() > 0);
+
+        // Reconnected and subscribed again, one more frame of every symbol brings the books in line
+        await(() -> standIn.getTopicCount() == 40);
+        generator.sendRound();
+        long resyncs = 0;
+        for (KucFeedGenerator.Feed feed : generator.getFeeds()) {
+            L2BookView book = service.getQuotesL2(feed.getInstrument());
+            if (feed.getBookType() == L2BookType.SPARSE) {
+                await(() -> book.getLastSequenceEnd() == feed.getSequence());
+                assertEquals(feed.getBestBidSize(), book.getBestBidSize());
+                resyncs += service.getResyncCount(feed.getInstrument());
+            } else {
+                // Depth frames carry no sequence, the last one sent is in once both sides are
+                await(() -> book.getBestBid() == feed.getBestBid() && book.getBestAsk() == feed.getBestAsk());
+            }
+            assertEquals(feed.getBestBid(), book.getBestBid());
+            assertEquals(feed.getBestAsk(), book.getBestAsk());
+        }
+        // Initial snapshots of the 20 incremental symbols, then gaps and storms
+        assertTrue(resyncs > 20);
+        assertTrue(standIn.getTokenRequests() > 2);
+        assertTrue(generator.getPublished() > 0);
+        assertTrue(generator.getLatency().getTotalCount() > 0);
+    }
+}
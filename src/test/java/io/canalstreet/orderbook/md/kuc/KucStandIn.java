@@ -0,0 +1,332 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the KuCoin public REST and WebSocket endpoints: serves tokens and
+ * level2 snapshots over HTTP and pushes whatever frames a test sends over bare WebSockets.
+ * Frames go to the connection which subscribed their topic, or to the latest connection.
+ * A {@link KucFeedGenerator} can serve the snapshots and push its frames, buffered per connection.
+ */
+class KucStandIn implements AutoCloseable {
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Pattern TOPIC = Pattern.compile("\"topic\"\\s*:\\s*\"([^\"]*)\"");
+
+    private final HttpServer httpServer;
+    private final ServerSocket wsServer;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final AtomicInteger snapshotRequests = new AtomicInteger();
+    private volatile CountDownLatch snapshotGate = new CountDownLatch(0);
+    private volatile String snapshotBody;
+    private volatile Function<String, String> snapshotSource;
+    private final List<Socket> wsClients = new CopyOnWriteArrayList<>();
+    private final Map<String, Socket> topicClients = new ConcurrentHashMap<>();
+    private final Map<Socket, OutputStream> outputs = new ConcurrentHashMap<>();
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+    private final AtomicInteger tokenFailures = new AtomicInteger();
+    private final AtomicInteger refusedUpgrades = new AtomicInteger();
+
+    KucStandIn() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/api/v1/bullet-public", this::serveToken);
+        httpServer.createContext("/api/v1/market/orderbook/level2_100", this::serveSnapshot);
+        httpServer.createContext("/api/v1/level2/snapshot", this::serveSnapshot);
+        httpServer.setExecutor(executor);
+        httpServer.start();
+        wsServer = new ServerSocket(0);
+        executor.execute(this::acceptWebSocket);
+    }
+
+    String httpUrl() {
+        return "http://localhost:" + httpServer.getAddress().getPort();
+    }
+
+    String wsUrl() {
+        return "ws://localhost:" + wsServer.getLocalPort();
+    }
+
+    /**
+     * Holds snapshot requests until {@link #releaseSnapshot} is called.
+     */
+    void holdSnapshot() {
+        snapshotGate = new CountDownLatch(1);
+    }
+
+    void releaseSnapshot(String body) {
+        snapshotBody = body;
+        snapshotGate.countDown();
+    }
+
+    /**
+     * Serves the snapshot bodies of symbols from the source instead of the released body.
+     */
+    void serveSnapshots(Function<String, String> source) {
+        snapshotSource = source;
+    }
+
+    int getSnapshotRequests() {
+        return snapshotRequests.get();
+    }
+
+    int getTokenRequests() {
+        return tokenRequests.get();
+    }
+
+    /**
+     * Fails the next token requests with a 503.
+     */
+    void failTokens(int requests) {
+        tokenFailures.set(requests);
+    }
+
+    /**
+     * Refuses the next WebSocket handshakes with a 503.
+     */
+    void refuseUpgrades(int handshakes) {
+        refusedUpgrades.set(handshakes);
+    }
+
+    /**
+     * Next text frame sent by the client.
+     */
+    String awaitReceived() throws InterruptedException {
+        return received.poll(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Number of topics subscribed on open connections.
+     */
+    int getTopicCount() {
+        return topicClients.size();
+    }
+
+    int getConnectionCount() {
+        return wsClients.size();
+    }
+
+    synchronized void send(String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        Matcher topic = TOPIC.matcher(text);
+        Socket client = topic.find() ? topicClients.get(topic.group(1)) : null;
+        OutputStream out = output(client != null ? client : wsClients.get(wsClients.size() - 1));
+        writeFrame(out, payload);
+        out.flush();
+    }
+
+    /**
+     * Buffers a text frame for the connection which subscribed the topic, until {@link #flush()}.
+     * @return false if no open connection subscribed the topic, the frame is dropped then
+     */
+    synchronized boolean send(String topic, byte[] payload) {
+        Socket client = topicClients.get(topic);
+        if (client == null || client.isClosed()) return false;
+        try {
+            writeFrame(output(client), payload);
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    synchronized void flush() {
+        for (OutputStream out : outputs.values()) {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                // Dropped by the client, the frames with it
+            }
+        }
+    }
+
+    /**
+     * Drops every WebSocket, with a close frame (going away) or by resetting the socket, as in a
+     * venue side reconnect storm. Frames of their topics are dropped until subscribed again.
+     */
+    synchronized void dropConnections(boolean graceful) {
+        for (Socket client : wsClients) {
+            try {
+                if (graceful) {
+                    OutputStream out = output(client);
+                    out.write(new byte[]{(byte) 0x88, 2, 0x03, (byte) 0xE9});
+                    out.flush();
+                } else {
+                    client.setSoLinger(true, 0);
+                }
+                client.close();
+            } catch (IOException ex) {
+                // Gone already
+            }
+        }
+        wsClients.clear();
+        outputs.clear();
+        topicClients.clear();
+    }
+
+    private OutputStream output(Socket client) throws IOException {
+        OutputStream out = outputs.get(client);
+        if (out == null) {
+            out = new BufferedOutputStream(client.getOutputStream(), 64 * 1024);
+            outputs.put(client, out);
+        }
+        return out;
+    }
+
+    private static void writeFrame(OutputStream out, byte[] payload) throws IOException {
+        out.write(0x81);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else if (payload.length < 1 << 16) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) out.write((int) ((long) payload.length >>> shift));
+        }
+        out.write(payload);
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpServer.stop(0);
+        wsServer.close();
+        for (Socket client : wsClients) client.close();
+        executor.shutdownNow();
+    }
+
+    private void serveToken(HttpExchange exchange) throws IOException {
+        int request = tokenRequests.incrementAndGet();
+        if (tokenFailures.getAndUpdate(failures -> Math.max(failures - 1, 0)) > 0) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        } else {
+            respond(exchange, """
+                    {"code":"200000","data":{"token":"stand-in-token-%d"}}""".formatted(request));
+        }
+    }
+
+    private void serveSnapshot(HttpExchange exchange) throws IOException {
+        snapshotRequests.incrementAndGet();
+        try {
+            snapshotGate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Function<String, String> source = snapshotSource;
+        if (source == null) {
+            respond(exchange, snapshotBody);
+            return;
+        }
+        String query = exchange.getRequestURI().getQuery();
+        String body = query == null ? null : source.apply(query.substring(query.indexOf('=') + 1));
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        } else {
+            respond(exchange, body);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void acceptWebSocket() {
+        try {
+            while (true) {
+                Socket socket = wsServer.accept();
+                executor.execute(() -> serveWebSocket(socket));
+            }
+        } catch (IOException ex) {
+            // Closed by the test
+        }
+    }
+
+    private void serveWebSocket(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            String key = null;
+            for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+                if (line.toLowerCase().startsWith("sec-websocket-key:")) key = line.substring(18).trim();
+            }
+            String accept = Base64.getEncoder().encodeToString(
+                    MessageDigest.getInstance("SHA-1").digest((key + WS_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+            if (refusedUpgrades.getAndUpdate(refusals -> Math.max(refusals - 1, 0)) > 0) {
+                socket.getOutputStream().write("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                socket.close();
+                return;
+            }
+            OutputStream out = output(socket);
+            out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            wsClients.add(socket);
+            readFrames(socket, new DataInputStream(socket.getInputStream()));
+        } catch (Exception ex) {
+            // Closed by the test
+        }
+    }
+
+    /**
+     * Reads the client's masked frames, keeping the text ones.
+     */
+    private void readFrames(Socket socket, DataInputStream in) throws IOException {
+        while (true) {
+            int opcode = in.readUnsignedByte() & 0x0F;
+            int lengthByte = in.readUnsignedByte() & 0x7F;
+            long length = lengthByte == 126 ? in.readUnsignedShort() : lengthByte == 127 ? in.readLong() : lengthByte;
+            byte[] mask = new byte[4];
+            in.readFully(mask);
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+            if (opcode == 0x1) {
+                String text = new String(payload, StandardCharsets.UTF_8);
+                Matcher topic = TOPIC.matcher(text);
+                if (text.contains("\"subscribe\"") && topic.find()) {
+                    String[] prefixAndSymbols = topic.group(1).split(":", 2);
+                    for (String symbol : prefixAndSymbols[1].split(",")) {
+                        topicClients.put(prefixAndSymbols[0] + ":" + symbol, socket);
+                    }
+                }
+                received.add(text);
+            } else if (opcode == 0x8) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.canalstreet.orderbook.md.kuc;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.data.InstrumentRegistry;
+import io.canalstreet.orderbook.md.L2BookType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.canalstreet.orderbook.md.kuc.KucMarketDataServiceTest.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KucWebSocketAdapterTest {
+
+    KucStandIn standIn;
+    KucWebSocketAdapter webSocketAdapter;
+    KucMarketDataService service;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        standIn = new KucStandIn();
+        webSocketAdapter = new KucWebSocketAdapter(standIn.wsUrl(), standIn.wsUrl(), 3);
+        service = new KucMarketDataService(new KucRestAdapter(standIn.httpUrl(), standIn.httpUrl()), webSocketAdapter,
+                KucMarketDataService.Settings.builder().shards(2).build(), new InstrumentRegistry());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        service.close();
+        standIn.close();
+    }
+
+    @Test
+    public void testTopicsPackedOntoShardedConnections() throws Exception {
+        List<Instrument> instruments = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            instruments.add(Instrument.builder().symbol("C" + i + "-USDT").currency("USDT").quantityScale(4).priceScale(1).tickSize(0.1f).pegIndexPrice(100).build());
+        }
+        service.subscribe(instruments, L2BookType.RING);
+
+        // 7 topics at 3 per connection: one multi symbol subscribe per connection
+        List<String> subscribes = List.of(standIn.awaitReceived(), standIn.awaitReceived(), standIn.awaitReceived());
+        assertTrue(subscribes.stream().anyMatch(message -> message.contains("/spotMarket/level2Depth5:C0-USDT,C1-USDT,C2-USDT")));
+        assertTrue(subscribes.stream().anyMatch(message -> message.contains("/spotMarket/level2Depth5:C6-USDT\"")));
+        List<KucConnection> connections = service.getConnections();
+        assertEquals(3, connections.size());
+        assertEquals(3, standIn.getConnectionCount());
+        assertEquals(List.of(3, 3, 1), connections.stream().map(KucConnection::getTopicCount).toList());
+        assertEquals(List.of(0, 1, 0), connections.stream().map(KucConnection::getShard).toList());
+        assertNotEquals(webSocketAdapter.getShard(instruments.get(0)), webSocketAdapter.getShard(instruments.get(3)));
+
+        long timestamp = System.currentTimeMillis() - 50;
+        for (Instrument instrument : instruments) {
+            standIn.send(depth5(instrument.getSymbol(), timestamp));
+        }
+        for (Instrument instrument : instruments) {
+            await(() -> service.getMessageCount(instrument) == 1);
+            assertEquals(instrument.priceToInt(99.9), service.getQuotesL2(instrument).getBestBid());
+            assertTrue(service.getLagMillis(instrument) >= 50);
+        }
+        assertEquals(List.of(3L, 3L, 1L), connections.stream().map(KucConnection::getFrames).toList());
+
+        service.unsubscribe(instruments.get(4));
+        assertTrue(standIn.awaitReceived().contains("\"unsubscribe\", \"topic\":\"/spotMarket/level2Depth5:C4-USDT\""));
+        assertEquals(2, connections.get(1).getTopicCount());
+    }
+
+    @Test
+    public void testMatchTopicsWithinTopicLimit() throws Exception {
+        List<Instrument> instruments = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            instruments.add(Instrument.builder().symbol("C" + i + "-USDT").currency("USDT").quantityScale(4).priceScale(1).tickSize(0.1f).pegIndexPrice(100).build());
+        }
+        service.subscribe(instruments, L2BookType.RING);
+        standIn.awaitReceived();
+        standIn.awaitReceived();
+        service.subscribeTrades(instruments);
+
+        // The first connection is full, its match topics go on a new connection of its shard
+        List<String> subscribes = List.of(standIn.awaitReceived(), standIn.awaitReceived());
+        assertTrue(subscribes.stream().anyMatch(message -> message.contains("/market/match:C0-USDT,C1-USDT,C2-USDT")));
+        assertTrue(subscribes.stream().anyMatch(message -> message.contains("/market/match:C3-USDT\"")));
+        List<KucConnection> connections = service.getConnections();
+        assertEquals(3, standIn.getConnectionCount());
+        assertEquals(List.of(3, 2, 3), connections.stream().map(KucConnection::getTopicCount).toList());
+        assertEquals(List.of(0, 1, 0), connections.stream().map(KucConnection::getShard).toList());
+        for (KucConnection connection : connections) {
+            assertTrue(connection.getTopicCount() <= 3);
+        }
+
+        standIn.send("""
+                {"type":"message","topic":"/market/match:C1-USDT","subject":"trade.l3match","data":{"price":"100.5","sequence":"1","side":"buy","size":"2","symbol":"C1-USDT","time":"%d","type":"match"}}"""
+                .formatted(System.currentTimeMillis() * 1_000_000));
+        await(() -> service.getTradeFlow(instruments.get(1)).getTradeCount() == 1);
+    }
+
+    @Test
+    public void testSnapshotDepthPerInstrument() {
+        Instrument deep = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).snapshotDepth(50).build();
+        assertEquals("/spotMarket/level2Depth50:BTC-USDT", KucWebSocketAdapter.topic(deep, L2BookType.RING));
+        assertEquals("/market/level2:BTC-USDT", KucWebSocketAdapter.topic(deep, L2BookType.SPARSE));
+        assertEquals("/spotMarket/level3:BTC-USDT", KucWebSocketAdapter.topic(deep, L2BookType.L3));
+        assertThrows(IllegalArgumentException.class, () -> KucWebSocketAdapter.topic(deep.toBuilder().snapshotDepth(20).build(), L2BookType.RING));
+    }
+
+    static String depth5(String symbol, long timestamp) {
+        return """
+                {"type":"message","topic":"/spotMarket/level2Depth5:%s","subject":"level2","data":{"asks":[["100.1","1"]],"bids":[["99.9","2"]],"timestamp":%d}}"""
+                .formatted(symbol, timestamp);
+    }
+}
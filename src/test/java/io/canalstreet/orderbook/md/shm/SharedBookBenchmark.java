@@ -0,0 +1,82 @@
+package io.canalstreet.orderbook.md.shm;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.QuotesL2Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+
+/**
+ * Cost of mirroring a top 20 into shared memory on the publish stage, and of a consistent copy
+ * of it by a reader. Run with {@code mvn -Pjmh verify -Djmh.includes=SharedBookBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedBookBenchmark {
+
+    private static final int DEPTH = 20;
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    QuotesL2Book book = new QuotesL2Book(instrument, DEPTH);
+    Path dir;
+    SharedBookWriter writer;
+    SharedBookReader reader;
+    long next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("shared-book");
+        writer = SharedBookWriter.open(dir, instrument, DEPTH);
+        reader = SharedBookReader.open(dir, instrument.getSymbol());
+        for (int i = 1; i <= DEPTH; i++) {
+            book.add(BID, 1_000_000 - i, 100_000_000L * i, i, i);
+            book.add(ASK, 1_000_000 + i, 100_000_000L * i, i, i);
+        }
+        writer.publish(book, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        writer.close();
+        Files.deleteIfExists(SharedBookLayout.path(dir, instrument.getSymbol()));
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * A book update followed by its mirroring.
+     */
+    @Benchmark
+    public long publish() {
+        next++;
+        book.add(BID, 999_999, 1 + (next & 0xFFFF), next, next);
+        writer.publish(book, next);
+        return next;
+    }
+
+    @Benchmark
+    public long read() {
+        return reader.read();
+    }
+}
@@ -0,0 +1,111 @@
+package io.canalstreet.orderbook.md.shm;
+
+import io.canalstreet.orderbook.data.Instrument;
+import io.canalstreet.orderbook.md.QuotesL2SparseBook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static io.canalstreet.orderbook.md.QuoteSide.ASK;
+import static io.canalstreet.orderbook.md.QuoteSide.BID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SharedBookTest {
+
+    Instrument instrument = Instrument.builder().symbol("BTC-USDT").currency("USDT").quantityScale(8).priceScale(1).tickSize(0.1f).pegIndexPrice(100_000).build();
+    QuotesL2SparseBook book = new QuotesL2SparseBook(instrument, 10);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testMirror() throws IOException {
+        assertThrows(IOException.class, () -> SharedBookReader.open(dir, "BTC-USDT"));
+        try (SharedBookWriter writer = SharedBookWriter.open(dir, instrument, 3);
+             SharedBookReader reader = SharedBookReader.open(dir, "BTC-USDT")) {
+            assertEquals(3, reader.getDepth());
+            assertEquals(1, reader.getPriceScale());
+            assertEquals(8, reader.getQuantityScale());
+
+            for (int i = 1; i <= 5; i++) {
+                book.add(BID, 1_000_000 - i, 3_000_000_000L * i, i, i);
+                book.add(ASK, 1_000_000 + i, 100L * i, i, i);
+            }
+            writer.publish(book, 1_700_000_000_000_000L);
+            assertTrue(reader.hasChanged());
+            reader.read();
+            assertFalse(reader.hasChanged());
+            assertEquals(3, reader.getBidCount());
+            assertEquals(3, reader.getAskCount());
+            assertEquals(999_999, reader.getBidPrice(0));
+            assertEquals(3_000_000_000L, reader.getBidQuantity(0));
+            assertEquals(1_000_003, reader.getAskPrice(2));
+            assertEquals(300, reader.getAskQuantity(2));
+            assertEquals(5, reader.getSequence());
+            assertEquals(book.getVersion(), reader.getBookVersion());
+            assertEquals(1_700_000_000_000_000L, reader.getUpdatedMicros());
+
+            // Unchanged books are not copied again
+            writer.publish(book, 1_700_000_000_000_001L);
+            assertFalse(reader.hasChanged());
+
+            book.add(ASK, 1_000_001, 0, 6, 6);
+            book.add(ASK, 1_000_002, 0, 7, 7);
+            book.add(ASK, 1_000_003, 0, 8, 8);
+            writer.publish(book, 1_700_000_000_000_002L);
+            reader.read();
+            assertEquals(2, reader.getAskCount());
+            assertEquals(1_000_004, reader.getAskPrice(0));
+            assertEquals(8, reader.getSequence());
+        }
+
+        // A restarted writer carries on with the mirror the reader had mapped
+        try (SharedBookReader reader = SharedBookReader.open(dir, "BTC-USDT")) {
+            long version = reader.read();
+            try (SharedBookWriter writer = SharedBookWriter.open(dir, instrument, 3)) {
+                book.add(BID, 999_999, 1, 9, 9);
+                writer.publish(book, 1_700_000_000_000_003L);
+            }
+            assertTrue(reader.read() > version);
+            assertEquals(1, reader.getBidQuantity(0));
+        }
+    }
+
+    @Test
+    public void testConsistentCopiesUnderWrites() throws Exception {
+        int updates = 100_000;
+        try (SharedBookWriter writer = SharedBookWriter.open(dir, instrument, 5);
+             SharedBookReader reader = SharedBookReader.open(dir, "BTC-USDT")) {
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= updates; i++) {
+                    for (int level = 1; level <= 5; level++) {
+                        book.add(BID, 1_000_000 - level, i, i, i);
+                        book.add(ASK, 1_000_000 + level, i, i, i);
+                    }
+                    writer.publish(book, i);
+                }
+            });
+            thread.start();
+            long copies = 0;
+            while (thread.isAlive() || reader.hasChanged()) {
+                reader.read();
+                // Every level of a copy was written by the same update
+                long quantity = reader.getBidQuantity(0);
+                for (int level = 0; level < reader.getBidCount(); level++) {
+                    assertEquals(quantity, reader.getBidQuantity(level));
+                    assertEquals(quantity, reader.getAskQuantity(level));
+                }
+                assertEquals(quantity, reader.getSequence());
+                copies++;
+            }
+            thread.join();
+            assertEquals(updates, reader.getSequence());
+            assertTrue(copies > 0);
+        }
+    }
+}